@@ -0,0 +1,179 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions.benchmarks;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.jitsi.xmpp.extensions.*;
+import org.jitsi.xmpp.extensions.colibri.*;
+import org.jitsi.xmpp.extensions.jingle.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/**
+ * Measures copying the extensions of {@link Corpus} which are copied for
+ * every participant (the sources, the transport and the codecs of an offer),
+ * and the lookups and sorting which are done on them, by the number of
+ * endpoints in the conference.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CloneBenchmark
+{
+    /**
+     * The number of endpoints in the conference.
+     */
+    @Param({ "5", "50", "250" })
+    public int endpoints;
+
+    /**
+     * The video description of the offer, with the sources of all the
+     * endpoints.
+     */
+    private RtpDescriptionPacketExtension description;
+
+    /**
+     * The sources of {@link #description}.
+     */
+    private List<SourcePacketExtension> sources;
+
+    /**
+     * The SSRCs of {@link #sources}, in a different order.
+     */
+    private long[] ssrcs;
+
+    /**
+     * The transport of the video content of the offer.
+     */
+    private IceUdpTransportPacketExtension transport;
+
+    /**
+     * The candidates of {@link #transport}, and one of each other type for
+     * each endpoint, in the order in which they are sorted.
+     */
+    private List<CandidatePacketExtension> candidates;
+
+    /**
+     * The statistics of the bridge.
+     */
+    private ColibriStatsExtension stats;
+
+    @Setup
+    public void setUp()
+        throws Exception
+    {
+        ContentPacketExtension content
+            = Corpus.parseSessionInitiate(endpoints).getContentByName("video");
+
+        description
+            = content.getFirstChildOfType(
+                    RtpDescriptionPacketExtension.class);
+        sources
+            = description.getChildExtensionsOfType(
+                    SourcePacketExtension.class);
+        ssrcs = new long[sources.size()];
+        for (int i = 0; i < ssrcs.length; i++)
+        {
+            ssrcs[i] = sources.get(ssrcs.length - 1 - i).getSSRC();
+        }
+        transport
+            = content.getFirstChildOfType(
+                    IceUdpTransportPacketExtension.class);
+        candidates = new ArrayList<>(transport.getCandidateList());
+        for (int i = 0; i < endpoints; i++)
+        {
+            for (CandidatePacketExtension candidate
+                    : transport.getCandidateList())
+            {
+                CandidatePacketExtension copy
+                    = AbstractPacketExtension.clone(candidate);
+
+                copy.setPort(20000 + i);
+                candidates.add(copy);
+            }
+        }
+        Collections.sort(candidates);
+        stats = Corpus.parseStats();
+    }
+
+    @Benchmark
+    public void copySources(Blackhole blackhole)
+    {
+        for (SourcePacketExtension source : sources)
+        {
+            blackhole.consume(source.copy());
+        }
+    }
+
+    @Benchmark
+    public RtpDescriptionPacketExtension deepCloneDescription()
+    {
+        return AbstractPacketExtension.deepClone(description);
+    }
+
+    @Benchmark
+    public IceUdpTransportPacketExtension cloneTransportAndCandidates()
+    {
+        return
+            IceUdpTransportPacketExtension.cloneTransportAndCandidates(
+                    transport,
+                    true);
+    }
+
+    @Benchmark
+    public ColibriStatsExtension cloneStats()
+    {
+        return ColibriStatsExtension.clone(stats);
+    }
+
+    @Benchmark
+    public List<CandidatePacketExtension> sortCandidates()
+    {
+        List<CandidatePacketExtension> sorted = new ArrayList<>(candidates);
+
+        Collections.reverse(sorted);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Looks every SSRC of the description up among its sources, which is
+     * quadratic in the number of sources.
+     */
+    @Benchmark
+    public int lookUpSources()
+    {
+        int found = 0;
+
+        for (long ssrc : ssrcs)
+        {
+            for (SourcePacketExtension source : sources)
+            {
+                if (source.getSSRC() == ssrc)
+                {
+                    found++;
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+}
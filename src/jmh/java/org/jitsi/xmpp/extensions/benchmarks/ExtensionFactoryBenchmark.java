@@ -0,0 +1,186 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions.benchmarks;
+
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import org.jitsi.xmpp.extensions.*;
+import org.jitsi.xmpp.extensions.colibri.*;
+import org.jitsi.xmpp.extensions.jingle.*;
+import org.jitsi.xmpp.extensions.jitsimeet.*;
+import org.jivesoftware.smack.packet.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the ways in which {@link DefaultPacketExtensionProvider} can
+ * create the extensions it parses, on the Jingle offer of {@link Corpus}:
+ * <ul>
+ * <li><tt>reference</tt>: constructor references, as the Jingle and Colibri
+ * providers register them;</li>
+ * <li><tt>class</tt>: a <tt>Class</tt>, whose constructor the provider looks
+ * up once;</li>
+ * <li><tt>lookup</tt>: a constructor looked up for every element, which is
+ * what the provider used to do.</li>
+ * </ul>
+ * The providers of the elements of the offer are registered anew in each
+ * fork, so that every element goes through the same kind of factory.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExtensionFactoryBenchmark
+{
+    /**
+     * How the providers create extensions.
+     */
+    @Param({ "reference", "class", "lookup" })
+    public String factory;
+
+    /**
+     * The number of endpoints in the conference of the offer.
+     */
+    @Param({ "10", "100" })
+    public int endpoints;
+
+    /**
+     * The provider of Jingle IQs.
+     */
+    private JingleIQProvider provider;
+
+    /**
+     * The offer.
+     */
+    private String sessionInitiate;
+
+    @Setup
+    public void setUp()
+    {
+        // Registers the providers with constructor references, some of which
+        // are replaced below.
+        provider = new JingleIQProvider();
+        sessionInitiate = Corpus.jingleSessionInitiate(endpoints);
+
+        register(
+                RtpDescriptionPacketExtension.ELEMENT,
+                RtpDescriptionPacketExtension.NAMESPACE,
+                RtpDescriptionPacketExtension.class,
+                RtpDescriptionPacketExtension::new);
+        register(
+                PayloadTypePacketExtension.ELEMENT,
+                RtpDescriptionPacketExtension.NAMESPACE,
+                PayloadTypePacketExtension.class,
+                PayloadTypePacketExtension::new);
+        register(
+                ParameterPacketExtension.ELEMENT,
+                RtpDescriptionPacketExtension.NAMESPACE,
+                ParameterPacketExtension.class,
+                ParameterPacketExtension::new);
+        register(
+                RtcpFbPacketExtension.ELEMENT,
+                RtcpFbPacketExtension.NAMESPACE,
+                RtcpFbPacketExtension.class,
+                RtcpFbPacketExtension::new);
+        register(
+                RTPHdrExtPacketExtension.ELEMENT,
+                RTPHdrExtPacketExtension.NAMESPACE,
+                RTPHdrExtPacketExtension.class,
+                RTPHdrExtPacketExtension::new);
+        register(
+                SourcePacketExtension.ELEMENT,
+                SourcePacketExtension.NAMESPACE,
+                SourcePacketExtension.class,
+                SourcePacketExtension::new);
+        register(
+                ParameterPacketExtension.ELEMENT,
+                SourcePacketExtension.NAMESPACE,
+                ParameterPacketExtension.class,
+                ParameterPacketExtension::new);
+        register(
+                SSRCInfoPacketExtension.ELEMENT,
+                SSRCInfoPacketExtension.NAMESPACE,
+                SSRCInfoPacketExtension.class,
+                SSRCInfoPacketExtension::new);
+        register(
+                IceUdpTransportPacketExtension.ELEMENT,
+                IceUdpTransportPacketExtension.NAMESPACE,
+                IceUdpTransportPacketExtension.class,
+                IceUdpTransportPacketExtension::new);
+        register(
+                CandidatePacketExtension.ELEMENT,
+                IceUdpTransportPacketExtension.NAMESPACE,
+                CandidatePacketExtension.class,
+                CandidatePacketExtension::new);
+        register(
+                DtlsFingerprintPacketExtension.ELEMENT,
+                DtlsFingerprintPacketExtension.NAMESPACE,
+                DtlsFingerprintPacketExtension.class,
+                DtlsFingerprintPacketExtension::new);
+    }
+
+    /**
+     * Registers the provider of an element with the kind of factory which
+     * {@link #factory} names.
+     */
+    private <C extends AbstractPacketExtension> void register(
+            String elementName,
+            String namespace,
+            Class<C> c,
+            Supplier<C> reference)
+    {
+        DefaultPacketExtensionProvider<C> provider;
+
+        switch (factory)
+        {
+        case "reference":
+            provider = new DefaultPacketExtensionProvider<>(reference);
+            break;
+        case "class":
+            provider = new DefaultPacketExtensionProvider<>(c);
+            break;
+        case "lookup":
+            provider
+                = new DefaultPacketExtensionProvider<>(
+                        () -> {
+                            try
+                            {
+                                return c.getConstructor().newInstance();
+                            }
+                            catch (ReflectiveOperationException e)
+                            {
+                                throw new IllegalStateException(e);
+                            }
+                        });
+            break;
+        default:
+            throw new IllegalArgumentException(factory);
+        }
+        ExtensionProviderCache.addExtensionProvider(
+                elementName,
+                namespace,
+                provider);
+    }
+
+    @Benchmark
+    public IQ parseSessionInitiate()
+        throws Exception
+    {
+        return provider.parse(Corpus.parser(sessionInitiate));
+    }
+}
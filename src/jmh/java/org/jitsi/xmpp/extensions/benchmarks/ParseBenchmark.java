@@ -0,0 +1,193 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions.benchmarks;
+
+import java.util.concurrent.*;
+
+import org.jitsi.xmpp.extensions.*;
+import org.jitsi.xmpp.extensions.colibri.*;
+import org.jitsi.xmpp.extensions.jingle.*;
+import org.jitsi.xmpp.extensions.jitsimeet.*;
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smack.util.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures parsing the stanzas of {@link Corpus} through the providers which
+ * Jicofo and Jitsi Videobridge register. Run with <tt>-prof gc</tt> (the
+ * default of the <tt>benchmarks</tt> profile) to see the allocations per
+ * stanza (<tt>gc.alloc.rate.norm</tt>) along with the throughput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark
+{
+    /**
+     * The providers, registered once per fork.
+     */
+    @State(Scope.Benchmark)
+    public static class Providers
+    {
+        /**
+         * The provider of Jingle IQs.
+         */
+        JingleIQProvider jingle;
+
+        /**
+         * The provider of Colibri IQs.
+         */
+        ColibriIQProvider colibri;
+
+        @Setup
+        public void setUp()
+        {
+            jingle = new JingleIQProvider();
+            colibri = new ColibriIQProvider();
+
+            // The extensions of the presence of a participant.
+            ExtensionProviderCache.addExtensionProvider(
+                    AudioMutedExtension.ELEMENT,
+                    AudioMutedExtension.NAMESPACE,
+                    new DefaultPacketExtensionProvider<>(
+                            AudioMutedExtension::new));
+            ExtensionProviderCache.addExtensionProvider(
+                    VideoMutedExtension.ELEMENT,
+                    VideoMutedExtension.NAMESPACE,
+                    new DefaultPacketExtensionProvider<>(
+                            VideoMutedExtension::new));
+            ExtensionProviderCache.addExtensionProvider(
+                    RegionPacketExtension.ELEMENT,
+                    RegionPacketExtension.NAMESPACE,
+                    new DefaultPacketExtensionProvider<>(
+                            RegionPacketExtension::new));
+            ExtensionProviderCache.addExtensionProvider(
+                    FeaturesExtension.ELEMENT,
+                    FeaturesExtension.NAMESPACE,
+                    new DefaultPacketExtensionProvider<>(
+                            FeaturesExtension::new));
+            ExtensionProviderCache.addExtensionProvider(
+                    FeatureExtension.ELEMENT,
+                    FeatureExtension.NAMESPACE,
+                    new DefaultPacketExtensionProvider<>(
+                            FeatureExtension::new));
+            ExtensionProviderCache.addExtensionProvider(
+                    UserInfoPacketExt.ELEMENT,
+                    UserInfoPacketExt.NAMESPACE,
+                    new DefaultPacketExtensionProvider<>(
+                            UserInfoPacketExt::new));
+            ExtensionProviderCache.addExtensionProvider(
+                    StatsId.ELEMENT,
+                    StatsId.NAMESPACE,
+                    new StatsId.Provider());
+            ExtensionProviderCache.addExtensionProvider(
+                    AvatarUrl.ELEMENT,
+                    AvatarUrl.NAMESPACE,
+                    new AvatarUrl.Provider());
+            ExtensionProviderCache.addExtensionProvider(
+                    Email.ELEMENT,
+                    Email.NAMESPACE,
+                    new Email.Provider());
+        }
+    }
+
+    /**
+     * The stanzas whose size depends on the size of the conference.
+     */
+    @State(Scope.Benchmark)
+    public static class Conference
+    {
+        /**
+         * The number of endpoints in the conference.
+         */
+        @Param({ "2", "10", "50", "100" })
+        public int endpoints;
+
+        /**
+         * The <tt>session-initiate</tt> which a participant receives.
+         */
+        String sessionInitiate;
+
+        /**
+         * The response of the bridge to the allocation of channels for all
+         * the endpoints.
+         */
+        String allocateResponse;
+
+        @Setup
+        public void setUp()
+        {
+            sessionInitiate = Corpus.jingleSessionInitiate(endpoints);
+            allocateResponse = Corpus.colibriAllocateResponse(endpoints);
+        }
+    }
+
+    /**
+     * The stanzas whose size does not depend on the size of a conference.
+     */
+    @State(Scope.Benchmark)
+    public static class Stanzas
+    {
+        /**
+         * The statistics of the bridge.
+         */
+        final String stats = Corpus.colibriStats();
+
+        /**
+         * The presence of a participant.
+         */
+        final String presence = Corpus.mucPresence();
+    }
+
+    @Benchmark
+    public IQ parseJingleSessionInitiate(
+            Providers providers,
+            Conference conference)
+        throws Exception
+    {
+        return
+            providers.jingle.parse(
+                    Corpus.parser(conference.sessionInitiate));
+    }
+
+    @Benchmark
+    public IQ parseColibriAllocateResponse(
+            Providers providers,
+            Conference conference)
+        throws Exception
+    {
+        return
+            providers.colibri.parse(
+                    Corpus.parser(conference.allocateResponse));
+    }
+
+    @Benchmark
+    public IQ parseColibriStats(Providers providers, Stanzas stanzas)
+        throws Exception
+    {
+        return providers.colibri.parse(Corpus.parser(stanzas.stats));
+    }
+
+    @Benchmark
+    public Presence parseMucPresence(Providers providers, Stanzas stanzas)
+        throws Exception
+    {
+        return PacketParserUtils.parsePresence(
+                Corpus.parser(stanzas.presence));
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions.benchmarks;
+
+import java.util.concurrent.*;
+
+import org.jitsi.xmpp.extensions.*;
+import org.jitsi.xmpp.extensions.colibri.*;
+import org.jitsi.xmpp.extensions.jingle.*;
+import org.jivesoftware.smack.packet.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures serializing the stanzas of {@link Corpus}, by the number of
+ * endpoints in the conference so that growth which is worse than linear
+ * shows. Also compares the XML of the video content of the offer and of the
+ * allocation response with their {@link ExtensionCodec} encodings, both
+ * ways. The XML of an extension is cached until it changes, so the content
+ * is changed before it is written to compare the two.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializeBenchmark
+{
+    /**
+     * The number of endpoints in the conference. The allocation response
+     * has two channels per endpoint.
+     */
+    @Param({ "5", "50", "250" })
+    public int endpoints;
+
+    /**
+     * The offer which a participant receives.
+     */
+    private JingleIQ sessionInitiate;
+
+    /**
+     * The response of the bridge to the allocation of channels for all the
+     * endpoints.
+     */
+    private ColibriConferenceIQ allocateResponse;
+
+    /**
+     * The XML of {@link #allocateResponse}.
+     */
+    private String allocateResponseXml;
+
+    /**
+     * The {@link ExtensionCodec} encoding of {@link #allocateResponse}.
+     */
+    private byte[] allocateResponseBytes;
+
+    /**
+     * The provider which parses {@link #allocateResponseXml}, and which has
+     * registered the codec of {@link #allocateResponse}.
+     */
+    private ColibriIQProvider colibriProvider;
+
+    /**
+     * The video description of {@link #sessionInitiate}.
+     */
+    private RtpDescriptionPacketExtension description;
+
+    /**
+     * The video content of {@link #sessionInitiate}.
+     */
+    private ContentPacketExtension content;
+
+    /**
+     * The XML of {@link #content}.
+     */
+    private String contentXml;
+
+    /**
+     * The {@link ExtensionCodec} encoding of {@link #content}.
+     */
+    private byte[] contentBytes;
+
+    /**
+     * The provider which parses {@link #contentXml}.
+     */
+    private DefaultPacketExtensionProvider<ContentPacketExtension>
+        contentProvider;
+
+    @Setup
+    public void setUp()
+        throws Exception
+    {
+        sessionInitiate = Corpus.parseSessionInitiate(endpoints);
+        allocateResponse = Corpus.parseAllocateResponse(endpoints);
+        allocateResponseXml = Corpus.colibriAllocateResponse(endpoints);
+        colibriProvider = new ColibriIQProvider();
+        allocateResponseBytes = ExtensionCodec.encode(allocateResponse);
+        content = sessionInitiate.getContentByName("video");
+        description
+            = content.getFirstChildOfType(
+                    RtpDescriptionPacketExtension.class);
+        contentXml = content.toXML(XmlEnvironment.EMPTY);
+        contentBytes = ExtensionCodec.encode(content);
+        contentProvider
+            = new DefaultPacketExtensionProvider<>(
+                    ContentPacketExtension::new);
+    }
+
+    @Benchmark
+    public String jingleToXML()
+    {
+        return sessionInitiate.toXML().toString();
+    }
+
+    @Benchmark
+    public String colibriChildElementXML()
+    {
+        return allocateResponse.getChildElementXML().toString();
+    }
+
+    @Benchmark
+    public StringBuilder colibriToAppendable()
+        throws Exception
+    {
+        StringBuilder out = new StringBuilder();
+
+        allocateResponse.appendChildElementXML(out);
+        return out;
+    }
+
+    @Benchmark
+    public String descriptionToXML()
+    {
+        return description.toXML(XmlEnvironment.EMPTY);
+    }
+
+    @Benchmark
+    public StringBuilder descriptionToAppendable()
+        throws Exception
+    {
+        StringBuilder out = new StringBuilder();
+
+        description.toXML(out, XmlEnvironment.EMPTY);
+        return out;
+    }
+
+    @Benchmark
+    public String contentToXML()
+    {
+        return content.toXML(XmlEnvironment.EMPTY);
+    }
+
+    @Benchmark
+    public String contentToChangedXML()
+    {
+        touchContent();
+        return content.toXML(XmlEnvironment.EMPTY);
+    }
+
+    @Benchmark
+    public byte[] contentEncode()
+    {
+        touchContent();
+        return ExtensionCodec.encode(content);
+    }
+
+    /**
+     * Changes {@link #content}, and changes it back, so that its XML is
+     * written again rather than returned from the cache.
+     */
+    private void touchContent()
+    {
+        content.setAttribute("touched", "true");
+        content.removeAttribute("touched");
+    }
+
+    @Benchmark
+    public ContentPacketExtension contentParse()
+        throws Exception
+    {
+        return contentProvider.parse(Corpus.parser(contentXml));
+    }
+
+    @Benchmark
+    public ExtensionElement contentDecode()
+        throws Exception
+    {
+        return ExtensionCodec.decode(contentBytes);
+    }
+
+    @Benchmark
+    public byte[] colibriEncode()
+    {
+        return ExtensionCodec.encode(allocateResponse);
+    }
+
+    @Benchmark
+    public IQ colibriParse()
+        throws Exception
+    {
+        return colibriProvider.parse(Corpus.parser(allocateResponseXml));
+    }
+
+    @Benchmark
+    public IQ colibriDecode()
+        throws Exception
+    {
+        return ExtensionCodec.decodeIQ(allocateResponseBytes);
+    }
+}
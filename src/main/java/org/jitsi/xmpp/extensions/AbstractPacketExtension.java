@@ -15,12 +15,18 @@
  */
 package org.jitsi.xmpp.extensions;
 
+import java.io.*;
 import java.lang.reflect.*;
 import java.net.*;
+import java.nio.*;
 import java.util.*;
 import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 
 import org.apache.commons.lang3.StringUtils;
+import org.jitsi.xmpp.extensions.schema.*;
 import org.jivesoftware.smack.packet.*;
 import org.jivesoftware.smack.util.*;
 
@@ -56,17 +62,24 @@ public abstract class AbstractPacketExtension
         T dst = null;
         try
         {
-            dst = (T) src.getClass().getConstructor().newInstance();
+            dst = (T) CONSTRUCTORS.get(src.getClass()).newInstance();
         }
-        catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException e)
+        catch (InstantiationException | IllegalAccessException | InvocationTargetException e)
         {
             throw new RuntimeException(e);
         }
 
-        // attributes
-        for (String name : src.getAttributeNames())
+        // attributes (the stored values are immutable, so they can be shared)
+        if (src.isFrozen())
         {
-            dst.setAttribute(name, src.getAttribute(name));
+            dst.attributes.putAll(src.attributes);
+        }
+        else
+        {
+            synchronized (src.attributes)
+            {
+                dst.attributes.putAll(src.attributes);
+            }
         }
         // namespace
         dst.setNamespace(src.getNamespace());
@@ -76,6 +89,268 @@ public abstract class AbstractPacketExtension
         return dst;
     }
 
+    /**
+     * Creates a deep copy of a specific extension, which shares the frozen
+     * subtrees of the original rather than copying them.
+     * <p>
+     * The copy is created like the parser would create it: an instance of the
+     * same run-time type is initialized by its public no-argument constructor,
+     * given the attributes, namespace and text of <tt>src</tt> and then, through
+     * {@link #addChildExtension(ExtensionElement)}, a copy of each of the child
+     * extensions of <tt>src</tt>. Child extensions which are not
+     * <tt>AbstractPacketExtension</tt>s are considered immutable and shared.
+     * Finally, {@link #copyStateTo(AbstractPacketExtension)} copies whatever
+     * other state <tt>src</tt> keeps.
+     * <p>
+     * Since frozen extensions (see {@link #freeze()}) cannot change, they are
+     * shared with the copy along with their descendants (and, since they are
+     * frozen, with their serialized XML). Copying a frozen template, as
+     * {@link org.jitsi.xmpp.extensions.colibri.ColibriBuilder} does for every
+     * endpoint, thus only creates its root. Changing a shared descendant of the
+     * copy requires replacing it with a <tt>deepClone</tt> of it, which copies
+     * the path to the change and nothing more.
+     *
+     * @param src the extension to copy.
+     * @param <T> the type of <tt>src</tt>.
+     * @return a copy of <tt>src</tt> which is not frozen (even if <tt>src</tt>
+     * is), or <tt>src</tt> itself if it is not an
+     * <tt>AbstractPacketExtension</tt>.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends ExtensionElement> T deepClone(T src)
+    {
+        if (!(src instanceof AbstractPacketExtension))
+        {
+            return src;
+        }
+
+        AbstractPacketExtension ape = (AbstractPacketExtension) src;
+        AbstractPacketExtension dst = clone(ape);
+
+        for (ExtensionElement childExtension : ape.getChildExtensionsArray())
+        {
+            if (childExtension != null)
+            {
+                dst.addChildExtension(deepCloneOrShare(childExtension));
+            }
+        }
+        ape.copyStateTo(dst);
+
+        return (T) dst;
+    }
+
+    /**
+     * Returns an extension which a deep copy of another extension can use in
+     * place of a specific child extension of the original.
+     *
+     * @param childExtension the child extension of the original.
+     * @param <T> the type of <tt>childExtension</tt>.
+     * @return <tt>childExtension</tt> itself if it is frozen or not an
+     * <tt>AbstractPacketExtension</tt>, or a deep copy of it otherwise.
+     */
+    protected static <T extends ExtensionElement> T deepCloneOrShare(
+            T childExtension)
+    {
+        return childExtension instanceof AbstractPacketExtension
+                && !((AbstractPacketExtension) childExtension).isFrozen()
+            ? deepClone(childExtension)
+            : childExtension;
+    }
+
+    /**
+     * Caches the public no-argument constructor of each type of extension,
+     * which {@link #clone(AbstractPacketExtension)} uses.
+     */
+    private static final ClassValue<Constructor<?>> CONSTRUCTORS
+        = new ClassValue<Constructor<?>>()
+        {
+            @Override
+            protected Constructor<?> computeValue(Class<?> type)
+            {
+                try
+                {
+                    return type.getConstructor();
+                }
+                catch (NoSuchMethodException e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+
+    /**
+     * The attribute serializers generated for the types of extensions which
+     * are annotated with {@link XmlExtension}, or <tt>null</tt> for the other
+     * types (including the subclasses of the annotated ones, which may
+     * declare other attributes).
+     */
+    private static final ClassValue<AttributeSerializer> SERIALIZERS
+        = new ClassValue<AttributeSerializer>()
+        {
+            @Override
+            protected AttributeSerializer computeValue(Class<?> type)
+            {
+                if (!type.isAnnotationPresent(XmlExtension.class))
+                {
+                    return null;
+                }
+                try
+                {
+                    return
+                        (AttributeSerializer)
+                            Class.forName(
+                                    type.getName() + "Serializer",
+                                    true,
+                                    type.getClassLoader())
+                                .getConstructor()
+                                .newInstance();
+                }
+                catch (ReflectiveOperationException e)
+                {
+                    throw new IllegalStateException(
+                            "No serializer generated for " + type.getName(),
+                            e);
+                }
+            }
+        };
+
+    /**
+     * The types of the attributes other than strings which the types of
+     * extensions (or their superclasses) declare with {@link XmlExtension},
+     * by name.
+     */
+    private static final ClassValue<Map<String, Class<?>>> ATTRIBUTE_TYPES
+        = new ClassValue<Map<String, Class<?>>>()
+        {
+            @Override
+            protected Map<String, Class<?>> computeValue(Class<?> type)
+            {
+                Map<String, Class<?>> types = new HashMap<>();
+
+                for (Class<?> c = type; c != null; c = c.getSuperclass())
+                {
+                    XmlExtension schema = c.getAnnotation(XmlExtension.class);
+
+                    if (schema == null)
+                    {
+                        continue;
+                    }
+                    for (XmlAttribute attribute : schema.attributes())
+                    {
+                        if (attribute.type() != String.class)
+                        {
+                            types.putIfAbsent(
+                                    attribute.name(),
+                                    attribute.type());
+                        }
+                    }
+                }
+                return types.isEmpty() ? Collections.emptyMap() : types;
+            }
+        };
+
+    /**
+     * Remembers, for each type of extension, whether it overrides
+     * {@link #toXML(XmlEnvironment)}.
+     */
+    private static final ClassValue<Boolean> OVERRIDES_TO_XML
+        = new ClassValue<Boolean>()
+        {
+            @Override
+            protected Boolean computeValue(Class<?> type)
+            {
+                return isOverridden(type, "toXML", XmlEnvironment.class);
+            }
+        };
+
+    /**
+     * Remembers, for each type of extension, whether it overrides
+     * {@link #getChildExtensions()}.
+     */
+    private static final ClassValue<Boolean> OVERRIDES_CHILD_EXTENSIONS
+        = new ClassValue<Boolean>()
+        {
+            @Override
+            protected Boolean computeValue(Class<?> type)
+            {
+                return isOverridden(type, "getChildExtensions");
+            }
+        };
+
+    /**
+     * Remembers, for each type of extension, whether it overrides
+     * {@link #removeChildExtension(ExtensionElement)} but not
+     * {@link #removeChildExtensions(Collection)}, which then has to remove
+     * the child extensions which it keeps elsewhere one by one.
+     */
+    private static final ClassValue<Boolean> REMOVES_ONE_BY_ONE
+        = new ClassValue<Boolean>()
+        {
+            @Override
+            protected Boolean computeValue(Class<?> type)
+            {
+                try
+                {
+                    Class<?> one
+                        = type.getMethod(
+                                    "removeChildExtension",
+                                    ExtensionElement.class)
+                                .getDeclaringClass();
+                    Class<?> many
+                        = type.getMethod(
+                                    "removeChildExtensions",
+                                    Collection.class)
+                                .getDeclaringClass();
+
+                    return one != many && many.isAssignableFrom(one);
+                }
+                catch (NoSuchMethodException nsme)
+                {
+                    return true;
+                }
+            }
+        };
+
+    /**
+     * Remembers, for each type of extension, whether it overrides
+     * {@link #getChildElementBuilder()}.
+     */
+    private static final ClassValue<Boolean> OVERRIDES_CHILD_ELEMENT_BUILDER
+        = new ClassValue<Boolean>()
+        {
+            @Override
+            protected Boolean computeValue(Class<?> type)
+            {
+                return isOverridden(type, "getChildElementBuilder");
+            }
+        };
+
+    /**
+     * Checks whether a specific type overrides a public method of
+     * <tt>AbstractPacketExtension</tt>.
+     *
+     * @param type the type to check.
+     * @param name the name of the method.
+     * @param parameterTypes the parameter types of the method.
+     * @return <tt>true</tt> if the method is declared by a class other than
+     * <tt>AbstractPacketExtension</tt>.
+     */
+    private static boolean isOverridden(
+            Class<?> type,
+            String name,
+            Class<?>... parameterTypes)
+    {
+        try
+        {
+            return type.getMethod(name, parameterTypes).getDeclaringClass()
+                != AbstractPacketExtension.class;
+        }
+        catch (NoSuchMethodException nsme)
+        {
+            return true;
+        }
+    }
+
     /**
      * The name space of this packet extension. Should remain <tt>null</tt> if
      * there's no namespace associated with this element.
@@ -89,10 +364,12 @@ public abstract class AbstractPacketExtension
     private final String elementName;
 
     /**
-     * A map of all attributes that this extension is currently using.
+     * A map of all attributes that this extension is currently using, in the
+     * order in which they were set. It is an {@link AttributeMap}, which
+     * {@link #getAttributeMap()} returns as such; the field keeps the type
+     * <tt>Map</tt> so that subclasses compiled against it keep linking.
      */
-    protected final Map<String, Object> attributes
-        = new LinkedHashMap<String, Object>();
+    protected final Map<String, Object> attributes = new AttributeMap(this);
 
     /**
      * The text content of this packet extension, if any.
@@ -100,10 +377,56 @@ public abstract class AbstractPacketExtension
     private String textContent;
 
     /**
-     * A list of extensions registered with this element.
+     * Whether this extension has been made read-only by {@link #freeze()}.
+     * Once it is <tt>true</tt>, the attributes and the child extensions no
+     * longer change, so they are read without locking.
+     */
+    private volatile boolean frozen;
+
+    /**
+     * A list of extensions registered with this element. It is copied on
+     * write, so it is read without locking.
+     */
+    private final ChildExtensionList childExtensions
+                                = new ChildExtensionList();
+
+    /**
+     * An unmodifiable view of {@link #childExtensions}, created on first use.
+     */
+    private List<ExtensionElement> unmodifiableChildExtensions;
+
+    /**
+     * Updates {@link #version}.
+     */
+    private static final AtomicIntegerFieldUpdater<AbstractPacketExtension>
+        VERSION
+            = AtomicIntegerFieldUpdater.newUpdater(
+                    AbstractPacketExtension.class,
+                    "version");
+
+    /**
+     * Counts the changes to the namespace, attributes, text and child
+     * extensions of this extension, but not those of its descendants. A
+     * cached XML (see {@link #cachedXml}) is current as long as the versions
+     * of the extensions which it covers, read from the top down, are those
+     * which it was serialized at.
+     */
+    private volatile int version;
+
+    /**
+     * The XML of this extension as last serialized by
+     * {@link #toXML(XmlEnvironment)} called on it or, if it is frozen, as part
+     * of an extension which is not, or <tt>null</tt> if it has not been
+     * cached. The descendants of an extension which is not frozen do not
+     * cache their XML, so a tree keeps a single copy of it.
      */
-    private final List<ExtensionElement> childExtensions
-                                = new ArrayList<>();
+    private volatile CachedXml cachedXml;
+
+    /**
+     * The structural hash of this extension as last computed, or
+     * <tt>null</tt> if it has never been computed.
+     */
+    private volatile StructuralHash structuralHash;
 
     /**
      * Creates an {@link AbstractPacketExtension} instance for the specified
@@ -135,7 +458,9 @@ public abstract class AbstractPacketExtension
      */
     public void setNamespace(String namespace)
     {
+        checkNotFrozen();
         this.namespace = namespace;
+        modified();
     }
 
     /**
@@ -151,406 +476,2866 @@ public abstract class AbstractPacketExtension
     }
 
     /**
-     * Returns an XML representation of this extension.
-     *
-     * @return an XML representation of this extension.
+     * Makes this extension and, recursively, all of its child extensions
+     * read-only. Attempts to modify a frozen extension fail with an
+     * {@link IllegalStateException}, and reads no longer lock, so a frozen
+     * tree can be shared between threads without copying it. Freezing cannot
+     * be undone; use {@link #clone(AbstractPacketExtension)} to obtain a
+     * modifiable copy.
+     * <p>
+     * Extensions which keep child extensions outside of
+     * {@link #getChildExtensions()} or have other mutable state should
+     * override this method to make that state read-only as well, and call
+     * {@link #checkNotFrozen()} from their mutators.
      */
-    public String toXML(XmlEnvironment enclosingNamespace)
+    public void freeze()
     {
-        XmlStringBuilder xml = new XmlStringBuilder(this, enclosingNamespace);
-
-        //add the rest of the attributes if any
-        for (Map.Entry<String, Object> entry : attributes.entrySet())
+        if (frozen)
         {
-            Object value = entry.getValue();
-
-            if (value != null)
-            {
-                xml.attribute(entry.getKey(), value.toString());
-            }
+            return;
         }
 
-        //add child elements if any
-        List<? extends ExtensionElement> childElements = getChildExtensions();
-        String text = getText();
-        XmlStringBuilder childBuilder = getChildElementBuilder();
-
-        if (childElements.isEmpty() && childBuilder.length() == 0)
+        // Take both locks, so that mutations in progress complete before and
+        // any that follow see that we are frozen.
+        synchronized (childExtensions)
         {
-            if (StringUtils.isEmpty(text))
+            synchronized (attributes)
             {
-                return xml.closeEmptyElement().toString();
-            }
-            else
-            {
-                xml.rightAngleBracket();
+                frozen = true;
+                // The XML of a frozen extension is no longer checked from the
+                // top down (see CachedXml), so the XML cached by its ancestors
+                // while it was not frozen must not be current anymore.
+                modified();
             }
         }
-        else
+
+        for (ExtensionElement childExtension : getChildExtensions())
         {
-            synchronized(childElements)
+            if (childExtension instanceof AbstractPacketExtension)
             {
-                xml.rightAngleBracket();
-
-                for (ExtensionElement packExt : childElements)
-                {
-                    xml.optAppend(packExt);
-                }
-
-                xml.append(childBuilder);
+                ((AbstractPacketExtension) childExtension).freeze();
             }
         }
+    }
 
-        //text content if any
-        if (StringUtils.isNotEmpty(text))
+    /**
+     * Checks whether this extension has been made read-only by
+     * {@link #freeze()}.
+     *
+     * @return <tt>true</tt> if this extension has been frozen.
+     */
+    public boolean isFrozen()
+    {
+        return frozen;
+    }
+
+    /**
+     * Makes sure that this extension may be modified.
+     *
+     * @throws IllegalStateException if this extension has been frozen.
+     */
+    protected void checkNotFrozen()
+        throws IllegalStateException
+    {
+        if (frozen)
         {
-            xml.append(org.jivesoftware.smack.util.StringUtils.escapeForXmlText(text));
+            throw new IllegalStateException(
+                    "Cannot modify a frozen " + getClass().getName());
         }
+    }
 
-        xml.closeElement(getElementName());
-
-        return xml.toString();
+    /**
+     * Records that the namespace, attributes, text or child extensions of this
+     * extension have changed, which makes the cached XML of this extension
+     * and of its ancestors no longer current when they are next serialized.
+     */
+    void modified()
+    {
+        VERSION.incrementAndGet(this);
     }
 
     /**
-     * This method must be overwritten by subclasses to create their
-     * child content.
-     * @return the xml builder for the content.
+     * Tells this extension that a child extension which it keeps outside of
+     * the list of {@link #getChildExtensions()} of this class has been added,
+     * so that the cached XML of this extension is no longer current.
+     * Extensions which do so and return <tt>true</tt> from
+     * {@link #tracksChildExtensions()} must call this method after adding
+     * such a child extension.
+     *
+     * @param childExtension the child extension which has been added.
      */
-    public XmlStringBuilder getChildElementBuilder()
+    protected void childExtensionAdded(ExtensionElement childExtension)
     {
-        return new XmlStringBuilder();
+        modified();
     }
 
     /**
-     * Returns all sub-elements for this <tt>AbstractPacketExtension</tt> or
-     * <tt>null</tt> if there aren't any.
-     * <p>
-     * Overriding extensions may need to override this method if they would like
-     * to have anything more elaborate than just a list of extensions.
+     * Tells this extension that a child extension which it keeps outside of
+     * the list of {@link #getChildExtensions()} of this class has been
+     * removed. See {@link #childExtensionAdded(ExtensionElement)}.
      *
-     * @return the {@link List} of elements that this packet extension contains.
+     * @param childExtension the child extension which has been removed.
      */
-    public List<? extends ExtensionElement> getChildExtensions()
+    protected void childExtensionRemoved(ExtensionElement childExtension)
     {
-        return childExtensions;
+        modified();
     }
 
     /**
-     * Adds the specified <tt>childExtension</tt> to the list of extensions
-     * registered with this packet.
-     * <p/>
-     * Overriding extensions may need to override this method if they would like
-     * to have anything more elaborate than just a list of extensions (e.g.
-     * casting separate instances to more specific.
+     * Checks whether every change to the child extensions which
+     * {@link #getChildExtensions()} returns is known to this class, in which
+     * case the XML of this extension may be cached. That is the case unless
+     * {@link #getChildExtensions()} is overridden: an extension which
+     * overrides it must also override this method, and report the additions
+     * and removals of the child extensions which it keeps elsewhere through
+     * {@link #childExtensionAdded(ExtensionElement)} and
+     * {@link #childExtensionRemoved(ExtensionElement)}.
      *
-     * @param childExtension the extension we'd like to add here.
+     * @return <tt>true</tt> if every change to the child extensions of this
+     * extension is known to this class.
      */
-    public void addChildExtension(ExtensionElement childExtension)
+    protected boolean tracksChildExtensions()
     {
-        childExtensions.add(childExtension);
+        return !OVERRIDES_CHILD_EXTENSIONS.get(getClass());
     }
 
     /**
-     * Add the given extension to the list of child extensions, but, if there already exists
-     * any child extensions of this type, remove them first.
-     * @param childExtension the extension to add
+     * Creates a list in which this extension may keep child extensions
+     * outside of the list of {@link #getChildExtensions()} of this class, and
+     * which reports their additions and removals through
+     * {@link #childExtensionAdded(ExtensionElement)} and
+     * {@link #childExtensionRemoved(ExtensionElement)}. Like
+     * <tt>ArrayList</tt>, it is not thread-safe.
+     *
+     * @param <T> the type of the child extensions.
+     * @return a new empty list of child extensions of this extension.
      */
-    public void setChildExtension(ExtensionElement childExtension)
+    protected <T extends ExtensionElement> List<T> createChildExtensionList()
     {
-        getChildExtensionsOfType(childExtension.getClass())
-            .forEach(this::removeChildExtension);
-        addChildExtension(childExtension);
+        return new TrackedChildExtensionList<>();
     }
 
     /**
-     * Gets the first extension present of the given type
-     * @param type the type of extension to get
-     * @return the first instance of an extension of type T we find, or null if there is none
+     * Returns an XML representation of this extension.
+     * <p>
+     * The XML is cached, and returned again as long as neither this extension
+     * nor any of its descendants changes. Each extension counts its own
+     * changes only, so that a child does not need to know its parents: the
+     * cached XML remembers the version of every extension which it covers,
+     * and is checked by walking the tree from the top down and comparing
+     * them. Frozen subtrees, which cannot change, are not walked, and cache
+     * their own XML so that it is copied even when that of the tree is not
+     * current.
+     * <p>
+     * When {@link ExtensionMetrics} are enabled, the time it takes is
+     * recorded under the element name and namespace of this extension.
+     *
+     * @return an XML representation of this extension.
      */
-    public <T extends ExtensionElement> T getChildExtension(Class<T> type)
+    public String toXML(XmlEnvironment enclosingNamespace)
     {
-        List<T> childExts = getChildExtensionsOfType(type);
-        if (!childExts.isEmpty())
-        {
-            return childExts.get(0);
-        }
-        else
+        if (!ExtensionMetrics.isEnabled())
         {
-            return null;
+            return toXMLUnmetered(enclosingNamespace);
         }
+
+        long start = System.nanoTime();
+        String xml = toXMLUnmetered(enclosingNamespace);
+
+        ExtensionMetrics.recordSerialize(
+                getElementName(),
+                getNamespace(),
+                System.nanoTime() - start,
+                xml.length());
+        return xml;
     }
 
     /**
-     * Removes all occurrences of an extension element from the list of child
-     * extensions.
-     * @param childExtension the child extension to remove.
-     * @return {@code true} if any extensions were removed, and {@code false}
-     * otherwise.
+     * Implements {@link #toXML(XmlEnvironment)} without recording metrics.
      */
-    public boolean removeChildExtension(ExtensionElement childExtension)
+    private String toXMLUnmetered(XmlEnvironment enclosingNamespace)
     {
-        boolean removed = false;
-        if (childExtension != null)
+        String namespace = getEffectiveNamespace(enclosingNamespace);
+        CachedXml cachedXml = this.cachedXml;
+
+        if (cachedXml != null && cachedXml.isCurrent(this, namespace))
         {
-            while (childExtensions.remove(childExtension))
-            {
-                removed = true;
-            }
+            return cachedXml.xml;
         }
 
-        return removed;
+        StringBuilder out = new StringBuilder();
+        // A frozen extension does not change, so there is nothing to check.
+        VersionList versions = frozen ? null : new VersionList();
+        boolean cacheable;
+
+        try
+        {
+            cacheable = writeXML(out, namespace, versions);
+        }
+        catch (IOException ioe)
+        {
+            // StringBuilder does not throw IOException.
+            throw new IllegalStateException(ioe);
+        }
+
+        String xml = out.toString();
+
+        if (cacheable)
+        {
+            this.cachedXml
+                = new CachedXml(
+                        namespace,
+                        versions == null ? null : versions.toArray(),
+                        xml);
+        }
+        return xml;
     }
 
     /**
-     * Sets the value of the attribute named <tt>name</tt> to <tt>value</tt>.
+     * Writes an XML representation of this extension and its children into a
+     * specific {@link Appendable}, in one pass and without building a
+     * <tt>String</tt> for each element. The output is the same as that of
+     * {@link #toXML(XmlEnvironment)}.
      *
-     * @param name the name of the attribute that we are setting.
-     * @param value an {@link Object} whose <tt>toString()</tt> method returns
-     * the XML value of the attribute we are setting or <tt>null</tt> if we'd
-     * like to remove the attribute with the specified <tt>name</tt>.
+     * @param out the {@link Appendable} to write to.
+     * @param enclosingNamespace the XML environment of the enclosing element,
+     * or <tt>null</tt>.
+     * @throws IOException if <tt>out</tt> fails to append.
      */
-    public void setAttribute(String name, Object value)
+    public void toXML(Appendable out, XmlEnvironment enclosingNamespace)
+        throws IOException
     {
-        synchronized(attributes)
+        if (overridesToXML(getClass()))
         {
-            if (value != null)
+            out.append(toXML(enclosingNamespace));
+        }
+        else
+        {
+            String namespace = getEffectiveNamespace(enclosingNamespace);
+            CachedXml cachedXml = this.cachedXml;
+
+            if (cachedXml != null && cachedXml.isCurrent(this, namespace))
             {
-                this.attributes.put(name, value.toString());
+                out.append(cachedXml.xml);
             }
             else
             {
-                this.attributes.remove(name);
+                writeXML(out, namespace, null);
             }
         }
     }
 
     /**
-     * Removes the attribute with the specified <tt>name</tt> from the list of
-     * attributes registered with this packet extension.
+     * Writes an XML representation of this extension and its children into a
+     * specific buffer, encoded in UTF-8.
      *
-     * @param name the name of the attribute that we are removing.
+     * @param out the buffer to write to.
+     * @param enclosingNamespace the XML environment of the enclosing element,
+     * or <tt>null</tt>.
+     * @throws BufferOverflowException if there is not enough space remaining
+     * in <tt>out</tt>.
      */
-    public void removeAttribute(String name)
+    public void toXML(ByteBuffer out, XmlEnvironment enclosingNamespace)
+        throws BufferOverflowException
     {
-        synchronized(attributes)
+        try
         {
-            attributes.remove(name);
+            toXML(XmlAppender.utf8(out), enclosingNamespace);
+        }
+        catch (IOException ioe)
+        {
+            // The ByteBuffer appender does not throw IOException.
+            throw new IllegalStateException(ioe);
         }
     }
 
     /**
-     * Returns the attribute with the specified <tt>name</tt> from the list of
-     * attributes registered with this packet extension.
-     *
-     * @param attribute the name of the attribute that we'd like to retrieve.
+     * Writes an XML representation of this child extension into a specific
+     * {@link Appendable}. If it is frozen, its XML is copied from
+     * {@link #cachedXml}, or cached there if its parent is not frozen.
      *
-     * @return the value of the specified <tt>attribute</tt> or <tt>null</tt>
-     * if no such attribute is currently registered with this extension.
+     * @param out the {@link Appendable} to write to.
+     * @param enclosingNamespace the effective namespace of the enclosing
+     * element, or <tt>null</tt>.
+     * @param versions the list to add the versions of this extension and of
+     * its descendants to, or <tt>null</tt>.
+     * @param cacheFrozen whether to cache the XML of this extension if it is
+     * frozen, which is only done if <tt>out</tt> is a <tt>StringBuilder</tt>.
+     * @return <tt>true</tt> if the XML of this extension may be cached.
+     * @throws IOException if <tt>out</tt> fails to append.
      */
-    public Object getAttribute(String attribute)
+    private boolean appendXML(
+            Appendable out,
+            String enclosingNamespace,
+            VersionList versions,
+            boolean cacheFrozen)
+        throws IOException
     {
-        synchronized(attributes)
+        if (!frozen)
         {
-            return attributes.get(attribute);
+            return writeXML(out, enclosingNamespace, versions);
+        }
+
+        // The subtree of a frozen extension is not walked (see CachedXml).
+        if (versions != null)
+        {
+            versions.add(version);
+        }
+
+        CachedXml cachedXml = this.cachedXml;
+
+        if (cachedXml != null
+                && Objects.equals(
+                        cachedXml.enclosingNamespace,
+                        enclosingNamespace))
+        {
+            out.append(cachedXml.xml);
+            return true;
+        }
+        if (!cacheFrozen || !(out instanceof StringBuilder))
+        {
+            return writeXML(out, enclosingNamespace, null);
+        }
+
+        StringBuilder sb = (StringBuilder) out;
+        int start = sb.length();
+
+        if (writeXML(sb, enclosingNamespace, null))
+        {
+            this.cachedXml
+                = new CachedXml(enclosingNamespace, null, sb.substring(start));
+            return true;
         }
+        return false;
     }
 
     /**
-     * Returns the string value of the attribute with the specified
-     * <tt>name</tt>.
+     * Writes an XML representation of this extension and its children into a
+     * specific {@link Appendable}. Children which are
+     * <tt>AbstractPacketExtension</tt>s write themselves into the same
+     * {@link Appendable}, unless they override
+     * {@link #toXML(XmlEnvironment)}.
      *
-     * @param attribute the name of the attribute that we'd like to retrieve.
-     *
-     * @return the String value of the specified <tt>attribute</tt> or
-     * <tt>null</tt> if no such attribute is currently registered with this
-     * extension.
+     * @param out the {@link Appendable} to write to.
+     * @param enclosingNamespace the effective namespace of the enclosing
+     * element, or <tt>null</tt>.
+     * @param versions the list to add the versions of this extension and of
+     * its descendants to, in document order, or <tt>null</tt>.
+     * @return <tt>true</tt> if the XML of this extension may be cached.
+     * @throws IOException if <tt>out</tt> fails to append.
      */
-    public String getAttributeAsString(String attribute)
+    private boolean writeXML(
+            Appendable out,
+            String enclosingNamespace,
+            VersionList versions)
+        throws IOException
     {
-        synchronized(attributes)
+        // Read the version before any of the state that it covers, so that a
+        // concurrent change makes the cached XML stale rather than wrong.
+        if (versions != null)
+        {
+            versions.add(version);
+        }
+
+        String elementName = getElementName();
+        String namespace = getNamespace();
+
+        out.append('<').append(elementName);
+        if (namespace != null && !namespace.equals(enclosingNamespace))
+        {
+            XmlAppender.appendAttribute(out, "xmlns", namespace);
+        }
+
+        //add the rest of the attributes if any
+        appendAttributes(out);
+
+        //add child elements if any
+        List<? extends ExtensionElement> childElements = getChildExtensions();
+        String text = getText();
+        boolean cacheable = isCacheable();
+        CharSequence childContent
+            = overridesChildElementBuilder(getClass())
+                ? getChildElementBuilder() : null;
+        boolean hasChildContent
+            = childContent != null && childContent.length() != 0;
+
+        if (childElements.isEmpty() && !hasChildContent)
+        {
+            if (StringUtils.isEmpty(text))
+            {
+                out.append("/>");
+                return cacheable;
+            }
+            else
+            {
+                out.append('>');
+            }
+        }
+        else
         {
-            Object attributeVal = attributes.get(attribute);
+            out.append('>');
+
+            if (!childElements.isEmpty())
+            {
+                String childNamespace
+                    = StringUtils.isEmpty(namespace)
+                        ? enclosingNamespace : namespace;
+
+                cacheable
+                    &= appendChildExtensions(
+                            out,
+                            childElements,
+                            childNamespace,
+                            frozen ? null : versions,
+                            !frozen);
+            }
+
+            if (hasChildContent)
+            {
+                out.append(childContent);
+            }
+        }
 
-            return attributeVal == null ? null : attributeVal.toString();
+        //text content if any
+        if (StringUtils.isNotEmpty(text))
+        {
+            XmlAppender.appendEscapedText(out, text);
         }
+
+        out.append("</").append(elementName).append('>');
+        return cacheable;
     }
 
     /**
-     * Returns the <tt>int</tt> value of the attribute with the specified
-     * <tt>name</tt>.
-     *
-     * @param attribute the name of the attribute that we'd like to retrieve.
+     * Checks whether the XML of this extension, not counting that of its
+     * descendants, may be cached: it may unless the version of this extension
+     * does not cover all of its content.
      *
-     * @return the <tt>int</tt> value of the specified <tt>attribute</tt> or
-     * <tt>-1</tt> if no such attribute is currently registered with this
-     * extension.
+     * @return <tt>true</tt> if the XML of this extension may be cached.
      */
-    public int getAttributeAsInt(String attribute)
+    private boolean isCacheable()
     {
-        return getAttributeAsInt(attribute, -1);
+        // The content of such extensions is not covered by the version.
+        return !overridesChildElementBuilder(getClass())
+            && tracksChildExtensions();
     }
 
     /**
-     * Returns the <tt>int</tt> value of the attribute with the specified
-     * <tt>name</tt>.
+     * Checks, from this extension down, whether the extensions covered by a
+     * cached XML are still at the versions at which it was serialized. The
+     * version of an extension changes with its child extensions, so as long
+     * as it has not, its child extensions are those whose versions follow.
      *
-     * @param attribute the name of the attribute that we'd like to retrieve
-     * @param defaultValue the <tt>int</tt> to be returned as the value of the
-     * specified attribute if no such attribute is currently registered with
-     * this extension
-     * @return the <tt>int</tt> value of the specified <tt>attribute</tt> or
-     * <tt>defaultValue</tt> if no such attribute is currently registered with
-     * this extension
+     * @param versions the versions at which the XML was serialized, in
+     * document order.
+     * @param index the position in <tt>versions</tt> of the version of this
+     * extension.
+     * @return the position in <tt>versions</tt> which follows the versions of
+     * this extension and of its descendants, or <tt>-1</tt> if one of them
+     * has changed.
      */
-    public int getAttributeAsInt(String attribute, int defaultValue)
+    private int checkVersions(int[] versions, int index)
     {
-        synchronized(attributes)
+        if (index >= versions.length || versions[index] != version)
+        {
+            return -1;
+        }
+        index++;
+        if (frozen)
+        {
+            return index;
+        }
+
+        if (OVERRIDES_CHILD_EXTENSIONS.get(getClass()))
+        {
+            for (ExtensionElement childElement : getChildExtensions())
+            {
+                index = checkVersions(childElement, versions, index);
+                if (index < 0)
+                {
+                    return -1;
+                }
+            }
+        }
+        else
         {
-            String value = getAttributeAsString(attribute);
+            ChildSnapshot snapshot = childExtensions.getSnapshot();
 
-            return (value == null) ? defaultValue : Integer.parseInt(value);
+            for (int i = 0; i < snapshot.size; i++)
+            {
+                index = checkVersions(snapshot.elements[i], versions, index);
+                if (index < 0)
+                {
+                    return -1;
+                }
+            }
         }
+        return index;
     }
 
     /**
-     * Tries to parse the value of the specified <tt>attribute</tt> as an
-     * <tt>URI</tt> and returns it.
+     * Checks whether a child extension covered by a cached XML, and its
+     * descendants, are still at the versions at which it was serialized. See
+     * {@link #checkVersions(int[], int)}.
      *
-     * @param attribute the name of the attribute that we'd like to retrieve.
+     * @param childElement the child extension.
+     * @param versions the versions at which the XML was serialized.
+     * @param index the position in <tt>versions</tt> of the version of
+     * <tt>childElement</tt>.
+     * @return the position in <tt>versions</tt> which follows the versions of
+     * <tt>childElement</tt> and of its descendants, or <tt>-1</tt> if one of
+     * them has changed.
+     */
+    private static int checkVersions(
+            ExtensionElement childElement,
+            int[] versions,
+            int index)
+    {
+        // Only extensions which are AbstractPacketExtensions are cached.
+        return childElement instanceof AbstractPacketExtension
+            ? ((AbstractPacketExtension) childElement)
+                .checkVersions(versions, index)
+            : index;
+    }
+
+    /**
+     * Appends the attributes of this extension to a specific
+     * {@link Appendable}.
      *
-     * @return the <tt>URI</tt> value of the specified <tt>attribute</tt> or
-     * <tt>null</tt> if no such attribute is currently registered with this
-     * extension.
-     * @throws IllegalArgumentException if <tt>attribute</tt> is not a valid {@link
-     * URI}
+     * @param out the {@link Appendable} to append to.
+     * @throws IOException if <tt>out</tt> fails to append.
      */
-    public URI getAttributeAsURI(String attribute)
-        throws IllegalArgumentException
+    private void appendAttributes(Appendable out)
+        throws IOException
     {
-        synchronized(attributes)
-        {
-            String attributeVal = getAttributeAsString(attribute);
+        AttributeSerializer serializer = SERIALIZERS.get(getClass());
+        Object[] attributes = getAttributeMap().getSnapshot();
 
-            if (attributeVal == null)
-                return null;
+        for (int i = 0; i < attributes.length; i += 2)
+        {
+            String name = (String) attributes[i];
+            Object value = attributes[i + 1];
 
-            try
+            if (name == null || value == null)
             {
-                URI uri = new URI(attributeVal);
-
-                return uri;
+                continue;
+            }
+            if (serializer == null)
+            {
+                XmlAppender.appendAttribute(out, name, value);
             }
-            catch (URISyntaxException e)
+            else
             {
-                throw new IllegalArgumentException(e);
+                serializer.appendAttribute(out, name, value);
             }
         }
     }
 
     /**
-     * Gets the names of the attributes which currently have associated values
-     * in this extension.
+     * Appends the XML of a list of child extensions to a specific
+     * {@link Appendable}.
      *
-     * @return the names of the attributes which currently have associated
-     * values in this extension
+     * @param out the {@link Appendable} to append to.
+     * @param childElements the child extensions to append.
+     * @param namespace the effective namespace of this extension, which the
+     * child extensions inherit.
+     * @param versions the list to add the versions of the child extensions
+     * and of their descendants to, or <tt>null</tt>.
+     * @param cacheFrozen whether to cache the XML of the child extensions
+     * which are frozen.
+     * @return <tt>true</tt> if the XML of all of the child extensions may be
+     * cached.
+     * @throws IOException if <tt>out</tt> fails to append.
      */
-    public List<String> getAttributeNames()
+    private static boolean appendChildExtensions(
+            Appendable out,
+            List<? extends ExtensionElement> childElements,
+            String namespace,
+            VersionList versions,
+            boolean cacheFrozen)
+        throws IOException
     {
-        synchronized (attributes)
+        XmlEnvironment xmlEnvironment = null;
+        boolean cacheable = true;
+
+        for (ExtensionElement packExt : childElements)
         {
-            return new ArrayList<String>(attributes.keySet());
+            if (packExt == null)
+            {
+                continue;
+            }
+            if (packExt instanceof AbstractPacketExtension
+                    && !overridesToXML(packExt.getClass()))
+            {
+                cacheable
+                    &= ((AbstractPacketExtension) packExt)
+                        .appendXML(out, namespace, versions, cacheFrozen);
+            }
+            else
+            {
+                if (xmlEnvironment == null)
+                {
+                    xmlEnvironment = new XmlEnvironment(namespace);
+                }
+                out.append(packExt.toXML(xmlEnvironment));
+                // We cannot tell when such extensions change.
+                cacheable = false;
+            }
         }
+        return cacheable;
     }
 
     /**
-     * Specifies the text content of this extension.
+     * Returns a 64-bit hash of the structure of this extension: its element
+     * name, namespace, attributes (regardless of their order), text and,
+     * recursively, its child extensions. Extensions which are
+     * {@link #structurallyEquals(AbstractPacketExtension) structurally equal}
+     * have the same structural hash.
+     * <p>
+     * The hash of the element name, attributes and text of each extension is
+     * remembered until they change, and that of a frozen tree is remembered
+     * whole, so hashing a tree again costs a walk over it at most, and nothing
+     * once it is frozen.
      *
-     * @param text the text content of this extension.
+     * @return a 64-bit hash of the structure of this extension.
      */
-    public void setText(String text)
+    public long getStructuralHash()
     {
-        this.textContent = text;
+        return mix(getContentHash(null) + hash(getNamespace()));
     }
 
     /**
-     * Returns the text content of this extension or <tt>null</tt> if no text
-     * content has been specified so far.
+     * Checks whether this extension has the same structure as another one,
+     * i.e. whether they would serialize to equivalent XML: the same element
+     * names, namespaces, attributes (in any order), text and, recursively,
+     * child extensions (in the same order). Unlike {@link #equals(Object)},
+     * which stays the identity, this does not depend on the run-time types of
+     * the extensions.
+     * <p>
+     * The structural hashes are compared first, so that extensions which
+     * differ are usually told apart without walking them.
      *
-     * @return the text content of this extension or <tt>null</tt> if no text
-     * content has been specified so far.
+     * @param other the extension to compare with.
+     * @return <tt>true</tt> if <tt>other</tt> has the same structure as this
+     * extension.
      */
-    public String getText()
+    public boolean structurallyEquals(AbstractPacketExtension other)
     {
-        return textContent;
+        return other == this
+            || (other != null
+                && getStructuralHash() == other.getStructuralHash()
+                && textEquals(getNamespace(), other.getNamespace())
+                && contentEquals(other, null, null));
     }
 
     /**
-     * Returns this packet's first direct child extension that matches the
-     * specified <tt>type</tt>.
+     * Returns the hash of the structure of this extension other than its
+     * namespace, which is hashed by its parent relative to its own.
      *
-     * @param <T> the specific type of <tt>ExtensionElement</tt> to be returned
+     * @param enclosingNamespace the effective namespace of the parent, which
+     * this extension and its child extensions may inherit.
+     * @return the hash of the structure of this extension other than its
+     * namespace.
+     */
+    private long getContentHash(String enclosingNamespace)
+    {
+        Class<? extends AbstractPacketExtension> type = getClass();
+
+        if (overridesToXML(type))
+        {
+            // We cannot tell what such extensions write, nor when it changes.
+            return hash(toXML(new XmlEnvironment(enclosingNamespace)));
+        }
+
+        // Read the version before any of the state that it covers, so that a
+        // concurrent change makes the cached hash stale rather than wrong.
+        int version = this.version;
+        StructuralHash cached = this.structuralHash;
+        boolean current = cached != null && cached.version == version;
+        String namespace = getNamespace();
+
+        if (StringUtils.isEmpty(namespace))
+        {
+            namespace = enclosingNamespace;
+        }
+        if (current
+                && cached.complete
+                && Objects.equals(cached.namespace, namespace))
+        {
+            return cached.contentHash;
+        }
+
+        boolean childContent = overridesChildElementBuilder(type);
+        long ownHash
+            = current && !childContent ? cached.ownHash : computeOwnHash();
+        long contentHash = ownHash;
+
+        if (childContent)
+        {
+            contentHash
+                = mix(contentHash * 31 + hash(getChildElementBuilder()));
+        }
+
+        List<? extends ExtensionElement> childElements = getChildExtensions();
+
+        if (!childElements.isEmpty())
+        {
+            contentHash
+                = hashChildExtensions(contentHash, childElements, namespace);
+        }
+
+        // The content which getChildElementBuilder() returns is not covered by
+        // the version, even once frozen.
+        boolean complete = frozen && !childContent;
+
+        if (!current
+                || cached.complete != complete
+                || !Objects.equals(cached.namespace, namespace))
+        {
+            this.structuralHash
+                = new StructuralHash(
+                        version,
+                        ownHash,
+                        namespace,
+                        contentHash,
+                        complete);
+        }
+        return contentHash;
+    }
+
+    /**
+     * Computes the hash of the element name, attributes and text of this
+     * extension.
      *
-     * @param type the <tt>Class</tt> of the extension we are looking for.
+     * @return the hash of the element name, attributes and text of this
+     * extension.
+     */
+    private long computeOwnHash()
+    {
+        long hash = mix(hash(getElementName()) * 31 + hashAttributes());
+
+        return mix(hash * 31 + hash(getText()));
+    }
+
+    /**
+     * Computes the hash of the attributes of this extension, which does not
+     * depend on their order.
      *
-     * @return this packet's first direct child extension that matches specified
-     * <tt>type</tt> or <tt>null</tt> if no such child extension was found.
+     * @return the hash of the attributes of this extension.
      */
-    public <T extends ExtensionElement> T getFirstChildOfType(Class<T> type)
+    private long hashAttributes()
     {
-        List<? extends ExtensionElement> childExtensions = getChildExtensions();
+        long hash = 0;
+        Object[] attributes = getAttributeMap().getSnapshot();
 
-        synchronized (childExtensions)
+        for (int i = 0; i < attributes.length; i += 2)
         {
-            for (ExtensionElement extension : childExtensions)
-            {
-                if (type.isInstance(extension))
-                {
-                    @SuppressWarnings("unchecked")
-                    T extensionAsType = (T) extension;
+            Object name = attributes[i];
+            Object value = attributes[i + 1];
 
-                    return extensionAsType;
-                }
+            if (name != null && value != null)
+            {
+                hash += mix(hash((String) name) * 31 + hash(value.toString()));
             }
         }
-        return null;
+        return hash;
     }
 
     /**
-     * Returns this packet's direct child extensions that match the
-     * specified <tt>type</tt>.
+     * Folds the hashes of a list of child extensions into a hash.
      *
-     * @param <T> the specific <tt>ExtensionElement</tt> type of child extensions
-     * to be returned
+     * @param hash the hash to fold the hashes of the child extensions into.
+     * @param childElements the child extensions.
+     * @param namespace the effective namespace of their parent.
+     * @return <tt>hash</tt> with the hashes of <tt>childElements</tt> folded
+     * in.
+     */
+    private static long hashChildExtensions(
+            long hash,
+            List<? extends ExtensionElement> childElements,
+            String namespace)
+    {
+        for (ExtensionElement childElement : childElements)
+        {
+            if (childElement == null)
+            {
+                continue;
+            }
+
+            long childHash;
+
+            if (childElement instanceof AbstractPacketExtension)
+            {
+                AbstractPacketExtension ext
+                    = (AbstractPacketExtension) childElement;
+
+                childHash
+                    = mix(
+                        ext.getContentHash(namespace)
+                            + hashChildNamespace(
+                                    ext.getNamespace(),
+                                    namespace));
+            }
+            else
+            {
+                childHash
+                    = hash(childElement.toXML(new XmlEnvironment(namespace)));
+            }
+            hash = mix(hash * 31 + childHash);
+        }
+        return hash;
+    }
+
+    /**
+     * Hashes the namespace of a child extension, which is the same whether it
+     * is inherited from the parent or is that of the parent.
      *
-     * @param type the <tt>Class</tt> of the extension we are looking for.
+     * @param namespace the namespace of the child extension.
+     * @param parentNamespace the effective namespace of the parent.
+     * @return the hash of <tt>namespace</tt> relative to
+     * <tt>parentNamespace</tt>.
+     */
+    private static long hashChildNamespace(
+            String namespace,
+            String parentNamespace)
+    {
+        return StringUtils.isEmpty(namespace)
+                || namespace.equals(parentNamespace)
+            ? 0 : hash(namespace);
+    }
+
+    /**
+     * Checks whether the structure of this extension, other than its
+     * namespace, is the same as that of another one.
      *
-     * @return a (possibly empty) list containing all of this packet's direct
-     * child extensions that match the specified <tt>type</tt>
+     * @param other the extension to compare with.
+     * @param enclosingNamespace the effective namespace of the parent of this
+     * extension.
+     * @param otherEnclosingNamespace the effective namespace of the parent of
+     * <tt>other</tt>.
+     * @return <tt>true</tt> if the structure of <tt>other</tt>, other than its
+     * namespace, is the same as that of this extension.
      */
-    public <T extends ExtensionElement> List<T> getChildExtensionsOfType(
-            Class<T> type)
+    private boolean contentEquals(
+            AbstractPacketExtension other,
+            String enclosingNamespace,
+            String otherEnclosingNamespace)
     {
-        List<? extends ExtensionElement> childExtensions = getChildExtensions();
-        List<T> result = new ArrayList<T>();
+        if (overridesToXML(getClass()) || overridesToXML(other.getClass()))
+        {
+            return toXML(new XmlEnvironment(enclosingNamespace))
+                .equals(
+                    other.toXML(new XmlEnvironment(otherEnclosingNamespace)));
+        }
+        if (!getElementName().equals(other.getElementName())
+                || !textEquals(getText(), other.getText()))
+        {
+            return false;
+        }
 
-        if (childExtensions == null)
-            return result;
+        // Compare the attributes, which the other extension locks one at a
+        // time, so that comparing two extensions both ways at once cannot
+        // deadlock.
+        List<String> names = getAttributeNames();
+        int count = 0;
 
-        synchronized (childExtensions)
+        for (String name : names)
         {
-            for (ExtensionElement extension : childExtensions)
+            String value = getAttributeAsString(name);
+
+            if (value != null)
             {
-                if (type.isInstance(extension))
+                if (!value.equals(other.getAttributeAsString(name)))
                 {
-                    @SuppressWarnings("unchecked")
-                    T extensionAsType = (T) extension;
-
-                    result.add(extensionAsType);
+                    return false;
                 }
+                count++;
+            }
+        }
+        for (String name : other.getAttributeNames())
+        {
+            if (other.getAttributeAsString(name) != null)
+            {
+                count--;
+            }
+        }
+        if (count != 0)
+        {
+            return false;
+        }
+
+        if (overridesChildElementBuilder(getClass())
+                || overridesChildElementBuilder(other.getClass()))
+        {
+            if (!getChildElementBuilder().toString()
+                    .equals(other.getChildElementBuilder().toString()))
+            {
+                return false;
             }
         }
 
-        return result;
+        ExtensionElement[] childElements = getChildExtensionsArray();
+        ExtensionElement[] otherChildElements
+            = other.getChildExtensionsArray();
+        String namespace = getNamespace();
+        String otherNamespace = other.getNamespace();
+
+        if (StringUtils.isEmpty(namespace))
+        {
+            namespace = enclosingNamespace;
+        }
+        if (StringUtils.isEmpty(otherNamespace))
+        {
+            otherNamespace = otherEnclosingNamespace;
+        }
+        int i = 0;
+        int j = 0;
+
+        while (true)
+        {
+            while (i < childElements.length && childElements[i] == null)
+            {
+                i++;
+            }
+            while (j < otherChildElements.length
+                    && otherChildElements[j] == null)
+            {
+                j++;
+            }
+            if (i == childElements.length || j == otherChildElements.length)
+            {
+                return i == childElements.length
+                    && j == otherChildElements.length;
+            }
+            if (!childEquals(
+                    childElements[i++], namespace,
+                    otherChildElements[j++], otherNamespace))
+            {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Checks whether two child extensions have the same structure.
+     *
+     * @param a the first child extension.
+     * @param aParentNamespace the effective namespace of the parent of
+     * <tt>a</tt>.
+     * @param b the second child extension.
+     * @param bParentNamespace the effective namespace of the parent of
+     * <tt>b</tt>.
+     * @return <tt>true</tt> if <tt>a</tt> and <tt>b</tt> have the same
+     * structure.
+     */
+    private static boolean childEquals(
+            ExtensionElement a, String aParentNamespace,
+            ExtensionElement b, String bParentNamespace)
+    {
+        if (a instanceof AbstractPacketExtension
+                && b instanceof AbstractPacketExtension)
+        {
+            AbstractPacketExtension aExt = (AbstractPacketExtension) a;
+            AbstractPacketExtension bExt = (AbstractPacketExtension) b;
+            String aNamespace = aExt.getNamespace();
+            String bNamespace = bExt.getNamespace();
+
+            return
+                hashChildNamespace(aNamespace, aParentNamespace)
+                        == hashChildNamespace(bNamespace, bParentNamespace)
+                    && (hashChildNamespace(aNamespace, aParentNamespace) == 0
+                        || aNamespace.equals(bNamespace))
+                    && aExt.getContentHash(aParentNamespace)
+                        == bExt.getContentHash(bParentNamespace)
+                    && aExt.contentEquals(
+                            bExt,
+                            aParentNamespace,
+                            bParentNamespace);
+        }
+        return a.toXML(new XmlEnvironment(aParentNamespace)).toString()
+            .equals(
+                b.toXML(new XmlEnvironment(bParentNamespace)).toString());
+    }
+
+    /**
+     * Checks whether two strings are equal, taking <tt>null</tt> to be equal
+     * to the empty string, since neither is written.
+     *
+     * @param a the first string.
+     * @param b the second string.
+     * @return <tt>true</tt> if <tt>a</tt> and <tt>b</tt> are equal.
+     */
+    private static boolean textEquals(String a, String b)
+    {
+        return StringUtils.isEmpty(a) ? StringUtils.isEmpty(b) : a.equals(b);
+    }
+
+    /**
+     * Computes a 64-bit hash of a sequence of characters (FNV-1a). Empty and
+     * <tt>null</tt> sequences hash to <tt>0</tt>, since neither is written.
+     *
+     * @param s the sequence of characters.
+     * @return the hash of <tt>s</tt>.
+     */
+    private static long hash(CharSequence s)
+    {
+        if (s == null || s.length() == 0)
+        {
+            return 0;
+        }
+
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0, length = s.length(); i < length; i++)
+        {
+            hash ^= s.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Mixes the bits of a hash (the finalizer of MurmurHash3), so that the
+     * hashes combined from it are well distributed.
+     *
+     * @param hash the hash.
+     * @return the mixed hash.
+     */
+    private static long mix(long hash)
+    {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Returns the effective namespace of an XML environment.
+     *
+     * @param xmlEnvironment the XML environment, or <tt>null</tt>.
+     * @return the effective namespace of <tt>xmlEnvironment</tt>, or
+     * <tt>null</tt> if it is <tt>null</tt> or has none.
+     */
+    private static String getEffectiveNamespace(XmlEnvironment xmlEnvironment)
+    {
+        return xmlEnvironment == null
+            ? null : xmlEnvironment.getEffectiveNamespace();
+    }
+
+    /**
+     * Checks whether a specific type of extension overrides
+     * {@link #toXML(XmlEnvironment)}, in which case it cannot be written by
+     * {@link #writeXML(Appendable, String, VersionList)}.
+     *
+     * @param type the type of extension to check.
+     * @return <tt>true</tt> if <tt>type</tt> overrides
+     * {@link #toXML(XmlEnvironment)}.
+     */
+    static boolean overridesToXML(
+            Class<? extends ExtensionElement> type)
+    {
+        return OVERRIDES_TO_XML.get(type);
+    }
+
+    /**
+     * Checks whether a specific type of extension overrides
+     * {@link #getChildExtensions()}.
+     *
+     * @param type the type of extension to check.
+     * @return <tt>true</tt> if <tt>type</tt> overrides
+     * {@link #getChildExtensions()}.
+     */
+    static boolean overridesChildExtensions(
+            Class<? extends ExtensionElement> type)
+    {
+        return OVERRIDES_CHILD_EXTENSIONS.get(type);
+    }
+
+    /**
+     * Checks whether a specific type of extension overrides
+     * {@link #addChildExtension(ExtensionElement)}, e.g. to keep some of its
+     * child extensions elsewhere.
+     *
+     * @param type the type of extension to check.
+     * @return <tt>true</tt> if <tt>type</tt> overrides
+     * {@link #addChildExtension(ExtensionElement)}.
+     */
+    static boolean overridesAddChildExtension(
+            Class<? extends ExtensionElement> type)
+    {
+        return isOverridden(type, "addChildExtension", ExtensionElement.class);
+    }
+
+    /**
+     * Checks whether a specific type of extension overrides
+     * {@link #getChildElementBuilder()}, so that we need not create an empty
+     * builder for the types which do not.
+     *
+     * @param type the type of extension to check.
+     * @return <tt>true</tt> if <tt>type</tt> overrides
+     * {@link #getChildElementBuilder()}.
+     */
+    static boolean overridesChildElementBuilder(
+            Class<? extends ExtensionElement> type)
+    {
+        return OVERRIDES_CHILD_ELEMENT_BUILDER.get(type);
+    }
+
+    /**
+     * This method must be overwritten by subclasses to create their
+     * child content.
+     * @return the xml builder for the content.
+     */
+    public XmlStringBuilder getChildElementBuilder()
+    {
+        return new XmlStringBuilder();
+    }
+
+    /**
+     * Copies the state of this extension which is not kept in its attributes,
+     * text or child extensions into a copy of it created by
+     * {@link #deepClone(ExtensionElement)}. Extensions which keep such state
+     * should override this method. The default implementation does nothing.
+     *
+     * @param copy the copy of this extension, of the same run-time type.
+     */
+    protected void copyStateTo(AbstractPacketExtension copy)
+    {
+    }
+
+    /**
+     * Writes the state of this extension which is not kept in its
+     * attributes, text or child extensions (i.e. the state which
+     * {@link #copyStateTo(AbstractPacketExtension)} copies) for
+     * {@link ExtensionCodec}. Extensions which override
+     * {@link #copyStateTo(AbstractPacketExtension)} should override this
+     * method and {@link #decodeState(ExtensionCodec.Decoder)} as well. The
+     * default implementation writes nothing.
+     *
+     * @param out the encoder to write to.
+     */
+    protected void encodeState(ExtensionCodec.Encoder out)
+    {
+    }
+
+    /**
+     * Reads the state written by
+     * {@link #encodeState(ExtensionCodec.Encoder)} into this extension,
+     * which has just been created by {@link ExtensionCodec}. The default
+     * implementation reads nothing.
+     *
+     * @param in the decoder to read from.
+     * @throws IOException if the encoding is not valid.
+     */
+    protected void decodeState(ExtensionCodec.Decoder in)
+        throws IOException
+    {
+    }
+
+    /**
+     * Returns the key which identifies this extension among its siblings of
+     * the same element name and namespace when two trees are compared by
+     * {@link ExtensionPatch#diff(AbstractPacketExtension,
+     * AbstractPacketExtension)}, e.g. the SSRC of a source or the ID of a
+     * payload type. Siblings with the same key are matched in order.
+     * <p>
+     * The default implementation returns <tt>null</tt>, which matches the
+     * siblings by position.
+     *
+     * @return the key which identifies this extension among its siblings, or
+     * <tt>null</tt>.
+     */
+    protected Object getIdentityKey()
+    {
+        return null;
+    }
+
+    /**
+     * Returns the child extensions of this extension (as returned by
+     * {@link #getChildExtensions()}) in an array, which is safe to iterate
+     * while this extension changes.
+     *
+     * @return the child extensions of this extension.
+     */
+    ExtensionElement[] getChildExtensionsArray()
+    {
+        return getChildExtensions().toArray(new ExtensionElement[0]);
+    }
+
+    /**
+     * Writes the child extensions of this extension with an
+     * {@link ExtensionCodec.Encoder}, as their number followed by each of
+     * them. Unless the type of this extension overrides
+     * {@link #getChildExtensions()}, they are read from the current snapshot
+     * of the list without copying it.
+     *
+     * @param out the encoder to write to.
+     * @param overridesChildExtensions whether the type of this extension
+     * overrides {@link #getChildExtensions()}, which the codec knows already.
+     */
+    void encodeChildExtensions(
+            ExtensionCodec.Encoder out,
+            boolean overridesChildExtensions)
+    {
+        ExtensionElement[] elements;
+        int size;
+
+        if (overridesChildExtensions)
+        {
+            elements = getChildExtensionsArray();
+            size = elements.length;
+        }
+        else
+        {
+            ChildSnapshot snapshot = childExtensions.getSnapshot();
+
+            elements = snapshot.elements;
+            size = snapshot.size;
+        }
+
+        int count = 0;
+
+        for (int i = 0; i < size; i++)
+        {
+            if (elements[i] != null)
+            {
+                count++;
+            }
+        }
+        out.writeVarint(count);
+        for (int i = 0; i < size; i++)
+        {
+            if (elements[i] != null)
+            {
+                out.writeElement(elements[i]);
+            }
+        }
+    }
+
+    /**
+     * Adds the child extensions read by an {@link ExtensionCodec.Decoder}
+     * to this extension, which has just been created. Unless the type of this
+     * extension overrides {@link #addChildExtension(ExtensionElement)}, they
+     * are added all at once.
+     *
+     * @param childExtensions the child extensions, in an array which this
+     * extension may keep.
+     * @param overridesAddChildExtension whether the type of this extension
+     * overrides {@link #addChildExtension(ExtensionElement)}, which the codec
+     * knows already.
+     */
+    void decodeChildExtensions(
+            ExtensionElement[] childExtensions,
+            boolean overridesAddChildExtension)
+    {
+        if (overridesAddChildExtension)
+        {
+            for (ExtensionElement childExtension : childExtensions)
+            {
+                addChildExtension(childExtension);
+            }
+        }
+        else
+        {
+            this.childExtensions.addAll(childExtensions, true);
+        }
+    }
+
+    /**
+     * Returns all sub-elements for this <tt>AbstractPacketExtension</tt> or
+     * <tt>null</tt> if there aren't any.
+     * <p>
+     * The list is live and copied on write: it may be read and iterated
+     * without locking while other threads change it, and its iterators see
+     * the children as they were when the iteration started. Changes made
+     * through the list, including those made through its iterators, apply to
+     * this extension. An iterator which modifies the list after another
+     * change to it throws {@link ConcurrentModificationException}, as with an
+     * {@link ArrayList}.
+     * <p>
+     * Overriding extensions may need to override this method if they would like
+     * to have anything more elaborate than just a list of extensions.
+     *
+     * @return the {@link List} of elements that this packet extension contains.
+     */
+    public List<? extends ExtensionElement> getChildExtensions()
+    {
+        return frozen ? getUnmodifiableChildExtensions() : childExtensions;
+    }
+
+    /**
+     * Returns an unmodifiable view of the list of extensions registered with
+     * this element. Extensions which override {@link #getChildExtensions()}
+     * only to prevent the modification of the list should return this view,
+     * which {@link #getChildExtensionsOfType(Class)} recognizes.
+     *
+     * @return an unmodifiable view of the list of extensions registered with
+     * this element.
+     */
+    protected List<? extends ExtensionElement> getUnmodifiableChildExtensions()
+    {
+        List<ExtensionElement> unmodifiableChildExtensions
+            = this.unmodifiableChildExtensions;
+
+        if (unmodifiableChildExtensions == null)
+        {
+            unmodifiableChildExtensions
+                = Collections.unmodifiableList(childExtensions);
+            this.unmodifiableChildExtensions = unmodifiableChildExtensions;
+        }
+        return unmodifiableChildExtensions;
+    }
+
+    /**
+     * Adds the specified <tt>childExtension</tt> to the list of extensions
+     * registered with this packet.
+     * <p/>
+     * Overriding extensions may need to override this method if they would like
+     * to have anything more elaborate than just a list of extensions (e.g.
+     * casting separate instances to more specific.
+     *
+     * @param childExtension the extension we'd like to add here.
+     */
+    public void addChildExtension(ExtensionElement childExtension)
+    {
+        childExtensions.add(childExtension);
+    }
+
+    /**
+     * Add the given extension to the list of child extensions, but, if there already exists
+     * any child extensions of this type, remove them first.
+     * @param childExtension the extension to add
+     */
+    public void setChildExtension(ExtensionElement childExtension)
+    {
+        getUnmodifiableChildExtensionsOfType(childExtension.getClass())
+            .forEach(this::removeChildExtension);
+        addChildExtension(childExtension);
+    }
+
+    /**
+     * Gets the first extension present of the given type
+     * @param type the type of extension to get
+     * @return the first instance of an extension of type T we find, or null if there is none
+     */
+    public <T extends ExtensionElement> T getChildExtension(Class<T> type)
+    {
+        List<T> childExts = getUnmodifiableChildExtensionsOfType(type);
+        if (!childExts.isEmpty())
+        {
+            return childExts.get(0);
+        }
+        else
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Removes all occurrences of an extension element from the list of child
+     * extensions.
+     * @param childExtension the child extension to remove.
+     * @return {@code true} if any extensions were removed, and {@code false}
+     * otherwise.
+     */
+    public boolean removeChildExtension(ExtensionElement childExtension)
+    {
+        return
+            childExtension != null
+                && childExtensions.removeIf(childExtension::equals);
+    }
+
+    /**
+     * Removes a number of child extensions at once, in a single pass over the
+     * child extensions rather than one per removed child extension as
+     * {@link #removeChildExtension(ExtensionElement)} takes. The child
+     * extensions are compared by identity.
+     * <p>
+     * Extensions which override {@link #removeChildExtension(ExtensionElement)}
+     * should override this method as well, and pass the child extensions
+     * which they do not keep themselves on to it. Otherwise, those which are
+     * not in the list of this class are removed one by one.
+     *
+     * @param childExtensions the child extensions to remove.
+     * @return {@code true} if any extensions were removed, and {@code false}
+     * otherwise.
+     */
+    public boolean removeChildExtensions(
+            Collection<? extends ExtensionElement> childExtensions)
+    {
+        if (childExtensions.isEmpty())
+        {
+            return false;
+        }
+
+        Set<ExtensionElement> remaining = newIdentitySet(childExtensions);
+        Set<ExtensionElement> found = newIdentitySet(Collections.emptySet());
+        boolean removed
+            = this.childExtensions.removeIf(
+                    childExtension ->
+                    {
+                        if (remaining.contains(childExtension))
+                        {
+                            found.add(childExtension);
+                            return true;
+                        }
+                        return false;
+                    });
+
+        if (REMOVES_ONE_BY_ONE.get(getClass()))
+        {
+            for (ExtensionElement childExtension : remaining)
+            {
+                if (!found.contains(childExtension))
+                {
+                    removed |= removeChildExtension(childExtension);
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Creates a set which compares its elements by identity, as
+     * {@link #removeChildExtensions(Collection)} does.
+     *
+     * @param elements the elements of the new set.
+     * @param <T> the type of the elements.
+     * @return a new mutable set of <tt>elements</tt>, which compares them by
+     * identity.
+     */
+    protected static <T> Set<T> newIdentitySet(Collection<? extends T> elements)
+    {
+        Set<T> set
+            = Collections.newSetFromMap(
+                    new IdentityHashMap<>(elements.size() * 2));
+
+        set.addAll(elements);
+        return set;
+    }
+
+    /**
+     * Sets the value of the attribute named <tt>name</tt> to <tt>value</tt>.
+     * <p>
+     * <tt>Integer</tt>, <tt>Long</tt>, <tt>Boolean</tt> and enum values are
+     * kept as they are, so that the typed getters (e.g.
+     * {@link #getAttributeAsInt(String)}) do not have to parse them and their
+     * string form is only produced when this extension is serialized. A
+     * string value of an attribute whose type is declared with
+     * {@link XmlExtension} is parsed here once, if it is in the canonical
+     * form of that type. Any other value is stored as its
+     * <tt>toString()</tt>.
+     *
+     * @param name the name of the attribute that we are setting.
+     * @param value an {@link Object} whose <tt>toString()</tt> method returns
+     * the XML value of the attribute we are setting or <tt>null</tt> if we'd
+     * like to remove the attribute with the specified <tt>name</tt>.
+     */
+    public void setAttribute(String name, Object value)
+    {
+        if (value instanceof String)
+        {
+            Class<?> type = ATTRIBUTE_TYPES.get(getClass()).get(name);
+
+            if (type != null)
+            {
+                value = ExtensionSchema.parse(type, (String) value);
+            }
+        }
+        synchronized(attributes)
+        {
+            checkNotFrozen();
+            if (value != null)
+            {
+                this.attributes.put(name, toAttributeValue(value));
+            }
+            else
+            {
+                this.attributes.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Removes the attribute with the specified <tt>name</tt> from the list of
+     * attributes registered with this packet extension.
+     *
+     * @param name the name of the attribute that we are removing.
+     */
+    public void removeAttribute(String name)
+    {
+        synchronized(attributes)
+        {
+            checkNotFrozen();
+            attributes.remove(name);
+        }
+    }
+
+    /**
+     * Returns the attribute with the specified <tt>name</tt> from the list of
+     * attributes registered with this packet extension.
+     *
+     * @param attribute the name of the attribute that we'd like to retrieve.
+     *
+     * @return the value of the specified <tt>attribute</tt> or <tt>null</tt>
+     * if no such attribute is currently registered with this extension.
+     */
+    public Object getAttribute(String attribute)
+    {
+        return getAttributeAsString(attribute);
+    }
+
+    /**
+     * Checks whether this packet extension has an attribute with a specific
+     * <tt>name</tt>.
+     *
+     * @param attribute the name of the attribute.
+     *
+     * @return <tt>true</tt> if an attribute named <tt>attribute</tt> is
+     * currently registered with this extension, <tt>false</tt> otherwise.
+     */
+    public boolean hasAttribute(String attribute)
+    {
+        return getAttributeValue(attribute) != null;
+    }
+
+    /**
+     * Returns the string value of the attribute with the specified
+     * <tt>name</tt>.
+     *
+     * @param attribute the name of the attribute that we'd like to retrieve.
+     *
+     * @return the String value of the specified <tt>attribute</tt> or
+     * <tt>null</tt> if no such attribute is currently registered with this
+     * extension.
+     */
+    public String getAttributeAsString(String attribute)
+    {
+        Object attributeVal = getAttributeValue(attribute);
+
+        return attributeVal == null ? null : attributeVal.toString();
+    }
+
+    /**
+     * Returns the <tt>int</tt> value of the attribute with the specified
+     * <tt>name</tt>.
+     *
+     * @param attribute the name of the attribute that we'd like to retrieve.
+     *
+     * @return the <tt>int</tt> value of the specified <tt>attribute</tt> or
+     * <tt>-1</tt> if no such attribute is currently registered with this
+     * extension.
+     */
+    public int getAttributeAsInt(String attribute)
+    {
+        return getAttributeAsInt(attribute, -1);
+    }
+
+    /**
+     * Returns the <tt>int</tt> value of the attribute with the specified
+     * <tt>name</tt>.
+     *
+     * @param attribute the name of the attribute that we'd like to retrieve
+     * @param defaultValue the <tt>int</tt> to be returned as the value of the
+     * specified attribute if no such attribute is currently registered with
+     * this extension
+     * @return the <tt>int</tt> value of the specified <tt>attribute</tt> or
+     * <tt>defaultValue</tt> if no such attribute is currently registered with
+     * this extension
+     */
+    public int getAttributeAsInt(String attribute, int defaultValue)
+    {
+        Object value = getAttributeValue(attribute);
+
+        if (value == null)
+        {
+            return defaultValue;
+        }
+        else if (value instanceof Integer)
+        {
+            return (Integer) value;
+        }
+        return Integer.parseInt(value.toString());
+    }
+
+    /**
+     * Returns the <tt>long</tt> value of the attribute with the specified
+     * <tt>name</tt>.
+     *
+     * @param attribute the name of the attribute that we'd like to retrieve
+     * @param defaultValue the <tt>long</tt> to be returned as the value of the
+     * specified attribute if no such attribute is currently registered with
+     * this extension
+     * @return the <tt>long</tt> value of the specified <tt>attribute</tt> or
+     * <tt>defaultValue</tt> if no such attribute is currently registered with
+     * this extension
+     */
+    public long getAttributeAsLong(String attribute, long defaultValue)
+    {
+        Object value = getAttributeValue(attribute);
+
+        if (value == null)
+        {
+            return defaultValue;
+        }
+        else if (value instanceof Long || value instanceof Integer)
+        {
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong(value.toString());
+    }
+
+    /**
+     * Returns the value of the attribute with the specified <tt>name</tt> as a
+     * constant of a specific enum type.
+     *
+     * @param attribute the name of the attribute that we'd like to retrieve
+     * @param type the enum type of the attribute
+     * @return the enum constant of <tt>type</tt> with the name of the value of
+     * the specified <tt>attribute</tt> or <tt>null</tt> if no such attribute
+     * is currently registered with this extension
+     * @throws IllegalArgumentException if the value of the specified
+     * <tt>attribute</tt> is not the name of a constant of <tt>type</tt>
+     */
+    public <E extends Enum<E>> E getAttributeAsEnum(
+            String attribute,
+            Class<E> type)
+        throws IllegalArgumentException
+    {
+        Object value = getAttributeValue(attribute);
+
+        if (value == null)
+        {
+            return null;
+        }
+        else if (type.isInstance(value))
+        {
+            return type.cast(value);
+        }
+        return Enum.valueOf(type, value.toString());
+    }
+
+    /**
+     * Returns the value of the attribute with a specific name, as stored in
+     * {@link #attributes}.
+     *
+     * @param attribute the name of the attribute.
+     * @return the stored value of <tt>attribute</tt> or <tt>null</tt> if no
+     * such attribute is currently registered with this extension.
+     */
+    private Object getAttributeValue(String attribute)
+    {
+        if (frozen)
+        {
+            return attributes.get(attribute);
+        }
+        synchronized(attributes)
+        {
+            return attributes.get(attribute);
+        }
+    }
+
+    /**
+     * Converts a value passed to {@link #setAttribute(String, Object)} to the
+     * form in which it is stored in {@link #attributes}.
+     *
+     * @param value the (non-<tt>null</tt>) value of an attribute.
+     * @return <tt>value</tt> itself if it is of one of the types that we keep
+     * as they are, or its string form otherwise.
+     */
+    private static Object toAttributeValue(Object value)
+    {
+        if (value instanceof Integer
+                || value instanceof Long
+                || value instanceof Boolean
+                || value instanceof Enum)
+        {
+            return value;
+        }
+        else
+        {
+            return value.toString();
+        }
+    }
+
+    /**
+     * Tries to parse the value of the specified <tt>attribute</tt> as an
+     * <tt>URI</tt> and returns it.
+     *
+     * @param attribute the name of the attribute that we'd like to retrieve.
+     *
+     * @return the <tt>URI</tt> value of the specified <tt>attribute</tt> or
+     * <tt>null</tt> if no such attribute is currently registered with this
+     * extension.
+     * @throws IllegalArgumentException if <tt>attribute</tt> is not a valid {@link
+     * URI}
+     */
+    public URI getAttributeAsURI(String attribute)
+        throws IllegalArgumentException
+    {
+        String attributeVal = getAttributeAsString(attribute);
+
+        if (attributeVal == null)
+            return null;
+
+        try
+        {
+            URI uri = new URI(attributeVal);
+
+            return uri;
+        }
+        catch (URISyntaxException e)
+        {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Returns {@link #attributes} as the {@link AttributeMap} which it is,
+     * for the package to read the attributes by position.
+     *
+     * @return the attributes of this extension.
+     */
+    final AttributeMap getAttributeMap()
+    {
+        return (AttributeMap) attributes;
+    }
+
+    /**
+     * Gets the names of the attributes which currently have associated values
+     * in this extension.
+     *
+     * @return the names of the attributes which currently have associated
+     * values in this extension
+     */
+    public List<String> getAttributeNames()
+    {
+        if (frozen)
+        {
+            return new ArrayList<>(attributes.keySet());
+        }
+        synchronized (attributes)
+        {
+            return new ArrayList<>(attributes.keySet());
+        }
+    }
+
+    /**
+     * Specifies the text content of this extension.
+     *
+     * @param text the text content of this extension.
+     */
+    public void setText(String text)
+    {
+        checkNotFrozen();
+        this.textContent = text;
+        modified();
+    }
+
+    /**
+     * Returns the text content of this extension or <tt>null</tt> if no text
+     * content has been specified so far.
+     *
+     * @return the text content of this extension or <tt>null</tt> if no text
+     * content has been specified so far.
+     */
+    public String getText()
+    {
+        return textContent;
+    }
+
+    /**
+     * Returns this packet's first direct child extension that matches the
+     * specified <tt>type</tt>.
+     *
+     * @param <T> the specific type of <tt>ExtensionElement</tt> to be returned
+     *
+     * @param type the <tt>Class</tt> of the extension we are looking for.
+     *
+     * @return this packet's first direct child extension that matches specified
+     * <tt>type</tt> or <tt>null</tt> if no such child extension was found.
+     */
+    public <T extends ExtensionElement> T getFirstChildOfType(Class<T> type)
+    {
+        List<? extends ExtensionElement> childExtensions = getChildExtensions();
+
+        if (isIndexed(childExtensions))
+        {
+            List<T> childExtensionsOfType = getIndexedChildExtensionsOfType(type);
+
+            return childExtensionsOfType.isEmpty()
+                ? null : childExtensionsOfType.get(0);
+        }
+
+        for (ExtensionElement extension : childExtensions)
+        {
+            if (type.isInstance(extension))
+            {
+                @SuppressWarnings("unchecked")
+                T extensionAsType = (T) extension;
+
+                return extensionAsType;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns this packet's direct child extensions that match the
+     * specified <tt>type</tt>.
+     *
+     * @param <T> the specific <tt>ExtensionElement</tt> type of child extensions
+     * to be returned
+     *
+     * @param type the <tt>Class</tt> of the extension we are looking for.
+     *
+     * @return a (possibly empty) list containing all of this packet's direct
+     * child extensions that match the specified <tt>type</tt>. The list is a
+     * copy, which the caller may modify. Its elements are only copied when
+     * it is first modified.
+     */
+    public <T extends ExtensionElement> List<T> getChildExtensionsOfType(
+            Class<T> type)
+    {
+        return new DetachedList<>(getUnmodifiableChildExtensionsOfType(type));
+    }
+
+    /**
+     * Returns this packet's direct child extensions that match the
+     * specified <tt>type</tt>, without copying them as
+     * {@link #getChildExtensionsOfType(Class)} does.
+     *
+     * @param <T> the specific <tt>ExtensionElement</tt> type of child
+     * extensions to be returned
+     *
+     * @param type the <tt>Class</tt> of the extension we are looking for.
+     *
+     * @return an unmodifiable (possibly empty) list containing all of this
+     * packet's direct child extensions that match the specified
+     * <tt>type</tt>. The list is not modified when children are later added
+     * or removed, and the same list may be returned until they are.
+     */
+    public <T extends ExtensionElement> List<T>
+        getUnmodifiableChildExtensionsOfType(Class<T> type)
+    {
+        List<? extends ExtensionElement> childExtensions = getChildExtensions();
+
+        // Extensions which override getChildExtensions() may keep some of
+        // their children elsewhere, so the index only applies if they don't.
+        if (isIndexed(childExtensions))
+            return getIndexedChildExtensionsOfType(type);
+
+        if (childExtensions == null)
+            return Collections.emptyList();
+
+        List<T> result = new ArrayList<T>();
+
+        for (ExtensionElement extension : childExtensions)
+        {
+            if (type.isInstance(extension))
+            {
+                @SuppressWarnings("unchecked")
+                T extensionAsType = (T) extension;
+
+                result.add(extensionAsType);
+            }
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Checks whether a list returned by {@link #getChildExtensions()} is
+     * {@link #childExtensions} (or a view of it), so that its elements can be
+     * looked up by type through the index of its snapshot.
+     *
+     * @param childExtensions the list returned by
+     * {@link #getChildExtensions()}.
+     * @return <tt>true</tt> if <tt>childExtensions</tt> is
+     * {@link #childExtensions} or {@link #unmodifiableChildExtensions}.
+     */
+    private boolean isIndexed(List<? extends ExtensionElement> childExtensions)
+    {
+        return childExtensions == this.childExtensions
+            || (childExtensions != null
+                && childExtensions == unmodifiableChildExtensions);
+    }
+
+    /**
+     * Returns the elements of {@link #childExtensions} which are instances of a
+     * specific type, using (and if necessary computing) the index by type of
+     * its current snapshot.
+     *
+     * @param type the <tt>Class</tt> of the extensions we are looking for.
+     * @return an unmodifiable list of the elements of {@link #childExtensions}
+     * which are instances of <tt>type</tt>.
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends ExtensionElement> List<T>
+        getIndexedChildExtensionsOfType(Class<T> type)
+    {
+        return (List<T>) childExtensions.getSnapshot().getChildrenOfType(type);
+    }
+
+    /**
+     * Wraps an extension so that it can be kept in hash-based collections by
+     * its structure rather than its identity, e.g. to find the sources or
+     * payload types which are already known. The extension must not change
+     * while it is in such a collection.
+     */
+    public static final class StructuralKey
+    {
+        /**
+         * The extension which this key wraps.
+         */
+        private final AbstractPacketExtension extension;
+
+        /**
+         * Initializes a new <tt>StructuralKey</tt>.
+         *
+         * @param extension the extension to wrap.
+         */
+        public StructuralKey(AbstractPacketExtension extension)
+        {
+            this.extension = Objects.requireNonNull(extension, "extension");
+        }
+
+        /**
+         * Returns the extension which this key wraps.
+         *
+         * @return the extension which this key wraps.
+         */
+        public AbstractPacketExtension getExtension()
+        {
+            return extension;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof StructuralKey
+                && extension.structurallyEquals(((StructuralKey) o).extension);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode()
+        {
+            long hash = extension.getStructuralHash();
+
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+
+    /**
+     * The structural hash of an extension, computed at a specific version of
+     * it.
+     */
+    private static final class StructuralHash
+    {
+        /**
+         * The version of the extension at which the hash was computed.
+         */
+        final int version;
+
+        /**
+         * The hash of the element name, attributes and text.
+         */
+        final long ownHash;
+
+        /**
+         * The effective namespace of the extension when the hash was computed,
+         * which its child extensions may inherit.
+         */
+        final String namespace;
+
+        /**
+         * The hash of the whole structure other than the namespace.
+         */
+        final long contentHash;
+
+        /**
+         * Whether {@link #contentHash} holds for as long as the version does,
+         * i.e. whether the descendants of the extension can no longer change.
+         */
+        final boolean complete;
+
+        StructuralHash(
+                int version,
+                long ownHash,
+                String namespace,
+                long contentHash,
+                boolean complete)
+        {
+            this.version = version;
+            this.ownHash = ownHash;
+            this.namespace = namespace;
+            this.contentHash = contentHash;
+            this.complete = complete;
+        }
+    }
+
+    /**
+     * The list of child extensions of an {@link AbstractPacketExtension}.
+     * <p>
+     * Its elements are kept in an immutable {@link ChildSnapshot}, which is
+     * replaced on every change, so reads do not lock and iterators see the
+     * elements as they were when they were created. Changes are serialized by
+     * locking the list, which is also how {@link #freeze()} keeps them out. An
+     * append writes into the spare capacity of the array of the current
+     * snapshot, which no published snapshot covers, so building a list one
+     * child at a time (as the parser does) does not copy it every time.
+     */
+    private class ChildExtensionList
+        extends AbstractList<ExtensionElement>
+        implements RandomAccess
+    {
+        /**
+         * The elements of this list.
+         */
+        private volatile ChildSnapshot snapshot = ChildSnapshot.EMPTY;
+
+        /**
+         * Returns the elements of this list, which no longer change.
+         *
+         * @return the current snapshot of this list.
+         */
+        ChildSnapshot getSnapshot()
+        {
+            return snapshot;
+        }
+
+        /**
+         * Replaces the elements of this list. Must be called with the lock of
+         * this list held.
+         *
+         * @param snapshot the new elements of this list.
+         */
+        private void publish(ChildSnapshot snapshot)
+        {
+            this.snapshot = snapshot;
+            modCount++;
+            modified();
+        }
+
+        @Override
+        public ExtensionElement get(int index)
+        {
+            return snapshot.get(index);
+        }
+
+        @Override
+        public int size()
+        {
+            return snapshot.size;
+        }
+
+        @Override
+        public Iterator<ExtensionElement> iterator()
+        {
+            return new ChildIterator(this, snapshot, 0);
+        }
+
+        @Override
+        public ListIterator<ExtensionElement> listIterator(int index)
+        {
+            ChildSnapshot snapshot = this.snapshot;
+
+            if (index < 0 || index > snapshot.size)
+            {
+                throw new IndexOutOfBoundsException(
+                        "Index: " + index + ", Size: " + snapshot.size);
+            }
+            return new ChildIterator(this, snapshot, index);
+        }
+
+        @Override
+        public Object[] toArray()
+        {
+            ChildSnapshot snapshot = this.snapshot;
+
+            return
+                Arrays.copyOf(snapshot.elements, snapshot.size, Object[].class);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T[] toArray(T[] a)
+        {
+            ChildSnapshot snapshot = this.snapshot;
+            int size = snapshot.size;
+
+            if (a.length < size)
+            {
+                return
+                    (T[]) Arrays.copyOf(
+                            snapshot.elements,
+                            size,
+                            a.getClass());
+            }
+            System.arraycopy(snapshot.elements, 0, a, 0, size);
+            if (a.length > size)
+            {
+                a[size] = null;
+            }
+            return a;
+        }
+
+        @Override
+        public boolean add(ExtensionElement element)
+        {
+            synchronized (this)
+            {
+                checkNotFrozen();
+
+                ChildSnapshot snapshot = this.snapshot;
+                ExtensionElement[] elements = snapshot.elements;
+                int size = snapshot.size;
+
+                if (size == elements.length)
+                {
+                    elements
+                        = Arrays.copyOf(
+                                elements,
+                                Math.max(4, size + (size >> 1)));
+                }
+                elements[size] = element;
+                publish(new ChildSnapshot(elements, size + 1));
+            }
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p>
+         * Publishes a single snapshot with all of the elements rather than
+         * one per element.
+         */
+        @Override
+        public boolean addAll(Collection<? extends ExtensionElement> c)
+        {
+            return addAll(c.toArray(new ExtensionElement[0]), true);
+        }
+
+        /**
+         * Appends the elements of an array to this list, publishing a single
+         * snapshot with all of them.
+         *
+         * @param added the elements to append.
+         * @param keep whether this list may keep <tt>added</tt> as its
+         * elements rather than copy them.
+         * @return <tt>true</tt> if this list changed.
+         */
+        boolean addAll(ExtensionElement[] added, boolean keep)
+        {
+            if (added.length == 0)
+            {
+                return false;
+            }
+            synchronized (this)
+            {
+                checkNotFrozen();
+
+                ChildSnapshot snapshot = this.snapshot;
+                ExtensionElement[] elements = snapshot.elements;
+                int size = snapshot.size;
+
+                if (size == 0 && keep)
+                {
+                    elements = added;
+                }
+                else if (size + added.length > elements.length)
+                {
+                    elements
+                        = Arrays.copyOf(
+                                elements,
+                                Math.max(4, size + added.length));
+                }
+                if (elements != added)
+                {
+                    System.arraycopy(added, 0, elements, size, added.length);
+                }
+                publish(new ChildSnapshot(elements, size + added.length));
+            }
+            return true;
+        }
+
+        @Override
+        public void add(int index, ExtensionElement element)
+        {
+            synchronized (this)
+            {
+                checkNotFrozen();
+
+                ChildSnapshot snapshot = this.snapshot;
+                int size = snapshot.size;
+
+                if (index < 0 || index > size)
+                {
+                    throw new IndexOutOfBoundsException(
+                            "Index: " + index + ", Size: " + size);
+                }
+
+                ExtensionElement[] elements = new ExtensionElement[size + 1];
+
+                System.arraycopy(snapshot.elements, 0, elements, 0, index);
+                elements[index] = element;
+                System.arraycopy(
+                        snapshot.elements, index,
+                        elements, index + 1,
+                        size - index);
+                publish(new ChildSnapshot(elements, size + 1));
+            }
+        }
+
+        @Override
+        public ExtensionElement set(int index, ExtensionElement element)
+        {
+            synchronized (this)
+            {
+                checkNotFrozen();
+
+                ChildSnapshot snapshot = this.snapshot;
+                ExtensionElement old = snapshot.get(index);
+                ExtensionElement[] elements
+                    = Arrays.copyOf(snapshot.elements, snapshot.size);
+
+                elements[index] = element;
+                publish(new ChildSnapshot(elements, elements.length));
+                return old;
+            }
+        }
+
+        @Override
+        public ExtensionElement remove(int index)
+        {
+            synchronized (this)
+            {
+                checkNotFrozen();
+
+                ChildSnapshot snapshot = this.snapshot;
+                ExtensionElement old = snapshot.get(index);
+                int size = snapshot.size;
+                ExtensionElement[] elements = new ExtensionElement[size - 1];
+
+                System.arraycopy(snapshot.elements, 0, elements, 0, index);
+                System.arraycopy(
+                        snapshot.elements, index + 1,
+                        elements, index,
+                        size - index - 1);
+                publish(new ChildSnapshot(elements, size - 1));
+                return old;
+            }
+        }
+
+        @Override
+        public boolean remove(Object o)
+        {
+            synchronized (this)
+            {
+                int index = indexOf(o);
+
+                if (index < 0)
+                {
+                    return false;
+                }
+                remove(index);
+                return true;
+            }
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super ExtensionElement> filter)
+        {
+            synchronized (this)
+            {
+                ChildSnapshot snapshot = this.snapshot;
+                ExtensionElement[] elements
+                    = new ExtensionElement[snapshot.size];
+                int size = 0;
+
+                for (int i = 0; i < snapshot.size; i++)
+                {
+                    ExtensionElement element = snapshot.elements[i];
+
+                    if (!filter.test(element))
+                    {
+                        elements[size++] = element;
+                    }
+                }
+                if (size == snapshot.size)
+                {
+                    return false;
+                }
+                checkNotFrozen();
+                publish(new ChildSnapshot(elements, size));
+                return true;
+            }
+        }
+
+        @Override
+        public void clear()
+        {
+            synchronized (this)
+            {
+                checkNotFrozen();
+                if (snapshot.size != 0)
+                {
+                    publish(ChildSnapshot.EMPTY);
+                }
+            }
+        }
+    }
+
+    /**
+     * A list of child extensions which an extension keeps outside of the list
+     * of {@link #getChildExtensions()} of this class. See
+     * {@link #createChildExtensionList()}.
+     *
+     * @param <T> the type of the child extensions.
+     */
+    private class TrackedChildExtensionList<T extends ExtensionElement>
+        extends AbstractList<T>
+        implements RandomAccess
+    {
+        /**
+         * The elements of this list.
+         */
+        private final ArrayList<T> elements = new ArrayList<>();
+
+        @Override
+        public T get(int index)
+        {
+            return elements.get(index);
+        }
+
+        @Override
+        public int size()
+        {
+            return elements.size();
+        }
+
+        @Override
+        public void add(int index, T element)
+        {
+            elements.add(index, element);
+            modCount++;
+            childExtensionAdded(element);
+        }
+
+        @Override
+        public T set(int index, T element)
+        {
+            T old = elements.set(index, element);
+
+            childExtensionAdded(element);
+            childExtensionRemoved(old);
+            return old;
+        }
+
+        @Override
+        public T remove(int index)
+        {
+            T old = elements.remove(index);
+
+            modCount++;
+            childExtensionRemoved(old);
+            return old;
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p>
+         * Removes the matching elements in a single pass rather than one
+         * {@link #remove(int)} each.
+         */
+        @Override
+        public boolean removeIf(Predicate<? super T> filter)
+        {
+            List<T> removed = new ArrayList<>();
+
+            elements.removeIf(e -> filter.test(e) && removed.add(e));
+            if (removed.isEmpty())
+            {
+                return false;
+            }
+            modCount++;
+            for (T element : removed)
+            {
+                childExtensionRemoved(element);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The XML of an {@link AbstractPacketExtension} and what it takes for it
+     * to be current.
+     */
+    private static final class CachedXml
+    {
+        /**
+         * The effective namespace of the element which enclosed the
+         * extension, which determines whether its <tt>xmlns</tt> attribute
+         * was written.
+         */
+        final String enclosingNamespace;
+
+        /**
+         * The versions of the extension and of its descendants when it was
+         * serialized, in document order, without the descendants of those
+         * which were frozen; or <tt>null</tt> if the extension was frozen.
+         */
+        private final int[] versions;
+
+        /**
+         * The XML of the extension.
+         */
+        final String xml;
+
+        CachedXml(String enclosingNamespace, int[] versions, String xml)
+        {
+            this.enclosingNamespace = enclosingNamespace;
+            this.versions = versions;
+            this.xml = xml;
+        }
+
+        /**
+         * Checks whether this is the current XML of an extension.
+         *
+         * @param extension the extension.
+         * @param enclosingNamespace the effective namespace of the element
+         * which encloses the extension.
+         * @return <tt>true</tt> if this is the current XML of the extension.
+         */
+        boolean isCurrent(
+                AbstractPacketExtension extension,
+                String enclosingNamespace)
+        {
+            return Objects.equals(this.enclosingNamespace, enclosingNamespace)
+                && (versions == null
+                    || extension.checkVersions(versions, 0)
+                        == versions.length);
+        }
+    }
+
+    /**
+     * A modifiable copy of a list which does not change, such as the lists
+     * returned by {@link #getUnmodifiableChildExtensionsOfType(Class)}. The
+     * elements are copied when the copy is first modified, so that callers
+     * which only read it do not pay for the copy.
+     *
+     * @param <T> the type of the elements.
+     */
+    private static final class DetachedList<T>
+        extends AbstractList<T>
+        implements RandomAccess
+    {
+        /**
+         * The elements, which are the list this copy was created from until
+         * the copy is first modified.
+         */
+        private List<T> elements;
+
+        /**
+         * Whether {@link #elements} has been copied into a list of this copy.
+         */
+        private boolean copied;
+
+        /**
+         * Initializes a new copy of a list which does not change.
+         *
+         * @param elements the list to copy.
+         */
+        DetachedList(List<T> elements)
+        {
+            this.elements = elements;
+        }
+
+        @Override
+        public void add(int index, T element)
+        {
+            modifiable().add(index, element);
+            modCount++;
+        }
+
+        @Override
+        public void clear()
+        {
+            if (!elements.isEmpty())
+            {
+                elements = new ArrayList<>();
+                copied = true;
+                modCount++;
+            }
+        }
+
+        @Override
+        public T get(int index)
+        {
+            return elements.get(index);
+        }
+
+        /**
+         * Returns the elements of this copy, copying them first if this copy
+         * has not been modified yet.
+         *
+         * @return the elements of this copy, in a list of its own.
+         */
+        private List<T> modifiable()
+        {
+            if (!copied)
+            {
+                elements = new ArrayList<>(elements);
+                copied = true;
+            }
+            return elements;
+        }
+
+        @Override
+        public T remove(int index)
+        {
+            T element = modifiable().remove(index);
+
+            modCount++;
+            return element;
+        }
+
+        @Override
+        public T set(int index, T element)
+        {
+            return modifiable().set(index, element);
+        }
+
+        @Override
+        public int size()
+        {
+            return elements.size();
+        }
+    }
+
+    /**
+     * The versions of the extensions written by a serialization, in document
+     * order, from which a {@link CachedXml} is created.
+     */
+    private static final class VersionList
+    {
+        /**
+         * The versions, followed by spare capacity.
+         */
+        private int[] versions = new int[16];
+
+        /**
+         * The number of versions.
+         */
+        private int size;
+
+        /**
+         * Adds a version.
+         *
+         * @param version the version to add.
+         */
+        void add(int version)
+        {
+            if (size == versions.length)
+            {
+                versions = Arrays.copyOf(versions, size << 1);
+            }
+            versions[size++] = version;
+        }
+
+        /**
+         * Returns the versions.
+         *
+         * @return the versions, in an array of their number.
+         */
+        int[] toArray()
+        {
+            return Arrays.copyOf(versions, size);
+        }
+    }
+
+    /**
+     * The child extensions of an {@link AbstractPacketExtension} at some
+     * point in time, which no longer change. The elements of {@link #elements}
+     * past {@link #size} are not part of the snapshot.
+     */
+    private static final class ChildSnapshot
+    {
+        /**
+         * The snapshot of a list without elements.
+         */
+        static final ChildSnapshot EMPTY
+            = new ChildSnapshot(new ExtensionElement[0], 0);
+
+        /**
+         * The elements, followed by spare capacity.
+         */
+        final ExtensionElement[] elements;
+
+        /**
+         * The number of elements.
+         */
+        final int size;
+
+        /**
+         * Maps a type to the (unmodifiable) list of the elements which are
+         * instances of it, as returned by
+         * {@link #getChildExtensionsOfType(Class)}. Created on first use.
+         */
+        private volatile ConcurrentMap<Class<?>, List<?>> childrenByType;
+
+        ChildSnapshot(ExtensionElement[] elements, int size)
+        {
+            this.elements = elements;
+            this.size = size;
+        }
+
+        /**
+         * Returns the element at a specific position.
+         *
+         * @param index the position of the element.
+         * @return the element at <tt>index</tt>.
+         */
+        ExtensionElement get(int index)
+        {
+            if (index < 0 || index >= size)
+            {
+                throw new IndexOutOfBoundsException(
+                        "Index: " + index + ", Size: " + size);
+            }
+            return elements[index];
+        }
+
+        /**
+         * Returns the elements which are instances of a specific type.
+         *
+         * @param type the type of the elements.
+         * @return an unmodifiable list of the elements which are instances of
+         * <tt>type</tt>.
+         */
+        List<?> getChildrenOfType(Class<?> type)
+        {
+            if (size == 0)
+            {
+                return Collections.emptyList();
+            }
+
+            ConcurrentMap<Class<?>, List<?>> childrenByType
+                = this.childrenByType;
+
+            if (childrenByType == null)
+            {
+                // A concurrent lookup may create its own map, in which case
+                // one of the lists is simply computed again.
+                childrenByType = new ConcurrentHashMap<>(4);
+                this.childrenByType = childrenByType;
+            }
+
+            List<?> result = childrenByType.get(type);
+
+            if (result == null)
+            {
+                result = findChildrenOfType(type);
+
+                List<?> oldResult = childrenByType.putIfAbsent(type, result);
+
+                if (oldResult != null)
+                {
+                    result = oldResult;
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Scans the elements for those which are instances of a specific
+         * type.
+         *
+         * @param type the type of the elements.
+         * @return an unmodifiable list of the elements which are instances of
+         * <tt>type</tt>.
+         */
+        private List<ExtensionElement> findChildrenOfType(Class<?> type)
+        {
+            List<ExtensionElement> childrenOfType = null;
+
+            for (int i = 0; i < size; i++)
+            {
+                ExtensionElement element = elements[i];
+
+                if (type.isInstance(element))
+                {
+                    if (childrenOfType == null)
+                    {
+                        childrenOfType = new ArrayList<>();
+                    }
+                    childrenOfType.add(element);
+                }
+            }
+            return childrenOfType == null
+                ? Collections.emptyList()
+                : Collections.unmodifiableList(childrenOfType);
+        }
+    }
+
+    /**
+     * Iterates over a {@link ChildSnapshot} of a {@link ChildExtensionList}.
+     * Its modifications apply to the list, after which it continues over the
+     * new snapshot of the list.
+     */
+    private static final class ChildIterator
+        implements ListIterator<ExtensionElement>
+    {
+        /**
+         * The list to apply the modifications to.
+         */
+        private final ChildExtensionList list;
+
+        /**
+         * The snapshot to iterate over.
+         */
+        private ChildSnapshot snapshot;
+
+        /**
+         * The position of the next element.
+         */
+        private int cursor;
+
+        /**
+         * The position of the element last returned by {@link #next()} or
+         * {@link #previous()}, or <tt>-1</tt> if there is none or it has
+         * been removed.
+         */
+        private int lastReturned = -1;
+
+        ChildIterator(
+                ChildExtensionList list,
+                ChildSnapshot snapshot,
+                int cursor)
+        {
+            this.list = list;
+            this.snapshot = snapshot;
+            this.cursor = cursor;
+        }
+
+        /**
+         * Makes sure that the list has not changed since this iterator last
+         * saw it. Must be called with the lock of the list held.
+         *
+         * @throws ConcurrentModificationException if the list has changed.
+         */
+        private void checkForComodification()
+        {
+            if (list.getSnapshot() != snapshot)
+            {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        /**
+         * Makes sure that there is an element to remove or replace.
+         *
+         * @throws IllegalStateException if there is none.
+         */
+        private void checkLastReturned()
+        {
+            if (lastReturned < 0)
+            {
+                throw new IllegalStateException();
+            }
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return cursor < snapshot.size;
+        }
+
+        @Override
+        public ExtensionElement next()
+        {
+            if (cursor >= snapshot.size)
+            {
+                throw new NoSuchElementException();
+            }
+            lastReturned = cursor;
+            return snapshot.elements[cursor++];
+        }
+
+        @Override
+        public boolean hasPrevious()
+        {
+            return cursor > 0;
+        }
+
+        @Override
+        public ExtensionElement previous()
+        {
+            if (cursor <= 0)
+            {
+                throw new NoSuchElementException();
+            }
+            lastReturned = --cursor;
+            return snapshot.elements[cursor];
+        }
+
+        @Override
+        public int nextIndex()
+        {
+            return cursor;
+        }
+
+        @Override
+        public int previousIndex()
+        {
+            return cursor - 1;
+        }
+
+        @Override
+        public void remove()
+        {
+            checkLastReturned();
+            synchronized (list)
+            {
+                checkForComodification();
+                list.remove(lastReturned);
+                snapshot = list.getSnapshot();
+            }
+            cursor = lastReturned;
+            lastReturned = -1;
+        }
+
+        @Override
+        public void set(ExtensionElement element)
+        {
+            checkLastReturned();
+            synchronized (list)
+            {
+                checkForComodification();
+                list.set(lastReturned, element);
+                snapshot = list.getSnapshot();
+            }
+        }
+
+        @Override
+        public void add(ExtensionElement element)
+        {
+            synchronized (list)
+            {
+                checkForComodification();
+                list.add(cursor, element);
+                snapshot = list.getSnapshot();
+            }
+            cursor++;
+            lastReturned = -1;
+        }
     }
 }
@@ -0,0 +1,619 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions;
+
+import java.util.*;
+
+/**
+ * A compact, insertion-ordered {@link Map} of XML attribute names to values,
+ * used by {@link AbstractPacketExtension}. Most elements carry fewer than ten
+ * attributes, so instead of a hash table with one entry object per mapping we
+ * keep the names and values interleaved in a single array and look them up by
+ * a linear scan. Only when an element has unusually many attributes do we also
+ * build a hash index of the names.
+ * <p>
+ * Like {@link LinkedHashMap}, this class is not thread-safe.
+ */
+public final class AttributeMap
+    extends AbstractMap<String, Object>
+{
+    /**
+     * The table of an empty map, shared by all instances until the first
+     * attribute is set.
+     */
+    private static final Object[] EMPTY_TABLE = new Object[0];
+
+    /**
+     * The number of attributes that we make room for on the first insertion.
+     */
+    private static final int INITIAL_CAPACITY = 4;
+
+    /**
+     * The number of attributes above which lookups go through {@link #index}
+     * rather than a linear scan of {@link #table}.
+     */
+    private static final int INDEX_THRESHOLD = 16;
+
+    /**
+     * The names and values of the attributes, in insertion order: the name of
+     * the i-th attribute is at <tt>2*i</tt> and its value at <tt>2*i+1</tt>.
+     */
+    private Object[] table = EMPTY_TABLE;
+
+    /**
+     * {@link #table} as last returned by {@link #getSnapshot()}, which is
+     * then no longer written to, or <tt>null</tt> if this map has changed
+     * since.
+     */
+    private volatile Object[] snapshot;
+
+    /**
+     * The number of attributes in this map.
+     */
+    private int size;
+
+    /**
+     * Maps the name of an attribute to its position in {@link #table}. Only
+     * maintained while there are more than {@link #INDEX_THRESHOLD} attributes,
+     * <tt>null</tt> otherwise.
+     */
+    private Map<Object, Integer> index;
+
+    /**
+     * The lazily created view of the mappings of this map.
+     */
+    private Set<Map.Entry<String, Object>> entrySet;
+
+    /**
+     * The number of times an attribute has been set or removed.
+     */
+    private int modCount;
+
+    /**
+     * The extension whose attributes this map holds, which is told about each
+     * change, or <tt>null</tt>.
+     */
+    private final AbstractPacketExtension owner;
+
+    /**
+     * Initializes a new empty map.
+     */
+    public AttributeMap()
+    {
+        this(null);
+    }
+
+    /**
+     * Initializes a new empty map which holds the attributes of a specific
+     * extension.
+     *
+     * @param owner the extension whose attributes the new map holds.
+     */
+    AttributeMap(AbstractPacketExtension owner)
+    {
+        this.owner = owner;
+    }
+
+    /**
+     * Returns the name of the attribute at a specific position (in insertion
+     * order). Unlike iterating over {@link #entrySet()} this does not allocate.
+     *
+     * @param i the position of the attribute, between 0 and
+     * <tt>size() - 1</tt>.
+     * @return the name of the attribute at position <tt>i</tt>.
+     */
+    public String nameAt(int i)
+    {
+        checkIndex(i);
+        return (String) table[i << 1];
+    }
+
+    /**
+     * Returns the value of the attribute at a specific position (in insertion
+     * order).
+     *
+     * @param i the position of the attribute, between 0 and
+     * <tt>size() - 1</tt>.
+     * @return the value of the attribute at position <tt>i</tt>.
+     */
+    public Object valueAt(int i)
+    {
+        checkIndex(i);
+        return table[(i << 1) + 1];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the number of attributes which this map holds before it grows
+     * its table.
+     *
+     * @return the capacity of this map.
+     */
+    int capacity()
+    {
+        return table.length >> 1;
+    }
+
+    /**
+     * Returns the names and values of the attributes, laid out as in
+     * {@link #table}, in an array which no longer changes, so that they may
+     * be read without holding the lock of this map. The array may be longer
+     * than needed: the names which follow the last attribute are
+     * <tt>null</tt>. It is shared until this map changes, so reading the
+     * attributes of a map which does not change does not allocate.
+     *
+     * @return the names and values of the attributes.
+     */
+    public Object[] getSnapshot()
+    {
+        Object[] snapshot = this.snapshot;
+
+        if (snapshot == null)
+        {
+            synchronized (this)
+            {
+                snapshot = this.snapshot;
+                if (snapshot == null)
+                {
+                    this.snapshot = snapshot = table;
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(Object name)
+    {
+        return indexOf(name) >= 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object get(Object name)
+    {
+        int i = indexOf(name);
+
+        return i < 0 ? null : table[(i << 1) + 1];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object put(String name, Object value)
+    {
+        int i = indexOf(name);
+
+        if (i >= 0)
+        {
+            Object oldValue = table[(i << 1) + 1];
+
+            unshare();
+            table[(i << 1) + 1] = value;
+            modified();
+            return oldValue;
+        }
+
+        if (table.length == size << 1)
+        {
+            table
+                = Arrays.copyOf(
+                        table,
+                        Math.max(INITIAL_CAPACITY, size + (size >> 1) + 1)
+                            << 1);
+            snapshot = null;
+        }
+        else
+        {
+            unshare();
+        }
+        table[size << 1] = name;
+        table[(size << 1) + 1] = value;
+        size++;
+        modified();
+
+        if (index != null)
+        {
+            index.put(name, size - 1);
+        }
+        else if (size > INDEX_THRESHOLD)
+        {
+            rebuildIndex();
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object remove(Object name)
+    {
+        int i = indexOf(name);
+
+        if (i < 0)
+        {
+            return null;
+        }
+
+        Object oldValue = table[(i << 1) + 1];
+
+        removeAt(i);
+        return oldValue;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear()
+    {
+        unshare();
+        Arrays.fill(table, 0, size << 1, null);
+        size = 0;
+        index = null;
+        modified();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet()
+    {
+        if (entrySet == null)
+        {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    /**
+     * Returns the number of times an attribute has been set or removed, so
+     * that the users of this map can tell whether it has changed.
+     *
+     * @return the number of times an attribute has been set or removed.
+     */
+    public int getModCount()
+    {
+        return modCount;
+    }
+
+    /**
+     * Records that an attribute has been set or removed, and tells
+     * {@link #owner} about it.
+     */
+    private void modified()
+    {
+        modCount++;
+        if (owner != null)
+        {
+            owner.modified();
+        }
+    }
+
+    /**
+     * Returns the position of the attribute with a specific name.
+     *
+     * @param name the name of the attribute.
+     * @return the position of the attribute called <tt>name</tt> or
+     * <tt>-1</tt> if there is no such attribute.
+     */
+    private int indexOf(Object name)
+    {
+        if (index != null)
+        {
+            Integer i = index.get(name);
+
+            return i == null ? -1 : i;
+        }
+
+        // Attribute names are usually constants, so try identity first.
+        for (int i = 0; i < size; i++)
+        {
+            if (table[i << 1] == name)
+            {
+                return i;
+            }
+        }
+        if (name != null)
+        {
+            for (int i = 0; i < size; i++)
+            {
+                if (name.equals(table[i << 1]))
+                {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the attribute at a specific position, preserving the order of
+     * the remaining ones.
+     *
+     * @param i the position of the attribute to remove.
+     */
+    private void removeAt(int i)
+    {
+        int tail = size - i - 1;
+
+        unshare();
+        if (tail > 0)
+        {
+            System.arraycopy(
+                    table, (i + 1) << 1, table, i << 1, tail << 1);
+        }
+        size--;
+        table[size << 1] = null;
+        table[(size << 1) + 1] = null;
+        modified();
+
+        if (index != null)
+        {
+            if (size > INDEX_THRESHOLD)
+            {
+                rebuildIndex();
+            }
+            else
+            {
+                index = null;
+            }
+        }
+    }
+
+    /**
+     * Makes room for a specific number of attributes in total, so that
+     * putting that many does not grow {@link #table} more than once.
+     *
+     * @param capacity the number of attributes.
+     */
+    void ensureCapacity(int capacity)
+    {
+        if (table.length < capacity << 1)
+        {
+            table = Arrays.copyOf(table, capacity << 1);
+        }
+    }
+
+    /**
+     * Sets the attributes of this map, which must be empty, to the names and
+     * values in a specific table, laid out as {@link #table}, which this map
+     * takes over. The names must be distinct.
+     *
+     * @param table the names and values of the attributes.
+     * @param size the number of attributes in <tt>table</tt>.
+     */
+    void load(Object[] table, int size)
+    {
+        if (this.size != 0)
+        {
+            throw new IllegalStateException("Not empty");
+        }
+        this.table = table;
+        this.size = size;
+        snapshot = null;
+        modified();
+        if (size > INDEX_THRESHOLD)
+        {
+            rebuildIndex();
+        }
+    }
+
+    /**
+     * Makes sure that {@link #table} may be written to, by copying it if it
+     * has been returned by {@link #getSnapshot()}.
+     */
+    private void unshare()
+    {
+        if (snapshot != null)
+        {
+            table = table.clone();
+            snapshot = null;
+        }
+    }
+
+    /**
+     * (Re)builds {@link #index} from the contents of {@link #table}.
+     */
+    private void rebuildIndex()
+    {
+        Map<Object, Integer> index = new HashMap<>(size << 1);
+
+        for (int i = 0; i < size; i++)
+        {
+            index.put(table[i << 1], i);
+        }
+        this.index = index;
+    }
+
+    /**
+     * Checks that a specific position is within the bounds of this map.
+     *
+     * @param i the position to check.
+     * @throws IndexOutOfBoundsException if <tt>i</tt> is not within the bounds
+     * of this map.
+     */
+    private void checkIndex(int i)
+    {
+        if (i < 0 || i >= size)
+        {
+            throw new IndexOutOfBoundsException(
+                    "Index: " + i + ", Size: " + size);
+        }
+    }
+
+    /**
+     * The view of the mappings of an {@link AttributeMap}.
+     */
+    private class EntrySet
+        extends AbstractSet<Map.Entry<String, Object>>
+    {
+        @Override
+        public int size()
+        {
+            return size;
+        }
+
+        @Override
+        public void clear()
+        {
+            AttributeMap.this.clear();
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator()
+        {
+            return new Iterator<Map.Entry<String, Object>>()
+            {
+                /**
+                 * The position of the next entry to return.
+                 */
+                private int next = 0;
+
+                /**
+                 * The position of the entry last returned by {@link #next()},
+                 * or <tt>-1</tt> if it has been removed.
+                 */
+                private int last = -1;
+
+                @Override
+                public boolean hasNext()
+                {
+                    return next < size;
+                }
+
+                @Override
+                public Map.Entry<String, Object> next()
+                {
+                    if (next >= size)
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    last = next++;
+                    return new Entry(last);
+                }
+
+                @Override
+                public void remove()
+                {
+                    if (last < 0)
+                    {
+                        throw new IllegalStateException();
+                    }
+                    removeAt(last);
+                    next = last;
+                    last = -1;
+                }
+            };
+        }
+    }
+
+    /**
+     * A mapping of an {@link AttributeMap} which writes through to the map.
+     */
+    private class Entry
+        implements Map.Entry<String, Object>
+    {
+        /**
+         * The name of the attribute.
+         */
+        private final String name;
+
+        /**
+         * The position of the attribute at the time this entry was created.
+         */
+        private final int i;
+
+        Entry(int i)
+        {
+            this.i = i;
+            this.name = (String) table[i << 1];
+        }
+
+        @Override
+        public String getKey()
+        {
+            return name;
+        }
+
+        @Override
+        public Object getValue()
+        {
+            return get(name);
+        }
+
+        @Override
+        public Object setValue(Object value)
+        {
+            int j = (i < size && table[i << 1] == name) ? i : indexOf(name);
+
+            if (j < 0)
+            {
+                throw new IllegalStateException(
+                        "The attribute has been removed: " + name);
+            }
+
+            Object oldValue = table[(j << 1) + 1];
+
+            unshare();
+            table[(j << 1) + 1] = value;
+            modified();
+            return oldValue;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Map.Entry))
+            {
+                return false;
+            }
+
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+
+            return Objects.equals(name, e.getKey())
+                && Objects.equals(getValue(), e.getValue());
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hashCode(name) ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString()
+        {
+            return name + "=" + getValue();
+        }
+    }
+}
@@ -17,6 +17,8 @@ package org.jitsi.xmpp.extensions;
 
 import java.io.*;
 import java.lang.reflect.*;
+import java.util.*;
+import java.util.function.*;
 import java.util.logging.*;
 
 import org.jivesoftware.smack.packet.*;
@@ -42,9 +44,17 @@ public class DefaultPacketExtensionProvider<C extends AbstractPacketExtension>
                     .getLogger(DefaultPacketExtensionProvider.class.getName());
 
     /**
-     * The {@link Class} that the packets we will be parsing here belong to.
+     * Creates the (empty) instances of the packets we will be parsing here.
+     * Resolved once, so that parsing does not go through reflection for every
+     * element.
      */
-    private final Class<C> packetClass;
+    private final Supplier<C> factory;
+
+    /**
+     * The providers of the child elements which this provider has parsed.
+     */
+    private final ExtensionProviderCache childProviders
+        = new ExtensionProviderCache();
 
     /**
      * Creates a new packet provider for the specified packet extensions.
@@ -53,7 +63,55 @@ public class DefaultPacketExtensionProvider<C extends AbstractPacketExtension>
      */
     public DefaultPacketExtensionProvider(Class<C> c)
     {
-        this.packetClass = c;
+        this(reflectiveFactory(c));
+    }
+
+    /**
+     * Creates a new packet provider which uses a specific factory (e.g. a
+     * constructor reference such as <tt>PayloadTypePacketExtension::new</tt>)
+     * to create the packet extensions it parses.
+     *
+     * @param factory the factory of the packet extensions we will be parsing.
+     */
+    public DefaultPacketExtensionProvider(Supplier<C> factory)
+    {
+        this.factory = Objects.requireNonNull(factory, "factory");
+    }
+
+    /**
+     * Creates a factory for instances of a specific {@link Class} which looks
+     * up its public no-argument constructor only once.
+     *
+     * @param c the {@link Class} to create instances of.
+     * @return a factory for new instances of <tt>c</tt>. If <tt>c</tt> has no
+     * public no-argument constructor, the factory fails every time it is used
+     * (with a {@link ReflectionFailure}).
+     */
+    private static <C> Supplier<C> reflectiveFactory(Class<C> c)
+    {
+        Constructor<C> constructor;
+
+        try
+        {
+            constructor = c.getConstructor();
+        }
+        catch (NoSuchMethodException e)
+        {
+            return () -> {
+                throw new ReflectionFailure(e);
+            };
+        }
+
+        return () -> {
+            try
+            {
+                return constructor.newInstance();
+            }
+            catch (InstantiationException | IllegalAccessException | InvocationTargetException e)
+            {
+                throw new ReflectionFailure(e);
+            }
+        };
     }
 
     /**
@@ -75,9 +133,9 @@ public class DefaultPacketExtensionProvider<C extends AbstractPacketExtension>
         C packetExtension;
         try
         {
-            packetExtension = packetClass.getConstructor().newInstance();
+            packetExtension = factory.get();
         }
-        catch (NoSuchMethodException | InstantiationException | IllegalAccessException | InvocationTargetException e)
+        catch (ReflectionFailure e)
         {
             throw new SmackParsingException(e.getMessage());
         }
@@ -88,8 +146,8 @@ public class DefaultPacketExtensionProvider<C extends AbstractPacketExtension>
         for (int i = 0; i < attrCount; i++)
         {
             packetExtension.setAttribute(
-                            parser.getAttributeName(i),
-                            parser.getAttributeValue(i));
+                            TokenTable.dedup(parser.getAttributeName(i)),
+                            TokenTable.dedup(parser.getAttributeValue(i)));
         }
 
         //now parse the sub elements
@@ -115,8 +173,9 @@ public class DefaultPacketExtensionProvider<C extends AbstractPacketExtension>
 
             if (eventType == XmlPullParser.Event.START_ELEMENT)
             {
-                ExtensionElementProvider<ExtensionElement> provider = ProviderManager
-                        .getExtensionProvider( elementName, namespace );
+                ExtensionElementProvider<ExtensionElement> provider
+                    = childProviders.getExtensionProvider(
+                            elementName, namespace);
 
                 if (provider == null)
                 {
@@ -133,7 +192,7 @@ public class DefaultPacketExtensionProvider<C extends AbstractPacketExtension>
                         if (childExtension instanceof AbstractPacketExtension)
                         {
                             ((AbstractPacketExtension)childExtension).
-                                setNamespace(namespace);
+                                setNamespace(TokenTable.dedup(namespace));
                         }
                     }
                     packetExtension.addChildExtension(childExtension);
@@ -158,4 +217,25 @@ public class DefaultPacketExtensionProvider<C extends AbstractPacketExtension>
 
         return packetExtension;
     }
+
+    /**
+     * Thrown by the factories of {@link #reflectiveFactory(Class)} when they
+     * fail to create an instance, so that {@link #parse} can tell these
+     * failures apart from the exceptions of other factories, which it lets
+     * through unchanged.
+     */
+    private static class ReflectionFailure
+        extends RuntimeException
+    {
+        /**
+         * Initializes a new <tt>ReflectionFailure</tt> with the exception of
+         * the reflection API which caused it.
+         *
+         * @param cause the exception of the reflection API.
+         */
+        ReflectionFailure(ReflectiveOperationException cause)
+        {
+            super(cause.getMessage(), cause);
+        }
+    }
 }
@@ -0,0 +1,1995 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import org.jitsi.xmpp.extensions.coin.*;
+import org.jitsi.xmpp.extensions.colibri.*;
+import org.jitsi.xmpp.extensions.condesc.*;
+import org.jitsi.xmpp.extensions.health.*;
+import org.jitsi.xmpp.extensions.jibri.*;
+import org.jitsi.xmpp.extensions.jingle.*;
+import org.jitsi.xmpp.extensions.jingleinfo.*;
+import org.jitsi.xmpp.extensions.jitsimeet.*;
+import org.jitsi.xmpp.extensions.rayo.*;
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smack.parsing.*;
+import org.jivesoftware.smack.provider.*;
+import org.jivesoftware.smack.util.*;
+import org.jivesoftware.smack.xml.*;
+import org.jxmpp.jid.impl.*;
+
+/**
+ * A compact binary encoding of trees of {@link AbstractPacketExtension}s and
+ * of IQs, for the paths on which both ends are ours (e.g. persisting the state
+ * of a conference, or handing it over to another instance), where XML costs
+ * more to write and parse than it is worth.
+ * <p>
+ * Strings are written once per encoding and referred to by index afterwards,
+ * and the known element names, namespaces, attribute names and values are
+ * referred to by their index in a static dictionary. Integer attribute values
+ * (SSRCs, ports, priorities, IDs) are written as variable-length integers.
+ * The type, element name, namespace and attribute names of an extension (its
+ * {@link Shape}) are written once per encoding too, so that an extension of a
+ * shape written before, e.g. each of the sources of a channel, is written as
+ * little more than its attribute values.
+ * Extensions of the types known to the codec (see
+ * {@link #addType(Class, Supplier)}) are recreated with the factory of their
+ * run-time type, so that a decoded tree is of the same types as the encoded
+ * one; the state which they keep outside of
+ * their attributes, text and children is written by
+ * {@link AbstractPacketExtension#encodeState(Encoder)}. An encoding may only
+ * name known types: decoding neither loads nor creates any other. The other
+ * extensions are written as XML and parsed with the provider registered for
+ * them.
+ * <p>
+ * IQs are written with the {@link IQCodec} registered for their child
+ * element, if any, or otherwise as the XML of their child element, which is
+ * parsed with the registered <tt>IQProvider</tt>.
+ * <p>
+ * The encoding is meant to be read by the same or a later version of this
+ * class, so {@link #DICTIONARY} may only be appended to.
+ */
+public final class ExtensionCodec
+{
+    /**
+     * The version of the encoding, written first.
+     */
+    private static final int FORMAT_VERSION = 3;
+
+    /**
+     * Tags an extension written as XML.
+     */
+    private static final int ELEMENT_XML = 0;
+
+    /**
+     * Tags an extension written as its attributes, text and children, the
+     * {@link Shape} of which has not been written before and follows.
+     */
+    private static final int ELEMENT_NEW_SHAPE = 1;
+
+    /**
+     * Tags an extension written as its attributes, text and children, of the
+     * first {@link Shape} written. Those of the shapes which follow are tagged
+     * with the next values.
+     */
+    private static final int ELEMENT_SHAPE = 2;
+
+    /**
+     * Tags an IQ written by its {@link IQCodec}.
+     */
+    private static final int IQ_CODEC = 1;
+
+    /**
+     * Tags an IQ written as the XML of its child element.
+     */
+    private static final int IQ_XML = 2;
+
+    /**
+     * The kind of a string attribute value.
+     */
+    private static final int VALUE_STRING = 0;
+
+    /**
+     * The kind of an <tt>Integer</tt> attribute value, or of a string one
+     * which is an integer in canonical form.
+     */
+    private static final int VALUE_INT = 1;
+
+    /**
+     * The kind of a <tt>Long</tt> attribute value.
+     */
+    private static final int VALUE_LONG = 2;
+
+    /**
+     * The kind of a <tt>Boolean.TRUE</tt> attribute value, which is not
+     * written since the kind is the value.
+     */
+    private static final int VALUE_TRUE = 3;
+
+    /**
+     * The kind of a <tt>Boolean.FALSE</tt> attribute value, which is not
+     * written since the kind is the value.
+     */
+    private static final int VALUE_FALSE = 4;
+
+    /**
+     * The reference to a <tt>null</tt> string.
+     */
+    private static final int STRING_NULL = 0;
+
+    /**
+     * The reference which precedes a string which has not been written
+     * before.
+     */
+    private static final int STRING_LITERAL = 1;
+
+    /**
+     * The reference to the first string of {@link #DICTIONARY}.
+     */
+    private static final int STRING_DICTIONARY = 2;
+
+    /**
+     * The strings which are referred to by their index rather than written.
+     * New strings may only be appended, since the index of each is part of
+     * the encoding.
+     */
+    private static final String[] DICTIONARY
+        = {
+            // namespaces
+            "urn:xmpp:jingle:1",
+            "urn:xmpp:jingle:apps:rtp:1",
+            "urn:xmpp:jingle:apps:rtp:ssma:0",
+            "urn:xmpp:jingle:apps:rtp:rtcp-fb:0",
+            "urn:xmpp:jingle:apps:rtp:rtp-hdrext:0",
+            "urn:xmpp:jingle:apps:rtp:info:1",
+            "urn:xmpp:jingle:apps:grouping:0",
+            "urn:xmpp:jingle:apps:dtls:0",
+            "urn:xmpp:jingle:transports:ice-udp:1",
+            "urn:xmpp:jingle:transports:raw-udp:1",
+            "urn:xmpp:jingle:transfer:0",
+            "urn:xmpp:jingle:apps:rtp:zrtp:1",
+            "urn:xmpp:coin:1",
+            "http://jitsi.org/protocol/colibri",
+            "http://jitsi.org/protocol/condesc",
+            "http://jitsi.org/jitmeet",
+            "http://jitsi.org/jitmeet/audio",
+            "http://jitsi.org/jitmeet/video",
+            "http://jitsi.org/jitsi-meet",
+            "jabber:client",
+            // element names
+            "jingle", "content", "description", "payload-type", "parameter",
+            "rtcp-fb", "rtp-hdrext", "source", "ssrc-group", "ssrc-info",
+            "rid-group", "transport", "candidate", "remote-candidate",
+            "fingerprint", "rtcp-mux", "web-socket", "sctpmap", "group",
+            "encryption", "crypto", "zrtp-hash", "bandwidth", "reason",
+            "conference", "channel", "sctpconnection", "channel-bundle",
+            "endpoint", "callid", "conference-info", "transfer",
+            "transferred", "json-message", "stats", "stat", "mute",
+            "audiomuted", "videomuted", "startmuted", "identity",
+            // attribute names
+            "id", "name", "value", "type", "subtype", "clockrate", "channels",
+            "ptime", "maxptime", "uri", "senders", "media", "ssrc", "rid",
+            "semantics", "ufrag", "pwd", "component", "foundation",
+            "generation", "ip", "port", "priority", "protocol", "rel-addr",
+            "rel-port", "network", "tcptype", "hash", "setup", "required",
+            "creator", "disposition", "direction", "expire", "initiator",
+            "responder", "action", "sid", "url", "active", "owner",
+            "channel-bundle-id", "last-n", "rtp-level-relay-type", "number",
+            "streams", "stats-id", "crypto-suite", "key-params",
+            "session-params", "tag", "profile", "gid", "meeting-id",
+            // values
+            "audio", "video", "data", "application",
+            "sendrecv", "sendonly", "recvonly", "inactive", "both",
+            "opus", "ISAC", "G722", "PCMU", "PCMA", "CN", "telephone-event",
+            "VP8", "VP9", "H264", "AV1", "red", "ulpfec", "rtx",
+            "apt", "minptime", "useinbandfec", "stereo", "maxplaybackrate",
+            "profile-level-id", "packetization-mode",
+            "level-asymmetry-allowed", "x-google-start-bitrate",
+            "goog-remb", "transport-cc", "nack", "pli", "ccm", "fir",
+            "urn:ietf:params:rtp-hdrext:ssrc-audio-level",
+            "urn:ietf:params:rtp-hdrext:toffset",
+            "urn:ietf:params:rtp-hdrext:sdes:mid",
+            "urn:ietf:params:rtp-hdrext:sdes:rtp-stream-id",
+            "urn:ietf:params:rtp-hdrext:sdes:repaired-rtp-stream-id",
+            "http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time",
+            "http://www.ietf.org/id/"
+                + "draft-holmer-rmcat-transport-wide-cc-extensions-01",
+            "urn:3gpp:video-orientation",
+            "cname", "msid", "mslabel", "label", "SIM", "FID", "FEC-FR",
+            "BUNDLE",
+            "udp", "tcp", "ssltcp", "host", "srflx", "prflx", "relay",
+            "passive", "actpass", "sha-256", "sha-1",
+            "session", "true", "false", "0", "1",
+            "webrtc-datachannel", "session-initiate", "session-accept",
+            "session-terminate", "source-add", "source-remove",
+            "transport-info", "transport-replace", "transport-accept",
+            // packages
+            "org.jitsi.xmpp.extensions",
+            "org.jitsi.xmpp.extensions.coin",
+            "org.jitsi.xmpp.extensions.colibri",
+            "org.jitsi.xmpp.extensions.condesc",
+            "org.jitsi.xmpp.extensions.health",
+            "org.jitsi.xmpp.extensions.inputevt",
+            "org.jitsi.xmpp.extensions.jibri",
+            "org.jitsi.xmpp.extensions.jingle",
+            "org.jitsi.xmpp.extensions.jingleinfo",
+            "org.jitsi.xmpp.extensions.jitsimeet",
+            "org.jitsi.xmpp.extensions.rayo",
+            "org.jitsi.xmpp.extensions.thumbnail",
+            "org.jitsi.xmpp.extensions.vcardavatar"
+        };
+
+    /**
+     * The index of each string of {@link #DICTIONARY}.
+     */
+    private static final StringIndex DICTIONARY_INDEX
+        = new StringIndex(DICTIONARY.length);
+
+    static
+    {
+        // The first of equal strings is the one which is referred to.
+        for (int i = 0; i < DICTIONARY.length; i++)
+        {
+            DICTIONARY_INDEX.indexOf(DICTIONARY[i], i);
+        }
+    }
+
+    /**
+     * The {@link IQCodec}s, by the element name and namespace of the child
+     * elements of the IQs they encode.
+     */
+    private static final Map<String, IQCodec<?>> iqCodecs
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The types of extension which are written as their attributes, text and
+     * children, by their names. It only changes through
+     * {@link #addType(Class, Supplier)}, never while decoding.
+     */
+    private static final Map<String, KnownType> knownTypes
+        = new ConcurrentHashMap<>();
+
+    static
+    {
+        addType(CallInfoPacketExtension.class, CallInfoPacketExtension::new);
+        addType(
+                ConferenceMediaPacketExtension.class,
+                ConferenceMediaPacketExtension::new);
+        addType(
+                SidebarsByValPacketExtension.class,
+                SidebarsByValPacketExtension::new);
+        addType(URIsPacketExtension.class, URIsPacketExtension::new);
+        addType(UsersPacketExtension.class, UsersPacketExtension::new);
+        addType(
+                ColibriConferenceIQ.GracefulShutdown.class,
+                ColibriConferenceIQ.GracefulShutdown::new);
+        addType(ColibriStatsExtension.class, ColibriStatsExtension::new);
+        addType(SourcePacketExtension.class, SourcePacketExtension::new);
+        addType(WebSocketPacketExtension.class, WebSocketPacketExtension::new);
+        addType(CallIdExtension.class, CallIdExtension::new);
+        addType(
+                ConferenceDescriptionExtension.class,
+                ConferenceDescriptionExtension::new);
+        addType(HealthStatusPacketExt.class, HealthStatusPacketExt::new);
+        addType(JibriBusyStatusPacketExt.class, JibriBusyStatusPacketExt::new);
+        addType(JibriStatusPacketExt.class, JibriStatusPacketExt::new);
+        addType(RecordingStatus.class, RecordingStatus::new);
+        addType(SipCallState.class, SipCallState::new);
+        addType(BandwidthPacketExtension.class, BandwidthPacketExtension::new);
+        addType(CandidatePacketExtension.class, CandidatePacketExtension::new);
+        addType(CoinPacketExtension.class, CoinPacketExtension::new);
+        addType(ContentPacketExtension.class, ContentPacketExtension::new);
+        addType(CryptoPacketExtension.class, CryptoPacketExtension::new);
+        addType(
+                DtlsFingerprintPacketExtension.class,
+                DtlsFingerprintPacketExtension::new);
+        addType(
+                EncryptionPacketExtension.class,
+                EncryptionPacketExtension::new);
+        addType(GroupPacketExtension.class, GroupPacketExtension::new);
+        addType(
+                IceUdpTransportPacketExtension.class,
+                IceUdpTransportPacketExtension::new);
+        addType(InputEvtPacketExtension.class, InputEvtPacketExtension::new);
+        addType(ParameterPacketExtension.class, ParameterPacketExtension::new);
+        addType(
+                PayloadTypePacketExtension.class,
+                PayloadTypePacketExtension::new);
+        addType(RTPHdrExtPacketExtension.class, RTPHdrExtPacketExtension::new);
+        addType(
+                RawUdpTransportPacketExtension.class,
+                RawUdpTransportPacketExtension::new);
+        addType(RedirectPacketExtension.class, RedirectPacketExtension::new);
+        addType(
+                RemoteCandidatePacketExtension.class,
+                RemoteCandidatePacketExtension::new);
+        addType(RtcpFbPacketExtension.class, RtcpFbPacketExtension::new);
+        addType(RtcpmuxPacketExtension.class, RtcpmuxPacketExtension::new);
+        addType(
+                RtpDescriptionPacketExtension.class,
+                RtpDescriptionPacketExtension::new);
+        addType(
+                SourceGroupPacketExtension.class,
+                SourceGroupPacketExtension::new);
+        addType(
+                SourceRidGroupPacketExtension.class,
+                SourceRidGroupPacketExtension::new);
+        addType(TransferPacketExtension.class, TransferPacketExtension::new);
+        addType(
+                TransferredPacketExtension.class,
+                TransferredPacketExtension::new);
+        addType(ZrtpHashPacketExtension.class, ZrtpHashPacketExtension::new);
+        addType(ServerPacketExtension.class, ServerPacketExtension::new);
+        addType(StunPacketExtension.class, StunPacketExtension::new);
+        addType(AudioMutedExtension.class, AudioMutedExtension::new);
+        addType(AvatarIdPacketExtension.class, AvatarIdPacketExtension::new);
+        addType(
+                BridgeNotAvailablePacketExt.class,
+                BridgeNotAvailablePacketExt::new);
+        addType(
+                BridgeSessionPacketExtension.class,
+                BridgeSessionPacketExtension::new);
+        addType(
+                ComponentVersionsExtension.class,
+                ComponentVersionsExtension::new);
+        addType(
+                ComponentVersionsExtension.Component.class,
+                ComponentVersionsExtension.Component::new);
+        addType(ConferenceIq.Property.class, ConferenceIq.Property::new);
+        addType(ConferenceProperties.class, ConferenceProperties::new);
+        addType(
+                ConferenceProperties.ConferenceProperty.class,
+                ConferenceProperties.ConferenceProperty::new);
+        addType(EtherpadPacketExt.class, EtherpadPacketExt::new);
+        addType(FeatureExtension.class, FeatureExtension::new);
+        addType(FeaturesExtension.class, FeaturesExtension::new);
+        addType(IceStatePacketExtension.class, IceStatePacketExtension::new);
+        addType(JsonMessageExtension.class, JsonMessageExtension::new);
+        addType(RegionPacketExtension.class, RegionPacketExtension::new);
+        addType(
+                ReservationErrorPacketExt.class,
+                ReservationErrorPacketExt::new);
+        addType(SSRCInfoPacketExtension.class, SSRCInfoPacketExtension::new);
+        addType(
+                SessionInvalidPacketExtension.class,
+                SessionInvalidPacketExtension::new);
+        addType(
+                StartMutedPacketExtension.class,
+                StartMutedPacketExtension::new);
+        addType(
+                TranscriptionLanguageExtension.class,
+                TranscriptionLanguageExtension::new);
+        addType(
+                TranscriptionRequestExtension.class,
+                TranscriptionRequestExtension::new);
+        addType(
+                TranscriptionStatusExtension.class,
+                TranscriptionStatusExtension::new);
+        addType(
+                TranslationLanguageExtension.class,
+                TranslationLanguageExtension::new);
+        addType(UserInfoPacketExt.class, UserInfoPacketExt::new);
+        addType(VideoMutedExtension.class, VideoMutedExtension::new);
+        addType(HeaderExtension.class, HeaderExtension::new);
+    }
+
+    /**
+     * Makes a specific type of extension known to the codec, so that its
+     * extensions are written as their attributes, text and children rather
+     * than as XML. The types of the extensions of this library are known
+     * already.
+     *
+     * @param type the type of extension.
+     * @param factory the factory of new extensions of <tt>type</tt> (e.g. a
+     * constructor reference), without attributes, text or children.
+     * @param <T> the type of extension.
+     * @throws IllegalArgumentException if <tt>type</tt> cannot be recreated
+     * from its attributes, text and children: if it serializes itself, or
+     * copies state in
+     * {@link AbstractPacketExtension#copyStateTo(AbstractPacketExtension)}
+     * which it does not encode.
+     */
+    public static <T extends AbstractPacketExtension> void addType(
+            Class<T> type,
+            Supplier<? extends T> factory)
+    {
+        Objects.requireNonNull(factory, "factory");
+        if (AbstractPacketExtension.overridesToXML(type)
+                || AbstractPacketExtension.overridesChildElementBuilder(type)
+                || !encodesState(type))
+        {
+            throw new IllegalArgumentException(
+                    "Cannot encode the state of " + type.getName());
+        }
+        knownTypes.put(type.getName(), new KnownType(type, factory));
+    }
+
+    /**
+     * Checks whether a specific type of extension encodes and decodes all of
+     * the state which it copies in
+     * {@link AbstractPacketExtension#copyStateTo(AbstractPacketExtension)},
+     * i.e. whether it declares or inherits
+     * {@link AbstractPacketExtension#encodeState(Encoder)} and
+     * {@link AbstractPacketExtension#decodeState(Decoder)} from the class
+     * which declares the <tt>copyStateTo</tt> which it inherits, or from one
+     * of its subclasses.
+     *
+     * @param type the type of extension.
+     * @return <tt>true</tt> if <tt>type</tt> encodes the state which it
+     * copies.
+     */
+    private static boolean encodesState(Class<?> type)
+    {
+        Class<?> copier
+            = getDeclaringClass(
+                    type,
+                    "copyStateTo",
+                    AbstractPacketExtension.class);
+
+        return
+            copier.isAssignableFrom(
+                    getDeclaringClass(type, "encodeState", Encoder.class))
+                && copier.isAssignableFrom(
+                        getDeclaringClass(
+                                type,
+                                "decodeState",
+                                Decoder.class));
+    }
+
+    /**
+     * Gets the class which declares the implementation of a method of
+     * <tt>AbstractPacketExtension</tt>, which may be protected, that a
+     * specific type of extension inherits.
+     *
+     * @param type the type of extension.
+     * @param name the name of the method.
+     * @param parameterTypes the parameter types of the method.
+     * @return <tt>type</tt> or the superclass of it which declares the
+     * method.
+     */
+    private static Class<?> getDeclaringClass(
+            Class<?> type,
+            String name,
+            Class<?>... parameterTypes)
+    {
+        for (Class<?> c = type;
+                c != AbstractPacketExtension.class;
+                c = c.getSuperclass())
+        {
+            try
+            {
+                c.getDeclaredMethod(name, parameterTypes);
+                return c;
+            }
+            catch (NoSuchMethodException e)
+            {
+                // Look in the superclass.
+            }
+        }
+        return AbstractPacketExtension.class;
+    }
+
+    /**
+     * Returns the type of extension known to the codec which is a specific
+     * class.
+     *
+     * @param type the class.
+     * @return the known type, or <tt>null</tt> if the extensions of
+     * <tt>type</tt> are to be written as XML.
+     */
+    private static KnownType getKnownType(Class<?> type)
+    {
+        KnownType knownType = knownTypes.get(type.getName());
+
+        // A class of the same name from another class loader is another type.
+        return
+            knownType != null && knownType.type == type ? knownType : null;
+    }
+
+    /**
+     * Registers the {@link IQCodec} of the IQs with a specific child element.
+     *
+     * @param elementName the element name of the child element.
+     * @param namespace the namespace of the child element.
+     * @param codec the codec.
+     */
+    public static void addIQCodec(
+            String elementName,
+            String namespace,
+            IQCodec<?> codec)
+    {
+        iqCodecs.put(key(elementName, namespace), codec);
+    }
+
+    /**
+     * Returns the key of the {@link IQCodec} registered for the IQs with a
+     * specific child element.
+     */
+    private static String key(String elementName, String namespace)
+    {
+        return elementName + '\u0000' + namespace;
+    }
+
+    /**
+     * Encodes a tree of extensions.
+     *
+     * @param element the root of the tree.
+     * @return the encoding of <tt>element</tt>.
+     */
+    public static byte[] encode(ExtensionElement element)
+    {
+        Encoder out = new Encoder();
+
+        out.writeElement(element);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a tree of extensions encoded by
+     * {@link #encode(ExtensionElement)}.
+     *
+     * @param bytes the encoding.
+     * @return the root of the decoded tree.
+     * @throws IOException if <tt>bytes</tt> is not a valid encoding.
+     */
+    public static ExtensionElement decode(byte[] bytes)
+        throws IOException
+    {
+        return new Decoder(bytes).readElement();
+    }
+
+    /**
+     * Encodes an IQ.
+     *
+     * @param iq the IQ.
+     * @return the encoding of <tt>iq</tt>.
+     */
+    @SuppressWarnings("unchecked")
+    public static byte[] encode(IQ iq)
+    {
+        Encoder out = new Encoder();
+        String elementName = iq.getChildElementName();
+        String namespace = iq.getChildElementNamespace();
+
+        out.writeString(elementName);
+        out.writeString(namespace);
+        out.writeString(iq.getType().name());
+        out.writeString(iq.getStanzaId());
+        out.writeString(iq.getFrom() == null ? null : iq.getFrom().toString());
+        out.writeString(iq.getTo() == null ? null : iq.getTo().toString());
+
+        IQCodec<IQ> codec
+            = (IQCodec<IQ>) iqCodecs.get(key(elementName, namespace));
+
+        if (codec != null && codec.canEncode(iq))
+        {
+            out.writeVarint(IQ_CODEC);
+            codec.encode(iq, out);
+        }
+        else
+        {
+            out.writeVarint(IQ_XML);
+            out.writeString(iq.getChildElementXML().toString());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes an IQ encoded by {@link #encode(IQ)}.
+     *
+     * @param bytes the encoding.
+     * @return the decoded IQ.
+     * @throws IOException if <tt>bytes</tt> is not a valid encoding, or no
+     * codec or provider is registered for the IQ.
+     */
+    public static IQ decodeIQ(byte[] bytes)
+        throws IOException
+    {
+        Decoder in = new Decoder(bytes);
+        String elementName = in.readString();
+        String namespace = in.readString();
+        String type = in.readString();
+        String id = in.readString();
+        String from = in.readString();
+        String to = in.readString();
+        IQ iq;
+
+        switch ((int) in.readVarint())
+        {
+        case IQ_CODEC:
+            IQCodec<?> codec = iqCodecs.get(key(elementName, namespace));
+
+            if (codec == null)
+            {
+                throw new IOException(
+                        "No codec for " + elementName + " " + namespace);
+            }
+            iq = codec.decode(in);
+            break;
+
+        case IQ_XML:
+            IQProvider<IQ> provider
+                = ProviderManager.getIQProvider(elementName, namespace);
+
+            if (provider == null)
+            {
+                throw new IOException(
+                        "No provider for " + elementName + " " + namespace);
+            }
+            try
+            {
+                iq = provider.parse(newParser(in.readString()));
+            }
+            catch (XmlPullParserException | SmackParsingException e)
+            {
+                throw new IOException(e);
+            }
+            break;
+
+        default:
+            throw new IOException("Invalid IQ encoding");
+        }
+
+        iq.setType(IQ.Type.fromString(type));
+        iq.setStanzaId(id);
+        iq.setFrom(from == null ? null : JidCreate.from(from));
+        iq.setTo(to == null ? null : JidCreate.from(to));
+        return iq;
+    }
+
+    /**
+     * Creates a parser positioned on the root element of some XML.
+     *
+     * @param xml the XML.
+     * @return a parser positioned on the root element of <tt>xml</tt>.
+     */
+    private static XmlPullParser newParser(String xml)
+        throws XmlPullParserException, IOException
+    {
+        XmlPullParser parser
+            = SmackXmlParser.newXmlParser(new StringReader(xml));
+
+        parser.next();
+        return parser;
+    }
+
+    /**
+     * Checks whether a string is an integer in the form in which
+     * <tt>Integer.toString()</tt> writes it, so that writing it as a number
+     * does not change it.
+     *
+     * @param s the string.
+     * @return <tt>true</tt> if <tt>s</tt> is an <tt>int</tt> in canonical
+     * form.
+     */
+    private static boolean isCanonicalInt(String s)
+    {
+        int length = s.length();
+        int start = length != 0 && s.charAt(0) == '-' ? 1 : 0;
+
+        // Up to 9 digits always fit in an int.
+        if (length == start || length - start > 9)
+        {
+            return false;
+        }
+        if (s.charAt(start) == '0')
+        {
+            return length == 1;
+        }
+        for (int i = start; i < length; i++)
+        {
+            char c = s.charAt(i);
+
+            if (c < '0' || c > '9')
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Prevents the initialization of <tt>ExtensionCodec</tt> instances.
+     */
+    private ExtensionCodec()
+    {
+    }
+
+    /**
+     * A type of extension which has been written in an encoding, or is about
+     * to be, and the shapes of its extensions which have been written.
+     */
+    private static final class TypeEntry
+    {
+        /**
+         * The type of extension.
+         */
+        final KnownType knownType;
+
+        /**
+         * The index of the type in the encoding, or <tt>-1</tt> if it has not
+         * been written yet.
+         */
+        int index = -1;
+
+        /**
+         * The shape of the extension of the type which was written last, or
+         * <tt>null</tt>.
+         */
+        Shape lastShape;
+
+        /**
+         * The shape of the type which was written last, which links to those
+         * written before it, or <tt>null</tt>.
+         */
+        Shape shapes;
+
+        /**
+         * Initializes a new <tt>TypeEntry</tt>.
+         */
+        TypeEntry(KnownType knownType)
+        {
+            this.knownType = knownType;
+        }
+    }
+
+    /**
+     * The type, element name, namespace, attribute names and kinds of
+     * attribute values (e.g. {@link #VALUE_INT}) of an extension, which are
+     * written once per encoding and which the extensions of the same shape
+     * refer to.
+     */
+    private static final class Shape
+    {
+        /**
+         * The index of the shape in the encoding.
+         */
+        final int index;
+
+        /**
+         * The type of the extensions.
+         */
+        final KnownType knownType;
+
+        /**
+         * The element name of the extensions.
+         */
+        final String elementName;
+
+        /**
+         * The namespace of the extensions.
+         */
+        final String namespace;
+
+        /**
+         * The names of the attributes of the extensions, in order.
+         */
+        final String[] names;
+
+        /**
+         * The kind of the value of each attribute of {@link #names}.
+         */
+        final byte[] kinds;
+
+        /**
+         * The shape of the same type which was written before this one, or
+         * <tt>null</tt>.
+         */
+        final Shape previous;
+
+        /**
+         * The string value of each attribute of {@link #names} which was
+         * written last, which the next extension of the shape is likely to
+         * share (e.g. the owner of consecutive sources), or <tt>null</tt>.
+         * Only used when encoding.
+         */
+        String[] lastValues;
+
+        /**
+         * The reference with which each string of {@link #lastValues} was
+         * written.
+         */
+        int[] lastReferences;
+
+        /**
+         * Initializes a new <tt>Shape</tt>.
+         */
+        Shape(
+                int index,
+                KnownType knownType,
+                String elementName,
+                String namespace,
+                String[] names,
+                byte[] kinds,
+                Shape previous)
+        {
+            this.index = index;
+            this.knownType = knownType;
+            this.elementName = elementName;
+            this.namespace = namespace;
+            this.names = names;
+            this.kinds = kinds;
+            this.previous = previous;
+        }
+
+        /**
+         * Checks whether an extension of the type of this shape is of this
+         * shape.
+         *
+         * @param elementName the element name of the extension.
+         * @param namespace the namespace of the extension.
+         * @param names the names of the attributes of the extension.
+         * @param kinds the kinds of the values of the attributes.
+         * @param count the number of attributes.
+         * @return <tt>true</tt> if the extension is of this shape.
+         */
+        boolean matches(
+                String elementName,
+                String namespace,
+                String[] names,
+                byte[] kinds,
+                int count)
+        {
+            if (count != this.names.length
+                    || !same(elementName, this.elementName)
+                    || !same(namespace, this.namespace))
+            {
+                return false;
+            }
+            for (int i = 0; i < count; i++)
+            {
+                if (kinds[i] != this.kinds[i]
+                        || !same(names[i], this.names[i]))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Compares two strings, which are usually the same constant, by
+         * reference first.
+         */
+        private static boolean same(String a, String b)
+        {
+            return a == b || (a != null && a.equals(b));
+        }
+    }
+
+    /**
+     * Maps strings to indices like a <tt>HashMap&lt;String, Integer&gt;</tt>,
+     * but with the strings and indices in arrays (with open addressing), so
+     * that looking a string up compares references first and adding one
+     * allocates nothing.
+     */
+    private static final class StringIndex
+    {
+        /**
+         * The strings, at the positions which their hashes determine.
+         */
+        private String[] keys;
+
+        /**
+         * The index of each string of {@link #keys}, at the same position.
+         */
+        private int[] indices;
+
+        /**
+         * The number of strings.
+         */
+        private int size;
+
+        /**
+         * Initializes a new <tt>StringIndex</tt>.
+         *
+         * @param expectedSize the number of strings which it is expected to
+         * hold.
+         */
+        StringIndex(int expectedSize)
+        {
+            int capacity = Integer.highestOneBit(expectedSize * 2 + 1) << 1;
+
+            keys = new String[capacity];
+            indices = new int[capacity];
+        }
+
+        /**
+         * Returns the index of a string, and adds the string if it has not
+         * been added yet.
+         *
+         * @param s the string.
+         * @param newIndex the index with which to add <tt>s</tt> if it has not
+         * been added, or <tt>-1</tt> to not add it.
+         * @return the index of <tt>s</tt>, or <tt>-1</tt> if it had not been
+         * added.
+         */
+        int indexOf(String s, int newIndex)
+        {
+            int mask = keys.length - 1;
+            int hash = s.hashCode();
+            int i = (hash ^ (hash >>> 16)) & mask;
+            String key;
+
+            while ((key = keys[i]) != null)
+            {
+                if (key == s || key.equals(s))
+                {
+                    return indices[i];
+                }
+                i = (i + 1) & mask;
+            }
+            if (newIndex >= 0)
+            {
+                keys[i] = s;
+                indices[i] = newIndex;
+                if (++size * 2 > keys.length)
+                {
+                    grow();
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the number of strings.
+         *
+         * @return the number of strings.
+         */
+        int size()
+        {
+            return size;
+        }
+
+        /**
+         * Doubles the capacity of the arrays.
+         */
+        private void grow()
+        {
+            String[] oldKeys = keys;
+            int[] oldIndices = indices;
+            int mask = (oldKeys.length << 1) - 1;
+
+            keys = new String[oldKeys.length << 1];
+            indices = new int[oldKeys.length << 1];
+            for (int j = 0; j < oldKeys.length; j++)
+            {
+                String key = oldKeys[j];
+
+                if (key != null)
+                {
+                    int hash = key.hashCode();
+                    int i = (hash ^ (hash >>> 16)) & mask;
+
+                    while (keys[i] != null)
+                    {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = key;
+                    indices[i] = oldIndices[j];
+                }
+            }
+        }
+    }
+
+    /**
+     * A type of extension known to the codec and its factory.
+     */
+    private static final class KnownType
+    {
+        /**
+         * The type of extension.
+         */
+        final Class<?> type;
+
+        /**
+         * The factory of new extensions of {@link #type}.
+         */
+        final Supplier<? extends AbstractPacketExtension> factory;
+
+        /**
+         * Whether {@link #type} overrides
+         * {@link AbstractPacketExtension#getChildExtensions()}.
+         */
+        final boolean overridesChildExtensions;
+
+        /**
+         * Whether {@link #type} overrides
+         * {@link AbstractPacketExtension#addChildExtension(ExtensionElement)}.
+         */
+        final boolean overridesAddChildExtension;
+
+        /**
+         * Initializes a new <tt>KnownType</tt>.
+         */
+        KnownType(
+                Class<? extends AbstractPacketExtension> type,
+                Supplier<? extends AbstractPacketExtension> factory)
+        {
+            this.type = type;
+            this.factory = factory;
+            overridesChildExtensions
+                = AbstractPacketExtension.overridesChildExtensions(type);
+            overridesAddChildExtension
+                = AbstractPacketExtension.overridesAddChildExtension(type);
+        }
+    }
+
+    /**
+     * Encodes and decodes the IQs with a specific child element, which
+     * {@link ExtensionCodec} cannot write as a tree of extensions.
+     *
+     * @param <I> the type of the IQs.
+     */
+    public interface IQCodec<I extends IQ>
+    {
+        /**
+         * Checks whether this codec can write a specific IQ without losing
+         * any of it, e.g. because the IQ is of a subclass of the type which
+         * this codec decodes. Those which it cannot write are written as XML.
+         * The default implementation returns <tt>true</tt>.
+         *
+         * @param iq the IQ.
+         * @return <tt>true</tt> if this codec can write <tt>iq</tt>.
+         */
+        default boolean canEncode(I iq)
+        {
+            return true;
+        }
+
+        /**
+         * Writes the contents of an IQ, other than its type, ID and
+         * addresses.
+         *
+         * @param iq the IQ.
+         * @param out the encoder to write to.
+         */
+        void encode(I iq, Encoder out);
+
+        /**
+         * Reads the contents of an IQ written by
+         * {@link #encode(IQ, Encoder)}.
+         *
+         * @param in the decoder to read from.
+         * @return the IQ.
+         * @throws IOException if the encoding is not valid.
+         */
+        I decode(Decoder in)
+            throws IOException;
+    }
+
+    /**
+     * Writes the encoding of extensions and of the values which
+     * {@link IQCodec}s need.
+     */
+    public static final class Encoder
+    {
+        /**
+         * The bytes written so far.
+         */
+        private byte[] bytes = new byte[256];
+
+        /**
+         * The number of bytes written so far.
+         */
+        private int size;
+
+        /**
+         * The reference (e.g. {@link #STRING_DICTIONARY}) with which each
+         * string written so far is written again.
+         */
+        private final StringIndex strings = new StringIndex(64);
+
+        /**
+         * The number of strings written so far which are not in
+         * {@link #DICTIONARY}.
+         */
+        private int stringCount;
+
+        /**
+         * The types of extension met so far.
+         */
+        private final Map<Class<?>, TypeEntry> typeEntries = new HashMap<>();
+
+        /**
+         * The number of types of extension written so far.
+         */
+        private int typeCount;
+
+        /**
+         * The number of shapes written so far.
+         */
+        private int shapeCount;
+
+        /**
+         * The entry of the type of the last extension written, which siblings
+         * usually share, so that it is found without a look-up in
+         * {@link #typeEntries}.
+         */
+        private TypeEntry lastTypeEntry;
+
+        /**
+         * The reference with which {@link #writeString(String)} last wrote a
+         * string.
+         */
+        private int lastReference;
+
+        /**
+         * The names of the attributes of the extension being written.
+         */
+        private String[] names = new String[8];
+
+        /**
+         * The kinds of the values of the attributes of the extension being
+         * written.
+         */
+        private byte[] kinds = new byte[8];
+
+        /**
+         * The values of the attributes of the extension being written.
+         */
+        private Object[] values = new Object[8];
+
+        /**
+         * Initializes a new <tt>Encoder</tt>.
+         */
+        Encoder()
+        {
+            writeVarint(FORMAT_VERSION);
+        }
+
+        /**
+         * Returns the bytes written so far.
+         *
+         * @return the bytes written so far.
+         */
+        byte[] toByteArray()
+        {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        /**
+         * Makes sure that a specific number of bytes can be written.
+         */
+        private void ensureCapacity(int count)
+        {
+            if (size + count > bytes.length)
+            {
+                bytes
+                    = Arrays.copyOf(
+                            bytes,
+                            Math.max(size + count, bytes.length << 1));
+            }
+        }
+
+        /**
+         * Writes a non-negative integer in as few bytes as it takes.
+         *
+         * @param value the integer.
+         */
+        public void writeVarint(long value)
+        {
+            // Most of the integers which are written fit in a byte.
+            if ((value & ~0x7FL) == 0 && size < bytes.length)
+            {
+                bytes[size++] = (byte) value;
+                return;
+            }
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0)
+            {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        /**
+         * Writes an integer, which may be negative, in as few bytes as it
+         * takes.
+         *
+         * @param value the integer.
+         */
+        public void writeLong(long value)
+        {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        /**
+         * Writes a string, or a reference to it if it is in the dictionary or
+         * has been written before.
+         *
+         * @param s the string, or <tt>null</tt>.
+         */
+        public void writeString(String s)
+        {
+            if (s == null)
+            {
+                writeVarint(STRING_NULL);
+                return;
+            }
+
+            // The strings of the dictionary are added on first use, so that
+            // a string which has been written before takes one look-up.
+            int reference = strings.indexOf(s, -1);
+
+            if (reference >= 0)
+            {
+                lastReference = reference;
+                writeVarint(reference);
+                return;
+            }
+
+            int index = DICTIONARY_INDEX.indexOf(s, -1);
+
+            if (index >= 0)
+            {
+                lastReference = reference = STRING_DICTIONARY + index;
+                strings.indexOf(s, reference);
+                writeVarint(reference);
+                return;
+            }
+            lastReference
+                = STRING_DICTIONARY + DICTIONARY.length + stringCount++;
+            strings.indexOf(s, lastReference);
+            writeVarint(STRING_LITERAL);
+
+            int length = s.length();
+            boolean ascii = true;
+
+            for (int i = 0; i < length; i++)
+            {
+                if (s.charAt(i) >= 0x80)
+                {
+                    ascii = false;
+                    break;
+                }
+            }
+            if (ascii)
+            {
+                writeVarint(length);
+                ensureCapacity(length);
+                for (int i = 0; i < length; i++)
+                {
+                    bytes[size++] = (byte) s.charAt(i);
+                }
+            }
+            else
+            {
+                byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+
+                writeVarint(utf8.length);
+                ensureCapacity(utf8.length);
+                System.arraycopy(utf8, 0, bytes, size, utf8.length);
+                size += utf8.length;
+            }
+        }
+
+        /**
+         * Writes an extension and its descendants.
+         *
+         * @param element the extension.
+         */
+        public void writeElement(ExtensionElement element)
+        {
+            TypeEntry entry
+                = element instanceof AbstractPacketExtension
+                    ? getTypeEntry(element.getClass())
+                    : null;
+
+            if (entry == null)
+            {
+                writeVarint(ELEMENT_XML);
+                writeString(element.getElementName());
+                writeString(element.getNamespace());
+                writeString(
+                        element.toXML(XmlEnvironment.EMPTY).toString());
+                return;
+            }
+
+            AbstractPacketExtension extension
+                = (AbstractPacketExtension) element;
+            int count
+                = readAttributes(extension.getAttributeMap().getSnapshot());
+
+            Shape shape
+                = writeShape(
+                        entry,
+                        extension.getElementName(),
+                        extension.getNamespace(),
+                        count);
+
+            writeAttributeValues(shape, count);
+            writeString(extension.getText());
+            extension.encodeChildExtensions(
+                    this,
+                    entry.knownType.overridesChildExtensions);
+            extension.encodeState(this);
+        }
+
+        /**
+         * Returns the entry of a type of extension.
+         *
+         * @param type the type of extension.
+         * @return the entry of <tt>type</tt>, or <tt>null</tt> if its
+         * extensions are to be written as XML.
+         */
+        private TypeEntry getTypeEntry(Class<?> type)
+        {
+            TypeEntry entry = lastTypeEntry;
+
+            if (entry != null && entry.knownType.type == type)
+            {
+                return entry;
+            }
+            entry = typeEntries.get(type);
+            if (entry == null)
+            {
+                KnownType knownType = getKnownType(type);
+
+                if (knownType == null)
+                {
+                    return null;
+                }
+                entry = new TypeEntry(knownType);
+                typeEntries.put(type, entry);
+            }
+            lastTypeEntry = entry;
+            return entry;
+        }
+
+        /**
+         * Writes the tag of an extension, which refers to its shape, and the
+         * shape first if it has not been written before.
+         *
+         * @param entry the entry of the type of the extension.
+         * @param elementName the element name of the extension.
+         * @param namespace the namespace of the extension.
+         * @param count the number of attributes of the extension, the names
+         * and kinds of which are in {@link #names} and {@link #kinds}.
+         * @return the shape of the extension.
+         */
+        private Shape writeShape(
+                TypeEntry entry,
+                String elementName,
+                String namespace,
+                int count)
+        {
+            Shape shape = entry.lastShape;
+
+            if (shape == null
+                    || !shape.matches(
+                            elementName, namespace, names, kinds, count))
+            {
+                shape = entry.shapes;
+                while (shape != null
+                        && !shape.matches(
+                                elementName, namespace, names, kinds, count))
+                {
+                    shape = shape.previous;
+                }
+                if (shape == null)
+                {
+                    return writeNewShape(entry, elementName, namespace, count);
+                }
+                entry.lastShape = shape;
+            }
+            writeVarint(ELEMENT_SHAPE + shape.index);
+            return shape;
+        }
+
+        /**
+         * Writes the tag of an extension of a shape which has not been
+         * written before, followed by the shape.
+         *
+         * @param entry the entry of the type of the extension.
+         * @param elementName the element name of the extension.
+         * @param namespace the namespace of the extension.
+         * @param count the number of attributes of the extension, the names
+         * and kinds of which are in {@link #names} and {@link #kinds}.
+         * @return the shape of the extension.
+         */
+        private Shape writeNewShape(
+                TypeEntry entry,
+                String elementName,
+                String namespace,
+                int count)
+        {
+            writeVarint(ELEMENT_NEW_SHAPE);
+            if (entry.index < 0)
+            {
+                entry.index = typeCount++;
+                writeVarint(0);
+                writeClassName(entry.knownType.type);
+            }
+            else
+            {
+                writeVarint(entry.index + 1);
+            }
+            writeString(elementName);
+            writeString(namespace);
+            writeVarint(count);
+            for (int i = 0; i < count; i++)
+            {
+                writeString(names[i]);
+                writeVarint(kinds[i]);
+            }
+
+            Shape shape
+                = new Shape(
+                        shapeCount++,
+                        entry.knownType,
+                        elementName,
+                        namespace,
+                        Arrays.copyOf(names, count),
+                        Arrays.copyOf(kinds, count),
+                        entry.shapes);
+
+            entry.shapes = shape;
+            entry.lastShape = shape;
+            return shape;
+        }
+
+        /**
+         * Writes the name of a class as the names of its package, which is
+         * likely to be in the dictionary or to have been written before, and
+         * of the class in the package.
+         *
+         * @param type the class.
+         */
+        private void writeClassName(Class<?> type)
+        {
+            String name = type.getName();
+            int dot = name.lastIndexOf('.');
+
+            writeString(dot < 0 ? "" : name.substring(0, dot));
+            writeString(name.substring(dot + 1));
+        }
+
+        /**
+         * Reads the attributes of an extension into {@link #names},
+         * {@link #kinds} and {@link #values}.
+         *
+         * @param attributes the names and values of the attributes, as
+         * returned by {@link AttributeMap#getSnapshot()}.
+         * @return the number of attributes.
+         */
+        private int readAttributes(Object[] attributes)
+        {
+            int count = 0;
+
+            for (int i = 0; i < attributes.length; i += 2)
+            {
+                Object name = attributes[i];
+                Object value = attributes[i + 1];
+
+                if (name == null || value == null)
+                {
+                    continue;
+                }
+
+                byte kind;
+
+                if (value instanceof Integer)
+                {
+                    kind = VALUE_INT;
+                }
+                else if (value instanceof Long)
+                {
+                    kind = VALUE_LONG;
+                }
+                else if (value instanceof Boolean)
+                {
+                    kind = (byte) ((Boolean) value ? VALUE_TRUE : VALUE_FALSE);
+                }
+                else
+                {
+                    String s = value.toString();
+
+                    kind
+                        = (byte) (isCanonicalInt(s) ? VALUE_INT : VALUE_STRING);
+                    value = s;
+                }
+                if (count == names.length)
+                {
+                    names = Arrays.copyOf(names, count << 1);
+                    kinds = Arrays.copyOf(kinds, count << 1);
+                    values = Arrays.copyOf(values, count << 1);
+                }
+                names[count] = (String) name;
+                kinds[count] = kind;
+                values[count] = value;
+                count++;
+            }
+            return count;
+        }
+
+        /**
+         * Writes the values of the attributes read by
+         * {@link #readAttributes(Object[])}.
+         *
+         * @param shape the shape of the extension.
+         * @param count the number of attributes.
+         */
+        private void writeAttributeValues(Shape shape, int count)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                Object value = values[i];
+
+                values[i] = null;
+                switch (kinds[i])
+                {
+                case VALUE_STRING:
+                    writeStringValue(shape, i, (String) value);
+                    break;
+                case VALUE_INT:
+                    writeLong(
+                            value instanceof Integer
+                                ? (Integer) value
+                                : Integer.parseInt((String) value));
+                    break;
+                case VALUE_LONG:
+                    writeLong((Long) value);
+                    break;
+                default:
+                    // The kind is the value.
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Writes the string value of an attribute like
+         * {@link #writeString(String)}, but looks it up among the values of
+         * the extension of the same shape which was written last first.
+         *
+         * @param shape the shape of the extension.
+         * @param i the position of the attribute in the shape.
+         * @param value the value.
+         */
+        private void writeStringValue(Shape shape, int i, String value)
+        {
+            String[] lastValues = shape.lastValues;
+
+            if (lastValues == null)
+            {
+                shape.lastValues = lastValues = new String[shape.names.length];
+                shape.lastReferences = new int[lastValues.length];
+            }
+
+            String lastValue = lastValues[i];
+
+            if (lastValue != null
+                    && (lastValue == value || lastValue.equals(value)))
+            {
+                writeVarint(shape.lastReferences[i]);
+                return;
+            }
+            writeString(value);
+            lastValues[i] = value;
+            shape.lastReferences[i] = lastReference;
+        }
+    }
+
+    /**
+     * Reads the encoding written by an {@link Encoder}.
+     */
+    public static final class Decoder
+    {
+        /**
+         * The encoding.
+         */
+        private final byte[] bytes;
+
+        /**
+         * The position of the next byte to read.
+         */
+        private int position;
+
+        /**
+         * The strings read so far which are not in {@link #DICTIONARY}, in
+         * the order in which they were written.
+         */
+        private final List<String> strings = new ArrayList<>();
+
+        /**
+         * The types of extension read so far, in the order in which they
+         * were written.
+         */
+        private final List<KnownType> types = new ArrayList<>();
+
+        /**
+         * The shapes read so far, in the order in which they were written.
+         */
+        private final List<Shape> shapes = new ArrayList<>();
+
+        /**
+         * Initializes a new <tt>Decoder</tt>.
+         *
+         * @param bytes the encoding.
+         * @throws IOException if <tt>bytes</tt> is not an encoding of a
+         * version which we can read.
+         */
+        Decoder(byte[] bytes)
+            throws IOException
+        {
+            this.bytes = bytes;
+            if (readVarint() != FORMAT_VERSION)
+            {
+                throw new IOException("Unsupported encoding version");
+            }
+        }
+
+        /**
+         * Reads a non-negative integer written by
+         * {@link Encoder#writeVarint(long)}.
+         *
+         * @return the integer.
+         * @throws IOException if the encoding ends before the integer.
+         */
+        public long readVarint()
+            throws IOException
+        {
+            long value = 0;
+
+            for (int shift = 0; shift < 64; shift += 7)
+            {
+                if (position >= bytes.length)
+                {
+                    throw new EOFException();
+                }
+
+                byte b = bytes[position++];
+
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0)
+                {
+                    return value;
+                }
+            }
+            throw new IOException("Invalid varint");
+        }
+
+        /**
+         * Reads an integer written by {@link Encoder#writeLong(long)}.
+         *
+         * @return the integer.
+         * @throws IOException if the encoding ends before the integer.
+         */
+        public long readLong()
+            throws IOException
+        {
+            long value = readVarint();
+
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /**
+         * Reads a string written by {@link Encoder#writeString(String)}.
+         *
+         * @return the string, or <tt>null</tt>.
+         * @throws IOException if the encoding is not valid.
+         */
+        public String readString()
+            throws IOException
+        {
+            long reference = readVarint();
+
+            if (reference == STRING_NULL)
+            {
+                return null;
+            }
+            if (reference == STRING_LITERAL)
+            {
+                long length = readVarint();
+
+                if (length > bytes.length - position)
+                {
+                    throw new EOFException();
+                }
+
+                String s
+                    = new String(
+                            bytes,
+                            position,
+                            (int) length,
+                            StandardCharsets.UTF_8);
+
+                position += (int) length;
+                strings.add(s);
+                return s;
+            }
+
+            long index = reference - STRING_DICTIONARY;
+
+            if (index < DICTIONARY.length)
+            {
+                return DICTIONARY[(int) index];
+            }
+            index -= DICTIONARY.length;
+            if (index >= strings.size())
+            {
+                throw new IOException("Invalid string reference");
+            }
+            return strings.get((int) index);
+        }
+
+        /**
+         * Reads an extension and its descendants written by
+         * {@link Encoder#writeElement(ExtensionElement)}.
+         *
+         * @return the extension.
+         * @throws IOException if the encoding is not valid.
+         */
+        public ExtensionElement readElement()
+            throws IOException
+        {
+            long tag = readVarint();
+
+            if (tag == ELEMENT_XML)
+            {
+                String elementName = readString();
+                String namespace = readString();
+
+                try
+                {
+                    return
+                        PacketParserUtils.parseExtensionElement(
+                                elementName,
+                                namespace,
+                                newParser(readString()),
+                                XmlEnvironment.EMPTY);
+                }
+                catch (XmlPullParserException | SmackParsingException e)
+                {
+                    throw new IOException(e);
+                }
+            }
+
+            Shape shape;
+
+            if (tag == ELEMENT_NEW_SHAPE)
+            {
+                shape = readShape();
+            }
+            else if (tag - ELEMENT_SHAPE < shapes.size())
+            {
+                shape = shapes.get((int) (tag - ELEMENT_SHAPE));
+            }
+            else
+            {
+                throw new IOException("Invalid shape reference");
+            }
+
+            KnownType knownType = shape.knownType;
+            AbstractPacketExtension extension = knownType.factory.get();
+
+            if (extension.getClass() != knownType.type)
+            {
+                throw new IOException(
+                        "Unexpected type " + extension.getClass().getName());
+            }
+
+            String elementName = extension.getElementName();
+
+            if (elementName != shape.elementName
+                    && !elementName.equals(shape.elementName))
+            {
+                throw new IOException(
+                        "Unexpected element name " + shape.elementName
+                            + " for " + knownType.type.getName());
+            }
+            if (!Objects.equals(extension.getNamespace(), shape.namespace))
+            {
+                extension.setNamespace(shape.namespace);
+            }
+
+            // The extension has not been shared yet, so it need not be
+            // locked.
+            int count = shape.names.length;
+
+            if (count != 0)
+            {
+                AttributeMap attributes = extension.getAttributeMap();
+                Object[] table = new Object[count << 1];
+
+                for (int i = 0; i < count; i++)
+                {
+                    table[i << 1] = shape.names[i];
+                    table[(i << 1) + 1] = readValue(shape.kinds[i]);
+                }
+                if (attributes.isEmpty())
+                {
+                    attributes.load(table, count);
+                }
+                else
+                {
+                    for (int i = 0; i < count; i++)
+                    {
+                        attributes.put(shape.names[i], table[(i << 1) + 1]);
+                    }
+                }
+            }
+
+            String text = readString();
+
+            if (text != null)
+            {
+                extension.setText(text);
+            }
+
+            long childCount = readVarint();
+
+            if (childCount > bytes.length - position)
+            {
+                throw new EOFException();
+            }
+            if (childCount != 0)
+            {
+                ExtensionElement[] children
+                    = new ExtensionElement[(int) childCount];
+
+                for (int i = 0; i < children.length; i++)
+                {
+                    children[i] = readElement();
+                }
+                extension.decodeChildExtensions(
+                        children,
+                        knownType.overridesAddChildExtension);
+            }
+            extension.decodeState(this);
+            return extension;
+        }
+
+        /**
+         * Reads a shape written by
+         * {@link Encoder#writeNewShape(TypeEntry, String, String, int)}.
+         *
+         * @return the shape.
+         * @throws IOException if the encoding is not valid.
+         */
+        private Shape readShape()
+            throws IOException
+        {
+            long typeReference = readVarint();
+            KnownType knownType;
+
+            if (typeReference == 0)
+            {
+                knownType = readType();
+                types.add(knownType);
+            }
+            else if (typeReference <= types.size())
+            {
+                knownType = types.get((int) typeReference - 1);
+            }
+            else
+            {
+                throw new IOException("Invalid type reference");
+            }
+
+            String elementName = readString();
+            String namespace = readString();
+            long count = readVarint();
+
+            if (count > bytes.length - position)
+            {
+                throw new EOFException();
+            }
+
+            String[] names = new String[(int) count];
+            byte[] kinds = new byte[names.length];
+
+            for (int i = 0; i < names.length; i++)
+            {
+                String name = readString();
+                long kind = readVarint();
+
+                if (name == null || kind > VALUE_FALSE)
+                {
+                    throw new IOException("Invalid attribute encoding");
+                }
+                for (int j = 0; j < i; j++)
+                {
+                    if (name.equals(names[j]))
+                    {
+                        throw new IOException("Duplicate attribute " + name);
+                    }
+                }
+                names[i] = name;
+                kinds[i] = (byte) kind;
+            }
+
+            Shape shape
+                = new Shape(
+                        shapes.size(),
+                        knownType,
+                        elementName,
+                        namespace,
+                        names,
+                        kinds,
+                        null);
+
+            shapes.add(shape);
+            return shape;
+        }
+
+        /**
+         * Reads the value of an attribute.
+         *
+         * @param kind the kind of the value.
+         * @return the value.
+         * @throws IOException if the encoding is not valid.
+         */
+        private Object readValue(byte kind)
+            throws IOException
+        {
+            switch (kind)
+            {
+            case VALUE_STRING:
+                String value = readString();
+
+                if (value == null)
+                {
+                    throw new IOException("Invalid attribute encoding");
+                }
+                return value;
+            case VALUE_INT:
+                return (int) readLong();
+            case VALUE_LONG:
+                return readLong();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            default:
+                return Boolean.FALSE;
+            }
+        }
+
+        /**
+         * Reads the name of a type of extension written by
+         * {@link Encoder#writeClassName(Class)}, and looks the type up among
+         * those known to the codec.
+         *
+         * @return the type.
+         * @throws IOException if the name does not name a type of extension
+         * known to the codec.
+         */
+        private KnownType readType()
+            throws IOException
+        {
+            String packageName = readString();
+            String simpleName = readString();
+            String className
+                = packageName == null || packageName.isEmpty()
+                    ? simpleName
+                    : packageName + '.' + simpleName;
+            KnownType knownType = knownTypes.get(className);
+
+            if (knownType == null)
+            {
+                throw new IOException("Unknown type " + className);
+            }
+            return knownType;
+        }
+    }
+}
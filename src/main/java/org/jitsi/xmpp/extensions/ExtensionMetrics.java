@@ -0,0 +1,717 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smack.parsing.*;
+import org.jivesoftware.smack.provider.*;
+import org.jivesoftware.smack.xml.*;
+
+/**
+ * Counts how many elements of each kind (element name and namespace) are
+ * parsed and serialized, how long it takes and about how many bytes they
+ * span, so that the kinds of extensions which dominate parsing and
+ * serialization can be told apart in production.
+ * <p>
+ * Parsing is measured by wrapping providers in ones which time them. Once
+ * {@link #setEnabled(boolean) enabled}, the providers registered through
+ * {@link ExtensionProviderCache} (which is how the providers in this library
+ * register themselves and their children) are wrapped, and so are those
+ * registered later. Other providers can be wrapped with
+ * {@link #instrument(String, String, ExtensionElementProvider)} and
+ * {@link #instrument(String, String, IQProvider)}. Serialization is measured
+ * in {@link AbstractPacketExtension#toXML(XmlEnvironment)}. The times of an
+ * element include those of its children.
+ * <p>
+ * The counters are {@link LongAdder}s, so that threads which parse at the
+ * same time do not contend. While disabled, a wrapped provider costs a read
+ * of a volatile field per element; providers are not wrapped until metrics
+ * are first enabled.
+ */
+public final class ExtensionMetrics
+{
+    /**
+     * The upper bounds, in nanoseconds, of the buckets of the latency
+     * histograms, each four times the previous. The last bucket has no upper
+     * bound.
+     */
+    private static final long[] HISTOGRAM_BOUNDS
+        = {
+            1_000L, 4_000L, 16_000L, 64_000L, 256_000L,
+            1_024_000L, 4_096_000L, 16_384_000L, 65_536_000L
+        };
+
+    /**
+     * Whether metrics are recorded.
+     */
+    private static volatile boolean enabled;
+
+    /**
+     * The counters of each kind of element which has been measured.
+     */
+    private static final ConcurrentMap<Key, Counters> counters
+        = new ConcurrentHashMap<>();
+
+    /**
+     * Checks whether metrics are recorded.
+     *
+     * @return <tt>true</tt> if metrics are recorded.
+     */
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Starts or stops recording metrics. Starting wraps the providers
+     * registered through {@link ExtensionProviderCache} which are not
+     * wrapped yet. Stopping leaves them wrapped, and keeps the metrics
+     * recorded so far.
+     *
+     * @param enabled <tt>true</tt> to record metrics.
+     */
+    public static void setEnabled(boolean enabled)
+    {
+        ExtensionMetrics.enabled = enabled;
+        if (enabled)
+        {
+            ExtensionProviderCache.instrumentProviders();
+        }
+    }
+
+    /**
+     * Returns the upper bounds of the buckets of the latency histograms.
+     *
+     * @return the upper bounds, in nanoseconds, of all the buckets but the
+     * last, which has none.
+     */
+    public static long[] getHistogramBounds()
+    {
+        return HISTOGRAM_BOUNDS.clone();
+    }
+
+    /**
+     * Returns the metrics recorded so far.
+     *
+     * @return the metrics of each kind of element which has been measured,
+     * by element name and namespace.
+     */
+    public static List<ElementMetrics> snapshot()
+    {
+        List<ElementMetrics> snapshot = new ArrayList<>(counters.size());
+
+        for (Map.Entry<Key, Counters> e : counters.entrySet())
+        {
+            Key key = e.getKey();
+            Counters c = e.getValue();
+
+            snapshot.add(
+                    new ElementMetrics(
+                            key.elementName,
+                            key.namespace,
+                            c.parse.snapshot(),
+                            c.serialize.snapshot()));
+        }
+        snapshot.sort(
+                Comparator.comparing(ElementMetrics::getElementName)
+                    .thenComparing(
+                        ElementMetrics::getNamespace,
+                        Comparator.nullsFirst(Comparator.naturalOrder())));
+        return snapshot;
+    }
+
+    /**
+     * Resets the metrics recorded so far.
+     */
+    public static void reset()
+    {
+        for (Counters c : counters.values())
+        {
+            c.parse.reset();
+            c.serialize.reset();
+        }
+    }
+
+    /**
+     * Wraps a provider of extensions in one which records metrics when they
+     * are enabled.
+     *
+     * @param elementName the name of the elements which <tt>provider</tt>
+     * parses.
+     * @param namespace the namespace of the elements which <tt>provider</tt>
+     * parses.
+     * @param provider the provider.
+     * @param <E> the type of the extensions.
+     * @return a provider which parses with <tt>provider</tt>, or
+     * <tt>provider</tt> if it is wrapped already.
+     */
+    public static <E extends ExtensionElement> ExtensionElementProvider<E>
+        instrument(
+            String elementName,
+            String namespace,
+            ExtensionElementProvider<E> provider)
+    {
+        if (provider instanceof InstrumentedExtensionProvider)
+        {
+            return provider;
+        }
+        return
+            new InstrumentedExtensionProvider<>(
+                    provider,
+                    getCounters(elementName, namespace));
+    }
+
+    /**
+     * Wraps a provider of IQs in one which records metrics when they are
+     * enabled.
+     *
+     * @param elementName the name of the child elements which
+     * <tt>provider</tt> parses.
+     * @param namespace the namespace of the child elements which
+     * <tt>provider</tt> parses.
+     * @param provider the provider.
+     * @param <I> the type of the IQs.
+     * @return a provider which parses with <tt>provider</tt>, or
+     * <tt>provider</tt> if it is wrapped already.
+     */
+    public static <I extends IQ> IQProvider<I> instrument(
+            String elementName,
+            String namespace,
+            IQProvider<I> provider)
+    {
+        if (provider instanceof InstrumentedIQProvider)
+        {
+            return provider;
+        }
+        return
+            new InstrumentedIQProvider<>(
+                    provider,
+                    getCounters(elementName, namespace));
+    }
+
+    /**
+     * Returns the provider which a provider returned by one of the
+     * <tt>instrument</tt> methods wraps.
+     *
+     * @param provider a provider, wrapped or not.
+     * @return the provider which <tt>provider</tt> wraps, or
+     * <tt>provider</tt> if it is not wrapped.
+     */
+    static Object unwrap(Object provider)
+    {
+        if (provider instanceof InstrumentedExtensionProvider)
+        {
+            return ((InstrumentedExtensionProvider<?>) provider).provider;
+        }
+        if (provider instanceof InstrumentedIQProvider)
+        {
+            return ((InstrumentedIQProvider<?>) provider).provider;
+        }
+        return provider;
+    }
+
+    /**
+     * Records the serialization of an element.
+     *
+     * @param elementName the name of the element.
+     * @param namespace the namespace of the element.
+     * @param nanos how long it took.
+     * @param length the length of the XML.
+     */
+    static void recordSerialize(
+            String elementName,
+            String namespace,
+            long nanos,
+            long length)
+    {
+        getCounters(elementName, namespace).serialize.record(nanos, length);
+    }
+
+    /**
+     * Returns the counters of a kind of element, creating them if needed.
+     */
+    private static Counters getCounters(String elementName, String namespace)
+    {
+        Key key = new Key(elementName, namespace);
+        Counters c = counters.get(key);
+
+        return
+            c != null ? c : counters.computeIfAbsent(key, k -> new Counters());
+    }
+
+    /**
+     * Returns the position of a parser within its line, or <tt>-1</tt>.
+     */
+    private static int getColumnNumber(XmlPullParser parser)
+    {
+        try
+        {
+            return parser.getColumnNumber();
+        }
+        catch (RuntimeException e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns about how many bytes a parser has consumed since a specific
+     * position.
+     * <p>
+     * Stanzas usually come on a single line, so the difference between the
+     * columns at which an element starts and ends approximates its length.
+     *
+     * @param parser the parser.
+     * @param line the line at which the parser was.
+     * @param column the column at which the parser was, or <tt>-1</tt>.
+     * @return about how many bytes the parser has consumed, or <tt>0</tt> if
+     * it is on another line.
+     */
+    private static long getSpan(XmlPullParser parser, int line, int column)
+    {
+        if (column < 0 || line != parser.getLineNumber())
+        {
+            return 0;
+        }
+
+        int endColumn = getColumnNumber(parser);
+
+        return endColumn < column ? 0 : endColumn - column;
+    }
+
+    /**
+     * Prevents the initialization of <tt>ExtensionMetrics</tt> instances.
+     */
+    private ExtensionMetrics()
+    {
+    }
+
+    /**
+     * The metrics of a kind of element.
+     */
+    public static final class ElementMetrics
+    {
+        /**
+         * The name of the element.
+         */
+        private final String elementName;
+
+        /**
+         * The namespace of the element.
+         */
+        private final String namespace;
+
+        /**
+         * The metrics of parsing the element.
+         */
+        private final OperationMetrics parse;
+
+        /**
+         * The metrics of serializing the element.
+         */
+        private final OperationMetrics serialize;
+
+        ElementMetrics(
+                String elementName,
+                String namespace,
+                OperationMetrics parse,
+                OperationMetrics serialize)
+        {
+            this.elementName = elementName;
+            this.namespace = namespace;
+            this.parse = parse;
+            this.serialize = serialize;
+        }
+
+        /**
+         * @return the name of the element.
+         */
+        public String getElementName()
+        {
+            return elementName;
+        }
+
+        /**
+         * @return the namespace of the element.
+         */
+        public String getNamespace()
+        {
+            return namespace;
+        }
+
+        /**
+         * @return the metrics of parsing the element.
+         */
+        public OperationMetrics getParse()
+        {
+            return parse;
+        }
+
+        /**
+         * @return the metrics of serializing the element.
+         */
+        public OperationMetrics getSerialize()
+        {
+            return serialize;
+        }
+
+        @Override
+        public String toString()
+        {
+            return
+                elementName + " " + namespace + ": parse " + parse
+                    + ", serialize " + serialize;
+        }
+    }
+
+    /**
+     * The metrics of parsing or serializing a kind of element.
+     */
+    public static final class OperationMetrics
+    {
+        /**
+         * How many elements were processed.
+         */
+        private final long count;
+
+        /**
+         * How long it took in total, in nanoseconds.
+         */
+        private final long totalNanos;
+
+        /**
+         * About how many bytes the elements spanned in total.
+         */
+        private final long bytes;
+
+        /**
+         * How many elements took the time of each bucket of
+         * {@link #getHistogramBounds()}.
+         */
+        private final long[] histogram;
+
+        OperationMetrics(
+                long count,
+                long totalNanos,
+                long bytes,
+                long[] histogram)
+        {
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.bytes = bytes;
+            this.histogram = histogram;
+        }
+
+        /**
+         * @return how many elements were processed.
+         */
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * @return how long it took in total, in nanoseconds.
+         */
+        public long getTotalNanos()
+        {
+            return totalNanos;
+        }
+
+        /**
+         * Returns about how many bytes the elements spanned in total. For
+         * parsing, elements which span lines are not counted.
+         *
+         * @return about how many bytes the elements spanned.
+         */
+        public long getBytes()
+        {
+            return bytes;
+        }
+
+        /**
+         * Returns how many elements took the time of each bucket of
+         * {@link ExtensionMetrics#getHistogramBounds()}, the last of which
+         * counts those which took longer than all the bounds.
+         *
+         * @return the latency histogram.
+         */
+        public long[] getHistogram()
+        {
+            return histogram.clone();
+        }
+
+        @Override
+        public String toString()
+        {
+            return
+                "count=" + count + " nanos=" + totalNanos + " bytes=" + bytes
+                    + " histogram=" + Arrays.toString(histogram);
+        }
+    }
+
+    /**
+     * The element name and namespace of a kind of element.
+     */
+    private static final class Key
+    {
+        /**
+         * The name of the element.
+         */
+        final String elementName;
+
+        /**
+         * The namespace of the element.
+         */
+        final String namespace;
+
+        Key(String elementName, String namespace)
+        {
+            this.elementName = elementName;
+            this.namespace = namespace;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+
+            Key key = (Key) obj;
+
+            return
+                Objects.equals(elementName, key.elementName)
+                    && Objects.equals(namespace, key.namespace);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(elementName, namespace);
+        }
+    }
+
+    /**
+     * The counters of a kind of element.
+     */
+    private static final class Counters
+    {
+        /**
+         * The counters of parsing.
+         */
+        final OperationCounters parse = new OperationCounters();
+
+        /**
+         * The counters of serializing.
+         */
+        final OperationCounters serialize = new OperationCounters();
+    }
+
+    /**
+     * The counters of parsing or serializing a kind of element.
+     */
+    private static final class OperationCounters
+    {
+        /**
+         * How many elements were processed.
+         */
+        final LongAdder count = new LongAdder();
+
+        /**
+         * How long it took in total, in nanoseconds.
+         */
+        final LongAdder nanos = new LongAdder();
+
+        /**
+         * About how many bytes the elements spanned in total.
+         */
+        final LongAdder bytes = new LongAdder();
+
+        /**
+         * How many elements took the time of each bucket.
+         */
+        final LongAdder[] histogram
+            = new LongAdder[HISTOGRAM_BOUNDS.length + 1];
+
+        OperationCounters()
+        {
+            for (int i = 0; i < histogram.length; i++)
+            {
+                histogram[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Records the processing of an element.
+         *
+         * @param nanos how long it took.
+         * @param bytes about how many bytes the element spanned.
+         */
+        void record(long nanos, long bytes)
+        {
+            int bucket = 0;
+
+            while (bucket < HISTOGRAM_BOUNDS.length
+                    && nanos > HISTOGRAM_BOUNDS[bucket])
+            {
+                bucket++;
+            }
+            count.increment();
+            this.nanos.add(nanos);
+            this.bytes.add(bytes);
+            histogram[bucket].increment();
+        }
+
+        /**
+         * Resets the counters.
+         */
+        void reset()
+        {
+            count.reset();
+            nanos.reset();
+            bytes.reset();
+            for (LongAdder bucket : histogram)
+            {
+                bucket.reset();
+            }
+        }
+
+        /**
+         * Returns the current values of the counters.
+         */
+        OperationMetrics snapshot()
+        {
+            long[] histogram = new long[this.histogram.length];
+
+            for (int i = 0; i < histogram.length; i++)
+            {
+                histogram[i] = this.histogram[i].sum();
+            }
+            return
+                new OperationMetrics(
+                        count.sum(),
+                        nanos.sum(),
+                        bytes.sum(),
+                        histogram);
+        }
+    }
+
+    /**
+     * A provider of extensions which records metrics when they are enabled.
+     *
+     * @param <E> the type of the extensions.
+     */
+    private static final class InstrumentedExtensionProvider
+            <E extends ExtensionElement>
+        extends ExtensionElementProvider<E>
+    {
+        /**
+         * The provider which parses the extensions.
+         */
+        final ExtensionElementProvider<E> provider;
+
+        /**
+         * The counters of the extensions.
+         */
+        private final Counters counters;
+
+        InstrumentedExtensionProvider(
+                ExtensionElementProvider<E> provider,
+                Counters counters)
+        {
+            this.provider = provider;
+            this.counters = counters;
+        }
+
+        @Override
+        public E parse(
+                XmlPullParser parser,
+                int depth,
+                XmlEnvironment xmlEnvironment)
+            throws XmlPullParserException, IOException, SmackParsingException
+        {
+            if (!enabled)
+            {
+                return provider.parse(parser, depth, xmlEnvironment);
+            }
+
+            int line = parser.getLineNumber();
+            int column = getColumnNumber(parser);
+            long start = System.nanoTime();
+            E extension = provider.parse(parser, depth, xmlEnvironment);
+
+            counters.parse.record(
+                    System.nanoTime() - start,
+                    getSpan(parser, line, column));
+            return extension;
+        }
+    }
+
+    /**
+     * A provider of IQs which records metrics when they are enabled.
+     *
+     * @param <I> the type of the IQs.
+     */
+    private static final class InstrumentedIQProvider<I extends IQ>
+        extends IQProvider<I>
+    {
+        /**
+         * The provider which parses the IQs.
+         */
+        final IQProvider<I> provider;
+
+        /**
+         * The counters of the IQs.
+         */
+        private final Counters counters;
+
+        InstrumentedIQProvider(IQProvider<I> provider, Counters counters)
+        {
+            this.provider = provider;
+            this.counters = counters;
+        }
+
+        @Override
+        public I parse(
+                XmlPullParser parser,
+                int depth,
+                XmlEnvironment xmlEnvironment)
+            throws XmlPullParserException, IOException, SmackParsingException
+        {
+            if (!enabled)
+            {
+                return provider.parse(parser, depth, xmlEnvironment);
+            }
+
+            int line = parser.getLineNumber();
+            int column = getColumnNumber(parser);
+            long start = System.nanoTime();
+            I iq = provider.parse(parser, depth, xmlEnvironment);
+
+            counters.parse.record(
+                    System.nanoTime() - start,
+                    getSpan(parser, line, column));
+            return iq;
+        }
+    }
+}
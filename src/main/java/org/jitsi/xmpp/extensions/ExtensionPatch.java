@@ -0,0 +1,736 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions;
+
+import java.util.*;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jivesoftware.smack.packet.*;
+
+/**
+ * The differences between two trees of {@link AbstractPacketExtension}s, as
+ * computed by {@link #diff(AbstractPacketExtension, AbstractPacketExtension)},
+ * which can be inspected (e.g. to tell which sources to signal in a
+ * <tt>source-add</tt> and which in a <tt>source-remove</tt>) and applied to
+ * another copy of the old tree.
+ * <p>
+ * A patch describes one element: the attributes and text it changes, the
+ * child elements which are added and removed, and the patches of the child
+ * elements which are changed. Child elements are matched by element name,
+ * namespace and {@link AbstractPacketExtension#getIdentityKey()} (SSRC for
+ * sources, foundation and component for candidates, ID for payload types,
+ * etc.) through hash maps, and the subtrees which have not changed are told
+ * apart by their structural hashes, so computing and applying a patch takes
+ * time linear in the size of the trees rather than quadratic.
+ * <p>
+ * The order of the child elements is kept: if the child elements which are
+ * in both trees are in the same order and those which are added come after
+ * them, the added ones are appended; otherwise, the patch records the order
+ * of the child elements of the new tree and {@link #apply(
+ * AbstractPacketExtension)} puts them back in that order.
+ */
+public final class ExtensionPatch
+{
+    /**
+     * Computes the patch which changes a tree of extensions into another one.
+     *
+     * @param from the old tree.
+     * @param to the new tree.
+     * @return the patch which changes <tt>from</tt> into <tt>to</tt>, which is
+     * {@link #isEmpty() empty} if they have the same structure.
+     * @throws IllegalArgumentException if the roots of the trees do not have
+     * the same element name and namespace.
+     */
+    public static ExtensionPatch diff(
+            AbstractPacketExtension from,
+            AbstractPacketExtension to)
+    {
+        if (!from.getElementName().equals(to.getElementName())
+                || !Objects.equals(
+                        emptyToNull(from.getNamespace()),
+                        emptyToNull(to.getNamespace())))
+        {
+            throw new IllegalArgumentException(
+                    "Cannot diff " + from.getElementName() + " and "
+                        + to.getElementName());
+        }
+
+        ExtensionPatch patch
+            = diff(
+                    new Key(
+                        from.getElementName(),
+                        emptyToNull(from.getNamespace()),
+                        null,
+                        0),
+                    from, null,
+                    to, null);
+
+        return patch == null ? new ExtensionPatch(from, null) : patch;
+    }
+
+    /**
+     * Computes the patch which changes an extension into another one which
+     * has the same key among its siblings.
+     *
+     * @param key the key of the extensions.
+     * @param from the old extension.
+     * @param fromEnclosingNamespace the effective namespace of the parent of
+     * <tt>from</tt>.
+     * @param to the new extension.
+     * @param toEnclosingNamespace the effective namespace of the parent of
+     * <tt>to</tt>.
+     * @return the patch which changes <tt>from</tt> into <tt>to</tt>, or
+     * <tt>null</tt> if they have the same structure.
+     */
+    private static ExtensionPatch diff(
+            Key key,
+            AbstractPacketExtension from, String fromEnclosingNamespace,
+            AbstractPacketExtension to, String toEnclosingNamespace)
+    {
+        // The hashes tell most subtrees which have not changed apart without
+        // walking them.
+        if (from.getStructuralHash() == to.getStructuralHash()
+                && from.structurallyEquals(to))
+        {
+            return null;
+        }
+
+        ExtensionPatch patch = new ExtensionPatch(from, key);
+        Map<String, String> attributes = getAttributes(to);
+
+        if (!attributes.equals(getAttributes(from)))
+        {
+            patch.attributes = attributes;
+        }
+        if (!Objects.equals(
+                emptyToNull(from.getText()),
+                emptyToNull(to.getText())))
+        {
+            patch.textChanged = true;
+            patch.text = to.getText();
+        }
+
+        String fromNamespace
+            = effectiveNamespace(from.getNamespace(), fromEnclosingNamespace);
+        String toNamespace
+            = effectiveNamespace(to.getNamespace(), toEnclosingNamespace);
+        Map<Key, ExtensionElement> unmatched
+            = keys(from.getChildExtensionsArray(), fromNamespace);
+        Map<Key, ExtensionElement> toChildren
+            = keys(to.getChildExtensionsArray(), toNamespace);
+        Map<Key, Integer> positions = positions(unmatched.keySet());
+        // The child extensions keep their order if those which are matched
+        // are in the same order in both trees, and those which are added
+        // (appended) come after them.
+        boolean reordered = false;
+        boolean seenAdded = false;
+        int lastPosition = -1;
+
+        for (Map.Entry<Key, ExtensionElement> e : toChildren.entrySet())
+        {
+            Key childKey = e.getKey();
+            ExtensionElement toChild = e.getValue();
+            ExtensionElement fromChild = unmatched.remove(childKey);
+
+            if (fromChild == null)
+            {
+                patch.added.put(
+                        childKey,
+                        AbstractPacketExtension.deepClone(toChild));
+                seenAdded = true;
+                continue;
+            }
+
+            int position = positions.get(childKey);
+
+            if (seenAdded || position < lastPosition)
+            {
+                reordered = true;
+            }
+            lastPosition = position;
+
+            if (fromChild instanceof AbstractPacketExtension
+                    && toChild instanceof AbstractPacketExtension
+                    && fromChild.getClass() == toChild.getClass())
+            {
+                ExtensionPatch childPatch
+                    = diff(
+                        childKey,
+                        (AbstractPacketExtension) fromChild, fromNamespace,
+                        (AbstractPacketExtension) toChild, toNamespace);
+
+                if (childPatch != null)
+                {
+                    patch.childPatches.add(childPatch);
+                }
+            }
+            else if (!toXML(fromChild, fromNamespace)
+                    .equals(toXML(toChild, toNamespace)))
+            {
+                // We cannot patch what we do not know the structure of, so we
+                // replace it.
+                patch.removed.put(childKey, fromChild);
+                patch.added.put(
+                        childKey,
+                        AbstractPacketExtension.deepClone(toChild));
+                seenAdded = true;
+            }
+        }
+        patch.removed.putAll(unmatched);
+        if (reordered)
+        {
+            patch.order = new ArrayList<>(toChildren.keySet());
+        }
+
+        return patch.isEmpty() ? null : patch;
+    }
+
+    /**
+     * Returns the positions of the keys of a list of sibling extensions.
+     *
+     * @param keys the keys of the siblings, in order.
+     * @return the positions of <tt>keys</tt>.
+     */
+    private static Map<Key, Integer> positions(Collection<Key> keys)
+    {
+        Map<Key, Integer> positions = new HashMap<>(keys.size() * 4 / 3 + 1);
+        int position = 0;
+
+        for (Key key : keys)
+        {
+            positions.put(key, position++);
+        }
+        return positions;
+    }
+
+    /**
+     * Returns the (non-<tt>null</tt>) attributes of an extension as strings.
+     *
+     * @param extension the extension.
+     * @return the attributes of <tt>extension</tt>.
+     */
+    private static Map<String, String> getAttributes(
+            AbstractPacketExtension extension)
+    {
+        List<String> names = extension.getAttributeNames();
+        Map<String, String> attributes = new HashMap<>(names.size() * 2);
+
+        for (String name : names)
+        {
+            String value = extension.getAttributeAsString(name);
+
+            if (value != null)
+            {
+                attributes.put(name, value);
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * Returns the keys of a list of sibling extensions.
+     *
+     * @param children the sibling extensions.
+     * @param enclosingNamespace the effective namespace of their parent.
+     * @return the siblings by their keys, in order.
+     */
+    private static Map<Key, ExtensionElement> keys(
+            ExtensionElement[] children,
+            String enclosingNamespace)
+    {
+        Map<Key, ExtensionElement> keys
+            = new LinkedHashMap<>(children.length * 4 / 3 + 1);
+        // The number of siblings seen so far with each key, which is only
+        // needed (and created) if there are siblings with the same key.
+        Map<Key, Integer> occurrences = null;
+
+        for (ExtensionElement child : children)
+        {
+            if (child == null)
+            {
+                continue;
+            }
+
+            String namespace = child.getNamespace();
+
+            if (StringUtils.isEmpty(namespace)
+                    || namespace.equals(enclosingNamespace))
+            {
+                namespace = null;
+            }
+
+            Object identityKey
+                = child instanceof AbstractPacketExtension
+                    ? ((AbstractPacketExtension) child).getIdentityKey()
+                    : null;
+            Key key
+                = new Key(child.getElementName(), namespace, identityKey, 0);
+
+            // Siblings with the same key are matched in order.
+            if (keys.containsKey(key))
+            {
+                if (occurrences == null)
+                {
+                    occurrences = new HashMap<>();
+                }
+
+                int occurrence = occurrences.merge(key, 1, Integer::sum);
+
+                key
+                    = new Key(
+                            key.elementName,
+                            key.namespace,
+                            key.identityKey,
+                            occurrence);
+            }
+            keys.put(key, child);
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the effective namespace of an extension.
+     *
+     * @param namespace the namespace of the extension.
+     * @param enclosingNamespace the effective namespace of its parent.
+     * @return the effective namespace of the extension.
+     */
+    private static String effectiveNamespace(
+            String namespace,
+            String enclosingNamespace)
+    {
+        return StringUtils.isEmpty(namespace) ? enclosingNamespace : namespace;
+    }
+
+    /**
+     * Returns the XML of an extension.
+     *
+     * @param extension the extension.
+     * @param enclosingNamespace the effective namespace of its parent.
+     * @return the XML of <tt>extension</tt>.
+     */
+    private static String toXML(
+            ExtensionElement extension,
+            String enclosingNamespace)
+    {
+        return extension.toXML(new XmlEnvironment(enclosingNamespace))
+            .toString();
+    }
+
+    /**
+     * Returns <tt>null</tt> for an empty string.
+     *
+     * @param s the string.
+     * @return <tt>s</tt>, or <tt>null</tt> if it is empty.
+     */
+    private static String emptyToNull(String s)
+    {
+        return StringUtils.isEmpty(s) ? null : s;
+    }
+
+    /**
+     * The element name of the extension which this patch changes.
+     */
+    private final String elementName;
+
+    /**
+     * The namespace of the extension which this patch changes.
+     */
+    private final String namespace;
+
+    /**
+     * The key of the extension which this patch changes among its siblings,
+     * or <tt>null</tt> for the root of the tree.
+     */
+    private final Key key;
+
+    /**
+     * The new attributes of the extension, or <tt>null</tt> if they do not
+     * change.
+     */
+    private Map<String, String> attributes;
+
+    /**
+     * Whether the text of the extension changes.
+     */
+    private boolean textChanged;
+
+    /**
+     * The new text of the extension.
+     */
+    private String text;
+
+    /**
+     * The child extensions to remove, by their keys.
+     */
+    private final Map<Key, ExtensionElement> removed = new LinkedHashMap<>();
+
+    /**
+     * The child extensions to add, by their keys.
+     */
+    private final Map<Key, ExtensionElement> added = new LinkedHashMap<>();
+
+    /**
+     * The keys of the child extensions of the new tree in order, or
+     * <tt>null</tt> if appending the added child extensions keeps it.
+     */
+    private List<Key> order;
+
+    /**
+     * The patches of the child extensions which change.
+     */
+    private final List<ExtensionPatch> childPatches = new ArrayList<>();
+
+    /**
+     * Initializes a new (empty) <tt>ExtensionPatch</tt>.
+     *
+     * @param extension the extension which the patch changes.
+     * @param key the key of <tt>extension</tt> among its siblings, or
+     * <tt>null</tt> for the root of the tree.
+     */
+    private ExtensionPatch(AbstractPacketExtension extension, Key key)
+    {
+        this.elementName = extension.getElementName();
+        this.namespace = extension.getNamespace();
+        this.key = key;
+    }
+
+    /**
+     * Returns the element name of the extension which this patch changes.
+     *
+     * @return the element name of the extension which this patch changes.
+     */
+    public String getElementName()
+    {
+        return elementName;
+    }
+
+    /**
+     * Returns the namespace of the extension which this patch changes.
+     *
+     * @return the namespace of the extension which this patch changes.
+     */
+    public String getNamespace()
+    {
+        return namespace;
+    }
+
+    /**
+     * Returns the identity key of the extension which this patch changes.
+     *
+     * @return the identity key of the extension which this patch changes, or
+     * <tt>null</tt> if it has none.
+     * @see AbstractPacketExtension#getIdentityKey()
+     */
+    public Object getIdentityKey()
+    {
+        return key == null ? null : key.identityKey;
+    }
+
+    /**
+     * Checks whether this patch changes nothing.
+     *
+     * @return <tt>true</tt> if this patch changes nothing.
+     */
+    public boolean isEmpty()
+    {
+        return attributes == null
+            && !textChanged
+            && removed.isEmpty()
+            && added.isEmpty()
+            && childPatches.isEmpty()
+            && order == null;
+    }
+
+    /**
+     * Checks whether this patch changes the order of the child extensions,
+     * i.e. whether it moves child extensions or inserts child extensions
+     * before others rather than appending them.
+     *
+     * @return <tt>true</tt> if this patch changes the order of the child
+     * extensions.
+     */
+    public boolean isReordered()
+    {
+        return order != null;
+    }
+
+    /**
+     * Returns the new attributes of the extension which this patch changes.
+     *
+     * @return the new attributes of the extension, or <tt>null</tt> if they
+     * do not change.
+     */
+    public Map<String, String> getAttributes()
+    {
+        return
+            attributes == null ? null : Collections.unmodifiableMap(attributes);
+    }
+
+    /**
+     * Checks whether this patch changes the text of the extension.
+     *
+     * @return <tt>true</tt> if this patch changes the text of the extension.
+     */
+    public boolean isTextChanged()
+    {
+        return textChanged;
+    }
+
+    /**
+     * Returns the new text of the extension which this patch changes.
+     *
+     * @return the new text of the extension, if {@link #isTextChanged()}.
+     */
+    public String getText()
+    {
+        return text;
+    }
+
+    /**
+     * Returns the child extensions of the old tree which this patch removes.
+     *
+     * @return the child extensions which this patch removes.
+     */
+    public Collection<ExtensionElement> getRemoved()
+    {
+        return Collections.unmodifiableCollection(removed.values());
+    }
+
+    /**
+     * Returns (copies of) the child extensions of the new tree which this
+     * patch adds.
+     *
+     * @return the child extensions which this patch adds.
+     */
+    public List<ExtensionElement> getAdded()
+    {
+        return Collections.unmodifiableList(new ArrayList<>(added.values()));
+    }
+
+    /**
+     * Returns the patches of the child extensions which this patch changes.
+     *
+     * @return the patches of the child extensions which this patch changes.
+     */
+    public List<ExtensionPatch> getChildPatches()
+    {
+        return Collections.unmodifiableList(childPatches);
+    }
+
+    /**
+     * Applies this patch to a tree which has the same structure as the old
+     * tree it was computed from (e.g. the old tree itself, or a copy of it).
+     * Each extension which is added gets its own copy, so a patch can be
+     * applied to any number of trees.
+     *
+     * @param target the tree to change.
+     * @throws IllegalArgumentException if the root of <tt>target</tt> does
+     * not have the element name and namespace of the old tree.
+     * @throws IllegalStateException if <tt>target</tt> does not have a child
+     * extension which this patch changes.
+     */
+    public void apply(AbstractPacketExtension target)
+    {
+        if (!elementName.equals(target.getElementName())
+                || !Objects.equals(
+                        emptyToNull(namespace),
+                        emptyToNull(target.getNamespace())))
+        {
+            throw new IllegalArgumentException(
+                    "Cannot apply a patch of " + elementName + " to "
+                        + target.getElementName());
+        }
+        apply(target, null);
+    }
+
+    /**
+     * Applies this patch to an extension.
+     *
+     * @param target the extension to change.
+     * @param enclosingNamespace the effective namespace of the parent of
+     * <tt>target</tt>.
+     */
+    private void apply(
+            AbstractPacketExtension target,
+            String enclosingNamespace)
+    {
+        if (attributes != null)
+        {
+            for (String name : target.getAttributeNames())
+            {
+                if (!attributes.containsKey(name))
+                {
+                    target.removeAttribute(name);
+                }
+            }
+            for (Map.Entry<String, String> e : attributes.entrySet())
+            {
+                target.setAttribute(e.getKey(), e.getValue());
+            }
+        }
+        if (textChanged)
+        {
+            target.setText(text);
+        }
+
+        if (removed.isEmpty() && childPatches.isEmpty() && order == null)
+        {
+            for (ExtensionElement child : added.values())
+            {
+                target.addChildExtension(
+                        AbstractPacketExtension.deepClone(child));
+            }
+            return;
+        }
+
+        String namespace
+            = effectiveNamespace(target.getNamespace(), enclosingNamespace);
+        Map<Key, ExtensionElement> children
+            = keys(target.getChildExtensionsArray(), namespace);
+
+        for (ExtensionPatch childPatch : childPatches)
+        {
+            ExtensionElement child = children.get(childPatch.key);
+
+            if (!(child instanceof AbstractPacketExtension))
+            {
+                throw new IllegalStateException(
+                        "No " + childPatch.elementName + " "
+                            + childPatch.key.identityKey + " in "
+                            + elementName);
+            }
+            childPatch.apply((AbstractPacketExtension) child, namespace);
+        }
+
+        if (order == null)
+        {
+            // The removed child extensions are removed in a single pass, and
+            // the added ones go after the others.
+            List<ExtensionElement> removedChildren
+                = new ArrayList<>(removed.size());
+
+            for (Key childKey : removed.keySet())
+            {
+                ExtensionElement child = children.get(childKey);
+
+                if (child != null)
+                {
+                    removedChildren.add(child);
+                }
+            }
+            target.removeChildExtensions(removedChildren);
+            for (ExtensionElement child : added.values())
+            {
+                target.addChildExtension(
+                        AbstractPacketExtension.deepClone(child));
+            }
+        }
+        else
+        {
+            // Removing all child extensions and adding them back in order
+            // takes a single pass, whereas moving them one by one would take
+            // one each.
+            List<ExtensionElement> ordered = new ArrayList<>(order.size());
+
+            for (Key childKey : order)
+            {
+                ExtensionElement child = added.get(childKey);
+
+                if (child != null)
+                {
+                    child = AbstractPacketExtension.deepClone(child);
+                }
+                else if ((child = children.get(childKey)) == null)
+                {
+                    throw new IllegalStateException(
+                            "No " + childKey.elementName + " "
+                                + childKey.identityKey + " in "
+                                + elementName);
+                }
+                ordered.add(child);
+            }
+            target.removeChildExtensions(children.values());
+            for (ExtensionElement child : ordered)
+            {
+                target.addChildExtension(child);
+            }
+        }
+    }
+
+    /**
+     * Identifies an extension among its siblings.
+     */
+    private static final class Key
+    {
+        /**
+         * The element name of the extension.
+         */
+        final String elementName;
+
+        /**
+         * The namespace of the extension, or <tt>null</tt> if it is that of
+         * its parent.
+         */
+        final String namespace;
+
+        /**
+         * The identity key of the extension.
+         */
+        final Object identityKey;
+
+        /**
+         * The number of siblings before the extension which have the same
+         * element name, namespace and identity key.
+         */
+        final int occurrence;
+
+        Key(
+                String elementName,
+                String namespace,
+                Object identityKey,
+                int occurrence)
+        {
+            this.elementName = elementName;
+            this.namespace = namespace;
+            this.identityKey = identityKey;
+            this.occurrence = occurrence;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+
+            Key key = (Key) o;
+
+            return occurrence == key.occurrence
+                && elementName.equals(key.elementName)
+                && Objects.equals(namespace, key.namespace)
+                && Objects.equals(identityKey, key.identityKey);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(elementName, namespace, identityKey)
+                + occurrence;
+        }
+    }
+}
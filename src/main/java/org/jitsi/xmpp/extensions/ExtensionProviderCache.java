@@ -0,0 +1,415 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smack.provider.*;
+
+/**
+ * Remembers the {@link ExtensionElementProvider}s which a provider has looked
+ * up in the {@link ProviderManager} for the child elements it parses, so that
+ * parsing a child does not go through the global registry (and build its
+ * composite key) every time.
+ * <p>
+ * A provider parses few kinds of child elements, so the cache is a small
+ * array which is scanned comparing the element names and namespaces by
+ * identity first, since the parser usually returns the same (interned)
+ * strings for them. The array is replaced rather than changed, so lookups do
+ * not lock and the cache can be shared by the threads which use the
+ * provider.
+ * <p>
+ * Every cache is dropped when a provider is registered or unregistered
+ * through {@link #addExtensionProvider(String, String, Object)} or
+ * {@link #removeExtensionProvider(String, String)}, which keep a global
+ * registration epoch. Code which registers providers with the
+ * {@link ProviderManager} directly, and replaces one which might have been
+ * cached, should call {@link #invalidateAll()}. Elements for which no provider
+ * is registered are not cached, so registering a new provider is always
+ * noticed.
+ * <p>
+ * The providers registered through this class are also the ones which
+ * {@link ExtensionMetrics} wraps when it is enabled.
+ */
+public final class ExtensionProviderCache
+{
+    /**
+     * The registration epoch, incremented whenever a provider is registered or
+     * unregistered.
+     */
+    private static final AtomicInteger epoch = new AtomicInteger();
+
+    /**
+     * The entries of a cache for which nothing has been looked up yet.
+     */
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    /**
+     * The maximum number of providers cached by an instance. Lookups beyond
+     * it go to the {@link ProviderManager}, so that a cache which sees many
+     * kinds of elements does not become slower than the registry.
+     */
+    private static final int MAX_ENTRIES = 32;
+
+    /**
+     * The element names and namespaces for which providers have been
+     * registered through this class.
+     */
+    private static final Set<Registration> registrations
+        = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Registers an {@link ExtensionElementProvider} with the
+     * {@link ProviderManager} and invalidates the providers cached by all
+     * instances.
+     *
+     * @param elementName the name of the elements which <tt>provider</tt>
+     * parses.
+     * @param namespace the namespace of the elements which <tt>provider</tt>
+     * parses.
+     * @param provider the provider to register.
+     */
+    public static void addExtensionProvider(
+            String elementName,
+            String namespace,
+            Object provider)
+    {
+        registrations.add(new Registration(elementName, namespace, false));
+        ProviderManager.addExtensionProvider(
+                elementName,
+                namespace,
+                instrument(elementName, namespace, provider));
+        invalidateAll();
+    }
+
+    /**
+     * Registers an {@link IQProvider} with the {@link ProviderManager}, so
+     * that {@link ExtensionMetrics} can wrap it.
+     *
+     * @param elementName the name of the child elements which
+     * <tt>provider</tt> parses.
+     * @param namespace the namespace of the child elements which
+     * <tt>provider</tt> parses.
+     * @param provider the provider to register.
+     */
+    public static void addIQProvider(
+            String elementName,
+            String namespace,
+            Object provider)
+    {
+        registrations.add(new Registration(elementName, namespace, true));
+        ProviderManager.addIQProvider(
+                elementName,
+                namespace,
+                instrument(elementName, namespace, provider));
+    }
+
+    /**
+     * Unregisters an {@link ExtensionElementProvider} from the
+     * {@link ProviderManager} and invalidates the providers cached by all
+     * instances.
+     *
+     * @param elementName the name of the elements which the provider parses.
+     * @param namespace the namespace of the elements which the provider
+     * parses.
+     * @return the provider which was unregistered, or <tt>null</tt>.
+     */
+    public static ExtensionElementProvider<ExtensionElement>
+        removeExtensionProvider(String elementName, String namespace)
+    {
+        ExtensionElementProvider<ExtensionElement> provider
+            = ProviderManager.removeExtensionProvider(elementName, namespace);
+
+        registrations.remove(
+                new Registration(elementName, namespace, false));
+        invalidateAll();
+        @SuppressWarnings("unchecked")
+        ExtensionElementProvider<ExtensionElement> unwrapped
+            = (ExtensionElementProvider<ExtensionElement>)
+                ExtensionMetrics.unwrap(provider);
+
+        return unwrapped;
+    }
+
+    /**
+     * Invalidates the providers cached by all instances, so that they are
+     * looked up in the {@link ProviderManager} again.
+     */
+    public static void invalidateAll()
+    {
+        epoch.incrementAndGet();
+    }
+
+    /**
+     * Wraps the providers registered through this class which are not
+     * wrapped yet in ones which record {@link ExtensionMetrics}, and
+     * registers those instead.
+     */
+    static void instrumentProviders()
+    {
+        for (Registration r : registrations)
+        {
+            if (r.iq)
+            {
+                IQProvider<IQ> provider
+                    = ProviderManager.getIQProvider(r.elementName, r.namespace);
+
+                if (provider != null)
+                {
+                    ProviderManager.addIQProvider(
+                            r.elementName,
+                            r.namespace,
+                            ExtensionMetrics.instrument(
+                                    r.elementName,
+                                    r.namespace,
+                                    provider));
+                }
+            }
+            else
+            {
+                ExtensionElementProvider<ExtensionElement> provider
+                    = ProviderManager.getExtensionProvider(
+                            r.elementName,
+                            r.namespace);
+
+                if (provider != null)
+                {
+                    ProviderManager.addExtensionProvider(
+                            r.elementName,
+                            r.namespace,
+                            ExtensionMetrics.instrument(
+                                    r.elementName,
+                                    r.namespace,
+                                    provider));
+                }
+            }
+        }
+        invalidateAll();
+    }
+
+    /**
+     * Wraps a provider in one which records {@link ExtensionMetrics} if they
+     * are enabled.
+     *
+     * @return the wrapped provider, or <tt>provider</tt> if metrics are
+     * disabled or it is not a provider which can be wrapped.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object instrument(
+            String elementName,
+            String namespace,
+            Object provider)
+    {
+        if (!ExtensionMetrics.isEnabled())
+        {
+            return provider;
+        }
+        if (provider instanceof ExtensionElementProvider)
+        {
+            return
+                ExtensionMetrics.instrument(
+                        elementName,
+                        namespace,
+                        (ExtensionElementProvider<ExtensionElement>) provider);
+        }
+        if (provider instanceof IQProvider)
+        {
+            return
+                ExtensionMetrics.instrument(
+                        elementName,
+                        namespace,
+                        (IQProvider<IQ>) provider);
+        }
+        return provider;
+    }
+
+    /**
+     * The cached providers.
+     */
+    private volatile Entries entries = new Entries(epoch.get(), NO_ENTRIES);
+
+    /**
+     * Returns the {@link ExtensionElementProvider} registered with the
+     * {@link ProviderManager} for a specific element name and namespace,
+     * looking it up only the first time.
+     *
+     * @param elementName the name of the element.
+     * @param namespace the namespace of the element.
+     * @return the provider registered for <tt>elementName</tt> and
+     * <tt>namespace</tt>, or <tt>null</tt> if there is none.
+     */
+    public ExtensionElementProvider<ExtensionElement> getExtensionProvider(
+            String elementName,
+            String namespace)
+    {
+        int epoch = ExtensionProviderCache.epoch.get();
+        Entries entries = this.entries;
+        Entry[] array;
+
+        if (entries.epoch == epoch)
+        {
+            array = entries.array;
+
+            // Most lookups hit by identity.
+            for (Entry entry : array)
+            {
+                if (entry.elementName == elementName
+                        && entry.namespace == namespace)
+                {
+                    return entry.provider;
+                }
+            }
+            for (Entry entry : array)
+            {
+                if (entry.elementName.equals(elementName)
+                        && Objects.equals(entry.namespace, namespace))
+                {
+                    return entry.provider;
+                }
+            }
+        }
+        else
+        {
+            array = NO_ENTRIES;
+        }
+
+        ExtensionElementProvider<ExtensionElement> provider
+            = ProviderManager.getExtensionProvider(elementName, namespace);
+
+        if (provider != null
+                && elementName != null
+                && array.length < MAX_ENTRIES)
+        {
+            Entry[] newArray = Arrays.copyOf(array, array.length + 1);
+
+            newArray[array.length]
+                = new Entry(elementName, namespace, provider);
+            // A concurrent lookup may replace these entries with its own, in
+            // which case one of the providers is simply looked up again. If
+            // the epoch has moved on meanwhile, the next lookup drops them.
+            this.entries = new Entries(epoch, newArray);
+        }
+        return provider;
+    }
+
+    /**
+     * The providers cached at a specific registration epoch.
+     */
+    private static final class Entries
+    {
+        /**
+         * The registration epoch at which {@link #array} was looked up.
+         */
+        final int epoch;
+
+        /**
+         * The cached providers.
+         */
+        final Entry[] array;
+
+        Entries(int epoch, Entry[] array)
+        {
+            this.epoch = epoch;
+            this.array = array;
+        }
+    }
+
+    /**
+     * A provider cached for an element name and namespace.
+     */
+    private static final class Entry
+    {
+        /**
+         * The name of the element.
+         */
+        final String elementName;
+
+        /**
+         * The namespace of the element.
+         */
+        final String namespace;
+
+        /**
+         * The provider registered for {@link #elementName} and
+         * {@link #namespace}.
+         */
+        final ExtensionElementProvider<ExtensionElement> provider;
+
+        Entry(
+                String elementName,
+                String namespace,
+                ExtensionElementProvider<ExtensionElement> provider)
+        {
+            this.elementName = elementName;
+            this.namespace = namespace;
+            this.provider = provider;
+        }
+    }
+
+    /**
+     * The element name and namespace for which a provider has been
+     * registered through this class.
+     */
+    private static final class Registration
+    {
+        /**
+         * The name of the elements.
+         */
+        final String elementName;
+
+        /**
+         * The namespace of the elements.
+         */
+        final String namespace;
+
+        /**
+         * Whether the provider is an {@link IQProvider}.
+         */
+        final boolean iq;
+
+        Registration(String elementName, String namespace, boolean iq)
+        {
+            this.elementName = elementName;
+            this.namespace = namespace;
+            this.iq = iq;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Registration))
+            {
+                return false;
+            }
+
+            Registration r = (Registration) obj;
+
+            return
+                iq == r.iq
+                    && Objects.equals(elementName, r.elementName)
+                    && Objects.equals(namespace, r.namespace);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(elementName, namespace, iq);
+        }
+    }
+}
@@ -0,0 +1,501 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions;
+
+import java.io.*;
+import java.util.*;
+
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smack.parsing.*;
+import org.jivesoftware.smack.provider.*;
+import org.jivesoftware.smack.util.*;
+import org.jivesoftware.smack.xml.*;
+
+/**
+ * An extension element whose XML has been captured at parse time but which
+ * has not been parsed into an object tree yet. It is parsed the first time
+ * {@link #getElement()} is called, and until then it is serialized from the
+ * captured XML, so that an element which is only passed on costs little more
+ * than scanning it.
+ * <p>
+ * Elements are captured by {@link LazyExtensionElementProvider}, which can be
+ * registered with the <tt>ProviderManager</tt> in place of the provider of
+ * the elements which are usually passed on without being inspected.
+ *
+ * @see LazyExtensionElementProvider
+ */
+public class LazyExtensionElement
+    implements ExtensionElement
+{
+    /**
+     * Returns a specific element or, if it is a <tt>LazyExtensionElement</tt>,
+     * the element it parses into.
+     *
+     * @param element the element.
+     * @param <E> the type of the parsed element.
+     * @return <tt>element</tt>, parsed if it is lazy.
+     */
+    @SuppressWarnings("unchecked")
+    public static <E extends ExtensionElement> E resolve(
+            ExtensionElement element)
+    {
+        return (E) (element instanceof LazyExtensionElement
+            ? ((LazyExtensionElement) element).getElement()
+            : element);
+    }
+
+    /**
+     * Returns the extension of a stanza with a specific element name and
+     * namespace, parsing it if it is lazy.
+     *
+     * @param stanza the stanza.
+     * @param elementName the element name of the extension.
+     * @param namespace the namespace of the extension.
+     * @param <E> the type of the parsed extension.
+     * @return the extension of <tt>stanza</tt> with <tt>elementName</tt> and
+     * <tt>namespace</tt>, or <tt>null</tt> if it has none.
+     */
+    public static <E extends ExtensionElement> E getExtension(
+            Stanza stanza,
+            String elementName,
+            String namespace)
+    {
+        return resolve(stanza.getExtension(elementName, namespace));
+    }
+
+    /**
+     * Captures the XML of the element at which a parser is positioned. At the
+     * end of the call the parser is positioned on the end tag of the element,
+     * as it would be after parsing it with a provider.
+     *
+     * @param parser the parser, positioned on the start tag of the element.
+     * @param provider the provider to parse the element with, or <tt>null</tt>
+     * to use the one registered with the <tt>ProviderManager</tt> when the
+     * element is parsed.
+     * @return a new <tt>LazyExtensionElement</tt> for the element.
+     * @throws XmlPullParserException if the XML is malformed.
+     * @throws IOException if reading the XML fails.
+     */
+    public static LazyExtensionElement capture(
+            XmlPullParser parser,
+            ExtensionElementProvider<? extends ExtensionElement> provider)
+        throws XmlPullParserException, IOException
+    {
+        String elementName = parser.getName();
+        String namespace = parser.getNamespace();
+        StringBuilder xml = new StringBuilder();
+        int depth = parser.getDepth();
+        // The default namespaces in scope in the captured XML within the open
+        // elements.
+        Deque<String> namespaces = new ArrayDeque<>();
+        // Whether the element last started has had its start tag closed.
+        boolean startTagOpen = false;
+        XmlPullParser.Event event = XmlPullParser.Event.START_ELEMENT;
+
+        while (true)
+        {
+            switch (event)
+            {
+            case START_ELEMENT:
+                if (startTagOpen)
+                {
+                    xml.append('>');
+                }
+
+                String ns = parser.getNamespace();
+
+                if (ns == null)
+                {
+                    ns = "";
+                }
+                xml.append('<');
+                if (namespaces.isEmpty())
+                {
+                    // The xmlns of the element itself is added by toXML(), as
+                    // the default namespace.
+                    xml.append(parser.getName());
+                    namespaces.push(ns);
+                }
+                else
+                {
+                    String prefix = parser.getPrefix();
+                    String defaultNamespace = namespaces.peek();
+
+                    appendQualifiedName(xml, prefix, parser.getName());
+                    if (StringUtils.isNotEmpty(prefix))
+                    {
+                        if (!ns.isEmpty())
+                        {
+                            appendNamespaceDeclaration(xml, prefix, ns);
+                        }
+                    }
+                    else if (!ns.equals(defaultNamespace))
+                    {
+                        // Including xmlns='' when an element without a
+                        // namespace is in one with a default namespace.
+                        appendNamespaceDeclaration(xml, null, ns);
+                        defaultNamespace = ns;
+                    }
+                    namespaces.push(defaultNamespace);
+                }
+                appendAttributes(xml, parser);
+                startTagOpen = true;
+                break;
+
+            case END_ELEMENT:
+                if (startTagOpen)
+                {
+                    xml.append("/>");
+                    startTagOpen = false;
+                }
+                else
+                {
+                    xml.append("</");
+                    appendQualifiedName(
+                            xml,
+                            parser.getDepth() > depth
+                                ? parser.getPrefix() : null,
+                            parser.getName());
+                    xml.append('>');
+                }
+                namespaces.pop();
+                if (parser.getDepth() <= depth)
+                {
+                    return
+                        new LazyExtensionElement(
+                                elementName,
+                                namespace,
+                                xml.toString(),
+                                provider);
+                }
+                break;
+
+            case TEXT_CHARACTERS:
+            case ENTITY_REFERENCE:
+            case IGNORABLE_WHITESPACE:
+                String text = parser.getText();
+
+                if (StringUtils.isNotEmpty(text))
+                {
+                    if (startTagOpen)
+                    {
+                        xml.append('>');
+                        startTagOpen = false;
+                    }
+                    XmlAppender.appendEscapedText(xml, text);
+                }
+                break;
+
+            default:
+                // Comments, processing instructions etc. are dropped, as they
+                // would be by parsing.
+                break;
+            }
+
+            event = parser.next();
+            if (event == XmlPullParser.Event.END_DOCUMENT)
+            {
+                throw new XmlPullParserException(
+                        "Unexpected end of document in " + elementName);
+            }
+        }
+    }
+
+    /**
+     * Appends the (possibly prefixed) name of an element or attribute.
+     */
+    private static void appendQualifiedName(
+            StringBuilder xml,
+            String prefix,
+            String name)
+    {
+        if (StringUtils.isNotEmpty(prefix))
+        {
+            xml.append(prefix).append(':');
+        }
+        xml.append(name);
+    }
+
+    /**
+     * Appends the declaration of the namespace of an element.
+     */
+    private static void appendNamespaceDeclaration(
+            StringBuilder xml,
+            String prefix,
+            String namespace)
+    {
+        xml.append(" xmlns");
+        if (StringUtils.isNotEmpty(prefix))
+        {
+            xml.append(':').append(prefix);
+        }
+        xml.append("='");
+        try
+        {
+            XmlAppender.appendEscapedAttributeValue(xml, namespace);
+        }
+        catch (IOException ioe)
+        {
+            // StringBuilder does not throw IOException.
+            throw new IllegalStateException(ioe);
+        }
+        xml.append('\'');
+    }
+
+    /**
+     * Appends the attributes of the element at which a parser is positioned.
+     */
+    private static void appendAttributes(
+            StringBuilder xml,
+            XmlPullParser parser)
+        throws IOException
+    {
+        Set<String> declaredPrefixes = null;
+
+        for (int i = 0, count = parser.getAttributeCount(); i < count; i++)
+        {
+            String prefix = parser.getAttributePrefix(i);
+
+            if (StringUtils.isNotEmpty(prefix) && !"xml".equals(prefix))
+            {
+                if (declaredPrefixes == null)
+                {
+                    declaredPrefixes = new HashSet<>();
+                }
+                if (declaredPrefixes.add(prefix))
+                {
+                    appendNamespaceDeclaration(
+                            xml,
+                            prefix,
+                            parser.getAttributeNamespace(i));
+                }
+            }
+
+            xml.append(' ');
+            appendQualifiedName(xml, prefix, parser.getAttributeName(i));
+            xml.append("='");
+            XmlAppender.appendEscapedAttributeValue(
+                    xml,
+                    parser.getAttributeValue(i));
+            xml.append('\'');
+        }
+    }
+
+    /**
+     * The element name of this element.
+     */
+    private final String elementName;
+
+    /**
+     * The namespace of this element.
+     */
+    private final String namespace;
+
+    /**
+     * The captured XML of this element, without the <tt>xmlns</tt> of the
+     * element itself, which is right after <tt>&lt;</tt> and the element name.
+     */
+    private final String xml;
+
+    /**
+     * The position in {@link #xml} at which the <tt>xmlns</tt> of the element
+     * goes.
+     */
+    private final int namespaceOffset;
+
+    /**
+     * The provider to parse this element with, or <tt>null</tt> to use the
+     * one registered with the <tt>ProviderManager</tt>.
+     */
+    private final ExtensionElementProvider<? extends ExtensionElement>
+        provider;
+
+    /**
+     * The captured XML of this element with its <tt>xmlns</tt>, created when
+     * first needed.
+     */
+    private String xmlWithNamespace;
+
+    /**
+     * The element this element has been parsed into, or <tt>null</tt> if it
+     * has not been parsed yet.
+     */
+    private volatile ExtensionElement element;
+
+    /**
+     * Initializes a new <tt>LazyExtensionElement</tt>.
+     *
+     * @param elementName the element name.
+     * @param namespace the namespace.
+     * @param xml the captured XML, without the <tt>xmlns</tt> of the element
+     * itself.
+     * @param provider the provider to parse the element with, or
+     * <tt>null</tt>.
+     */
+    private LazyExtensionElement(
+            String elementName,
+            String namespace,
+            String xml,
+            ExtensionElementProvider<? extends ExtensionElement> provider)
+    {
+        this.elementName = elementName;
+        this.namespace = namespace;
+        this.xml = xml;
+        this.provider = provider;
+        namespaceOffset = 1 + elementName.length();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getElementName()
+    {
+        return elementName;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getNamespace()
+    {
+        return namespace;
+    }
+
+    /**
+     * Returns the element this element parses into, parsing it the first time.
+     * Changes to the returned element are reflected by {@link #toXML}.
+     *
+     * @param <E> the type of the parsed element.
+     * @return the element this element parses into.
+     * @throws IllegalStateException if parsing fails.
+     */
+    @SuppressWarnings("unchecked")
+    public <E extends ExtensionElement> E getElement()
+    {
+        ExtensionElement element = this.element;
+
+        if (element == null)
+        {
+            synchronized (this)
+            {
+                element = this.element;
+                if (element == null)
+                {
+                    element = parse();
+                    this.element = element;
+                }
+            }
+        }
+        return (E) element;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this element has been parsed.
+     *
+     * @return <tt>true</tt> if this element has been parsed.
+     */
+    public boolean isParsed()
+    {
+        return element != null;
+    }
+
+    /**
+     * Parses the captured XML.
+     *
+     * @return the parsed element.
+     */
+    private ExtensionElement parse()
+    {
+        try
+        {
+            XmlPullParser parser
+                = SmackXmlParser.newXmlParser(
+                        new StringReader(getXmlWithNamespace()));
+
+            parser.next();
+            return provider == null
+                ? PacketParserUtils.parseExtensionElement(
+                        elementName,
+                        namespace,
+                        parser,
+                        XmlEnvironment.EMPTY)
+                : provider.parse(parser);
+        }
+        catch (XmlPullParserException | IOException | SmackParsingException e)
+        {
+            throw new IllegalStateException(
+                    "Failed to parse " + elementName + " " + namespace,
+                    e);
+        }
+    }
+
+    /**
+     * Returns the captured XML of this element with its <tt>xmlns</tt>.
+     *
+     * @return the captured XML of this element with its <tt>xmlns</tt>.
+     */
+    private String getXmlWithNamespace()
+    {
+        String xmlWithNamespace = this.xmlWithNamespace;
+
+        if (xmlWithNamespace == null)
+        {
+            if (StringUtils.isNullOrEmpty(namespace))
+            {
+                xmlWithNamespace = xml;
+            }
+            else
+            {
+                StringBuilder sb
+                    = new StringBuilder(xml.length() + namespace.length() + 9);
+
+                sb.append(xml, 0, namespaceOffset);
+                appendNamespaceDeclaration(sb, null, namespace);
+                sb.append(xml, namespaceOffset, xml.length());
+                xmlWithNamespace = sb.toString();
+            }
+            this.xmlWithNamespace = xmlWithNamespace;
+        }
+        return xmlWithNamespace;
+    }
+
+    /**
+     * Returns the XML of this element: that of the element it has been parsed
+     * into, or the captured XML if it has not been parsed.
+     *
+     * @param enclosingNamespace the XML environment of the enclosing element.
+     * @return the XML of this element.
+     */
+    @Override
+    public CharSequence toXML(XmlEnvironment enclosingNamespace)
+    {
+        ExtensionElement element = this.element;
+
+        if (element != null)
+        {
+            return element.toXML(enclosingNamespace);
+        }
+
+        String enclosing
+            = enclosingNamespace == null
+                ? null : enclosingNamespace.getEffectiveNamespace();
+
+        return namespace != null && namespace.equals(enclosing)
+            ? xml : getXmlWithNamespace();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions;
+
+import java.io.*;
+import java.util.*;
+
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smack.provider.*;
+import org.jivesoftware.smack.xml.*;
+
+/**
+ * A provider which captures the XML of the elements it parses into
+ * {@link LazyExtensionElement}s, and leaves parsing them to another provider
+ * until their contents are needed.
+ * <p>
+ * Registering a <tt>LazyExtensionElementProvider</tt> in place of the provider
+ * of an element makes every parent (including
+ * {@link DefaultPacketExtensionProvider}) keep that element lazily. Code which
+ * reads such an element has to go through
+ * {@link LazyExtensionElement#resolve(ExtensionElement)}, because it is not an
+ * instance of the class it parses into.
+ */
+public class LazyExtensionElementProvider
+    extends ExtensionElementProvider<LazyExtensionElement>
+{
+    /**
+     * The provider which parses the captured elements.
+     */
+    private final ExtensionElementProvider<? extends ExtensionElement>
+        provider;
+
+    /**
+     * Creates a new <tt>LazyExtensionElementProvider</tt>.
+     *
+     * @param provider the provider which parses the captured elements.
+     */
+    public LazyExtensionElementProvider(
+            ExtensionElementProvider<? extends ExtensionElement> provider)
+    {
+        this.provider = Objects.requireNonNull(provider, "provider");
+    }
+
+    /**
+     * Captures the element at which a parser is positioned.
+     *
+     * @param parser an XML parser positioned at the start of the element.
+     * @param depth the depth of the element.
+     * @param xmlEnvironment the XML environment of the element.
+     * @return a new {@link LazyExtensionElement}.
+     * @throws XmlPullParserException if the XML is malformed.
+     * @throws IOException if reading the XML fails.
+     */
+    @Override
+    public LazyExtensionElement parse(
+            XmlPullParser parser,
+            int depth,
+            XmlEnvironment xmlEnvironment)
+        throws XmlPullParserException, IOException
+    {
+        return LazyExtensionElement.capture(parser, provider);
+    }
+}
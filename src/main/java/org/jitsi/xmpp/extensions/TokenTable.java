@@ -0,0 +1,211 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Deduplicates the strings which the providers read from the XML they parse,
+ * so that the trees they build share one instance of each protocol token
+ * (namespaces, attribute names and values such as <tt>opus</tt>,
+ * <tt>sendrecv</tt> or <tt>host</tt>) rather than each holding a copy.
+ * <p>
+ * The table is made of two parts:
+ * <ul>
+ * <li>the known constants, which the providers seed with
+ * {@link #seed(Class[])} and which stay in the table;</li>
+ * <li>a fixed number of other tokens, which are admitted once they have been
+ * seen twice in a row in the same slot, so that values which are unique (IDs,
+ * ICE credentials, fingerprints, addresses) pass through without evicting the
+ * tokens which do repeat.</li>
+ * </ul>
+ * Lookups do not lock. The slots of the second part are read and written
+ * without synchronization, which is safe because strings are immutable: a
+ * thread may only miss a token another has just stored.
+ */
+public final class TokenTable
+{
+    /**
+     * The number of slots for tokens which are not known constants. A power of
+     * two.
+     */
+    private static final int SIZE = 4096;
+
+    /**
+     * The length above which strings are not deduplicated, because they are
+     * unlikely to repeat.
+     */
+    private static final int MAX_LENGTH = 128;
+
+    /**
+     * The known constants.
+     */
+    private static final Map<String, String> constants
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The tokens which have been seen at least twice, indexed by hash.
+     */
+    private static final String[] tokens = new String[SIZE];
+
+    /**
+     * The tokens which have been seen once, indexed by hash. A token is moved
+     * to {@link #tokens} when it is seen again.
+     */
+    private static final String[] candidates = new String[SIZE];
+
+    static
+    {
+        // The values which are not declared as constants by the extensions
+        // but which recur in every offer and answer.
+        seed(
+            // media and directions
+            "audio", "video", "data", "application",
+            "sendrecv", "sendonly", "recvonly", "inactive",
+            // codecs
+            "opus", "ISAC", "G722", "PCMU", "PCMA", "CN", "telephone-event",
+            "VP8", "VP9", "H264", "AV1", "red", "ulpfec", "rtx",
+            // codec parameters
+            "apt", "minptime", "useinbandfec", "stereo", "maxplaybackrate",
+            "profile-level-id", "packetization-mode",
+            "level-asymmetry-allowed", "x-google-start-bitrate",
+            // RTCP feedback
+            "goog-remb", "transport-cc", "nack", "pli", "ccm", "fir",
+            // header extensions
+            "urn:ietf:params:rtp-hdrext:ssrc-audio-level",
+            "urn:ietf:params:rtp-hdrext:toffset",
+            "urn:ietf:params:rtp-hdrext:sdes:mid",
+            "urn:ietf:params:rtp-hdrext:sdes:rtp-stream-id",
+            "urn:ietf:params:rtp-hdrext:sdes:repaired-rtp-stream-id",
+            "http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time",
+            "http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-extensions-01",
+            "urn:3gpp:video-orientation",
+            // sources and groups
+            "cname", "msid", "mslabel", "label", "SIM", "FID", "FEC-FR",
+            // ICE and DTLS
+            "udp", "tcp", "ssltcp", "host", "srflx", "prflx", "relay",
+            "active", "passive", "actpass", "sha-256", "sha-1",
+            "true", "false");
+    }
+
+    /**
+     * Returns the instance of a specific string which is kept in the table, if
+     * there is one.
+     *
+     * @param s the string to deduplicate.
+     * @return a string equal to <tt>s</tt> which other callers also get, or
+     * <tt>s</tt> itself.
+     */
+    public static String dedup(String s)
+    {
+        if (s == null || s.length() > MAX_LENGTH)
+        {
+            return s;
+        }
+
+        String constant = constants.get(s);
+
+        if (constant != null)
+        {
+            return constant;
+        }
+
+        int hash = s.hashCode();
+        int i = (hash ^ (hash >>> 16)) & (SIZE - 1);
+        String token = tokens[i];
+
+        if (token != null && token.equals(s))
+        {
+            return token;
+        }
+
+        String candidate = candidates[i];
+
+        if (candidate != null && candidate.equals(s))
+        {
+            tokens[i] = candidate;
+            return candidate;
+        }
+        candidates[i] = s;
+        return s;
+    }
+
+    /**
+     * Adds the values of the <tt>public static final String</tt> fields (such
+     * as the element, namespace and attribute names) and the enum constants
+     * declared by specific classes, and by the classes nested in them, to the
+     * known constants.
+     *
+     * @param classes the classes which declare the constants.
+     */
+    public static void seed(Class<?>... classes)
+    {
+        for (Class<?> c : classes)
+        {
+            if (c.isEnum())
+            {
+                for (Object constant : c.getEnumConstants())
+                {
+                    seed(constant.toString());
+                }
+            }
+            for (Field field : c.getFields())
+            {
+                int modifiers = field.getModifiers();
+
+                if (Modifier.isStatic(modifiers)
+                        && Modifier.isFinal(modifiers)
+                        && field.getType() == String.class)
+                {
+                    try
+                    {
+                        seed((String) field.get(null));
+                    }
+                    catch (IllegalAccessException e)
+                    {
+                        // Public fields of public classes are accessible.
+                    }
+                }
+            }
+            seed(c.getDeclaredClasses());
+        }
+    }
+
+    /**
+     * Adds specific strings to the known constants.
+     *
+     * @param constants the strings to add.
+     */
+    public static void seed(String... constants)
+    {
+        for (String constant : constants)
+        {
+            if (constant != null && constant.length() <= MAX_LENGTH)
+            {
+                TokenTable.constants.putIfAbsent(constant, constant);
+            }
+        }
+    }
+
+    /**
+     * Prevents the initialization of <tt>TokenTable</tt> instances.
+     */
+    private TokenTable()
+    {
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions;
+
+import java.io.*;
+import java.nio.*;
+
+/**
+ * Utilities for writing XML directly into an {@link Appendable} (a
+ * <tt>StringBuilder</tt>, a <tt>Writer</tt> or, through
+ * {@link #utf8(ByteBuffer)}, a <tt>ByteBuffer</tt>) without building a
+ * <tt>String</tt> for each element. The escaping is the same as that of smack's
+ * <tt>XmlStringBuilder</tt>, so the output is identical.
+ */
+public final class XmlAppender
+{
+    /**
+     * Returns an {@link Appendable} which encodes the characters appended to it
+     * in UTF-8 and puts them into a specific buffer.
+     *
+     * @param buffer the buffer to write to.
+     * @return an {@link Appendable} which writes into <tt>buffer</tt>. It
+     * throws {@link BufferOverflowException} when <tt>buffer</tt> is full.
+     */
+    public static Appendable utf8(ByteBuffer buffer)
+    {
+        return new Utf8ByteBufferAppendable(buffer);
+    }
+
+    /**
+     * Appends an attribute (with a leading space) to an {@link Appendable}.
+     *
+     * @param out the {@link Appendable} to write to.
+     * @param name the name of the attribute.
+     * @param value the value of the attribute, written as its
+     * <tt>toString()</tt> (escaped).
+     * @throws IOException if <tt>out</tt> fails to append.
+     */
+    public static void appendAttribute(Appendable out, String name, Object value)
+        throws IOException
+    {
+        out.append(' ').append(name).append("='");
+        if (value instanceof Integer || value instanceof Long)
+        {
+            // No escaping needed, and a StringBuilder formats numbers itself.
+            if (out instanceof StringBuilder)
+                ((StringBuilder) out).append(((Number) value).longValue());
+            else
+                out.append(value.toString());
+        }
+        else
+        {
+            appendEscapedAttributeValue(out, value.toString());
+        }
+        out.append('\'');
+    }
+
+    /**
+     * Appends an attribute with a numeric value (with a leading space) to an
+     * {@link Appendable}.
+     *
+     * @param out the {@link Appendable} to write to.
+     * @param name the name of the attribute.
+     * @param value the value of the attribute.
+     * @throws IOException if <tt>out</tt> fails to append.
+     */
+    public static void appendAttribute(Appendable out, String name, long value)
+        throws IOException
+    {
+        out.append(' ').append(name).append("='");
+        appendNumber(out, value);
+        out.append('\'');
+    }
+
+    /**
+     * Appends the decimal representation of a number to an
+     * {@link Appendable}, without building a <tt>String</tt> for it if the
+     * {@link Appendable} is a <tt>StringBuilder</tt>.
+     *
+     * @param out the {@link Appendable} to write to.
+     * @param value the number to append.
+     * @throws IOException if <tt>out</tt> fails to append.
+     */
+    public static void appendNumber(Appendable out, long value)
+        throws IOException
+    {
+        if (out instanceof StringBuilder)
+            ((StringBuilder) out).append(value);
+        else
+            out.append(Long.toString(value));
+    }
+
+    /**
+     * Appends the value of an attribute quoted with apostrophes to an
+     * {@link Appendable}, escaping <tt>&lt;</tt>, <tt>&amp;</tt> and
+     * <tt>'</tt>.
+     *
+     * @param out the {@link Appendable} to write to.
+     * @param value the value to escape.
+     * @throws IOException if <tt>out</tt> fails to append.
+     */
+    public static void appendEscapedAttributeValue(
+            Appendable out,
+            CharSequence value)
+        throws IOException
+    {
+        appendEscaped(out, value, true);
+    }
+
+    /**
+     * Appends text content to an {@link Appendable}, escaping <tt>&lt;</tt>
+     * and <tt>&amp;</tt>.
+     *
+     * @param out the {@link Appendable} to write to.
+     * @param text the text to escape.
+     * @throws IOException if <tt>out</tt> fails to append.
+     */
+    public static void appendEscapedText(Appendable out, CharSequence text)
+        throws IOException
+    {
+        appendEscaped(out, text, false);
+    }
+
+    /**
+     * Appends a {@link CharSequence} to an {@link Appendable}, escaping the
+     * characters which are special in XML text or attribute values. Runs of
+     * characters which need no escaping are appended at once.
+     *
+     * @param out the {@link Appendable} to write to.
+     * @param s the characters to escape.
+     * @param attribute <tt>true</tt> if <tt>s</tt> is an attribute value
+     * quoted with apostrophes, <tt>false</tt> if it is text content.
+     * @throws IOException if <tt>out</tt> fails to append.
+     */
+    private static void appendEscaped(
+            Appendable out,
+            CharSequence s,
+            boolean attribute)
+        throws IOException
+    {
+        int start = 0;
+
+        for (int i = 0, length = s.length(); i < length; i++)
+        {
+            String entity;
+
+            switch (s.charAt(i))
+            {
+            case '<':
+                entity = "&lt;";
+                break;
+            case '&':
+                entity = "&amp;";
+                break;
+            case '\'':
+                entity = attribute ? "&apos;" : null;
+                break;
+            default:
+                entity = null;
+                break;
+            }
+
+            if (entity != null)
+            {
+                if (start < i)
+                    out.append(s, start, i);
+                out.append(entity);
+                start = i + 1;
+            }
+        }
+
+        if (start == 0)
+            out.append(s);
+        else if (start < s.length())
+            out.append(s, start, s.length());
+    }
+
+    /**
+     * Prevents the initialization of <tt>XmlAppender</tt> instances.
+     */
+    private XmlAppender()
+    {
+    }
+
+    /**
+     * An {@link Appendable} which encodes characters in UTF-8 into a
+     * {@link ByteBuffer}.
+     */
+    private static class Utf8ByteBufferAppendable
+        implements Appendable
+    {
+        /**
+         * The buffer to write to.
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * The high surrogate last appended, if the low surrogate which
+         * completes it is yet to be appended, or <tt>0</tt>.
+         */
+        private char highSurrogate;
+
+        Utf8ByteBufferAppendable(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq)
+        {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end)
+        {
+            for (int i = start; i < end; i++)
+            {
+                append(csq.charAt(i));
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c)
+        {
+            if (highSurrogate != 0)
+            {
+                char high = highSurrogate;
+
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(c))
+                {
+                    int cp = Character.toCodePoint(high, c);
+
+                    buffer.put((byte) (0xF0 | (cp >> 18)));
+                    buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                    buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                    buffer.put((byte) (0x80 | (cp & 0x3F)));
+                    return this;
+                }
+                // An unpaired surrogate, which String.getBytes() also
+                // replaces with a question mark.
+                buffer.put((byte) '?');
+            }
+
+            if (c < 0x80)
+            {
+                buffer.put((byte) c);
+            }
+            else if (c < 0x800)
+            {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+            else if (Character.isHighSurrogate(c))
+            {
+                highSurrogate = c;
+            }
+            else if (Character.isLowSurrogate(c))
+            {
+                buffer.put((byte) '?');
+            }
+            else
+            {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+            return this;
+        }
+    }
+}
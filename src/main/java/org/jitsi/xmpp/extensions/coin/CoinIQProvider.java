@@ -68,36 +68,36 @@ public class CoinIQProvider
      */
     public CoinIQProvider()
     {
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 UserRolesPacketExtension.ELEMENT,
                 UserRolesPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider
                     <>(UserRolesPacketExtension.class));
 
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 URIPacketExtension.ELEMENT,
                 URIPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider
                     <>(URIPacketExtension.class));
 
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 SIPDialogIDPacketExtension.ELEMENT,
                 SIPDialogIDPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider
                     <>(SIPDialogIDPacketExtension.class));
 
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 ConferenceMediumPacketExtension.ELEMENT,
                 ConferenceMediumPacketExtension.NAMESPACE,
                 new ConferenceMediumProvider());
 
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 ConferenceMediaPacketExtension.ELEMENT,
                 ConferenceMediaPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider
                         <>(ConferenceMediaPacketExtension.class));
 
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 CallInfoPacketExtension.ELEMENT,
                 CallInfoPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider
@@ -209,6 +209,112 @@ public class ColibriAnalyser
         return conferenceResult;
     }
 
+    /**
+     * Splits the response to a query which allocated or updated the channels
+     * of many endpoints (see {@link ColibriBuilder#flushBatch}) into one
+     * Colibri IQ per endpoint, each of which describes the channels of the
+     * endpoint like {@link #getResponseContents} does for a single peer. The
+     * channels, channel bundles and endpoints of the response are shared, not
+     * copied. Channels which are not for any endpoint are left out.
+     *
+     * @param conferenceResponse JVB response to the batched query.
+     * @return the Colibri IQs which describe the channels of each endpoint,
+     * by endpoint ID, in the order in which the endpoints appear in
+     * <tt>conferenceResponse</tt>.
+     */
+    public static Map<String, ColibriConferenceIQ>
+        getResponseContentsByEndpoint(ColibriConferenceIQ conferenceResponse)
+    {
+        Map<String, ColibriConferenceIQ> results = new LinkedHashMap<>();
+        Map<String, String> bundleIds = new HashMap<>();
+
+        for (ColibriConferenceIQ.Content contentResponse
+            : conferenceResponse.getContents())
+        {
+            String contentName = contentResponse.getName();
+
+            for (ColibriConferenceIQ.Channel channelResponse
+                : contentResponse.getChannels())
+            {
+                String endpointId = channelResponse.getEndpoint();
+
+                if (endpointId != null)
+                {
+                    getOrCreateResult(results, conferenceResponse, endpointId)
+                        .getOrCreateContent(contentName)
+                        .addChannel(channelResponse);
+                    bundleIds.put(
+                        endpointId,
+                        readChannelBundle(
+                            channelResponse, bundleIds.get(endpointId)));
+                }
+            }
+
+            for (ColibriConferenceIQ.SctpConnection sctpConnResponse
+                : contentResponse.getSctpConnections())
+            {
+                String endpointId = sctpConnResponse.getEndpoint();
+
+                if (endpointId != null)
+                {
+                    getOrCreateResult(results, conferenceResponse, endpointId)
+                        .getOrCreateContent(contentName)
+                        .addSctpConnection(sctpConnResponse);
+                    bundleIds.put(
+                        endpointId,
+                        readChannelBundle(
+                            sctpConnResponse, bundleIds.get(endpointId)));
+                }
+            }
+        }
+
+        for (Map.Entry<String, ColibriConferenceIQ> e : results.entrySet())
+        {
+            String bundleId = bundleIds.get(e.getKey());
+            ColibriConferenceIQ.ChannelBundle bundle
+                = bundleId == null
+                    ? null : conferenceResponse.getChannelBundle(bundleId);
+            ColibriConferenceIQ.Endpoint endpoint
+                = conferenceResponse.getEndpoint(e.getKey());
+
+            if (bundle != null)
+            {
+                e.getValue().addChannelBundle(bundle);
+            }
+            if (endpoint != null)
+            {
+                e.getValue().addEndpoint(endpoint);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Returns the Colibri IQ of a specific endpoint in the results of
+     * {@link #getResponseContentsByEndpoint}, creating it with the conference
+     * properties of the response if there is none yet.
+     */
+    private static ColibriConferenceIQ getOrCreateResult(
+            Map<String, ColibriConferenceIQ> results,
+            ColibriConferenceIQ conferenceResponse,
+            String endpointId)
+    {
+        ColibriConferenceIQ conferenceResult = results.get(endpointId);
+
+        if (conferenceResult == null)
+        {
+            conferenceResult = new ColibriConferenceIQ();
+            conferenceResult.setFrom(conferenceResponse.getFrom());
+            conferenceResult.setID(conferenceResponse.getID());
+            conferenceResult.setGID(conferenceResponse.getGID());
+            conferenceResult.setName(conferenceResponse.getName());
+            conferenceResult.setMeetingId(conferenceResponse.getMeetingId());
+            results.put(endpointId, conferenceResult);
+        }
+        return conferenceResult;
+    }
+
     /**
      * Utility method for getting actual channel bundle. If
      * <tt>currentBundle</tt> is <tt>null</tt> then <tt>channels</tt> bundle is
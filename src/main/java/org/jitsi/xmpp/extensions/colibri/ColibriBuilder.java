@@ -24,6 +24,7 @@ import org.jivesoftware.smack.packet.*;
 import org.jxmpp.jid.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Utility class for building Colibri queries. It can be used to allocate,
@@ -52,6 +53,14 @@ import java.util.*;
  * Call {@link #reset()} and start next query.
  *     </li>
  * </ol>
+ * In order to send the requests for many endpoints (e.g. during a burst of
+ * joins) in one query, turn on batching with
+ * {@link #setBatching(int, long, TimeUnit)}, keep adding requests of the same
+ * type and send the query when {@link #isBatchDue()} (after each request and
+ * when {@link #getTimeUntilBatchDue(TimeUnit)} elapses) with
+ * {@link #flushBatch(Jid)}. Then split the response with
+ * {@link ColibriAnalyser#getResponseContentsByEndpoint(ColibriConferenceIQ)}.
+ * <p>
  * The important thing is to share the same {@link ColibriConferenceIQ} instance
  * between the {@link ColibriAnalyser} and {@link ColibriBuilder}. The builder
  * needs to have conference ID set once the first response from JVB is received.
@@ -151,8 +160,7 @@ public class ColibriBuilder
             channel.addSource(source.copy());
         }
 
-        if (channel.getSources() == null
-            || channel.getSources().isEmpty())
+        if (channel.getSourceCount() == 0)
         {
             // Put an empty source to remove all sources
             SourcePacketExtension emptySource = new SourcePacketExtension();
@@ -244,6 +252,36 @@ public class ColibriBuilder
      */
     private RTPLevelRelayType rtpLevelRelayType;
 
+    /**
+     * The maximum number of endpoints in a batched query, or <tt>0</tt> if
+     * batching is off.
+     */
+    private int batchMaxEndpoints;
+
+    /**
+     * The maximum time in nanoseconds between the first request added to a
+     * batched query and the query being due.
+     */
+    private long batchMaxDelayNanos;
+
+    /**
+     * The IDs of the endpoints which the requests added to the query currently
+     * being built are for.
+     */
+    private final Set<String> batchEndpoints = new LinkedHashSet<>();
+
+    /**
+     * The number of requests added to the query currently being built which
+     * are not for any endpoint.
+     */
+    private int batchRequestsWithoutEndpoint;
+
+    /**
+     * The {@link System#nanoTime()} at which the first request was added to
+     * the query currently being built.
+     */
+    private long batchStartNanos;
+
     /**
      * Creates new instance of {@link ColibriBuilder} for given
      * <tt>conferenceState</tt>.
@@ -278,6 +316,159 @@ public class ColibriBuilder
         request.setMeetingId(conferenceState.getMeetingId());
 
         request.setType(IQ.Type.set);
+
+        batchEndpoints.clear();
+        batchRequestsWithoutEndpoint = 0;
+    }
+
+    /**
+     * Configures batching, i.e. collecting the requests for many endpoints
+     * into one query which is due when it covers a number of endpoints or when
+     * some time has passed since the first request was added to it, whichever
+     * comes first. A batch collects requests of one {@link RequestType}, as a
+     * query without batching does.
+     *
+     * @param maxEndpoints the number of endpoints at which a batched query is
+     * due, or <tt>0</tt> to turn batching off (in which case a query is due as
+     * soon as it has a request).
+     * @param maxDelay the time after the first request at which a batched
+     * query is due.
+     * @param unit the unit of <tt>maxDelay</tt>.
+     * @throws IllegalArgumentException if <tt>maxEndpoints</tt> or
+     * <tt>maxDelay</tt> is negative.
+     */
+    public void setBatching(int maxEndpoints, long maxDelay, TimeUnit unit)
+    {
+        Objects.requireNonNull(unit, "unit");
+        if (maxEndpoints < 0)
+        {
+            throw new IllegalArgumentException("maxEndpoints " + maxEndpoints);
+        }
+        if (maxDelay < 0)
+        {
+            throw new IllegalArgumentException("maxDelay " + maxDelay);
+        }
+
+        batchMaxEndpoints = maxEndpoints;
+        batchMaxDelayNanos = unit.toNanos(maxDelay);
+    }
+
+    /**
+     * Returns <tt>true</tt> if batching has been turned on with
+     * {@link #setBatching(int, long, TimeUnit)}.
+     */
+    public boolean isBatching()
+    {
+        return batchMaxEndpoints > 0;
+    }
+
+    /**
+     * Returns the number of endpoints which the requests added to the query
+     * currently being built are for. A request which is not for any endpoint
+     * counts as one endpoint of its own.
+     */
+    public int getBatchSize()
+    {
+        return batchEndpoints.size() + batchRequestsWithoutEndpoint;
+    }
+
+    /**
+     * Returns the IDs of the endpoints which the requests added to the query
+     * currently being built are for, in the order in which they were added.
+     *
+     * @return an unmodifiable view of the endpoint IDs of the current query.
+     */
+    public Set<String> getBatchEndpoints()
+    {
+        return Collections.unmodifiableSet(batchEndpoints);
+    }
+
+    /**
+     * Determines whether the query currently being built is to be sent now,
+     * i.e. whether it has requests and either batching is off or it has
+     * reached the number of endpoints or the delay set with
+     * {@link #setBatching(int, long, TimeUnit)}.
+     *
+     * @return <tt>true</tt> if the query currently being built is due.
+     */
+    public boolean isBatchDue()
+    {
+        return getTimeUntilBatchDue(TimeUnit.NANOSECONDS) == 0;
+    }
+
+    /**
+     * Returns the time after which the query currently being built will be
+     * due because of the delay set with
+     * {@link #setBatching(int, long, TimeUnit)}.
+     *
+     * @param unit the unit of the returned value.
+     * @return <tt>0</tt> if the query is due, {@link Long#MAX_VALUE} if it has
+     * no requests, or else the time until it is due.
+     */
+    public long getTimeUntilBatchDue(TimeUnit unit)
+    {
+        if (getBatchSize() == 0)
+        {
+            return Long.MAX_VALUE;
+        }
+        if (!isBatching() || getBatchSize() >= batchMaxEndpoints)
+        {
+            return 0;
+        }
+
+        long remaining
+            = batchMaxDelayNanos - (System.nanoTime() - batchStartNanos);
+
+        if (remaining <= 0)
+        {
+            return 0;
+        }
+
+        // TimeUnit.convert truncates, but a query which is not due is not
+        // due in 0 units either.
+        return Math.max(1, unit.convert(remaining, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Finishes the query currently being built, as {@link #getRequest(Jid)}
+     * does, and resets this builder for the next one.
+     *
+     * @param videobridge the JID of videobridge to which the query is
+     * directed.
+     * @return the query to be sent, or <tt>null</tt> if there is nothing to
+     * be sent.
+     */
+    public ColibriConferenceIQ flushBatch(Jid videobridge)
+    {
+        Objects.requireNonNull(videobridge, "videobridge");
+
+        ColibriConferenceIQ batch
+            = getBatchSize() == 0 ? null : getRequest(videobridge);
+
+        reset();
+        return batch;
+    }
+
+    /**
+     * Records that a request for a specific endpoint has been added to the
+     * query currently being built.
+     *
+     * @param endpointId the ID of the endpoint, or <tt>null</tt>.
+     */
+    private void addToBatch(String endpointId)
+    {
+        if (getBatchSize() == 0)
+        {
+            batchStartNanos = System.nanoTime();
+        }
+        if (endpointId == null)
+        {
+            batchRequestsWithoutEndpoint++;
+        }
+        else
+        {
+            batchEndpoints.add(endpointId);
+        }
     }
 
     /**
@@ -481,6 +672,7 @@ public class ColibriBuilder
             request.addEndpoint(endpoint);
         }
 
+        addToBatch(endpointId);
         return hasAnyChanges;
     }
 
@@ -526,6 +718,7 @@ public class ColibriBuilder
                     .cloneTransportAndCandidates(transport, true));
 
         request.addChannelBundle(channelBundleRequest);
+        addToBatch(channelBundleId);
 
         // Note that we don't actually check whether the addition of the bundle
         // made any changes. We return true, because it is safe. It might lead
@@ -584,6 +777,7 @@ public class ColibriBuilder
                         requestChannel.setExpire(0);
                         requestChannel.setID(stateChannel.getID());
                         requestContent.addChannel(requestChannel);
+                        addToBatch(stateChannel.getEndpoint());
 
                         hasAnyChannelsToExpire = true;
                     }
@@ -607,6 +801,7 @@ public class ColibriBuilder
                         requestConn.setEndpoint(stateConn.getEndpoint());
 
                         requestContent.addSctpConnection(requestConn);
+                        addToBatch(stateConn.getEndpoint());
 
                         hasAnyChannelsToExpire = true;
                     }
@@ -729,6 +924,7 @@ public class ColibriBuilder
 
         ColibriConferenceIQ.Channel requestChannel = getRequestChannel(contentName, channel);
         requestChannel.setDirection(channel.getDirection());
+        addToBatch(channel.getEndpoint());
 
         return copyDescription(description, requestChannel);
     }
@@ -784,6 +980,7 @@ public class ColibriBuilder
             requestChannel.setDirection(channel.getDirection());
 
             addSources(requestChannel, sourceMap.get(contentName));
+            addToBatch(channel.getEndpoint());
         }
 
         return hasAnyChanges;
@@ -840,6 +1037,7 @@ public class ColibriBuilder
             requestChannel.setDirection(channel.getDirection());
 
             requestChannel.setRelays(octoRelays);
+            addToBatch(channel.getEndpoint());
             hasAnyChanges = true;
         }
 
@@ -899,6 +1097,7 @@ public class ColibriBuilder
                     requestChannel,
                     sourceGroupMap.get(contentName),
                     "video".equalsIgnoreCase(contentName));
+            addToBatch(channel.getEndpoint());
         }
 
         return hasAnyChanges;
@@ -963,6 +1162,7 @@ public class ColibriBuilder
 
                 request.getOrCreateContent(contentName)
                        .addChannelCommon(requestChannel);
+                addToBatch(channel.getEndpoint());
 
                 hasAnyChanges = true;
             }
@@ -1017,6 +1217,7 @@ public class ColibriBuilder
                     requestChannel.setDirection(
                         directionValue != null
                             ? directionValue.toString() : null);
+                    addToBatch(channel.getEndpoint());
 
                     hasAnyChanges = true;
                 }
@@ -15,6 +15,8 @@
  */
 package org.jitsi.xmpp.extensions.colibri;
 
+import java.io.*;
+import java.lang.ref.*;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -103,7 +105,12 @@ public class ColibriConferenceIQ
     /**
      * The list of {@link Content}s included into this <tt>conference</tt> IQ.
      */
-    private final List<Content> contents = new LinkedList<>();
+    private final List<Content> contents = new ArrayList<>();
+
+    /**
+     * The first {@link Content} in {@link #contents} with a specific name.
+     */
+    private final Map<String, Content> contentsByName = new HashMap<>();
 
     /**
      * The {@link Endpoint}s included in this {@link ColibriConferenceIQ},
@@ -210,11 +217,24 @@ public class ColibriConferenceIQ
      * into this <tt>conference</tt> IQ has been modified as a result of the
      * method call; otherwise, <tt>false</tt>
      */
-    public boolean addContent(Content content)
+    public synchronized boolean addContent(Content content)
     {
         Objects.requireNonNull(content, "content");
 
-        return contents.contains(content) ? false : contents.add(content);
+        if (contents.contains(content))
+        {
+            return false;
+        }
+        contents.add(content);
+
+        String name = content.getName();
+
+        if (name != null)
+        {
+            contentsByName.putIfAbsent(name, content);
+        }
+        content.addOwner(this);
+        return true;
     }
 
     /**
@@ -293,45 +313,170 @@ public class ColibriConferenceIQ
     protected IQ.IQChildElementXmlStringBuilder getIQChildElementBuilder(
         IQ.IQChildElementXmlStringBuilder xml)
     {
-        xml.optAttribute(ID_ATTR_NAME, getID());
-        xml.optAttribute(GID_ATTR_NAME, getGID());
-        xml.optAttribute(NAME_ATTR_NAME, name);
-        xml.optAttribute(MEETING_ID_ATTR_NAME, meetingId);
-        xml.optBooleanAttribute(ENABLE_RTCSTATS_NAME, enableRtcStats);
-
-        List<Content> contents = getContents();
-        List<ChannelBundle> channelBundles = getChannelBundles();
-        List<Endpoint> endpoints = getEndpoints();
-
-        boolean hasChildren
-            = (recording != null)
-                || (rtcpTerminationStrategy != null)
-                || (gracefulShutdown)
-                || (contents.size() > 0)
-                || (channelBundles.size() > 0)
-                || (endpoints.size() > 0);
+        // The numbers and the XML of the children are appended to xml without
+        // a String of their own, with the monitor of this IQ held so that the
+        // contents are written as they are at one point in time.
+        synchronized (this)
+        {
+            try
+            {
+                appendAttributes(xml);
+                if (hasChildren())
+                {
+                    xml.rightAngleBracket();
+                    appendChildren(xml);
+                }
+                else
+                {
+                    xml.setEmptyElement();
+                }
+            }
+            catch (IOException ioe)
+            {
+                // XmlStringBuilder does not throw IOException.
+                throw new IllegalStateException(ioe);
+            }
+        }
 
-        if (!hasChildren)
+        return xml;
+    }
+
+    /**
+     * Writes the <tt>conference</tt> element of this IQ (i.e. its child
+     * element) into a specific {@link Appendable}, in one pass over the
+     * contents, channels, channel bundles and endpoints and without copying
+     * their lists or building a <tt>String</tt> for each of them. The output
+     * is the same as that of {@link #getChildElementXML()}, provided that this
+     * IQ has no error and no extensions. The monitors of this IQ and of its
+     * contents are held while they are written, so that the output reflects
+     * them at one point in time.
+     *
+     * @param out the {@link Appendable} to write to.
+     * @throws IOException if <tt>out</tt> fails to append.
+     */
+    public synchronized void appendChildElementXML(Appendable out)
+        throws IOException
+    {
+        out.append('<').append(ELEMENT);
+        XmlAppender.appendAttribute(out, "xmlns", NAMESPACE);
+        appendAttributes(out);
+        if (hasChildren())
         {
-            xml.setEmptyElement();
+            out.append('>');
+            appendChildren(out);
+            out.append("</").append(ELEMENT).append('>');
         }
         else
         {
-            xml.rightAngleBracket();
-            for (Content content : contents)
-                content.toXML(xml);
-            for (ChannelBundle channelBundle : channelBundles)
-                channelBundle.toXML(xml);
-            for (Endpoint endpoint : endpoints)
-                endpoint.toXML(xml);
-            if (recording != null)
-                recording.toXML(xml);
-            if (rtcpTerminationStrategy != null)
-                rtcpTerminationStrategy.toXML(xml);
-            if (gracefulShutdown)
-                xml.append(new GracefulShutdown().toXML());
+            out.append("/>");
+        }
+    }
+
+    /**
+     * Appends the attributes of the <tt>conference</tt> element of this IQ
+     * to a specific {@link Appendable}.
+     */
+    private void appendAttributes(Appendable out)
+        throws IOException
+    {
+        appendOptAttribute(out, ID_ATTR_NAME, getID());
+        appendOptAttribute(out, GID_ATTR_NAME, getGID());
+        appendOptAttribute(out, NAME_ATTR_NAME, name);
+        appendOptAttribute(out, MEETING_ID_ATTR_NAME, meetingId);
+        if (enableRtcStats)
+        {
+            XmlAppender.appendAttribute(out, ENABLE_RTCSTATS_NAME, "true");
+        }
+    }
+
+    /**
+     * Determines whether the <tt>conference</tt> element of this IQ has
+     * child elements.
+     */
+    private boolean hasChildren()
+    {
+        return
+            (recording != null)
+                || (rtcpTerminationStrategy != null)
+                || (gracefulShutdown)
+                || !contents.isEmpty()
+                || !channelBundles.isEmpty()
+                || !endpoints.isEmpty();
+    }
+
+    /**
+     * Appends the child elements of the <tt>conference</tt> element of this
+     * IQ to a specific {@link Appendable}.
+     */
+    private void appendChildren(Appendable out)
+        throws IOException
+    {
+        for (int i = 0, count = contents.size(); i < count; i++)
+            contents.get(i).appendXML(out);
+        for (ChannelBundle channelBundle : channelBundles.values())
+            channelBundle.appendXML(out);
+        for (Endpoint endpoint : endpoints.values())
+            endpoint.appendXML(out);
+        if (recording != null)
+            recording.appendXML(out);
+        if (rtcpTerminationStrategy != null)
+            rtcpTerminationStrategy.appendXML(out);
+        if (gracefulShutdown)
+        {
+            out.append('<').append(GracefulShutdown.ELEMENT);
+            XmlAppender.appendAttribute(
+                    out,
+                    "xmlns",
+                    GracefulShutdown.NAMESPACE);
+            out.append("/>");
+        }
+    }
+
+    /**
+     * Appends an attribute to a specific {@link Appendable} if its value is
+     * not <tt>null</tt>, like <tt>XmlStringBuilder.optAttribute</tt>.
+     */
+    private static void appendOptAttribute(
+            Appendable out,
+            String name,
+            Object value)
+        throws IOException
+    {
+        if (value != null)
+        {
+            XmlAppender.appendAttribute(out, name, value);
         }
+    }
+
+    /**
+     * Writes the XML of an element of this IQ into an {@link Appendable}, so
+     * that the <tt>toXML(IQChildElementXmlStringBuilder)</tt> methods of the
+     * elements can share {@link #toXML(XmlWriter,
+     * IQChildElementXmlStringBuilder)}.
+     */
+    private interface XmlWriter
+    {
+        void appendXML(Appendable out)
+            throws IOException;
+    }
 
+    /**
+     * Appends the XML of an element of this IQ to a specific
+     * <tt>XmlStringBuilder</tt>.
+     */
+    private static IQChildElementXmlStringBuilder toXML(
+            XmlWriter element,
+            IQChildElementXmlStringBuilder xml)
+    {
+        try
+        {
+            element.appendXML(xml);
+        }
+        catch (IOException ioe)
+        {
+            // XmlStringBuilder does not throw IOException.
+            throw new IllegalStateException(ioe);
+        }
         return xml;
     }
 
@@ -345,16 +490,11 @@ public class ColibriConferenceIQ
      * <tt>conference</tt> IQ which has the specified <tt>contentName</tt> if
      * such a <tt>Content</tt> exists; otherwise, <tt>null</tt>
      */
-    public Content getContent(String contentName)
+    public synchronized Content getContent(String contentName)
     {
-        for (Content content : getContents())
-        {
-            if (contentName.equals(content.getName()))
-            {
-                return content;
-            }
-        }
-        return null;
+        Objects.requireNonNull(contentName, "contentName");
+
+        return contentsByName.get(contentName);
     }
 
     /**
@@ -407,7 +547,7 @@ public class ColibriConferenceIQ
      * @return a <tt>Content</tt> from the list of <tt>Content</tt>s of this
      * <tt>conference</tt> IQ which has the specified <tt>contentName</tt>
      */
-    public Content getOrCreateContent(String contentName)
+    public synchronized Content getOrCreateContent(String contentName)
     {
         Content content = getContent(contentName);
 
@@ -443,9 +583,41 @@ public class ColibriConferenceIQ
      * into this <tt>conference</tt> IQ has been modified as a result of the
      * method call; otherwise, <tt>false</tt>
      */
-    public boolean removeContent(Content content)
+    public synchronized boolean removeContent(Content content)
+    {
+        if (!contents.remove(content))
+        {
+            return false;
+        }
+        content.removeOwner(this);
+
+        String name = content.getName();
+
+        if (name != null && contentsByName.get(name) == content)
+        {
+            reindexContents();
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds {@link #contentsByName} after a {@link Content} has been
+     * removed or renamed. A conference has at most a few contents (one per
+     * media type), so this is cheaper than keeping track of the previous
+     * names.
+     */
+    synchronized void reindexContents()
     {
-        return contents.remove(content);
+        contentsByName.clear();
+        for (Content content : contents)
+        {
+            String name = content.getName();
+
+            if (name != null)
+            {
+                contentsByName.putIfAbsent(name, content);
+            }
+        }
     }
 
     /**
@@ -740,17 +912,39 @@ public class ColibriConferenceIQ
         private List<SourceGroupPacketExtension> sourceGroups;
 
         /**
-         * The <tt>SourcePacketExtension</tt>s of this channel.
+         * The <tt>SourcePacketExtension</tt>s of this channel, in the order in
+         * which they were added. <tt>SourcePacketExtension</tt> does not
+         * override <tt>equals</tt>, so the set is by identity.
+         */
+        private final Set<SourcePacketExtension> sources
+            = new LinkedHashSet<>();
+
+        /**
+         * The sources of this channel which have an SSRC, by SSRC.
+         */
+        private final LongObjectHashMap<SourcePacketExtension> sourcesBySSRC
+            = new LongObjectHashMap<>();
+
+        /**
+         * The sources of this channel which have a RID, by RID, in the order
+         * in which they were added. More than one source (each with its own
+         * SSRC) may have the same RID.
+         */
+        private final Map<String, List<SourcePacketExtension>> sourcesByRid
+            = new HashMap<>();
+
+        /**
+         * The sources of this channel which have a RID but no SSRC, by RID.
          */
-        private final List<SourcePacketExtension> sources
-            = new LinkedList<>();
+        private final Map<String, SourcePacketExtension> ssrcLessSourcesByRid
+            = new HashMap<>();
 
         /**
          * The list of (RTP) SSRCs which have been seen/received on this
          * <tt>Channel</tt> by now. These may exclude SSRCs which are no longer
          * active. Set by the Jitsi Videobridge server, not its clients.
          */
-        private int[] ssrcs = NO_SSRCS;
+        private final IntHashSet ssrcs = new IntHashSet();
 
         /** Initializes a new <tt>Channel</tt> instance. */
         public Channel()
@@ -774,8 +968,12 @@ public class ColibriConferenceIQ
 
             // Make sure that the COLIBRI namespace is used.
             payloadType.setNamespace(null);
-            for (ParameterPacketExtension p : payloadType.getParameters())
+            for (ParameterPacketExtension p
+                    : payloadType.getUnmodifiableChildExtensionsOfType(
+                            ParameterPacketExtension.class))
+            {
                 p.setNamespace(null);
+            }
 
             return
                 payloadTypes.contains(payloadType)
@@ -827,6 +1025,13 @@ public class ColibriConferenceIQ
          * Adds a <tt>SourcePacketExtension</tt> to the list of sources of this
          * channel.
          *
+         * The source is not added if this channel already has it or a source
+         * which it is {@link SourcePacketExtension#sourceEquals equal} to,
+         * i.e. one with the same SSRC or (in the absence of an SSRC) the same
+         * RID. The SSRC and the RID of the source are indexed as they are at
+         * the time of the call and must not change while the source is in this
+         * channel.
+         *
          * @param source the <tt>SourcePacketExtension</tt> to add to the list
          * of sources of this channel
          * @return <tt>true</tt> if the list of sources of this channel changed
@@ -836,7 +1041,40 @@ public class ColibriConferenceIQ
         {
             Objects.requireNonNull(source, "source");
 
-            return sources.contains(source) ? false : sources.add(source);
+            boolean hasSSRC = source.hasSSRC();
+            String rid = source.hasRid() ? source.getRid() : null;
+
+            if (hasSSRC)
+            {
+                long ssrc = source.getSSRC();
+
+                if (sourcesBySSRC.get(ssrc) != null
+                        || (rid != null
+                            && ssrcLessSourcesByRid.containsKey(rid)))
+                {
+                    return false;
+                }
+                sourcesBySSRC.put(ssrc, source);
+            }
+            else if (rid != null)
+            {
+                if (sourcesByRid.containsKey(rid))
+                {
+                    return false;
+                }
+                ssrcLessSourcesByRid.put(rid, source);
+            }
+            else if (sources.contains(source))
+            {
+                return false;
+            }
+            if (rid != null)
+            {
+                sourcesByRid
+                    .computeIfAbsent(rid, k -> new ArrayList<>(1))
+                    .add(source);
+            }
+            return sources.add(source);
         }
 
         /**
@@ -878,20 +1116,7 @@ public class ColibriConferenceIQ
          */
         public synchronized boolean addSSRC(int ssrc)
         {
-            // contains
-            for (int i = 0; i < ssrcs.length; i++)
-            {
-                if (ssrcs[i] == ssrc)
-                    return false;
-            }
-
-            // add
-            int[] newSSRCs = new int[ssrcs.length + 1];
-
-            System.arraycopy(ssrcs, 0, newSSRCs, 0, ssrcs.length);
-            newSSRCs[ssrcs.length] = ssrc;
-            ssrcs = newSSRCs;
-            return true;
+            return ssrcs.add(ssrc);
         }
 
         /**
@@ -1070,6 +1295,45 @@ public class ColibriConferenceIQ
             return new ArrayList<SourcePacketExtension>(sources);
         }
 
+        /**
+         * Gets the number of sources of this channel.
+         *
+         * @return the number of <tt>SourcePacketExtension</tt>s of this channel
+         */
+        public synchronized int getSourceCount()
+        {
+            return sources.size();
+        }
+
+        /**
+         * Gets the source of this channel which has a specific SSRC.
+         *
+         * @param ssrc the SSRC of the source to get
+         * @return the <tt>SourcePacketExtension</tt> of this channel with the
+         * SSRC <tt>ssrc</tt>, or <tt>null</tt> if there is none
+         */
+        public synchronized SourcePacketExtension getSourceBySSRC(long ssrc)
+        {
+            return sourcesBySSRC.get(ssrc);
+        }
+
+        /**
+         * Gets the source of this channel which has a specific RID. If more
+         * than one source has the RID, the one which was added first.
+         *
+         * @param rid the RID of the source to get
+         * @return the <tt>SourcePacketExtension</tt> of this channel with the
+         * RID <tt>rid</tt>, or <tt>null</tt> if there is none
+         */
+        public synchronized SourcePacketExtension getSourceByRid(String rid)
+        {
+            Objects.requireNonNull(rid, "rid");
+
+            List<SourcePacketExtension> ridSources = sourcesByRid.get(rid);
+
+            return ridSources == null ? null : ridSources.get(0);
+        }
+
         /**
          * Gets (a copy of) the list of (RTP) SSRCs seen/received on this
          * <tt>Channel</tt>.
@@ -1079,118 +1343,189 @@ public class ColibriConferenceIQ
          */
         public synchronized int[] getSSRCs()
         {
-            return (ssrcs.length == 0) ? NO_SSRCS : ssrcs.clone();
+            return ssrcs.isEmpty() ? NO_SSRCS : ssrcs.toArray();
         }
 
-        @Override
-        protected boolean hasContent()
+        /**
+         * Gets the number of (RTP) SSRCs seen/received on this
+         * <tt>Channel</tt>.
+         *
+         * @return the number of (RTP) SSRCs seen/received on this
+         * <tt>Channel</tt>
+         */
+        public synchronized int getSSRCCount()
         {
-            List<PayloadTypePacketExtension> payloadTypes = getPayloadTypes();
+            return ssrcs.size();
+        }
 
-            if (!payloadTypes.isEmpty())
-                return true;
+        /**
+         * Determines whether a specific (RTP) SSRC has been seen/received on
+         * this <tt>Channel</tt>.
+         *
+         * @param ssrc the (RTP) SSRC to look for
+         * @return <tt>true</tt> if <tt>ssrc</tt> is in the list of SSRCs
+         * seen/received on this <tt>Channel</tt>; otherwise, <tt>false</tt>
+         */
+        public synchronized boolean containsSSRC(int ssrc)
+        {
+            return ssrcs.contains(ssrc);
+        }
 
-            List<SourceGroupPacketExtension> sourceGroups = getSourceGroups();
-            if (sourceGroups != null && !getSourceGroups().isEmpty())
-                return true;
+        @Override
+        protected synchronized boolean hasContent()
+        {
+            return
+                !payloadTypes.isEmpty()
+                    || (sourceGroups != null && !sourceGroups.isEmpty())
+                    || !sources.isEmpty()
+                    || !ssrcs.isEmpty();
+        }
 
-            List<SourcePacketExtension> sources = getSources();
-            if (!sources.isEmpty())
-                return true;
+        @Override
+        protected IQChildElementXmlStringBuilder printAttributes(
+            IQChildElementXmlStringBuilder xml)
+        {
+            return
+                ColibriConferenceIQ.toXML(this::appendChannelAttributes, xml);
+        }
 
-            int[] ssrcs = getSSRCs();
+        @Override
+        protected IQChildElementXmlStringBuilder printContent(
+            IQChildElementXmlStringBuilder xml)
+        {
+            return ColibriConferenceIQ.toXML(this::appendChannelContent, xml);
+        }
 
-            return (ssrcs.length != 0);
+        /**
+         * {@inheritDoc}
+         * <p>
+         * Appends straight to <tt>out</tt> unless a derived class may have
+         * overridden {@link #printAttributes(IQChildElementXmlStringBuilder)}.
+         */
+        @Override
+        protected void appendAttributes(Appendable out)
+            throws IOException
+        {
+            if (getClass() == Channel.class || getClass() == OctoChannel.class)
+            {
+                appendChannelAttributes(out);
+            }
+            else
+            {
+                super.appendAttributes(out);
+            }
         }
 
+        /**
+         * {@inheritDoc}
+         * <p>
+         * Appends straight to <tt>out</tt> unless a derived class may have
+         * overridden {@link #printContent(IQChildElementXmlStringBuilder)}.
+         */
         @Override
-        protected IQChildElementXmlStringBuilder printAttributes(IQChildElementXmlStringBuilder xml)
+        protected void appendContent(Appendable out)
+            throws IOException
+        {
+            if (getClass() == Channel.class)
+            {
+                appendChannelContent(out);
+            }
+            else
+            {
+                super.appendContent(out);
+            }
+        }
+
+        /**
+         * Appends the attributes specific to <tt>Channel</tt> to a specific
+         * {@link Appendable}.
+         */
+        void appendChannelAttributes(Appendable out)
+            throws IOException
         {
             // direction
             String direction = getDirection();
             if (direction != null
                 && !direction.equals(SENDRECV))
             {
-                xml.attribute(DIRECTION_ATTR_NAME, direction);
+                XmlAppender.appendAttribute(
+                        out, DIRECTION_ATTR_NAME, direction);
             }
 
-            xml.optAttribute(HOST_ATTR_NAME, getHost());
+            appendOptAttribute(out, HOST_ATTR_NAME, getHost());
 
             // lastN
             Integer lastN = getLastN();
             if (lastN != null)
             {
-                xml.attribute(LAST_N_ATTR_NAME, getLastN());
+                XmlAppender.appendAttribute(
+                        out, LAST_N_ATTR_NAME, lastN.intValue());
             }
 
             // packet-delay
             Integer packetDelay = getPacketDelay();
             if (packetDelay != null)
             {
-                xml.attribute(PACKET_DELAY_ATTR_NAME, packetDelay);
+                XmlAppender.appendAttribute(
+                        out, PACKET_DELAY_ATTR_NAME, packetDelay.intValue());
             }
 
             // simulcastMode
-            SimulcastMode simulcastMode = getSimulcastMode();
-            if (simulcastMode != null)
-            {
-                xml.attribute(SIMULCAST_MODE_ATTR_NAME, simulcastMode.toString());
-            }
+            appendOptAttribute(
+                    out, SIMULCAST_MODE_ATTR_NAME, getSimulcastMode());
 
             // rtcpPort
             int rtcpPort = getRTCPPort();
             if (rtcpPort > 0)
             {
-                xml.attribute(RTCP_PORT_ATTR_NAME, rtcpPort);
+                XmlAppender.appendAttribute(out, RTCP_PORT_ATTR_NAME, rtcpPort);
             }
 
             // rtpLevelRelayType
-            RTPLevelRelayType rtpLevelRelayType = getRTPLevelRelayType();
-            if (rtpLevelRelayType != null)
-            {
-                xml.attribute(RTP_LEVEL_RELAY_TYPE_ATTR_NAME, rtpLevelRelayType.toString());
-            }
+            appendOptAttribute(
+                    out,
+                    RTP_LEVEL_RELAY_TYPE_ATTR_NAME,
+                    getRTPLevelRelayType());
 
             // rtpPort
             int rtpPort = getRTPPort();
             if (rtpPort > 0)
             {
-                xml.attribute(RTP_PORT_ATTR_NAME, rtpPort);
+                XmlAppender.appendAttribute(out, RTP_PORT_ATTR_NAME, rtpPort);
             }
-
-            return xml;
         }
 
-        @Override
-        protected IQChildElementXmlStringBuilder printContent(IQChildElementXmlStringBuilder xml)
+        /**
+         * Appends the child elements specific to <tt>Channel</tt> to a
+         * specific {@link Appendable}.
+         */
+        void appendChannelContent(Appendable out)
+            throws IOException
         {
-            List<PayloadTypePacketExtension> payloadTypes = getPayloadTypes();
-            Collection<RTPHdrExtPacketExtension> rtpHdrExtPacketExtensions
-                    = getRtpHeaderExtensions();
-            List<SourcePacketExtension> sources = getSources();
-            List<SourceGroupPacketExtension> sourceGroups = getSourceGroups();
-            int[] ssrcs = getSSRCs();
+            for (int i = 0, count = payloadTypes.size(); i < count; i++)
+                payloadTypes.get(i).toXML(out, XmlEnvironment.EMPTY);
 
-            for (PayloadTypePacketExtension payloadType : payloadTypes)
-                xml.append(payloadType.toXML());
+            for (RTPHdrExtPacketExtension ext : rtpHeaderExtensions.values())
+                ext.toXML(out, XmlEnvironment.EMPTY);
 
-            for (RTPHdrExtPacketExtension ext : rtpHdrExtPacketExtensions)
-                xml.append(ext.toXML());
-
-            for (SourcePacketExtension source : sources)
-                xml.append(source.toXML());
+            synchronized (this)
+            {
+                for (SourcePacketExtension source : sources)
+                    source.toXML(out, XmlEnvironment.EMPTY);
 
-            if (sourceGroups != null && sourceGroups.size() != 0)
-                for (SourceGroupPacketExtension sourceGroup : sourceGroups)
-                    xml.append(sourceGroup.toXML());
+                if (sourceGroups != null)
+                {
+                    for (int i = 0, count = sourceGroups.size(); i < count; i++)
+                        sourceGroups.get(i).toXML(out, XmlEnvironment.EMPTY);
+                }
 
-            for (int i = 0; i < ssrcs.length; i++)
-            {
-                xml.element(SSRC_ELEMENT,
-                    Long.toString(ssrcs[i] & 0xFFFFFFFFL));
+                for (int i = 0, count = ssrcs.size(); i < count; i++)
+                {
+                    out.append('<').append(SSRC_ELEMENT).append('>');
+                    XmlAppender.appendNumber(out, ssrcs.get(i) & 0xFFFFFFFFL);
+                    out.append("</").append(SSRC_ELEMENT).append('>');
+                }
             }
-
-            return xml;
         }
 
         /**
@@ -1245,7 +1580,37 @@ public class ColibriConferenceIQ
          */
         public synchronized boolean removeSource(SourcePacketExtension source)
         {
-            return sources.remove(source);
+            if (!sources.remove(source))
+            {
+                return false;
+            }
+            if (source.hasSSRC())
+            {
+                long ssrc = source.getSSRC();
+
+                if (sourcesBySSRC.get(ssrc) == source)
+                {
+                    sourcesBySSRC.remove(ssrc);
+                }
+            }
+            if (source.hasRid())
+            {
+                String rid = source.getRid();
+
+                List<SourcePacketExtension> ridSources
+                    = sourcesByRid.get(rid);
+
+                ssrcLessSourcesByRid.remove(rid, source);
+                // Only the sources with the same RID are searched, which are
+                // usually just this one.
+                if (ridSources != null
+                        && ridSources.remove(source)
+                        && ridSources.isEmpty())
+                {
+                    sourcesByRid.remove(rid);
+                }
+            }
+            return true;
         }
 
         /**
@@ -1261,39 +1626,7 @@ public class ColibriConferenceIQ
          */
         public synchronized boolean removeSSRC(int ssrc)
         {
-            if (ssrcs.length == 1)
-            {
-                if (ssrcs[0] == ssrc)
-                {
-                    ssrcs = NO_SSRCS;
-                    return true;
-                }
-                else
-                    return false;
-            }
-            else
-            {
-                for (int i = 0; i < ssrcs.length; i++)
-                {
-                    if (ssrcs[i] == ssrc)
-                    {
-                        int[] newSSRCs = new int[ssrcs.length - 1];
-
-                        if (i != 0)
-                            System.arraycopy(ssrcs, 0, newSSRCs, 0, i);
-                        if (i != newSSRCs.length)
-                        {
-                            System.arraycopy(
-                                    ssrcs, i + 1,
-                                    newSSRCs, i,
-                                    newSSRCs.length - i);
-                        }
-                        ssrcs = newSSRCs;
-                        return true;
-                    }
-                }
-                return false;
-            }
+            return ssrcs.remove(ssrc);
         }
 
         /**
@@ -1433,20 +1766,22 @@ public class ColibriConferenceIQ
 
         /**
          * Sets the list of (RTP) SSRCs seen/received on this <tt>Channel</tt>.
+         * Duplicate SSRCs in <tt>ssrcs</tt> are only set once.
          *
          * @param ssrcs the list of (RTP) SSRCs to be set as seen/received on
          * this <tt>Channel</tt>
          */
-        public void setSSRCs(int[] ssrcs)
+        public synchronized void setSSRCs(int[] ssrcs)
         {
-            /*
-             * TODO Make sure that the SSRCs set on this instance do not contain
-             * duplicates.
-             */
-            this.ssrcs
-                = ((ssrcs == null) || (ssrcs.length == 0))
-                    ? NO_SSRCS
-                    : ssrcs.clone();
+            this.ssrcs.clear();
+            if (ssrcs != null)
+            {
+                // Duplicates are dropped, as by addSSRC.
+                for (int ssrc : ssrcs)
+                {
+                    this.ssrcs.add(ssrc);
+                }
+            }
         }
     }
 
@@ -1535,17 +1870,43 @@ public class ColibriConferenceIQ
          * {@inheritDoc}
          */
         @Override
-        protected IQChildElementXmlStringBuilder printContent(IQChildElementXmlStringBuilder xml)
+        protected IQChildElementXmlStringBuilder printContent(
+            IQChildElementXmlStringBuilder xml)
         {
-            super.printContent(xml);
-            for (String relay : relays)
+            return ColibriConferenceIQ.toXML(this::appendOctoContent, xml);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void appendContent(Appendable out)
+            throws IOException
+        {
+            if (getClass() == OctoChannel.class)
             {
-                xml.halfOpenElement(RELAY_ELEMENT)
-                    .attribute(ID_ATTR_NAME, relay)
-                    .closeEmptyElement();
+                appendOctoContent(out);
             }
+            else
+            {
+                super.appendContent(out);
+            }
+        }
 
-            return xml;
+        /**
+         * Appends the child elements of this <tt>OctoChannel</tt> to a
+         * specific {@link Appendable}.
+         */
+        private void appendOctoContent(Appendable out)
+            throws IOException
+        {
+            appendChannelContent(out);
+            for (String relay : relays)
+            {
+                out.append('<').append(RELAY_ELEMENT);
+                XmlAppender.appendAttribute(out, ID_ATTR_NAME, relay);
+                out.append("/>");
+            }
         }
     }
 
@@ -1627,21 +1988,34 @@ public class ColibriConferenceIQ
         public IQChildElementXmlStringBuilder toXML(
             IQChildElementXmlStringBuilder xml)
         {
-            xml.halfOpenElement(ELEMENT)
-                .attribute(ID_ATTR_NAME, id);
+            return ColibriConferenceIQ.toXML(this::appendXML, xml);
+        }
+
+        /**
+         * Appends an XML representation of this <tt>ChannelBundle</tt> to a
+         * specific {@link Appendable}.
+         *
+         * @param out the {@link Appendable} to append to.
+         * @throws IOException if <tt>out</tt> fails to append.
+         */
+        void appendXML(Appendable out)
+            throws IOException
+        {
+            out.append('<').append(ELEMENT);
+            XmlAppender.appendAttribute(out, ID_ATTR_NAME, id);
+
+            IceUdpTransportPacketExtension transport = this.transport;
 
             if (transport != null)
             {
-                xml.rightAngleBracket();
-                xml.append(transport.toXML());
-                xml.closeElement(ELEMENT);
+                out.append('>');
+                transport.toXML(out, XmlEnvironment.EMPTY);
+                out.append("</").append(ELEMENT).append('>');
             }
             else
             {
-                xml.closeEmptyElement();
+                out.append("/>");
             }
-
-            return xml;
         }
     }
 
@@ -1745,6 +2119,12 @@ public class ColibriConferenceIQ
 
         private IceUdpTransportPacketExtension transport;
 
+        /**
+         * The {@link Content}s which include this channel (usually one), so
+         * that they re-index it in place when its ID or endpoint changes.
+         */
+        private final OwnerList<Content> owners = new OwnerList<>();
+
         /**
          * Initializes this class with given XML <tt>elementName</tt>.
          * @param elementName XML element name to be used for producing XML
@@ -1860,6 +2240,79 @@ public class ColibriConferenceIQ
         protected abstract IQChildElementXmlStringBuilder printContent(
             IQChildElementXmlStringBuilder xml);
 
+        /**
+         * Appends the additional attributes of the main XML element to a
+         * specific {@link Appendable}. Called with the monitor of this
+         * instance held. The default implementation calls
+         * {@link #printAttributes(IQChildElementXmlStringBuilder)}; derived
+         * classes may override it to append without a builder of their own.
+         *
+         * @param out the {@link Appendable} to which the XML
+         *            <tt>String</tt> representation of this <tt>Channel</tt>
+         *            is to be appended
+         * @throws IOException if <tt>out</tt> fails to append.
+         */
+        protected void appendAttributes(Appendable out)
+            throws IOException
+        {
+            if (out instanceof IQChildElementXmlStringBuilder)
+            {
+                printAttributes((IQChildElementXmlStringBuilder) out);
+            }
+            else
+            {
+                IQChildElementXmlStringBuilder xml = createXmlStringBuilder();
+                int start = xml.length();
+
+                printAttributes(xml);
+                out.append(xml, start, xml.length());
+            }
+        }
+
+        /**
+         * Appends the content child elements of this IQ to a specific
+         * {@link Appendable}. Called if {@link #hasContent()} returns
+         * <tt>true</tt>, with the monitor of this instance held. The default
+         * implementation calls
+         * {@link #printContent(IQChildElementXmlStringBuilder)}; derived
+         * classes may override it to append without a builder of their own.
+         *
+         * @param out the {@link Appendable} to which the XML
+         *        <tt>String</tt> representation of this <tt>Channel</tt>
+         *        is to be appended.
+         * @throws IOException if <tt>out</tt> fails to append.
+         */
+        protected void appendContent(Appendable out)
+            throws IOException
+        {
+            if (out instanceof IQChildElementXmlStringBuilder)
+            {
+                printContent((IQChildElementXmlStringBuilder) out);
+            }
+            else
+            {
+                IQChildElementXmlStringBuilder xml = createXmlStringBuilder();
+                int start = xml.length();
+
+                printContent(xml);
+                out.append(xml, start, xml.length());
+            }
+        }
+
+        /**
+         * Initializes a new <tt>XmlStringBuilder</tt> for the
+         * <tt>printXXX</tt> methods when the XML is not appended to one. The
+         * start tag it begins with is not copied out.
+         */
+        private IQChildElementXmlStringBuilder createXmlStringBuilder()
+        {
+            return
+                new IQChildElementXmlStringBuilder(
+                        new AbstractPacketExtension(NAMESPACE, elementName)
+                        {
+                        });
+        }
+
         /**
          * Sets the channel-bundle-id attribute of this <tt>CommonChannel</tt>.
          * @param channelBundleId the value to set.
@@ -1878,7 +2331,11 @@ public class ColibriConferenceIQ
          */
         public void setEndpoint(String endpoint)
         {
-            this.endpoint = endpoint;
+            if (!Objects.equals(this.endpoint, endpoint))
+            {
+                this.endpoint = endpoint;
+                invalidateIndices();
+            }
         }
         /**
          * Sets the optional type of this channel.
@@ -1914,7 +2371,41 @@ public class ColibriConferenceIQ
          */
         public void setID(String id)
         {
-            this.id = id;
+            if (!Objects.equals(this.id, id))
+            {
+                this.id = id;
+                invalidateIndices();
+            }
+        }
+
+        /**
+         * Makes the {@link Content}s which include this channel re-index it,
+         * after its ID or endpoint have changed.
+         */
+        private void invalidateIndices()
+        {
+            for (Content owner : owners.get())
+            {
+                owner.reindex(this);
+            }
+        }
+
+        /**
+         * Records that a specific {@link Content} has come to include this
+         * channel.
+         */
+        void addOwner(Content owner)
+        {
+            owners.add(owner);
+        }
+
+        /**
+         * Records that a specific {@link Content} no longer includes this
+         * channel.
+         */
+        void removeOwner(Content owner)
+        {
+            owners.remove(owner);
         }
 
         /**
@@ -1949,43 +2440,66 @@ public class ColibriConferenceIQ
         public IQChildElementXmlStringBuilder toXML(
             IQChildElementXmlStringBuilder xml)
         {
-            xml.halfOpenElement(elementName)
-                .optAttribute(ENDPOINT_ATTR_NAME, getEndpoint())
-                .optIntAttribute(EXPIRE_ATTR_NAME, getExpire())
-                .optAttribute(ID_ATTR_NAME, getID())
-                .optAttribute(TYPE_ATTR_NAME, getType())
-                .optBooleanAttribute(INITIATOR_ATTR_NAME, isInitiator() == null
-                    ? false
-                    : isInitiator())
-                .optAttribute(
-                    CHANNEL_BUNDLE_ID_ATTR_NAME, getChannelBundleId());
+            return ColibriConferenceIQ.toXML(this::appendXML, xml);
+        }
+
+        /**
+         * Appends the XML <tt>String</tt> representation of this
+         * <tt>Channel</tt> to a specific {@link Appendable}, with the monitor
+         * of this instance held so that its sources and SSRCs are written as
+         * they were at one point in time.
+         *
+         * @param out the {@link Appendable} to which the XML
+         * <tt>String</tt> representation of this <tt>Channel</tt> is to be
+         * appended
+         * @throws IOException if <tt>out</tt> fails to append.
+         */
+        synchronized void appendXML(Appendable out)
+            throws IOException
+        {
+            out.append('<').append(elementName);
+            appendOptAttribute(out, ENDPOINT_ATTR_NAME, getEndpoint());
+
+            int expire = getExpire();
+
+            if (expire >= 0)
+            {
+                XmlAppender.appendAttribute(out, EXPIRE_ATTR_NAME, expire);
+            }
+            appendOptAttribute(out, ID_ATTR_NAME, getID());
+            appendOptAttribute(out, TYPE_ATTR_NAME, getType());
+            if (Boolean.TRUE.equals(isInitiator()))
+            {
+                XmlAppender.appendAttribute(out, INITIATOR_ATTR_NAME, "true");
+            }
+            appendOptAttribute(
+                    out, CHANNEL_BUNDLE_ID_ATTR_NAME, getChannelBundleId());
 
             // Print derived class attributes
-            printAttributes(xml);
+            appendAttributes(out);
 
             IceUdpTransportPacketExtension transport = getTransport();
             boolean hasTransport = (transport != null);
-            if (hasTransport || hasContent())
+            boolean hasContent = hasContent();
+            if (hasTransport || hasContent)
             {
-                xml.rightAngleBracket();
-                if (hasContent())
+                out.append('>');
+                if (hasContent)
                 {
-                    printContent(xml);
+                    appendContent(out);
                 }
 
                 if (hasTransport)
                 {
-                    xml.append(transport.toXML());
+                    transport.toXML(out, XmlEnvironment.EMPTY);
                 }
 
-                xml.closeElement(elementName);
+                out.append("</").append(elementName).append('>');
             }
             else
             {
-                xml.closeEmptyElement();
+                out.append("/>");
             }
-
-            return xml;
         }
     }
 
@@ -2010,9 +2524,9 @@ public class ColibriConferenceIQ
 
         /**
          * The list of {@link Channel}s included into this <tt>content</tt> of a
-         * <tt>conference</tt> IQ.
+         * <tt>conference</tt> IQ, indexed by their IDs and endpoints.
          */
-        private final List<Channel> channels = new LinkedList<Channel>();
+        private final ChannelList<Channel> channels = new ChannelList<>(this);
 
         /**
          * The name of the <tt>content</tt> represented by this instance.
@@ -2023,8 +2537,16 @@ public class ColibriConferenceIQ
          * The list of {@link SctpConnection}s included into this
          * <tt>content</tt> of a <tt>conference</tt> IQ.
          */
-        private final List<SctpConnection> sctpConnections
-            = new LinkedList<SctpConnection>();
+        private final ChannelList<SctpConnection> sctpConnections
+            = new ChannelList<>(this);
+
+        /**
+         * The {@link ColibriConferenceIQ}s which include this
+         * <tt>Content</tt> (usually one), so that they re-index it when its
+         * name changes.
+         */
+        private final OwnerList<ColibriConferenceIQ> owners
+            = new OwnerList<>();
 
         /**
          * Initializes a new <tt>Content</tt> instance without a name and
@@ -2055,11 +2577,11 @@ public class ColibriConferenceIQ
          * this <tt>Content</tt> was modified as a result of the execution of
          * the method; otherwise, <tt>false</tt>
          */
-        public boolean addChannel(Channel channel)
+        public synchronized boolean addChannel(Channel channel)
         {
             Objects.requireNonNull(channel, "channel");
 
-            return channels.contains(channel) ? false : channels.add(channel);
+            return channels.add(channel);
         }
 
         /**
@@ -2091,11 +2613,11 @@ public class ColibriConferenceIQ
          * included into this <tt>Content</tt> was modified as a result of
          * the execution of the method; otherwise, <tt>false</tt>
          */
-        public boolean addSctpConnection(SctpConnection conn)
+        public synchronized boolean addSctpConnection(SctpConnection conn)
         {
             Objects.requireNonNull(conn, "conn");
 
-            return !sctpConnections.contains(conn) && sctpConnections.add(conn);
+            return sctpConnections.add(conn);
         }
 
         /**
@@ -2109,9 +2631,9 @@ public class ColibriConferenceIQ
          * within the list of <tt>Channel</tt>s included in this
          * <tt>Content</tt>
          */
-        public Channel getChannel(int channelIndex)
+        public synchronized Channel getChannel(int channelIndex)
         {
-            return getChannels().get(channelIndex);
+            return channels.get(channelIndex);
         }
 
         /**
@@ -2124,14 +2646,25 @@ public class ColibriConferenceIQ
          * <tt>Content</tt> and which has the specified <tt>channelID</tt> if
          * such a <tt>Channel</tt> exists; otherwise, <tt>null</tt>
          */
-        public Channel getChannel(String channelID)
+        public synchronized Channel getChannel(String channelID)
         {
-            for (Channel channel : getChannels())
-            {
-                if (channelID.equals(channel.getID()))
-                    return channel;
-            }
-            return null;
+            Objects.requireNonNull(channelID, "channelID");
+
+            return channels.get(channelID);
+        }
+
+        /**
+         * Gets the <tt>Channel</tt>s which are included into this
+         * <tt>Content</tt> and which are associated with a specific endpoint.
+         *
+         * @param endpoint the identifier of the endpoint.
+         * @return an unmodifiable <tt>List</tt> of the <tt>Channel</tt>s of
+         * <tt>endpoint</tt>, in the order in which they were added.
+         */
+        public synchronized List<Channel> getChannelsByEndpoint(
+                String endpoint)
+        {
+            return channels.getByEndpoint(endpoint);
         }
 
         /**
@@ -2141,12 +2674,44 @@ public class ColibriConferenceIQ
          *         or <tt>null</tt> if no such connection is contained in
          *         this IQ.
          */
-        public SctpConnection getSctpConnection(String connectionID)
+        public synchronized SctpConnection getSctpConnection(
+                String connectionID)
         {
-            for (SctpConnection conn : getSctpConnections())
-                if (connectionID.equals(conn.getID()))
-                    return conn;
-            return null;
+            Objects.requireNonNull(connectionID, "connectionID");
+
+            return sctpConnections.get(connectionID);
+        }
+
+        /**
+         * Gets the <tt>SctpConnection</tt>s which are included into this
+         * <tt>Content</tt> and which are associated with a specific endpoint.
+         *
+         * @param endpoint the identifier of the endpoint.
+         * @return an unmodifiable <tt>List</tt> of the <tt>SctpConnection</tt>s
+         * of <tt>endpoint</tt>, in the order in which they were added.
+         */
+        public synchronized List<SctpConnection> getSctpConnectionsByEndpoint(
+                String endpoint)
+        {
+            return sctpConnections.getByEndpoint(endpoint);
+        }
+
+        /**
+         * Re-indexes a specific channel of this <tt>Content</tt> by its
+         * current ID and endpoint.
+         *
+         * @param channel the channel whose ID or endpoint has changed.
+         */
+        synchronized void reindex(ChannelCommon channel)
+        {
+            if (channel instanceof Channel)
+            {
+                channels.reindex((Channel) channel);
+            }
+            else if (channel instanceof SctpConnection)
+            {
+                sctpConnections.reindex((SctpConnection) channel);
+            }
         }
 
         /**
@@ -2156,9 +2721,9 @@ public class ColibriConferenceIQ
          * @return the number of <tt>Channel</tt>s included into/associated with
          * this <tt>Content</tt>
          */
-        public int getChannelCount()
+        public synchronized int getChannelCount()
         {
-            return getChannels().size();
+            return channels.size();
         }
 
         /**
@@ -2205,7 +2770,7 @@ public class ColibriConferenceIQ
          * this <tt>Content</tt> was modified as a result of the execution of
          * the method; otherwise, <tt>false</tt>
          */
-        public boolean removeChannel(Channel channel)
+        public synchronized boolean removeChannel(Channel channel)
         {
             return channels.remove(channel);
         }
@@ -2220,7 +2785,32 @@ public class ColibriConferenceIQ
         {
             Objects.requireNonNull(name, "name");
 
-            this.name = name;
+            if (!name.equals(this.name))
+            {
+                this.name = name;
+                for (ColibriConferenceIQ owner : owners.get())
+                {
+                    owner.reindexContents();
+                }
+            }
+        }
+
+        /**
+         * Records that a specific {@link ColibriConferenceIQ} has come to
+         * include this <tt>Content</tt>.
+         */
+        void addOwner(ColibriConferenceIQ owner)
+        {
+            owners.add(owner);
+        }
+
+        /**
+         * Records that a specific {@link ColibriConferenceIQ} no longer
+         * includes this <tt>Content</tt>.
+         */
+        void removeOwner(ColibriConferenceIQ owner)
+        {
+            owners.remove(owner);
         }
 
         /**
@@ -2234,44 +2824,472 @@ public class ColibriConferenceIQ
         public IQChildElementXmlStringBuilder toXML(
             IQChildElementXmlStringBuilder xml)
         {
-            xml.halfOpenElement(ELEMENT)
-                .attribute(NAME_ATTR_NAME, getName());
+            return ColibriConferenceIQ.toXML(this::appendXML, xml);
+        }
 
-            List<Channel> channels = getChannels();
-            List<SctpConnection> connections = getSctpConnections();
+        /**
+         * Appends the XML <tt>String</tt> representation of this
+         * <tt>Content</tt> to a specific {@link Appendable}, with the monitor
+         * of this instance held so that its channels are written as they are
+         * at one point in time.
+         *
+         * @param out the {@link Appendable} to which the XML
+         * <tt>String</tt> representation of this <tt>Content</tt> is to be
+         * appended
+         * @throws IOException if <tt>out</tt> fails to append.
+         */
+        synchronized void appendXML(Appendable out)
+            throws IOException
+        {
+            out.append('<').append(ELEMENT);
+            XmlAppender.appendAttribute(out, NAME_ATTR_NAME, getName());
 
-            if (channels.size() == 0 && connections.size() == 0)
+            if (channels.isEmpty() && sctpConnections.isEmpty())
             {
-                xml.closeEmptyElement();
+                out.append("/>");
             }
             else
             {
-                xml.rightAngleBracket();
-                for (Channel channel : channels)
+                out.append('>');
+                channels.appendXML(out);
+                sctpConnections.appendXML(out);
+
+                out.append("</").append(ELEMENT).append('>');
+            }
+        }
+
+        /**
+         * Removes given SCTP connection from this IQ.
+         * @param connection the SCTP connection instance to be removed.
+         * @return <tt>true</tt> if given <tt>connection</tt> was contained in
+         *         this IQ and has been removed successfully.
+         */
+        public synchronized boolean removeSctpConnection(
+                SctpConnection connection)
+        {
+            return sctpConnections.remove(connection);
+        }
+    }
+
+    /**
+     * The objects which include a channel or a {@link Content}, so that they
+     * can re-index it when it changes. They are referenced weakly, so that
+     * an object which has been discarded without removing the channel or
+     * <tt>Content</tt> from it, such as a <tt>ColibriConferenceIQ</tt> derived
+     * from another one, does not stay reachable through them. The references
+     * of discarded objects are dropped when an owner is added.
+     *
+     * @param <T> the type of the owners.
+     */
+    private static final class OwnerList<T>
+    {
+        /**
+         * The value of {@link #owners} when there are none.
+         */
+        private static final Reference<?>[] NO_OWNERS = new Reference<?>[0];
+
+        /**
+         * The weak references to the owners, which are replaced rather than
+         * modified so that they can be read without locking.
+         */
+        private volatile Reference<?>[] owners = NO_OWNERS;
+
+        /**
+         * Adds an owner.
+         *
+         * @param owner the owner to add.
+         */
+        synchronized void add(T owner)
+        {
+            Reference<?>[] owners = this.owners;
+            Reference<?>[] newOwners = new Reference<?>[owners.length + 1];
+            int size = 0;
+
+            for (Reference<?> reference : owners)
+            {
+                if (reference.get() != null)
                 {
-                    channel.toXML(xml);
+                    newOwners[size++] = reference;
                 }
+            }
+            newOwners[size++] = new WeakReference<>(owner);
+            this.owners
+                = size == newOwners.length
+                    ? newOwners : Arrays.copyOf(newOwners, size);
+        }
+
+        /**
+         * Gets the owners which have not been discarded.
+         *
+         * @return a list of the owners.
+         */
+        List<T> get()
+        {
+            Reference<?>[] owners = this.owners;
+
+            if (owners.length == 0)
+            {
+                return Collections.emptyList();
+            }
+
+            List<T> result = new ArrayList<>(owners.length);
+
+            for (Reference<?> reference : owners)
+            {
+                @SuppressWarnings("unchecked")
+                T owner = (T) reference.get();
 
-                for (SctpConnection conn : connections)
+                if (owner != null)
                 {
-                    conn.toXML(xml);
+                    result.add(owner);
                 }
+            }
+            return result;
+        }
 
-                xml.closeElement(ELEMENT);
+        /**
+         * Removes an owner, along with the references of the owners which
+         * have been discarded.
+         *
+         * @param owner the owner to remove.
+         */
+        synchronized void remove(T owner)
+        {
+            Reference<?>[] owners = this.owners;
+            Reference<?>[] newOwners = new Reference<?>[owners.length];
+            int size = 0;
+
+            for (Reference<?> reference : owners)
+            {
+                Object o = reference.get();
+
+                if (o != null && o != owner)
+                {
+                    newOwners[size++] = reference;
+                }
             }
+            this.owners
+                = size == 0 ? NO_OWNERS : Arrays.copyOf(newOwners, size);
+        }
+    }
 
-            return xml;
+    /**
+     * The channels (or SCTP connections) of a {@link Content}, in the order in
+     * which they were added and indexed by their IDs and endpoints. Adding,
+     * removing and looking a channel up take constant time: a removed channel
+     * leaves a hole which is closed when the holes outnumber the channels.
+     * When the ID or endpoint of a channel changes, the channel has the
+     * {@link Content}s which include it re-index it in place.
+     * <p>
+     * The methods are to be called with the monitor of the {@link Content}
+     * held, except for those of the <tt>List</tt> view which acquire it.
+     *
+     * @param <T> the type of the channels.
+     */
+    private static class ChannelList<T extends ChannelCommon>
+        extends AbstractList<T>
+    {
+        /**
+         * The {@link Content} which owns this list.
+         */
+        private final Content content;
+
+        /**
+         * The entries of the channels in order, with <tt>null</tt> where a
+         * channel has been removed.
+         */
+        private final ArrayList<Entry<T>> entries = new ArrayList<>();
+
+        /**
+         * The entries of the channels, by their channels.
+         */
+        private final Map<T, Entry<T>> entriesByChannel
+            = new IdentityHashMap<>();
+
+        /**
+         * The first entry with a specific ID.
+         */
+        private final Map<String, Entry<T>> byId = new HashMap<>();
+
+        /**
+         * The channels with a specific endpoint, in order.
+         */
+        private final Map<String, List<Entry<T>>> byEndpoint = new HashMap<>();
+
+        /**
+         * Whether several channels have had the same ID, in which case
+         * removing the one in {@link #byId} looks for the next.
+         */
+        private boolean duplicateIds;
+
+        /**
+         * Initializes a new list of the channels of a specific
+         * {@link Content}.
+         */
+        ChannelList(Content content)
+        {
+            this.content = content;
         }
 
         /**
-         * Removes given SCTP connection from this IQ.
-         * @param connection the SCTP connection instance to be removed.
-         * @return <tt>true</tt> if given <tt>connection</tt> was contained in
-         *         this IQ and has been removed successfully.
+         * Adds a channel at the end of this list.
+         *
+         * @return <tt>false</tt> if <tt>channel</tt> is already in this list.
          */
-        public boolean removeSctpConnection(SctpConnection connection)
+        @Override
+        public boolean add(T channel)
         {
-            return sctpConnections.remove(connection);
+            if (entriesByChannel.containsKey(channel))
+            {
+                return false;
+            }
+
+            Entry<T> entry = new Entry<>(channel, entries.size());
+
+            entries.add(entry);
+            entriesByChannel.put(channel, entry);
+            index(entry);
+            channel.addOwner(content);
+            modCount++;
+            return true;
+        }
+
+        /**
+         * Removes a channel from this list.
+         *
+         * @return <tt>false</tt> if <tt>channel</tt> is not in this list.
+         */
+        @Override
+        public boolean remove(Object channel)
+        {
+            Entry<T> entry = entriesByChannel.remove(channel);
+
+            if (entry == null)
+            {
+                return false;
+            }
+            unindex(entry);
+            if (entry.position == entries.size() - 1)
+            {
+                entries.remove(entry.position);
+            }
+            else
+            {
+                entries.set(entry.position, null);
+                if (entries.size() > 2 * entriesByChannel.size() + 8)
+                {
+                    compact();
+                }
+            }
+            entry.channel.removeOwner(content);
+            modCount++;
+            return true;
+        }
+
+        /**
+         * Re-indexes a channel of this list by its current ID and endpoint.
+         */
+        void reindex(T channel)
+        {
+            Entry<T> entry = entriesByChannel.get(channel);
+
+            if (entry != null)
+            {
+                unindex(entry);
+                index(entry);
+            }
+        }
+
+        /**
+         * Gets the first channel with a specific ID.
+         */
+        T get(String id)
+        {
+            Entry<T> entry = byId.get(id);
+
+            return entry == null ? null : entry.channel;
+        }
+
+        /**
+         * Gets the channels of a specific endpoint, in order.
+         */
+        List<T> getByEndpoint(String endpoint)
+        {
+            List<Entry<T>> ofEndpoint
+                = endpoint == null ? null : byEndpoint.get(endpoint);
+
+            if (ofEndpoint == null)
+            {
+                return Collections.emptyList();
+            }
+
+            List<T> channels = new ArrayList<>(ofEndpoint.size());
+
+            for (Entry<T> entry : ofEndpoint)
+            {
+                channels.add(entry.channel);
+            }
+            return Collections.unmodifiableList(channels);
+        }
+
+        /**
+         * Appends the XML of the channels of this list to an
+         * {@link Appendable}, in order.
+         */
+        void appendXML(Appendable out)
+            throws IOException
+        {
+            for (int i = 0, count = entries.size(); i < count; i++)
+            {
+                Entry<T> entry = entries.get(i);
+
+                if (entry != null)
+                {
+                    entry.channel.appendXML(out);
+                }
+            }
+        }
+
+        @Override
+        public T get(int index)
+        {
+            synchronized (content)
+            {
+                if (entries.size() != entriesByChannel.size())
+                {
+                    compact();
+                }
+                return entries.get(index).channel;
+            }
+        }
+
+        @Override
+        public int size()
+        {
+            synchronized (content)
+            {
+                return entriesByChannel.size();
+            }
+        }
+
+        /**
+         * Adds an entry to {@link #byId} and {@link #byEndpoint} under the
+         * current ID and endpoint of its channel.
+         */
+        private void index(Entry<T> entry)
+        {
+            String id = entry.id = entry.channel.getID();
+
+            if (id != null)
+            {
+                Entry<T> first = byId.putIfAbsent(id, entry);
+
+                if (first != null)
+                {
+                    duplicateIds = true;
+                    if (first.position > entry.position)
+                    {
+                        byId.put(id, entry);
+                    }
+                }
+            }
+
+            String endpoint = entry.endpoint = entry.channel.getEndpoint();
+
+            if (endpoint != null)
+            {
+                List<Entry<T>> ofEndpoint
+                    = byEndpoint.computeIfAbsent(
+                            endpoint,
+                            k -> new ArrayList<>(2));
+                int i = ofEndpoint.size();
+
+                while (i > 0
+                        && ofEndpoint.get(i - 1).position > entry.position)
+                {
+                    i--;
+                }
+                ofEndpoint.add(i, entry);
+            }
+        }
+
+        /**
+         * Removes an entry from {@link #byId} and {@link #byEndpoint}, where
+         * it is under the ID and endpoint with which it was indexed.
+         */
+        private void unindex(Entry<T> entry)
+        {
+            String id = entry.id;
+
+            if (id != null && byId.get(id) == entry)
+            {
+                byId.remove(id);
+                if (duplicateIds)
+                {
+                    for (Entry<T> next : entries)
+                    {
+                        if (next != null && next != entry && id.equals(next.id))
+                        {
+                            byId.put(id, next);
+                            break;
+                        }
+                    }
+                }
+            }
+
+            String endpoint = entry.endpoint;
+            List<Entry<T>> ofEndpoint
+                = endpoint == null ? null : byEndpoint.get(endpoint);
+
+            if (ofEndpoint != null)
+            {
+                ofEndpoint.remove(entry);
+                if (ofEndpoint.isEmpty())
+                {
+                    byEndpoint.remove(endpoint);
+                }
+            }
+        }
+
+        /**
+         * Closes the holes left in {@link #entries} by removed channels.
+         */
+        private void compact()
+        {
+            int position = 0;
+
+            for (int i = 0, count = entries.size(); i < count; i++)
+            {
+                Entry<T> entry = entries.get(i);
+
+                if (entry != null)
+                {
+                    entry.position = position;
+                    entries.set(position++, entry);
+                }
+            }
+            entries.subList(position, entries.size()).clear();
+        }
+
+        /**
+         * A channel of a {@link ChannelList}, its position in
+         * {@link #entries} and the ID and endpoint with which it is indexed.
+         */
+        private static class Entry<C>
+        {
+            final C channel;
+
+            int position;
+
+            String id;
+
+            String endpoint;
+
+            Entry(C channel, int position)
+            {
+                this.channel = channel;
+                this.position = position;
+            }
         }
     }
 
@@ -2394,14 +3412,24 @@ public class ColibriConferenceIQ
         public IQChildElementXmlStringBuilder toXML(
             IQChildElementXmlStringBuilder xml)
         {
-            xml.halfOpenElement(ELEMENT)
-                .attribute(ID_ATTR_NAME, id);
-
-            xml.optAttribute(DISPLAYNAME_ATTR_NAME, displayName);
-            xml.optAttribute(STATS_ID_ATTR_NAME, statsId);
-            xml.closeEmptyElement();
+            return ColibriConferenceIQ.toXML(this::appendXML, xml);
+        }
 
-            return xml;
+        /**
+         * Appends the XML <tt>String</tt> representation of this
+         * <tt>Endpoint</tt> to a specific {@link Appendable}.
+         *
+         * @param out the {@link Appendable} to append to.
+         * @throws IOException if <tt>out</tt> fails to append.
+         */
+        void appendXML(Appendable out)
+            throws IOException
+        {
+            out.append('<').append(ELEMENT);
+            XmlAppender.appendAttribute(out, ID_ATTR_NAME, id);
+            appendOptAttribute(out, DISPLAYNAME_ATTR_NAME, displayName);
+            appendOptAttribute(out, STATS_ID_ATTR_NAME, statsId);
+            out.append("/>");
         }
     }
 
@@ -2511,12 +3539,21 @@ public class ColibriConferenceIQ
 
         public IQChildElementXmlStringBuilder toXML(IQChildElementXmlStringBuilder xml)
         {
-            xml.halfOpenElement(ELEMENT)
-                .attribute(STATE_ATTR_NAME, state.toString())
-                .optAttribute(TOKEN_ATTR_NAME, token)
-                .optAttribute(DIRECTORY_ATTR_NAME, directory)
-                .closeEmptyElement();
-            return xml;
+            return ColibriConferenceIQ.toXML(this::appendXML, xml);
+        }
+
+        /**
+         * Appends the XML <tt>String</tt> representation of this
+         * <tt>Recording</tt> to a specific {@link Appendable}.
+         */
+        void appendXML(Appendable out)
+            throws IOException
+        {
+            out.append('<').append(ELEMENT);
+            XmlAppender.appendAttribute(out, STATE_ATTR_NAME, state);
+            appendOptAttribute(out, TOKEN_ATTR_NAME, token);
+            appendOptAttribute(out, DIRECTORY_ATTR_NAME, directory);
+            out.append("/>");
         }
 
         /**
@@ -2613,10 +3650,19 @@ public class ColibriConferenceIQ
 
         public IQChildElementXmlStringBuilder toXML(IQChildElementXmlStringBuilder xml)
         {
-            xml.halfOpenElement(ELEMENT)
-                .attribute(NAME_ATTR_NAME, name)
-                .closeEmptyElement();
-            return xml;
+            return ColibriConferenceIQ.toXML(this::appendXML, xml);
+        }
+
+        /**
+         * Appends the XML <tt>String</tt> representation of this
+         * <tt>RTCPTerminationStrategy</tt> to a specific {@link Appendable}.
+         */
+        void appendXML(Appendable out)
+            throws IOException
+        {
+            out.append('<').append(ELEMENT);
+            XmlAppender.appendAttribute(out, NAME_ATTR_NAME, name);
+            out.append("/>");
         }
     }
 
@@ -2684,19 +3730,41 @@ public class ColibriConferenceIQ
          * {@inheritDoc}
          */
         @Override
-        protected IQChildElementXmlStringBuilder printAttributes(IQChildElementXmlStringBuilder xml)
+        protected IQChildElementXmlStringBuilder printAttributes(
+            IQChildElementXmlStringBuilder xml)
         {
             xml.attribute(PORT_ATTR_NAME, getPort());
             return xml;
         }
 
         @Override
-        protected IQChildElementXmlStringBuilder printContent(IQChildElementXmlStringBuilder xml)
+        protected IQChildElementXmlStringBuilder printContent(
+            IQChildElementXmlStringBuilder xml)
         {
             // No other content than the transport shared from ChannelCommon
             return xml;
         }
 
+        /**
+         * {@inheritDoc}
+         * <p>
+         * Appends straight to <tt>out</tt> unless a derived class may have
+         * overridden {@link #printAttributes(IQChildElementXmlStringBuilder)}.
+         */
+        @Override
+        protected void appendAttributes(Appendable out)
+            throws IOException
+        {
+            if (getClass() == SctpConnection.class)
+            {
+                XmlAppender.appendAttribute(out, PORT_ATTR_NAME, getPort());
+            }
+            else
+            {
+                super.appendAttributes(out);
+            }
+        }
+
         /**
          * Sets the SCTP port of the <tt>SctpConnection</tt> represented by this
          * instance.
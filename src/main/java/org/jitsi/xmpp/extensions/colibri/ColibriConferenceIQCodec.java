@@ -0,0 +1,573 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions.colibri;
+
+import java.io.*;
+import java.util.*;
+
+import org.jitsi.xmpp.extensions.*;
+import org.jitsi.xmpp.extensions.jingle.*;
+import org.jivesoftware.smack.packet.*;
+import org.jxmpp.jid.impl.*;
+
+/**
+ * Writes {@link ColibriConferenceIQ}s for {@link ExtensionCodec}: the
+ * attributes of the <tt>conference</tt> element, of its contents, channels,
+ * SCTP connections, channel bundles and endpoints, which are not
+ * <tt>AbstractPacketExtension</tt>s that the codec can recreate, followed by
+ * their payload types, sources, transports and other extensions as trees of
+ * extensions. The IQ and its contents are written with their monitors held,
+ * like {@link ColibriConferenceIQ#appendChildElementXML(Appendable)} does.
+ */
+class ColibriConferenceIQCodec
+    implements ExtensionCodec.IQCodec<ColibriConferenceIQ>
+{
+    /**
+     * The kind of a {@link ColibriConferenceIQ.Channel}.
+     */
+    private static final int CHANNEL = 0;
+
+    /**
+     * The kind of a {@link ColibriConferenceIQ.OctoChannel}.
+     */
+    private static final int OCTO_CHANNEL = 1;
+
+    /**
+     * Writes IQs of the exact type <tt>ColibriConferenceIQ</tt> with
+     * contents, channels, SCTP connections, channel bundles and endpoints of
+     * the exact types which it declares, whose state this codec knows all of.
+     * <p>
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean canEncode(ColibriConferenceIQ iq)
+    {
+        if (iq.getClass() != ColibriConferenceIQ.class)
+        {
+            return false;
+        }
+        for (ColibriConferenceIQ.ChannelBundle channelBundle
+                : iq.getChannelBundles())
+        {
+            if (channelBundle.getClass()
+                    != ColibriConferenceIQ.ChannelBundle.class)
+            {
+                return false;
+            }
+        }
+        for (ColibriConferenceIQ.Endpoint endpoint : iq.getEndpoints())
+        {
+            if (endpoint.getClass() != ColibriConferenceIQ.Endpoint.class)
+            {
+                return false;
+            }
+        }
+        for (ColibriConferenceIQ.Content content : iq.getContents())
+        {
+            if (content.getClass() != ColibriConferenceIQ.Content.class)
+            {
+                return false;
+            }
+            for (ColibriConferenceIQ.Channel channel : content.getChannels())
+            {
+                Class<?> type = channel.getClass();
+
+                if (type != ColibriConferenceIQ.Channel.class
+                        && type != ColibriConferenceIQ.OctoChannel.class)
+                {
+                    return false;
+                }
+            }
+            for (ColibriConferenceIQ.SctpConnection conn
+                    : content.getSctpConnections())
+            {
+                if (conn.getClass() != ColibriConferenceIQ.SctpConnection.class)
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void encode(ColibriConferenceIQ iq, ExtensionCodec.Encoder out)
+    {
+        synchronized (iq)
+        {
+            out.writeString(iq.getID());
+            out.writeString(iq.getGID());
+            out.writeString(
+                    iq.getName() == null ? null : iq.getName().toString());
+            out.writeString(iq.getMeetingId());
+            out.writeVarint(
+                    (iq.isRtcStatsEnabled() ? 1 : 0)
+                        | (iq.isGracefulShutdown() ? 2 : 0));
+
+            ColibriConferenceIQ.Recording recording = iq.getRecording();
+
+            out.writeVarint(recording == null ? 0 : 1);
+            if (recording != null)
+            {
+                out.writeString(
+                        recording.getState() == null
+                            ? null
+                            : recording.getState().toString());
+                out.writeString(recording.getToken());
+                out.writeString(recording.getDirectory());
+            }
+
+            ColibriConferenceIQ.RTCPTerminationStrategy strategy
+                = iq.getRTCPTerminationStrategy();
+
+            out.writeVarint(strategy == null ? 0 : 1);
+            if (strategy != null)
+            {
+                out.writeString(strategy.getName());
+            }
+
+            List<ColibriConferenceIQ.Content> contents = iq.getContents();
+
+            out.writeVarint(contents.size());
+            for (ColibriConferenceIQ.Content content : contents)
+            {
+                encodeContent(content, out);
+            }
+
+            List<ColibriConferenceIQ.ChannelBundle> channelBundles
+                = iq.getChannelBundles();
+
+            out.writeVarint(channelBundles.size());
+            for (ColibriConferenceIQ.ChannelBundle channelBundle
+                    : channelBundles)
+            {
+                out.writeString(channelBundle.getId());
+                writeOptElement(channelBundle.getTransport(), out);
+            }
+
+            List<ColibriConferenceIQ.Endpoint> endpoints = iq.getEndpoints();
+
+            out.writeVarint(endpoints.size());
+            for (ColibriConferenceIQ.Endpoint endpoint : endpoints)
+            {
+                out.writeString(endpoint.getId());
+                out.writeString(endpoint.getStatsId());
+                out.writeString(endpoint.getDisplayName());
+            }
+        }
+
+        List<ExtensionElement> extensions = iq.getExtensions();
+
+        out.writeVarint(extensions.size());
+        for (ExtensionElement extension : extensions)
+        {
+            out.writeElement(extension);
+        }
+    }
+
+    /**
+     * Writes a content with its channels and SCTP connections.
+     */
+    private static void encodeContent(
+            ColibriConferenceIQ.Content content,
+            ExtensionCodec.Encoder out)
+    {
+        synchronized (content)
+        {
+            out.writeString(content.getName());
+
+            List<ColibriConferenceIQ.Channel> channels = content.getChannels();
+
+            out.writeVarint(channels.size());
+            for (ColibriConferenceIQ.Channel channel : channels)
+            {
+                encodeChannel(channel, out);
+            }
+
+            List<ColibriConferenceIQ.SctpConnection> conns
+                = content.getSctpConnections();
+
+            out.writeVarint(conns.size());
+            for (ColibriConferenceIQ.SctpConnection conn : conns)
+            {
+                encodeChannelCommon(conn, out);
+                out.writeLong(conn.getPort());
+            }
+        }
+    }
+
+    /**
+     * Writes a channel or an Octo channel.
+     */
+    private static void encodeChannel(
+            ColibriConferenceIQ.Channel channel,
+            ExtensionCodec.Encoder out)
+    {
+        synchronized (channel)
+        {
+            boolean octo = channel instanceof ColibriConferenceIQ.OctoChannel;
+
+            out.writeVarint(octo ? OCTO_CHANNEL : CHANNEL);
+            encodeChannelCommon(channel, out);
+            out.writeString(channel.getDirection());
+            out.writeString(channel.getHost());
+            writeOptInteger(channel.getLastN(), out);
+            writeOptInteger(channel.getPacketDelay(), out);
+            out.writeString(
+                    channel.getSimulcastMode() == null
+                        ? null
+                        : channel.getSimulcastMode().getText());
+            writeOptInteger(channel.getReceivingSimulcastLayer(), out);
+            out.writeLong(channel.getRTCPPort());
+            out.writeString(
+                    channel.getRTPLevelRelayType() == null
+                        ? null
+                        : channel.getRTPLevelRelayType().toString());
+            out.writeLong(channel.getRTPPort());
+
+            writeElements(channel.getPayloadTypes(), out);
+            writeElements(channel.getRtpHeaderExtensions(), out);
+            writeElements(channel.getSources(), out);
+
+            List<SourceGroupPacketExtension> sourceGroups
+                = channel.getSourceGroups();
+
+            writeElements(
+                    sourceGroups == null
+                        ? Collections.emptyList()
+                        : sourceGroups,
+                    out);
+
+            int[] ssrcs = channel.getSSRCs();
+
+            out.writeVarint(ssrcs.length);
+            for (int ssrc : ssrcs)
+            {
+                out.writeVarint(ssrc & 0xFFFFFFFFL);
+            }
+
+            if (octo)
+            {
+                List<String> relays
+                    = ((ColibriConferenceIQ.OctoChannel) channel).getRelays();
+
+                out.writeVarint(relays.size());
+                for (String relay : relays)
+                {
+                    out.writeString(relay);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the state which channels and SCTP connections have in common.
+     */
+    private static void encodeChannelCommon(
+            ColibriConferenceIQ.ChannelCommon channel,
+            ExtensionCodec.Encoder out)
+    {
+        Boolean initiator = channel.isInitiator();
+
+        out.writeString(channel.getID());
+        out.writeString(channel.getEndpoint());
+        out.writeString(channel.getType());
+        out.writeLong(channel.getExpire());
+        out.writeVarint(
+                initiator == null ? 0 : initiator.booleanValue() ? 2 : 1);
+        out.writeString(channel.getChannelBundleId());
+        writeOptElement(channel.getTransport(), out);
+    }
+
+    /**
+     * Writes an optional <tt>Integer</tt> as a flag and its value.
+     */
+    private static void writeOptInteger(
+            Integer value,
+            ExtensionCodec.Encoder out)
+    {
+        out.writeVarint(value == null ? 0 : 1);
+        if (value != null)
+        {
+            out.writeLong(value);
+        }
+    }
+
+    /**
+     * Writes an optional extension as a flag and the extension.
+     */
+    private static void writeOptElement(
+            ExtensionElement element,
+            ExtensionCodec.Encoder out)
+    {
+        out.writeVarint(element == null ? 0 : 1);
+        if (element != null)
+        {
+            out.writeElement(element);
+        }
+    }
+
+    /**
+     * Writes a collection of extensions as their count and the extensions.
+     */
+    private static void writeElements(
+            Collection<? extends ExtensionElement> elements,
+            ExtensionCodec.Encoder out)
+    {
+        out.writeVarint(elements.size());
+        for (ExtensionElement element : elements)
+        {
+            out.writeElement(element);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ColibriConferenceIQ decode(ExtensionCodec.Decoder in)
+        throws IOException
+    {
+        ColibriConferenceIQ iq = new ColibriConferenceIQ();
+
+        iq.setID(in.readString());
+        iq.setGID(in.readString());
+
+        String name = in.readString();
+
+        if (name != null)
+        {
+            iq.setName(JidCreate.entityBareFrom(name));
+        }
+        iq.setMeetingId(in.readString());
+
+        long flags = in.readVarint();
+
+        iq.setRtcStatsEnabled((flags & 1) != 0);
+        iq.setGracefulShutdown((flags & 2) != 0);
+
+        if (in.readVarint() != 0)
+        {
+            String state = in.readString();
+            ColibriConferenceIQ.Recording recording
+                = new ColibriConferenceIQ.Recording(
+                        state == null
+                            ? null
+                            : ColibriConferenceIQ.Recording.State
+                                .parseString(state),
+                        in.readString());
+
+            recording.setDirectory(in.readString());
+            iq.setRecording(recording);
+        }
+        if (in.readVarint() != 0)
+        {
+            ColibriConferenceIQ.RTCPTerminationStrategy strategy
+                = new ColibriConferenceIQ.RTCPTerminationStrategy();
+
+            strategy.setName(in.readString());
+            iq.setRTCPTerminationStrategy(strategy);
+        }
+
+        for (long count = in.readVarint(); count > 0; count--)
+        {
+            iq.addContent(decodeContent(in));
+        }
+
+        for (long count = in.readVarint(); count > 0; count--)
+        {
+            ColibriConferenceIQ.ChannelBundle channelBundle
+                = new ColibriConferenceIQ.ChannelBundle(in.readString());
+
+            channelBundle.setTransport(
+                    (IceUdpTransportPacketExtension) readOptElement(in));
+            iq.addChannelBundle(channelBundle);
+        }
+
+        for (long count = in.readVarint(); count > 0; count--)
+        {
+            iq.addEndpoint(
+                    new ColibriConferenceIQ.Endpoint(
+                            in.readString(),
+                            in.readString(),
+                            in.readString()));
+        }
+
+        for (long count = in.readVarint(); count > 0; count--)
+        {
+            iq.addExtension(in.readElement());
+        }
+        return iq;
+    }
+
+    /**
+     * Reads a content with its channels and SCTP connections.
+     */
+    private static ColibriConferenceIQ.Content decodeContent(
+            ExtensionCodec.Decoder in)
+        throws IOException
+    {
+        ColibriConferenceIQ.Content content
+            = new ColibriConferenceIQ.Content(in.readString());
+
+        for (long count = in.readVarint(); count > 0; count--)
+        {
+            content.addChannel(decodeChannel(in));
+        }
+        for (long count = in.readVarint(); count > 0; count--)
+        {
+            ColibriConferenceIQ.SctpConnection conn
+                = new ColibriConferenceIQ.SctpConnection();
+
+            decodeChannelCommon(conn, in);
+            conn.setPort((int) in.readLong());
+            content.addSctpConnection(conn);
+        }
+        return content;
+    }
+
+    /**
+     * Reads a channel or an Octo channel.
+     */
+    private static ColibriConferenceIQ.Channel decodeChannel(
+            ExtensionCodec.Decoder in)
+        throws IOException
+    {
+        ColibriConferenceIQ.Channel channel;
+
+        switch ((int) in.readVarint())
+        {
+        case CHANNEL:
+            channel = new ColibriConferenceIQ.Channel();
+            break;
+        case OCTO_CHANNEL:
+            channel = new ColibriConferenceIQ.OctoChannel();
+            break;
+        default:
+            throw new IOException("Invalid channel encoding");
+        }
+
+        decodeChannelCommon(channel, in);
+        channel.setDirection(in.readString());
+        channel.setHost(in.readString());
+        channel.setLastN(readOptInteger(in));
+        channel.setPacketDelay(readOptInteger(in));
+
+        String simulcastMode = in.readString();
+
+        if (simulcastMode != null)
+        {
+            channel.setSimulcastMode(SimulcastMode.fromString(simulcastMode));
+        }
+        channel.setReceivingSimulcastLayer(readOptInteger(in));
+        channel.setRTCPPort((int) in.readLong());
+
+        String rtpLevelRelayType = in.readString();
+
+        if (rtpLevelRelayType != null)
+        {
+            channel.setRTPLevelRelayType(rtpLevelRelayType);
+        }
+        channel.setRTPPort((int) in.readLong());
+
+        for (long count = in.readVarint(); count > 0; count--)
+        {
+            channel.addPayloadType(
+                    (PayloadTypePacketExtension) in.readElement());
+        }
+        for (long count = in.readVarint(); count > 0; count--)
+        {
+            channel.addRtpHeaderExtension(
+                    (RTPHdrExtPacketExtension) in.readElement());
+        }
+        for (long count = in.readVarint(); count > 0; count--)
+        {
+            channel.addSource((SourcePacketExtension) in.readElement());
+        }
+        for (long count = in.readVarint(); count > 0; count--)
+        {
+            channel.addSourceGroup(
+                    (SourceGroupPacketExtension) in.readElement());
+        }
+        for (long count = in.readVarint(); count > 0; count--)
+        {
+            channel.addSSRC((int) in.readVarint());
+        }
+
+        if (channel instanceof ColibriConferenceIQ.OctoChannel)
+        {
+            ColibriConferenceIQ.OctoChannel octoChannel
+                = (ColibriConferenceIQ.OctoChannel) channel;
+
+            for (long count = in.readVarint(); count > 0; count--)
+            {
+                octoChannel.addRelay(in.readString());
+            }
+        }
+        return channel;
+    }
+
+    /**
+     * Reads the state which channels and SCTP connections have in common.
+     */
+    private static void decodeChannelCommon(
+            ColibriConferenceIQ.ChannelCommon channel,
+            ExtensionCodec.Decoder in)
+        throws IOException
+    {
+        channel.setID(in.readString());
+        channel.setEndpoint(in.readString());
+
+        String type = in.readString();
+
+        if (type != null)
+        {
+            channel.setType(type);
+        }
+        channel.setExpire((int) in.readLong());
+
+        long initiator = in.readVarint();
+
+        if (initiator != 0)
+        {
+            channel.setInitiator(initiator == 2);
+        }
+        channel.setChannelBundleId(in.readString());
+        channel.setTransport(
+                (IceUdpTransportPacketExtension) readOptElement(in));
+    }
+
+    /**
+     * Reads an optional <tt>Integer</tt> written as a flag and its value.
+     */
+    private static Integer readOptInteger(ExtensionCodec.Decoder in)
+        throws IOException
+    {
+        return in.readVarint() == 0 ? null : (int) in.readLong();
+    }
+
+    /**
+     * Reads an optional extension written as a flag and the extension.
+     */
+    private static ExtensionElement readOptElement(ExtensionCodec.Decoder in)
+        throws IOException
+    {
+        return in.readVarint() == 0 ? null : in.readElement();
+    }
+}
@@ -46,102 +46,132 @@ public class ColibriIQProvider
      */
     private final static Logger logger = new LoggerImpl(ColibriIQProvider.class.getName());
 
+    /**
+     * The providers of the extensions which this provider has parsed.
+     */
+    private final ExtensionProviderCache childProviders
+        = new ExtensionProviderCache();
+
+    static
+    {
+        // Make the trees we parse share the strings of the known tokens.
+        TokenTable.seed(
+                ColibriConferenceIQ.class,
+                ColibriStatsExtension.class,
+                RTPLevelRelayType.class,
+                SimulcastMode.class,
+                SourcePacketExtension.class,
+                WebSocketPacketExtension.class,
+                SourceGroupPacketExtension.class,
+                SourceRidGroupPacketExtension.class,
+                PayloadTypePacketExtension.class,
+                ParameterPacketExtension.class,
+                RtcpFbPacketExtension.class,
+                RTPHdrExtPacketExtension.class,
+                IceUdpTransportPacketExtension.class,
+                CandidatePacketExtension.class,
+                CandidateType.class,
+                DtlsFingerprintPacketExtension.class,
+                SSRCInfoPacketExtension.class);
+    }
+
     /** Initializes a new <tt>ColibriIQProvider</tt> instance. */
     public ColibriIQProvider()
     {
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 PayloadTypePacketExtension.ELEMENT,
                 ColibriConferenceIQ.NAMESPACE,
-                new DefaultPacketExtensionProvider<>(
-                        PayloadTypePacketExtension.class));
-        ProviderManager.addExtensionProvider(
+                new PayloadTypePacketExtensionProvider());
+        ExtensionProviderCache.addExtensionProvider(
                 RtcpFbPacketExtension.ELEMENT,
                 RtcpFbPacketExtension.NAMESPACE,
-                new DefaultPacketExtensionProvider<>(
-                        RtcpFbPacketExtension.class));
-        ProviderManager.addExtensionProvider(
+                new RtcpFbPacketExtensionProvider());
+        ExtensionProviderCache.addExtensionProvider(
                 RTPHdrExtPacketExtension.ELEMENT,
                 ColibriConferenceIQ.NAMESPACE,
                 new DefaultPacketExtensionProvider<>(
-                        RTPHdrExtPacketExtension.class));
-        ProviderManager.addExtensionProvider(
+                        RTPHdrExtPacketExtension::new));
+        ExtensionProviderCache.addExtensionProvider(
                 SourcePacketExtension.ELEMENT,
                 SourcePacketExtension.NAMESPACE,
-                new DefaultPacketExtensionProvider<>(
-                        SourcePacketExtension.class));
-        ProviderManager.addExtensionProvider(
+                new SourcePacketExtensionProvider());
+        ExtensionProviderCache.addExtensionProvider(
                 SourceGroupPacketExtension.ELEMENT,
                 SourceGroupPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider<>(
-                        SourceGroupPacketExtension.class));
-        ProviderManager.addExtensionProvider(
+                        SourceGroupPacketExtension::new));
+        ExtensionProviderCache.addExtensionProvider(
                 SourceRidGroupPacketExtension.ELEMENT,
                 SourceRidGroupPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider<>(
-                        SourceRidGroupPacketExtension.class));
+                        SourceRidGroupPacketExtension::new));
 
         ExtensionElementProvider parameterProvider
-                = new DefaultPacketExtensionProvider<>(
-                ParameterPacketExtension.class);
+                = new ParameterPacketExtensionProvider();
 
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 ParameterPacketExtension.ELEMENT,
                 ColibriConferenceIQ.NAMESPACE,
                 parameterProvider);
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 ParameterPacketExtension.ELEMENT,
                 SourcePacketExtension.NAMESPACE,
                 parameterProvider);
         // Shutdown IQ
-        ProviderManager.addIQProvider(
+        ExtensionProviderCache.addIQProvider(
                 ShutdownIQ.GRACEFUL_ELEMENT_NAME,
                 ShutdownIQ.NAMESPACE,
                 this);
-        ProviderManager.addIQProvider(
+        ExtensionProviderCache.addIQProvider(
                 ShutdownIQ.FORCE_ELEMENT_NAME,
                 ShutdownIQ.NAMESPACE,
                 this);
         // Shutdown extension
         ExtensionElementProvider shutdownProvider
-                = new DefaultPacketExtensionProvider<>(
-                    ColibriConferenceIQ.GracefulShutdown.class);
+                = new DefaultPacketExtensionProvider<ColibriConferenceIQ.GracefulShutdown>(
+                    ColibriConferenceIQ.GracefulShutdown::new);
 
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 ColibriConferenceIQ.GracefulShutdown.ELEMENT,
                 ColibriConferenceIQ.GracefulShutdown.NAMESPACE,
                 shutdownProvider);
 
         // ColibriStatsIQ
-        ProviderManager.addIQProvider(
+        ExtensionProviderCache.addIQProvider(
                 ColibriStatsIQ.ELEMENT,
                 ColibriStatsIQ.NAMESPACE,
                 this);
 
         // ColibriStatsExtension
         ExtensionElementProvider statsProvider
-                = new DefaultPacketExtensionProvider<>(
-                ColibriStatsExtension.class);
+                = new DefaultPacketExtensionProvider<ColibriStatsExtension>(
+                ColibriStatsExtension::new);
 
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 ColibriStatsExtension.ELEMENT,
                 ColibriStatsExtension.NAMESPACE,
                 statsProvider);
         // ColibriStatsExtension.Stat
         ExtensionElementProvider statProvider
-                = new DefaultPacketExtensionProvider<>(
-                    ColibriStatsExtension.Stat.class);
+                = new DefaultPacketExtensionProvider<ColibriStatsExtension.Stat>(
+                    ColibriStatsExtension.Stat::new);
 
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 ColibriStatsExtension.Stat.ELEMENT,
                 ColibriStatsExtension.NAMESPACE,
                 statProvider);
 
         // ssrc-info
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
             SSRCInfoPacketExtension.ELEMENT,
             SSRCInfoPacketExtension.NAMESPACE,
             new DefaultPacketExtensionProvider<>(
-                SSRCInfoPacketExtension.class));
+                SSRCInfoPacketExtension::new));
+
+        ExtensionCodec.addIQCodec(
+                ColibriConferenceIQ.ELEMENT,
+                ColibriConferenceIQ.NAMESPACE,
+                new ColibriConferenceIQCodec());
     }
 
     private void addChildExtension(
@@ -232,9 +262,7 @@ public class ColibriIQProvider
         throws XmlPullParserException, IOException, SmackParsingException
     {
         ExtensionElementProvider extensionProvider
-            = ProviderManager.getExtensionProvider(
-                        name,
-                        namespace);
+            = childProviders.getExtensionProvider(name, namespace);
         ExtensionElement extension;
 
         if (extensionProvider == null)
@@ -440,7 +468,7 @@ public class ColibriIQProvider
 
                         if ((direction != null) && (direction.length() != 0))
                         {
-                            channel.setDirection(direction);
+                            channel.setDirection(TokenTable.dedup(direction));
                         }
 
                         // endpoint
@@ -452,7 +480,7 @@ public class ColibriIQProvider
 
                         if (isNotEmpty(endpoint))
                         {
-                            channel.setEndpoint(endpoint);
+                            channel.setEndpoint(TokenTable.dedup(endpoint));
                         }
 
                         String channelBundleId
@@ -462,7 +490,8 @@ public class ColibriIQProvider
                                         .CHANNEL_BUNDLE_ID_ATTR_NAME);
                         if (isNotEmpty(channelBundleId))
                         {
-                            channel.setChannelBundleId(channelBundleId);
+                            channel.setChannelBundleId(
+                                    TokenTable.dedup(channelBundleId));
                         }
 
                         // expire
@@ -653,7 +682,7 @@ public class ColibriIQProvider
 
                         if ((contentName != null)
                                 && (contentName.length() != 0))
-                            content.setName(contentName);
+                            content.setName(TokenTable.dedup(contentName));
                     }
                     else if (ColibriConferenceIQ.Recording.ELEMENT.equals(
                             name))
@@ -703,7 +732,8 @@ public class ColibriIQProvider
 
                         if (isNotEmpty(endpoint))
                         {
-                            sctpConnection.setEndpoint(endpoint);
+                            sctpConnection.setEndpoint(
+                                    TokenTable.dedup(endpoint));
                         }
 
                         // port
@@ -721,7 +751,8 @@ public class ColibriIQProvider
                                         .CHANNEL_BUNDLE_ID_ATTR_NAME);
                         if (isNotEmpty(channelBundleId))
                         {
-                            sctpConnection.setChannelBundleId(channelBundleId);
+                            sctpConnection.setChannelBundleId(
+                                    TokenTable.dedup(channelBundleId));
                         }
 
                         // initiator
@@ -468,15 +468,7 @@ public class ColibriStatsExtension
     public static ColibriStatsExtension clone(
         ColibriStatsExtension source)
     {
-        ColibriStatsExtension destination
-            = AbstractPacketExtension.clone(source);
-
-        for (Stat stat : source.getChildExtensionsOfType(Stat.class))
-        {
-            destination.addStat(Stat.clone(stat));
-        }
-
-        return destination;
+        return deepClone(source);
     }
 
     /**
@@ -513,7 +505,7 @@ public class ColibriStatsExtension
      */
     public Stat getStat(String name)
     {
-        for (Stat stat : getChildExtensionsOfType(Stat.class))
+        for (Stat stat : getUnmodifiableChildExtensionsOfType(Stat.class))
         {
             if (stat.getName().equals(name))
             {
@@ -574,7 +566,19 @@ public class ColibriStatsExtension
     @Override
     public List<? extends ExtensionElement> getChildExtensions()
     {
-        return Collections.unmodifiableList(super.getChildExtensions());
+        return getUnmodifiableChildExtensions();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * {@link #getChildExtensions()} only hides the list of this class, unless
+     * a subclass lists other child extensions.
+     */
+    @Override
+    protected boolean tracksChildExtensions()
+    {
+        return getClass() == ColibriStatsExtension.class;
     }
 
     public static class Stat
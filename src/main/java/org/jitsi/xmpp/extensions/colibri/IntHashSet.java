@@ -0,0 +1,390 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions.colibri;
+
+import java.util.*;
+
+/**
+ * A growable, insertion-ordered set of primitive <tt>int</tt>s with amortized
+ * constant time {@link #add(int)}, {@link #remove(int)} and
+ * {@link #contains(int)}, used for the SSRCs of a
+ * {@link ColibriConferenceIQ.Channel}.
+ * <p>
+ * The values are kept in an array in the order in which they were added, so
+ * that they can be iterated by index without allocating. Like
+ * {@link org.jitsi.xmpp.extensions.AttributeMap}, small sets are searched
+ * with a linear scan, and a hash index (open addressing, of positions in the
+ * array) is only built for sets with more than {@link #MAX_SCANNED_SIZE}
+ * values. A removed value leaves a hole in the array, which is closed when
+ * the holes would make the array grow or before the values are read by
+ * index.
+ * <p>
+ * Like {@link HashSet}, this class is not thread-safe.
+ */
+final class IntHashSet
+{
+    /**
+     * The values of an empty set, shared until the first value is added.
+     */
+    private static final int[] NO_VALUES = new int[0];
+
+    /**
+     * The number of values which we make room for on the first insertion.
+     */
+    private static final int INITIAL_CAPACITY = 4;
+
+    /**
+     * The number of values up to which the set is searched with a linear
+     * scan rather than with a hash index.
+     */
+    private static final int MAX_SCANNED_SIZE = 8;
+
+    /**
+     * The values, in the order in which they were added, at positions up to
+     * {@link #end}. The positions which are set in {@link #holes} are
+     * removed values.
+     */
+    private int[] values = NO_VALUES;
+
+    /**
+     * The positions of {@link #values} whose values have been removed, or
+     * <tt>null</tt> if there are none.
+     */
+    private BitSet holes;
+
+    /**
+     * The number of positions of {@link #values} which are used (including
+     * the holes).
+     */
+    private int end;
+
+    /**
+     * The number of values in this set.
+     */
+    private int size;
+
+    /**
+     * The hash index of {@link #values}, or <tt>null</tt> if this set is small
+     * enough to be scanned. Each slot is <tt>0</tt> if it is empty, or else
+     * one plus the position of a value in {@link #values}.
+     */
+    private int[] index;
+
+    /**
+     * Adds a value to this set.
+     *
+     * @param value the value to add.
+     * @return <tt>true</tt> if this set did not contain <tt>value</tt>.
+     */
+    boolean add(int value)
+    {
+        if (indexOf(value) >= 0)
+        {
+            return false;
+        }
+        if (end == values.length)
+        {
+            if (holes != null && size <= end / 2)
+            {
+                compact();
+            }
+            else
+            {
+                values
+                    = Arrays.copyOf(
+                            values,
+                            Math.max(INITIAL_CAPACITY, end * 2));
+            }
+        }
+
+        int position = end++;
+
+        values[position] = value;
+        size++;
+        if (index != null)
+        {
+            if (end * 2 > index.length)
+            {
+                rebuildIndex();
+            }
+            else
+            {
+                insertIntoIndex(position);
+            }
+        }
+        else if (size > MAX_SCANNED_SIZE)
+        {
+            rebuildIndex();
+        }
+        return true;
+    }
+
+    /**
+     * Removes a value from this set.
+     *
+     * @param value the value to remove.
+     * @return <tt>true</tt> if this set contained <tt>value</tt>.
+     */
+    boolean remove(int value)
+    {
+        int position = indexOf(value);
+
+        if (position < 0)
+        {
+            return false;
+        }
+        if (--size == 0)
+        {
+            clear();
+            return true;
+        }
+        if (position == end - 1 && holes == null)
+        {
+            end--;
+        }
+        else
+        {
+            if (holes == null)
+            {
+                holes = new BitSet(end);
+            }
+            holes.set(position);
+        }
+        if (index != null)
+        {
+            removeFromIndex(value);
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether this set contains a value.
+     *
+     * @param value the value to look for.
+     * @return <tt>true</tt> if this set contains <tt>value</tt>.
+     */
+    boolean contains(int value)
+    {
+        return indexOf(value) >= 0;
+    }
+
+    /**
+     * Returns the number of values in this set.
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Checks whether this set has no values.
+     */
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Returns the value at a specific position in the order in which the
+     * values were added, so that they can be iterated without allocating.
+     *
+     * @param i the position, between <tt>0</tt> and {@link #size()}.
+     * @return the value at position <tt>i</tt>.
+     */
+    int get(int i)
+    {
+        if (i < 0 || i >= size)
+        {
+            throw new IndexOutOfBoundsException(Integer.toString(i));
+        }
+        if (holes != null)
+        {
+            compact();
+        }
+        return values[i];
+    }
+
+    /**
+     * Removes all the values of this set.
+     */
+    void clear()
+    {
+        values = NO_VALUES;
+        holes = null;
+        index = null;
+        end = 0;
+        size = 0;
+    }
+
+    /**
+     * Returns the values of this set in the order in which they were added.
+     *
+     * @return a new array with the values of this set.
+     */
+    int[] toArray()
+    {
+        if (holes != null)
+        {
+            compact();
+        }
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Returns the position of a value in {@link #values}, or <tt>-1</tt> if
+     * this set does not contain it.
+     */
+    private int indexOf(int value)
+    {
+        if (index == null)
+        {
+            for (int i = 0; i < end; i++)
+            {
+                if (values[i] == value && (holes == null || !holes.get(i)))
+                {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int mask = index.length - 1;
+
+        for (int slot = hash(value) & mask; ; slot = (slot + 1) & mask)
+        {
+            int entry = index[slot];
+
+            if (entry == 0)
+            {
+                return -1;
+            }
+            if (values[entry - 1] == value)
+            {
+                return entry - 1;
+            }
+        }
+    }
+
+    /**
+     * Moves the values of this set over the holes which removed values have
+     * left, keeping their order.
+     */
+    private void compact()
+    {
+        int j = 0;
+
+        for (int i = 0; i < end; i++)
+        {
+            if (!holes.get(i))
+            {
+                values[j++] = values[i];
+            }
+        }
+        end = j;
+        holes = null;
+        if (index != null)
+        {
+            rebuildIndex();
+        }
+    }
+
+    /**
+     * Builds {@link #index} anew for the values of this set, with room for
+     * as many values again.
+     */
+    private void rebuildIndex()
+    {
+        if (size <= MAX_SCANNED_SIZE / 2)
+        {
+            index = null;
+            return;
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(end, size * 2) * 4 - 1);
+
+        index = new int[Math.max(16, capacity)];
+        for (int i = 0; i < end; i++)
+        {
+            if (holes == null || !holes.get(i))
+            {
+                insertIntoIndex(i);
+            }
+        }
+    }
+
+    /**
+     * Inserts the value at a specific position of {@link #values} into
+     * {@link #index}.
+     */
+    private void insertIntoIndex(int position)
+    {
+        int mask = index.length - 1;
+        int slot = hash(values[position]) & mask;
+
+        while (index[slot] != 0)
+        {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = position + 1;
+    }
+
+    /**
+     * Removes a value from {@link #index}, moving back the entries which
+     * follow it so that no lookup stops early at the emptied slot.
+     */
+    private void removeFromIndex(int value)
+    {
+        int mask = index.length - 1;
+        int slot = hash(value) & mask;
+
+        while (values[index[slot] - 1] != value)
+        {
+            slot = (slot + 1) & mask;
+        }
+        for (int next = (slot + 1) & mask; ; next = (next + 1) & mask)
+        {
+            int entry = index[next];
+
+            if (entry == 0)
+            {
+                break;
+            }
+
+            int home = hash(values[entry - 1]) & mask;
+
+            // Move the entry at next to slot unless its home lies cyclically
+            // within (slot, next].
+            if (slot <= next
+                    ? (home <= slot || home > next)
+                    : (home <= slot && home > next))
+            {
+                index[slot] = entry;
+                slot = next;
+            }
+        }
+        index[slot] = 0;
+    }
+
+    /**
+     * Spreads the bits of a value for {@link #index}.
+     */
+    private static int hash(int value)
+    {
+        int h = value * 0x9E3779B9;
+
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions.colibri;
+
+/**
+ * A hash map from primitive <tt>long</tt> keys to non-<tt>null</tt> values,
+ * with open addressing (linear probing), so that neither the keys nor the
+ * entries are boxed. Used to index the sources of a
+ * {@link ColibriConferenceIQ.Channel} by SSRC.
+ * <p>
+ * Like {@link java.util.HashMap}, this class is not thread-safe.
+ *
+ * @param <V> the type of the values.
+ */
+final class LongObjectHashMap<V>
+{
+    /**
+     * The number of slots which we make room for on the first insertion.
+     */
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * The keys, at the slots whose {@link #values} are not <tt>null</tt>.
+     */
+    private long[] keys;
+
+    /**
+     * The values, <tt>null</tt> at the empty slots.
+     */
+    private Object[] values;
+
+    /**
+     * The number of entries.
+     */
+    private int size;
+
+    /**
+     * Returns the value of a specific key.
+     *
+     * @param key the key.
+     * @return the value of <tt>key</tt>, or <tt>null</tt> if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    V get(long key)
+    {
+        int slot = slotOf(key);
+
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    /**
+     * Sets the value of a specific key.
+     *
+     * @param key the key.
+     * @param value the value, not <tt>null</tt>.
+     * @return the previous value of <tt>key</tt>, or <tt>null</tt> if there
+     * was none.
+     */
+    @SuppressWarnings("unchecked")
+    V put(long key, V value)
+    {
+        if (value == null)
+        {
+            throw new NullPointerException("value");
+        }
+        if (values == null)
+        {
+            keys = new long[INITIAL_CAPACITY];
+            values = new Object[INITIAL_CAPACITY];
+        }
+        else if ((size + 1) * 2 > values.length)
+        {
+            resize(values.length * 2);
+        }
+
+        int mask = values.length - 1;
+        int slot = hash(key) & mask;
+
+        while (values[slot] != null)
+        {
+            if (keys[slot] == key)
+            {
+                V previous = (V) values[slot];
+
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        return null;
+    }
+
+    /**
+     * Removes the entry of a specific key.
+     *
+     * @param key the key.
+     * @return the value of <tt>key</tt>, or <tt>null</tt> if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    V remove(long key)
+    {
+        int slot = slotOf(key);
+
+        if (slot < 0)
+        {
+            return null;
+        }
+
+        V previous = (V) values[slot];
+        int mask = values.length - 1;
+
+        // Move back the entries which follow, so that no lookup stops early at
+        // the emptied slot.
+        for (int next = (slot + 1) & mask; ; next = (next + 1) & mask)
+        {
+            if (values[next] == null)
+            {
+                break;
+            }
+
+            int home = hash(keys[next]) & mask;
+
+            if (slot <= next
+                    ? (home <= slot || home > next)
+                    : (home <= slot && home > next))
+            {
+                keys[slot] = keys[next];
+                values[slot] = values[next];
+                slot = next;
+            }
+        }
+        values[slot] = null;
+        size--;
+        return previous;
+    }
+
+    /**
+     * Returns the number of entries.
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Removes all the entries.
+     */
+    void clear()
+    {
+        keys = null;
+        values = null;
+        size = 0;
+    }
+
+    /**
+     * Returns the slot of a specific key, or <tt>-1</tt> if there is none.
+     */
+    private int slotOf(long key)
+    {
+        if (size == 0)
+        {
+            return -1;
+        }
+
+        int mask = values.length - 1;
+
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask)
+        {
+            if (values[slot] == null)
+            {
+                return -1;
+            }
+            if (keys[slot] == key)
+            {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Moves the entries into tables with a specific number of slots.
+     */
+    private void resize(int capacity)
+    {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        int mask = capacity - 1;
+
+        keys = new long[capacity];
+        values = new Object[capacity];
+        for (int i = 0; i < oldValues.length; i++)
+        {
+            if (oldValues[i] != null)
+            {
+                int slot = hash(oldKeys[i]) & mask;
+
+                while (values[slot] != null)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Spreads the bits of a key.
+     */
+    private static int hash(long key)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -15,13 +15,12 @@
  */
 package org.jitsi.xmpp.extensions.colibri;
 
+import java.io.*;
 import java.util.*;
 
-import org.jitsi.utils.logging2.*;
 import org.jitsi.xmpp.extensions.*;
 import org.jitsi.xmpp.extensions.jingle.*;
-
-import org.jivesoftware.smack.packet.*;
+import org.jitsi.xmpp.extensions.schema.*;
 
 /**
  * Implements <tt>AbstractPacketExtension</tt> for the <tt>source</tt> element
@@ -31,11 +30,20 @@ import org.jivesoftware.smack.packet.*;
  * @author Lyubomir Marinov
  * @author Pawel Domas
  */
+@XmlExtension(
+    element = SourcePacketExtension.ELEMENT,
+    namespace = SourcePacketExtension.NAMESPACE,
+    attributes = {
+        @XmlAttribute(
+            name = SourcePacketExtension.SSRC_ATTR_NAME,
+            type = long.class),
+        @XmlAttribute(name = SourcePacketExtension.RID_ATTR_NAME),
+        @XmlAttribute(name = SourcePacketExtension.NAME_ATTR_NAME)
+    },
+    children = ParameterPacketExtension.class)
 public class SourcePacketExtension
     extends AbstractPacketExtension
 {
-    private final static Logger logger = new LoggerImpl(SourcePacketExtension.class.getName());
-
     /**
      * The XML name of the <tt>setup</tt> element defined by Source-Specific
      * Media Attributes in Jingle.
@@ -108,7 +116,9 @@ public class SourcePacketExtension
      */
     public String getParameter(String name)
     {
-        for (ParameterPacketExtension param : getParameters())
+        for (ParameterPacketExtension param
+                : getUnmodifiableChildExtensionsOfType(
+                        ParameterPacketExtension.class))
         {
             if (name.equals(param.getName()))
                 return param.getValue();
@@ -159,9 +169,7 @@ public class SourcePacketExtension
      */
     public long getSSRC()
     {
-        String s = getAttributeAsString(SSRC_ATTR_NAME);
-
-        return (s == null) ? -1 : Long.parseLong(s);
+        return getAttributeAsLong(SSRC_ATTR_NAME, -1);
     }
 
     /**
@@ -177,7 +185,7 @@ public class SourcePacketExtension
         }
         else
         {
-            setAttribute(SSRC_ATTR_NAME, Long.toString(0xffffffffL & ssrc));
+            setAttribute(SSRC_ATTR_NAME, 0xffffffffL & ssrc);
         }
     }
 
@@ -188,7 +196,7 @@ public class SourcePacketExtension
      */
     public boolean hasSSRC()
     {
-        return getAttributeAsString(SSRC_ATTR_NAME) != null;
+        return hasAttribute(SSRC_ATTR_NAME);
     }
 
     /**
@@ -256,24 +264,35 @@ public class SourcePacketExtension
      */
     public SourcePacketExtension copy()
     {
-        SourcePacketExtension copy = AbstractPacketExtension.clone(this);
+        return deepClone(this);
+    }
 
-        for (ExtensionElement ppe : getChildExtensions())
-        {
-            if (ppe instanceof AbstractPacketExtension)
-            {
-                copy.addChildExtension(
-                    AbstractPacketExtension.clone(
-                        (AbstractPacketExtension) ppe));
-            }
-            else
-            {
-                logger.error("Failed to clone " + ppe);
-            }
-        }
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void copyStateTo(AbstractPacketExtension copy)
+    {
+        ((SourcePacketExtension) copy).setInjected(injected);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void encodeState(ExtensionCodec.Encoder out)
+    {
+        out.writeVarint(injected ? 1 : 0);
+    }
 
-        copy.setInjected(injected);
-        return copy;
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void decodeState(ExtensionCodec.Decoder in)
+        throws IOException
+    {
+        setInjected(in.readVarint() != 0);
     }
 
     public String toString()
@@ -305,4 +324,17 @@ public class SourcePacketExtension
     {
         this.injected = injected;
     }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A source is identified by its SSRC or, if it has none, its RID.
+     */
+    @Override
+    protected Object getIdentityKey()
+    {
+        String ssrc = getAttributeAsString(SSRC_ATTR_NAME);
+
+        return ssrc != null ? ssrc : getRid();
+    }
 }
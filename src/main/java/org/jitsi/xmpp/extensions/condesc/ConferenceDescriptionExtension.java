@@ -243,7 +243,7 @@ public class ConferenceDescriptionExtension
     {
         Set<String> transports = new HashSet<>();
         for (TransportExtension t
-            : getChildExtensionsOfType(TransportExtension.class))
+            : getUnmodifiableChildExtensionsOfType(TransportExtension.class))
         {
             transports.add(t.getNamespace());
         }
@@ -15,6 +15,7 @@
  */
 package org.jitsi.xmpp.extensions.health;
 
+import org.jitsi.xmpp.extensions.*;
 import org.jivesoftware.smack.packet.*;
 import org.jivesoftware.smack.parsing.*;
 import org.jivesoftware.smack.provider.*;
@@ -38,7 +39,7 @@ public class HealthCheckIQProvider
     public static void registerIQProvider()
     {
         // ColibriStatsIQ
-        ProviderManager.addIQProvider(
+        ExtensionProviderCache.addIQProvider(
             HealthCheckIQ.ELEMENT,
             HealthCheckIQ.NAMESPACE,
             new HealthCheckIQProvider());
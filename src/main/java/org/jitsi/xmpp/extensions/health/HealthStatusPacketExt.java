@@ -18,7 +18,7 @@ package org.jitsi.xmpp.extensions.health;
 import org.jitsi.xmpp.extensions.AbstractPacketExtension;
 import org.jitsi.xmpp.extensions.DefaultPacketExtensionProvider;
 import org.apache.commons.lang3.StringUtils;
-import org.jivesoftware.smack.provider.ProviderManager;
+import org.jitsi.xmpp.extensions.ExtensionProviderCache;
 
 /**
  * A generic extension for a component to represent its current health.
@@ -50,7 +50,7 @@ public class HealthStatusPacketExt
 
     static public void registerExtensionProvider()
     {
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 ELEMENT,
                 NAMESPACE,
                 new DefaultPacketExtensionProvider<>(HealthStatusPacketExt.class)
@@ -18,7 +18,7 @@ package org.jitsi.xmpp.extensions.jibri;
 import org.jitsi.xmpp.extensions.AbstractPacketExtension;
 import org.jitsi.xmpp.extensions.DefaultPacketExtensionProvider;
 import org.apache.commons.lang3.StringUtils;
-import org.jivesoftware.smack.provider.ProviderManager;
+import org.jitsi.xmpp.extensions.ExtensionProviderCache;
 
 /**
  * Status extension included in MUC presence by Jibri to indicate it's status.
@@ -54,7 +54,7 @@ public class JibriBusyStatusPacketExt
 
     static public void registerExtensionProvider()
     {
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 ELEMENT,
                 NAMESPACE,
                 new DefaultPacketExtensionProvider<>(JibriBusyStatusPacketExt.class)
@@ -50,7 +50,7 @@ public class JibriStatusPacketExt
 
     static public void registerExtensionProvider()
     {
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 ELEMENT,
                 NAMESPACE,
                 new DefaultPacketExtensionProvider<>(JibriStatusPacketExt.class)
@@ -154,7 +154,7 @@ public class RecordingStatus
     private StanzaErrorPE getErrorPE()
     {
         List<? extends ExtensionElement> errorPe
-            = getChildExtensionsOfType(StanzaErrorPE.class);
+            = getUnmodifiableChildExtensionsOfType(StanzaErrorPE.class);
 
         return (StanzaErrorPE) (!errorPe.isEmpty() ? errorPe.get(0) : null);
     }
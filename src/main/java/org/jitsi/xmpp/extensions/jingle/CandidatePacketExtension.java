@@ -16,10 +16,42 @@
 package org.jitsi.xmpp.extensions.jingle;
 
 import org.jitsi.xmpp.extensions.*;
+import org.jitsi.xmpp.extensions.schema.*;
 
 /**
  * @author Emil Ivov
  */
+@XmlExtension(
+    element = CandidatePacketExtension.ELEMENT,
+    attributes = {
+        @XmlAttribute(
+            name = CandidatePacketExtension.COMPONENT_ATTR_NAME,
+            type = int.class),
+        @XmlAttribute(name = CandidatePacketExtension.FOUNDATION_ATTR_NAME),
+        @XmlAttribute(
+            name = CandidatePacketExtension.GENERATION_ATTR_NAME,
+            type = int.class),
+        @XmlAttribute(name = CandidatePacketExtension.ID_ATTR_NAME),
+        @XmlAttribute(name = CandidatePacketExtension.IP_ATTR_NAME),
+        @XmlAttribute(
+            name = CandidatePacketExtension.NETWORK_ATTR_NAME,
+            type = int.class),
+        @XmlAttribute(
+            name = CandidatePacketExtension.PORT_ATTR_NAME,
+            type = int.class),
+        @XmlAttribute(
+            name = CandidatePacketExtension.PRIORITY_ATTR_NAME,
+            type = int.class),
+        @XmlAttribute(name = CandidatePacketExtension.PROTOCOL_ATTR_NAME),
+        @XmlAttribute(name = CandidatePacketExtension.REL_ADDR_ATTR_NAME),
+        @XmlAttribute(
+            name = CandidatePacketExtension.REL_PORT_ATTR_NAME,
+            type = int.class),
+        @XmlAttribute(
+            name = CandidatePacketExtension.TYPE_ATTR_NAME,
+            type = CandidateType.class),
+        @XmlAttribute(name = CandidatePacketExtension.TCPTYPE_ATTR_NAME)
+    })
 public class CandidatePacketExtension extends AbstractPacketExtension
     implements Comparable<CandidatePacketExtension>
 {
@@ -384,7 +416,7 @@ public class CandidatePacketExtension extends AbstractPacketExtension
      */
     public CandidateType getType()
     {
-        return CandidateType.valueOf(getAttributeAsString(TYPE_ATTR_NAME));
+        return getAttributeAsEnum(TYPE_ATTR_NAME, CandidateType.class);
     }
 
     /**
@@ -441,4 +473,19 @@ public class CandidatePacketExtension extends AbstractPacketExtension
     {
         setAttribute(TCPTYPE_ATTR_NAME, tcpType);
     }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A candidate is identified by its foundation and component.
+     */
+    @Override
+    protected Object getIdentityKey()
+    {
+        String foundation = getAttributeAsString(FOUNDATION_ATTR_NAME);
+        String component = getAttributeAsString(COMPONENT_ATTR_NAME);
+
+        return foundation == null && component == null
+            ? null : foundation + "/" + component;
+    }
 }
@@ -285,4 +285,15 @@ public class ContentPacketExtension extends AbstractPacketExtension
             senders = SendersEnum.both;
         setAttribute(SENDERS_ATTR_NAME, senders.toString());
     }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A content is identified by its name.
+     */
+    @Override
+    protected Object getIdentityKey()
+    {
+        return getAttributeAsString(NAME_ATTR_NAME);
+    }
 }
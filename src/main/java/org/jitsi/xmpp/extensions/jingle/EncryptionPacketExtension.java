@@ -127,6 +127,18 @@ public class EncryptionPacketExtension
         return ret;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * {@link #getChildExtensions()} only copies the list of this class,
+     * unless a subclass lists other child extensions.
+     */
+    @Override
+    protected boolean tracksChildExtensions()
+    {
+        return getClass() == EncryptionPacketExtension.class;
+    }
+
     /**
      * Adds the specified <tt>childExtension</tt> to the list of extensions
      * registered with this packet.
@@ -145,17 +145,47 @@ public class IceUdpTransportPacketExtension
 
         childExtensions.addAll(superChildExtensions);
 
-        synchronized (candidateList)
+        if (isFrozen())
         {
-            if (candidateList.size() > 0)
-                childExtensions.addAll(candidateList);
-            else if (remoteCandidate != null)
-                childExtensions.add(remoteCandidate);
+            addCandidates(childExtensions);
+        }
+        else
+        {
+            synchronized (candidateList)
+            {
+                addCandidates(childExtensions);
+            }
         }
 
         return childExtensions;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The candidates report their changes, unless a subclass lists other
+     * child extensions.
+     */
+    @Override
+    protected boolean tracksChildExtensions()
+    {
+        return getClass() == IceUdpTransportPacketExtension.class;
+    }
+
+    /**
+     * Adds the (local or remote) candidates of this transport to a specific
+     * list of child extensions.
+     *
+     * @param childExtensions the list to add the candidates to.
+     */
+    private void addCandidates(List<ExtensionElement> childExtensions)
+    {
+        if (candidateList.size() > 0)
+            childExtensions.addAll(candidateList);
+        else if (remoteCandidate != null)
+            childExtensions.add(remoteCandidate);
+    }
+
     /**
      * Adds <tt>candidate</tt> to the list of {@link CandidatePacketExtension}s
      * registered with this transport.
@@ -167,7 +197,9 @@ public class IceUdpTransportPacketExtension
     {
         synchronized(candidateList)
         {
+            checkNotFrozen();
             candidateList.add(candidate);
+            childExtensionAdded(candidate);
         }
     }
 
@@ -184,7 +216,13 @@ public class IceUdpTransportPacketExtension
     {
         synchronized (candidateList)
         {
-            return candidateList.remove(candidate);
+            checkNotFrozen();
+            if (!candidateList.remove(candidate))
+            {
+                return false;
+            }
+            childExtensionRemoved(candidate);
+            return true;
         }
     }
 
@@ -197,6 +235,10 @@ public class IceUdpTransportPacketExtension
      */
     public List<CandidatePacketExtension> getCandidateList()
     {
+        if (isFrozen())
+        {
+            return Collections.unmodifiableList(candidateList);
+        }
         synchronized(candidateList)
         {
             return new ArrayList<>(candidateList);
@@ -211,7 +253,13 @@ public class IceUdpTransportPacketExtension
      */
     public void setRemoteCandidate(RemoteCandidatePacketExtension candidate)
     {
+        checkNotFrozen();
+
+        RemoteCandidatePacketExtension oldCandidate = this.remoteCandidate;
+
         this.remoteCandidate = candidate;
+        childExtensionRemoved(oldCandidate);
+        childExtensionAdded(candidate);
     }
 
     /**
@@ -245,6 +293,68 @@ public class IceUdpTransportPacketExtension
             super.addChildExtension(childExtension);
     }
 
+    /**
+     * Removes <tt>childExtension</tt> from the candidates, the in-use candidate
+     * or the other child extensions of this transport.
+     *
+     * @param childExtension the extension we'd like to remove.
+     * @return <tt>true</tt> if <tt>childExtension</tt> was removed.
+     */
+    @Override
+    public boolean removeChildExtension(ExtensionElement childExtension)
+    {
+        if (childExtension instanceof RemoteCandidatePacketExtension)
+        {
+            if (childExtension != remoteCandidate)
+                return false;
+            setRemoteCandidate(null);
+            return true;
+        }
+
+        else if (childExtension instanceof CandidatePacketExtension)
+            return removeCandidate((CandidatePacketExtension) childExtension);
+
+        else
+            return super.removeChildExtension(childExtension);
+    }
+
+    /**
+     * Removes <tt>childExtensions</tt> from the candidates, the in-use
+     * candidate and the other child extensions of this transport, in a single
+     * pass over the candidates.
+     *
+     * @param childExtensions the extensions we'd like to remove.
+     * @return <tt>true</tt> if any of <tt>childExtensions</tt> was removed.
+     */
+    @Override
+    public boolean removeChildExtensions(
+            Collection<? extends ExtensionElement> childExtensions)
+    {
+        if (childExtensions.isEmpty())
+            return false;
+
+        Set<ExtensionElement> remaining = newIdentitySet(childExtensions);
+        List<CandidatePacketExtension> removed = new ArrayList<>();
+
+        synchronized (candidateList)
+        {
+            checkNotFrozen();
+            candidateList.removeIf(
+                    candidate -> remaining.remove(candidate)
+                        && removed.add(candidate));
+            for (CandidatePacketExtension candidate : removed)
+                childExtensionRemoved(candidate);
+        }
+        boolean anyRemoved = !removed.isEmpty();
+
+        if (remoteCandidate != null && remaining.remove(remoteCandidate))
+        {
+            setRemoteCandidate(null);
+            anyRemoved = true;
+        }
+        return super.removeChildExtensions(remaining) || anyRemoved;
+    }
+
     /**
      * Checks whether an 'rtcp-mux' extension has been added to this
      * <tt>IceUdpTransportPacketExtension</tt>.
@@ -289,8 +399,6 @@ public class IceUdpTransportPacketExtension
      * @return a new <tt>IceUdpTransportPacketExtension</tt> instance which has
      * the same run-time type, attributes, namespace, text and candidates as the
      * specified <tt>src</tt>
-     * @throws Exception if an error occurs during the cloning of the specified
-     * <tt>src</tt> and its candidates
      */
     public static IceUdpTransportPacketExtension cloneTransportAndCandidates(
             IceUdpTransportPacketExtension src, boolean copyDtls)
@@ -307,8 +415,9 @@ public class IceUdpTransportPacketExtension
                     AbstractPacketExtension.clone(srcCand));
         }
         // Copy "web-socket" extensions.
-        for (WebSocketPacketExtension wspe : src.getChildExtensionsOfType(
-            WebSocketPacketExtension.class))
+        for (WebSocketPacketExtension wspe
+            : src.getUnmodifiableChildExtensionsOfType(
+                WebSocketPacketExtension.class))
         {
             dst.addChildExtension(new WebSocketPacketExtension(wspe.getUrl()));
         }
@@ -321,7 +430,7 @@ public class IceUdpTransportPacketExtension
         if (copyDtls)
         {
             for (DtlsFingerprintPacketExtension dtlsFingerprint
-                : src.getChildExtensionsOfType(
+                : src.getUnmodifiableChildExtensionsOfType(
                 DtlsFingerprintPacketExtension.class))
             {
                 DtlsFingerprintPacketExtension copy
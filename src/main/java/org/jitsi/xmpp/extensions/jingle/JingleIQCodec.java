@@ -0,0 +1,178 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions.jingle;
+
+import java.io.*;
+import java.util.*;
+
+import org.jitsi.xmpp.extensions.*;
+import org.jivesoftware.smack.packet.*;
+import org.jxmpp.jid.impl.*;
+
+/**
+ * Writes {@link JingleIQ}s for {@link ExtensionCodec}: the attributes of the
+ * <tt>jingle</tt> element and its <tt>reason</tt> and session info, which are
+ * not <tt>AbstractPacketExtension</tt>s that the codec can recreate, followed
+ * by its contents and other extensions as trees of extensions.
+ */
+class JingleIQCodec
+    implements ExtensionCodec.IQCodec<JingleIQ>
+{
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void encode(JingleIQ iq, ExtensionCodec.Encoder out)
+    {
+        out.writeString(iq.getAction().toString());
+        out.writeString(iq.getSID());
+        out.writeString(
+                iq.getInitiator() == null
+                    ? null
+                    : iq.getInitiator().toString());
+        out.writeString(
+                iq.getResponder() == null
+                    ? null
+                    : iq.getResponder().toString());
+
+        List<ContentPacketExtension> contents = iq.getContentList();
+
+        out.writeVarint(contents.size());
+        for (ContentPacketExtension content : contents)
+        {
+            out.writeElement(content);
+        }
+
+        ReasonPacketExtension reason = iq.getReason();
+
+        if (reason == null)
+        {
+            out.writeString(null);
+        }
+        else
+        {
+            out.writeString(reason.getReason().toString());
+            out.writeString(reason.getText());
+
+            ExtensionElement other = reason.getOtherExtension();
+
+            out.writeVarint(other == null ? 0 : 1);
+            if (other != null)
+            {
+                out.writeElement(other);
+            }
+        }
+
+        SessionInfoPacketExtension sessionInfo = iq.getSessionInfo();
+
+        if (sessionInfo == null)
+        {
+            out.writeString(null);
+        }
+        else
+        {
+            SessionInfoType type = sessionInfo.getType();
+
+            out.writeString(type.name());
+            if (type == SessionInfoType.mute
+                    || type == SessionInfoType.unmute)
+            {
+                out.writeString(
+                        sessionInfo.getAttributeAsString(
+                                MuteSessionInfoPacketExtension
+                                    .NAME_ATTR_VALUE));
+            }
+        }
+
+        List<ExtensionElement> extensions = iq.getExtensions();
+
+        out.writeVarint(extensions.size());
+        for (ExtensionElement extension : extensions)
+        {
+            out.writeElement(extension);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public JingleIQ decode(ExtensionCodec.Decoder in)
+        throws IOException
+    {
+        JingleIQ iq
+            = new JingleIQ(
+                    JingleAction.parseString(in.readString()),
+                    in.readString());
+        String initiator = in.readString();
+        String responder = in.readString();
+
+        if (initiator != null)
+        {
+            iq.setInitiator(JidCreate.from(initiator));
+        }
+        if (responder != null)
+        {
+            iq.setResponder(JidCreate.from(responder));
+        }
+
+        for (long count = in.readVarint(); count > 0; count--)
+        {
+            iq.addContent((ContentPacketExtension) in.readElement());
+        }
+
+        String reason = in.readString();
+
+        if (reason != null)
+        {
+            String text = in.readString();
+            ExtensionElement other
+                = in.readVarint() == 0 ? null : in.readElement();
+
+            iq.setReason(
+                    new ReasonPacketExtension(
+                            Reason.parseString(reason),
+                            text,
+                            other));
+        }
+
+        String sessionInfo = in.readString();
+
+        if (sessionInfo != null)
+        {
+            SessionInfoType type = SessionInfoType.valueOf(sessionInfo);
+
+            if (type == SessionInfoType.mute
+                    || type == SessionInfoType.unmute)
+            {
+                iq.setSessionInfo(
+                        new MuteSessionInfoPacketExtension(
+                                type == SessionInfoType.mute,
+                                in.readString()));
+            }
+            else
+            {
+                iq.setSessionInfo(new SessionInfoPacketExtension(type));
+            }
+        }
+
+        for (long count = in.readVarint(); count > 0; count--)
+        {
+            iq.addExtension(in.readElement());
+        }
+        return iq;
+    }
+}
@@ -37,6 +37,40 @@ import java.io.*;
  */
 public class JingleIQProvider extends IQProvider<JingleIQ>
 {
+    static
+    {
+        // Make the trees we parse share the strings of the known tokens.
+        TokenTable.seed(
+                JingleIQ.class,
+                JingleAction.class,
+                ContentPacketExtension.class,
+                RtpDescriptionPacketExtension.class,
+                PayloadTypePacketExtension.class,
+                ParameterPacketExtension.class,
+                RtcpFbPacketExtension.class,
+                RTPHdrExtPacketExtension.class,
+                IceUdpTransportPacketExtension.class,
+                CandidatePacketExtension.class,
+                CandidateType.class,
+                RemoteCandidatePacketExtension.class,
+                DtlsFingerprintPacketExtension.class,
+                SctpMapExtension.class,
+                GroupPacketExtension.class,
+                SourceGroupPacketExtension.class,
+                SourcePacketExtension.class,
+                SSRCInfoPacketExtension.class,
+                RtcpmuxPacketExtension.class,
+                WebSocketPacketExtension.class);
+    }
+
+    /**
+     * Whether the elements which are usually passed on without being inspected
+     * (<tt>transfer</tt>, <tt>conference-info</tt>, <tt>callid</tt> and those
+     * which have no dedicated handling) are kept as
+     * {@link LazyExtensionElement}s rather than parsed.
+     */
+    private final boolean lazyExtensions;
+
     /**
      * Creates a new instance of the <tt>JingleIQProvider</tt> and register all
      * jingle related extension providers. It is the responsibility of the
@@ -44,186 +78,200 @@ public class JingleIQProvider extends IQProvider<JingleIQ>
      */
     public JingleIQProvider()
     {
+        this(false);
+    }
+
+    /**
+     * Creates a new instance of the <tt>JingleIQProvider</tt> and register all
+     * jingle related extension providers. It is the responsibility of the
+     * application to register the <tt>JingleIQProvider</tt> itself.
+     *
+     * @param lazyExtensions <tt>true</tt> to keep the <tt>transfer</tt>,
+     * <tt>conference-info</tt> and <tt>callid</tt> elements, and those for
+     * which there is no dedicated handling, as {@link LazyExtensionElement}s
+     * which are parsed only when they are read through
+     * {@link LazyExtensionElement#resolve(ExtensionElement)}.
+     */
+    public JingleIQProvider(boolean lazyExtensions)
+    {
+        this.lazyExtensions = lazyExtensions;
+
         //<description/> provider
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 RtpDescriptionPacketExtension.ELEMENT,
                 RtpDescriptionPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider
                         <RtpDescriptionPacketExtension>(
-                        RtpDescriptionPacketExtension.class));
+                        RtpDescriptionPacketExtension::new));
 
         //<payload-type/> provider
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 PayloadTypePacketExtension.ELEMENT,
                 RtpDescriptionPacketExtension.NAMESPACE,
-                new DefaultPacketExtensionProvider
-                        <PayloadTypePacketExtension>(
-                        PayloadTypePacketExtension.class));
+                new PayloadTypePacketExtensionProvider());
 
         //<parameter/> provider
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 ParameterPacketExtension.ELEMENT,
                 RtpDescriptionPacketExtension.NAMESPACE,
-                new DefaultPacketExtensionProvider
-                        <ParameterPacketExtension>
-                        (ParameterPacketExtension.class));
+                new ParameterPacketExtensionProvider());
 
         //<rtp-hdrext/> provider
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 RTPHdrExtPacketExtension.ELEMENT,
                 RTPHdrExtPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider
                         <RTPHdrExtPacketExtension>
-                        (RTPHdrExtPacketExtension.class));
+                        (RTPHdrExtPacketExtension::new));
 
         // <sctpmap/> provider
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 SctpMapExtension.ELEMENT,
                 SctpMapExtension.NAMESPACE,
                 new SctpMapExtensionProvider());
 
         //<encryption/> provider
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 EncryptionPacketExtension.ELEMENT,
                 RtpDescriptionPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider
                         <EncryptionPacketExtension>
-                        (EncryptionPacketExtension.class));
+                        (EncryptionPacketExtension::new));
 
         //<zrtp-hash/> provider
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 ZrtpHashPacketExtension.ELEMENT,
                 ZrtpHashPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider
                         <ZrtpHashPacketExtension>
-                        (ZrtpHashPacketExtension.class));
+                        (ZrtpHashPacketExtension::new));
 
         //<crypto/> provider
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 CryptoPacketExtension.ELEMENT,
                 RtpDescriptionPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider
                         <CryptoPacketExtension>
-                        (CryptoPacketExtension.class));
+                        (CryptoPacketExtension::new));
 
         // <group/> provider
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 GroupPacketExtension.ELEMENT,
                 GroupPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider
-                        <GroupPacketExtension>(GroupPacketExtension.class));
+                        <GroupPacketExtension>(GroupPacketExtension::new));
 
         //ice-udp transport
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 IceUdpTransportPacketExtension.ELEMENT,
                 IceUdpTransportPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider
                         <IceUdpTransportPacketExtension>(
-                        IceUdpTransportPacketExtension.class));
+                        IceUdpTransportPacketExtension::new));
 
         //<raw-udp/> provider
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 RawUdpTransportPacketExtension.ELEMENT,
                 RawUdpTransportPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider
                         <RawUdpTransportPacketExtension>(
-                        RawUdpTransportPacketExtension.class));
+                        RawUdpTransportPacketExtension::new));
 
         //ice-udp <candidate/> provider
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 CandidatePacketExtension.ELEMENT,
                 IceUdpTransportPacketExtension.NAMESPACE,
-                new DefaultPacketExtensionProvider
-                        <CandidatePacketExtension>(
-                        CandidatePacketExtension.class));
+                new CandidatePacketExtensionProvider());
 
         //raw-udp <candidate/> provider
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 CandidatePacketExtension.ELEMENT,
                 RawUdpTransportPacketExtension.NAMESPACE,
-                new DefaultPacketExtensionProvider
-                        <CandidatePacketExtension>(
-                        CandidatePacketExtension.class));
+                new CandidatePacketExtensionProvider());
 
         //ice-udp <remote-candidate/> provider
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 RemoteCandidatePacketExtension.ELEMENT,
                 IceUdpTransportPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider
                         <RemoteCandidatePacketExtension>(
-                        RemoteCandidatePacketExtension.class));
+                        RemoteCandidatePacketExtension::new));
 
         //inputevt <inputevt/> provider
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 InputEvtPacketExtension.ELEMENT,
                 InputEvtPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider<InputEvtPacketExtension>(
-                        InputEvtPacketExtension.class));
+                        InputEvtPacketExtension::new));
 
         //coin <conference-info/> provider
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 CoinPacketExtension.ELEMENT,
                 CoinPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider<CoinPacketExtension>(
-                        CoinPacketExtension.class));
+                        CoinPacketExtension::new));
 
         // DTLS-SRTP
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 DtlsFingerprintPacketExtension.ELEMENT,
                 DtlsFingerprintPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider
                         <DtlsFingerprintPacketExtension>(
-                        DtlsFingerprintPacketExtension.class));
+                        DtlsFingerprintPacketExtension::new));
 
         /*
          * XEP-0251: Jingle Session Transfer <transfer/> and <transferred>
          * providers
          */
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 TransferPacketExtension.ELEMENT,
                 TransferPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider<TransferPacketExtension>(
-                        TransferPacketExtension.class));
-        ProviderManager.addExtensionProvider(
+                        TransferPacketExtension::new));
+        ExtensionProviderCache.addExtensionProvider(
                 TransferredPacketExtension.ELEMENT,
                 TransferredPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider<TransferredPacketExtension>(
-                        TransferredPacketExtension.class));
+                        TransferredPacketExtension::new));
 
         //conference description <callid/> provider
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 CallIdExtension.ELEMENT,
                 ConferenceDescriptionExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider<CallIdExtension>(
-                        CallIdExtension.class));
+                        CallIdExtension::new));
 
         //rtcp-fb
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 RtcpFbPacketExtension.ELEMENT,
                 RtcpFbPacketExtension.NAMESPACE,
-                new DefaultPacketExtensionProvider<RtcpFbPacketExtension>(
-                        RtcpFbPacketExtension.class));
+                new RtcpFbPacketExtensionProvider());
 
         //rtcp-mux
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 RtcpmuxPacketExtension.ELEMENT,
                 IceUdpTransportPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider<RtcpmuxPacketExtension>(
-                        RtcpmuxPacketExtension.class));
+                        RtcpmuxPacketExtension::new));
 
         //web-socket
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
             WebSocketPacketExtension.ELEMENT,
             WebSocketPacketExtension.NAMESPACE,
             new DefaultPacketExtensionProvider<>(
-                WebSocketPacketExtension.class));
+                WebSocketPacketExtension::new));
 
         //ssrcInfo
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 SSRCInfoPacketExtension.ELEMENT,
                 SSRCInfoPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider<SSRCInfoPacketExtension>(
-                        SSRCInfoPacketExtension.class));
+                        SSRCInfoPacketExtension::new));
+
+        ExtensionCodec.addIQCodec(
+                JingleIQ.ELEMENT,
+                JingleIQ.NAMESPACE,
+                new JingleIQCodec());
     }
 
     /**
@@ -267,17 +315,17 @@ public class JingleIQProvider extends IQProvider<JingleIQ>
         // Sub-elements providers
         DefaultPacketExtensionProvider<ContentPacketExtension> contentProvider
             = new DefaultPacketExtensionProvider<ContentPacketExtension>(
-                    ContentPacketExtension.class);
+                    ContentPacketExtension::new);
         ReasonProvider reasonProvider = new ReasonProvider();
-        DefaultPacketExtensionProvider<TransferPacketExtension> transferProvider
-            = new DefaultPacketExtensionProvider<TransferPacketExtension>(
-                    TransferPacketExtension.class);
-        DefaultPacketExtensionProvider<CoinPacketExtension> coinProvider
-            = new DefaultPacketExtensionProvider<CoinPacketExtension>(
-                    CoinPacketExtension.class);
-        DefaultPacketExtensionProvider<CallIdExtension> callidProvider
-            = new DefaultPacketExtensionProvider<CallIdExtension>(
-                    CallIdExtension.class);
+        ExtensionElementProvider<?> transferProvider
+            = lazy(new DefaultPacketExtensionProvider<TransferPacketExtension>(
+                    TransferPacketExtension::new));
+        ExtensionElementProvider<?> coinProvider
+            = lazy(new DefaultPacketExtensionProvider<CoinPacketExtension>(
+                    CoinPacketExtension::new));
+        ExtensionElementProvider<?> callidProvider
+            = lazy(new DefaultPacketExtensionProvider<CallIdExtension>(
+                    CallIdExtension::new));
 
         // Now go on and parse the jingle element's content.
         XmlPullParser.Event eventType;
@@ -352,6 +400,11 @@ public class JingleIQProvider extends IQProvider<JingleIQ>
                                         new SessionInfoPacketExtension(type));
                     }
                 }
+                else if (lazyExtensions)
+                {
+                    jingleIQ.addExtension(
+                        LazyExtensionElement.capture(parser, null));
+                }
                 else
                 {
                     PacketParserUtils.addExtensionElement(jingleIQ, parser, xmlEnvironment);
@@ -366,4 +419,18 @@ public class JingleIQProvider extends IQProvider<JingleIQ>
         }
         return jingleIQ;
     }
+
+    /**
+     * Wraps a provider in a {@link LazyExtensionElementProvider} if this
+     * provider keeps extensions lazily.
+     *
+     * @param provider the provider.
+     * @return the provider to parse the elements of <tt>provider</tt> with.
+     */
+    private ExtensionElementProvider<?> lazy(
+            ExtensionElementProvider<?> provider)
+    {
+        return lazyExtensions
+            ? new LazyExtensionElementProvider(provider) : provider;
+    }
 }
@@ -16,12 +16,19 @@
 package org.jitsi.xmpp.extensions.jingle;
 
 import org.jitsi.xmpp.extensions.*;
+import org.jitsi.xmpp.extensions.schema.*;
 
 /**
  * Represents the <tt>parameter</tt> elements described in XEP-0167.
  *
  * @author Emil Ivov
  */
+@XmlExtension(
+    element = ParameterPacketExtension.ELEMENT,
+    attributes = {
+        @XmlAttribute(name = ParameterPacketExtension.NAME_ATTR_NAME),
+        @XmlAttribute(name = ParameterPacketExtension.VALUE_ATTR_NAME)
+    })
 public class ParameterPacketExtension extends AbstractPacketExtension
 {
     /**
@@ -100,4 +107,15 @@ public class ParameterPacketExtension extends AbstractPacketExtension
     {
         return super.getAttributeAsString(VALUE_ATTR_NAME);
     }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A parameter is identified by its name.
+     */
+    @Override
+    protected Object getIdentityKey()
+    {
+        return getAttributeAsString(NAME_ATTR_NAME);
+    }
 }
@@ -18,12 +18,37 @@ package org.jitsi.xmpp.extensions.jingle;
 import java.util.*;
 
 import org.jitsi.xmpp.extensions.*;
+import org.jitsi.xmpp.extensions.schema.*;
 
 /**
  * Represents the <tt>payload-type</tt> elements described in XEP-0167.
  *
  * @author Emil Ivov
  */
+@XmlExtension(
+    element = PayloadTypePacketExtension.ELEMENT,
+    attributes = {
+        @XmlAttribute(
+            name = PayloadTypePacketExtension.ID_ATTR_NAME,
+            type = int.class),
+        @XmlAttribute(name = PayloadTypePacketExtension.NAME_ATTR_NAME),
+        @XmlAttribute(
+            name = PayloadTypePacketExtension.CLOCKRATE_ATTR_NAME,
+            type = int.class),
+        @XmlAttribute(
+            name = PayloadTypePacketExtension.CHANNELS_ATTR_NAME,
+            type = int.class),
+        @XmlAttribute(
+            name = PayloadTypePacketExtension.MAXPTIME_ATTR_NAME,
+            type = int.class),
+        @XmlAttribute(
+            name = PayloadTypePacketExtension.PTIME_ATTR_NAME,
+            type = int.class)
+    },
+    children = {
+        ParameterPacketExtension.class,
+        RtcpFbPacketExtension.class
+    })
 public class PayloadTypePacketExtension extends AbstractPacketExtension
 {
     /**
@@ -74,20 +99,7 @@ public class PayloadTypePacketExtension extends AbstractPacketExtension
     public static PayloadTypePacketExtension clone(
         PayloadTypePacketExtension source)
     {
-        PayloadTypePacketExtension destination
-            = AbstractPacketExtension.clone(source);
-
-        for (RtcpFbPacketExtension rtcpFb : source.getRtcpFeedbackTypeList())
-        {
-            destination.addRtcpFeedbackType(RtcpFbPacketExtension.clone(rtcpFb));
-        }
-
-        for (ParameterPacketExtension parameter : source.getParameters())
-        {
-            destination.addParameter(ParameterPacketExtension.clone(parameter));
-        }
-
-        return destination;
+        return deepClone(source);
     }
 
     /**
@@ -278,4 +290,15 @@ public class PayloadTypePacketExtension extends AbstractPacketExtension
     {
         return getChildExtensionsOfType(RtcpFbPacketExtension.class);
     }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A payload type is identified by its ID.
+     */
+    @Override
+    protected Object getIdentityKey()
+    {
+        return getAttributeAsString(ID_ATTR_NAME);
+    }
 }
@@ -83,18 +83,7 @@ public class RTPHdrExtPacketExtension
     public static RTPHdrExtPacketExtension clone(
         RTPHdrExtPacketExtension source)
     {
-        RTPHdrExtPacketExtension destination
-            = AbstractPacketExtension.clone(source);
-
-        // Note that this has no relation to the XML attributes of the extension.
-        // It is a value transported in a "parameter" child extension.
-        String attributes = source.getAttributes();
-        if (attributes != null)
-        {
-            destination.setAttributes(attributes);
-        }
-
-        return destination;
+        return deepClone(source);
     }
 
     public RTPHdrExtPacketExtension(RTPHdrExtPacketExtension ext)
@@ -213,4 +202,14 @@ public class RTPHdrExtPacketExtension
         return null;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A header extension is identified by its ID.
+     */
+    @Override
+    protected Object getIdentityKey()
+    {
+        return getAttributeAsString(ID_ATTR_NAME);
+    }
 }
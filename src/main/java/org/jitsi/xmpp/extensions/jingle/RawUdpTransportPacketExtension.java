@@ -59,4 +59,16 @@ public class RawUdpTransportPacketExtension
         // TODO Auto-generated method stub
         return super.getChildExtensions();
     }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The candidates report their changes, unless a subclass lists other
+     * child extensions.
+     */
+    @Override
+    protected boolean tracksChildExtensions()
+    {
+        return getClass() == RawUdpTransportPacketExtension.class;
+    }
 }
@@ -16,6 +16,7 @@
 package org.jitsi.xmpp.extensions.jingle;
 
 import org.jitsi.xmpp.extensions.*;
+import org.jitsi.xmpp.extensions.schema.*;
 
 /**
  * Packet extension that holds RTCP feedback types of the
@@ -23,6 +24,13 @@ import org.jitsi.xmpp.extensions.*;
  *
  * @author Pawel Domas
  */
+@XmlExtension(
+    element = RtcpFbPacketExtension.ELEMENT,
+    namespace = RtcpFbPacketExtension.NAMESPACE,
+    attributes = {
+        @XmlAttribute(name = RtcpFbPacketExtension.TYPE_ATTR_NAME),
+        @XmlAttribute(name = RtcpFbPacketExtension.SUBTYPE_ATTR_NAME)
+    })
 public class RtcpFbPacketExtension
     extends AbstractPacketExtension
 {
@@ -53,7 +53,7 @@ public class RtpDescriptionPacketExtension
      * The list of payload types that this description element contains.
      */
     private final List<PayloadTypePacketExtension> payloadTypes
-                                = new ArrayList<>();
+                                = createChildExtensionList();
 
     /**
      * An optional encryption element that contains encryption parameters for
@@ -71,12 +71,14 @@ public class RtpDescriptionPacketExtension
      * A <tt>List</tt> of the optional <tt>extmap</tt> elements that allow
      * negotiating RTP extension headers as per RFC 5282.
      */
-    private List<RTPHdrExtPacketExtension> extmapList = new ArrayList<>();
+    private List<RTPHdrExtPacketExtension> extmapList
+        = createChildExtensionList();
 
     /**
-     * The combined list of all child elements that this extension contains.
+     * The (unmodifiable) combined list of all child elements that this
+     * extension contains, computed once when this extension is frozen.
      */
-    private List<ExtensionElement> children;
+    private List<ExtensionElement> frozenChildren;
 
     /**
      * Creates a new <tt>RtpDescriptionPacketExtension</tt>.
@@ -152,6 +154,7 @@ public class RtpDescriptionPacketExtension
      */
     public void addPayloadType(PayloadTypePacketExtension payloadType)
     {
+        checkNotFrozen();
         this.payloadTypes.add(payloadType);
     }
 
@@ -164,6 +167,9 @@ public class RtpDescriptionPacketExtension
      */
     public List<PayloadTypePacketExtension> getPayloadTypes()
     {
+        if (isFrozen())
+            return Collections.unmodifiableList(payloadTypes);
+
         return payloadTypes;
     }
 
@@ -176,10 +182,17 @@ public class RtpDescriptionPacketExtension
     @Override
     public List<? extends ExtensionElement> getChildExtensions()
     {
-        if (children == null)
-            children = new ArrayList<ExtensionElement>();
-        else
-            children.clear();
+        if (isFrozen())
+            return frozenChildren;
+
+        // A new list every time, so that threads which serialize this
+        // extension at the same time do not share one.
+        List<? extends ExtensionElement> superChildren
+            = super.getChildExtensions();
+        List<ExtensionElement> children
+            = new ArrayList<>(
+                    payloadTypes.size() + extmapList.size()
+                        + superChildren.size() + 2);
 
         //payload types
         children.addAll(payloadTypes);
@@ -196,11 +209,23 @@ public class RtpDescriptionPacketExtension
         if (extmapList != null)
             children.addAll(extmapList);
 
-        children.addAll(super.getChildExtensions());
+        children.addAll(superChildren);
 
         return children;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The payload types, encryption, bandwidth and <tt>extmap</tt> elements
+     * report their changes, unless a subclass lists other child extensions.
+     */
+    @Override
+    protected boolean tracksChildExtensions()
+    {
+        return getClass() == RtpDescriptionPacketExtension.class;
+    }
+
     /**
      * Casts <tt>childExtension</tt> to one of the extensions allowed here and
      * sets the corresponding field.
@@ -225,6 +250,74 @@ public class RtpDescriptionPacketExtension
             super.addChildExtension(childExtension);
     }
 
+    /**
+     * Removes <tt>childExtension</tt> from the field it has been set to or the
+     * list it has been added to.
+     *
+     * @param childExtension the extension we'd like to remove.
+     * @return <tt>true</tt> if <tt>childExtension</tt> was removed.
+     */
+    @Override
+    public boolean removeChildExtension(ExtensionElement childExtension)
+    {
+        if (childExtension instanceof PayloadTypePacketExtension)
+        {
+            checkNotFrozen();
+            return payloadTypes.remove(childExtension);
+        }
+        else if (childExtension instanceof EncryptionPacketExtension
+                && childExtension == encryption)
+        {
+            setEncryption(null);
+            return true;
+        }
+        else if (childExtension instanceof BandwidthPacketExtension
+                && childExtension == bandwidth)
+        {
+            setBandwidth(null);
+            return true;
+        }
+        else if (childExtension instanceof RTPHdrExtPacketExtension)
+        {
+            checkNotFrozen();
+            return extmapList.remove(childExtension);
+        }
+        else
+            return super.removeChildExtension(childExtension);
+    }
+
+    /**
+     * Removes <tt>childExtensions</tt> from the fields they have been set to
+     * and the lists they have been added to, in a single pass over each list.
+     *
+     * @param childExtensions the extensions we'd like to remove.
+     * @return <tt>true</tt> if any of <tt>childExtensions</tt> was removed.
+     */
+    @Override
+    public boolean removeChildExtensions(
+            Collection<? extends ExtensionElement> childExtensions)
+    {
+        checkNotFrozen();
+        if (childExtensions.isEmpty())
+            return false;
+
+        Set<ExtensionElement> remaining = newIdentitySet(childExtensions);
+        boolean removed = payloadTypes.removeIf(remaining::remove);
+
+        removed |= extmapList.removeIf(remaining::remove);
+        if (encryption != null && remaining.remove(encryption))
+        {
+            setEncryption(null);
+            removed = true;
+        }
+        if (bandwidth != null && remaining.remove(bandwidth))
+        {
+            setBandwidth(null);
+            removed = true;
+        }
+        return super.removeChildExtensions(remaining) || removed;
+    }
+
     /**
      * Sets the optional encryption element that contains encryption parameters
      * for this session.
@@ -234,7 +327,13 @@ public class RtpDescriptionPacketExtension
      */
     public void setEncryption(EncryptionPacketExtension encryption)
     {
+        checkNotFrozen();
+
+        EncryptionPacketExtension oldEncryption = this.encryption;
+
         this.encryption = encryption;
+        childExtensionRemoved(oldEncryption);
+        childExtensionAdded(encryption);
     }
 
     /**
@@ -258,7 +357,13 @@ public class RtpDescriptionPacketExtension
      */
     public void setBandwidth(BandwidthPacketExtension bandwidth)
     {
+        checkNotFrozen();
+
+        BandwidthPacketExtension oldBandwidth = this.bandwidth;
+
         this.bandwidth = bandwidth;
+        childExtensionRemoved(oldBandwidth);
+        childExtensionAdded(bandwidth);
     }
 
     /**
@@ -282,6 +387,7 @@ public class RtpDescriptionPacketExtension
      */
     public void addExtmap(RTPHdrExtPacketExtension extmap)
     {
+        checkNotFrozen();
         this.extmapList.add(extmap);
     }
 
@@ -294,6 +400,27 @@ public class RtpDescriptionPacketExtension
      */
     public List<RTPHdrExtPacketExtension> getExtmapList()
     {
+        if (isFrozen())
+            return Collections.unmodifiableList(extmapList);
+
         return extmapList;
     }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Computes the combined list of child elements once, rather than every
+     * time {@link #getChildExtensions()} is called.
+     */
+    @Override
+    public void freeze()
+    {
+        if (isFrozen())
+            return;
+
+        frozenChildren
+            = Collections.unmodifiableList(
+                    new ArrayList<>(getChildExtensions()));
+        super.freeze();
+    }
 }
@@ -136,23 +136,6 @@ public class SourceGroupPacketExtension
      */
     public SourceGroupPacketExtension copy()
     {
-        SourceGroupPacketExtension copy
-            = AbstractPacketExtension.clone(this);
-
-        copy.setSemantics(getSemantics());
-
-        List<SourcePacketExtension> sources = getSources();
-
-        List<SourcePacketExtension> sourcesCopy
-            = new ArrayList<SourcePacketExtension>(sources.size());
-
-        for (SourcePacketExtension source : sources)
-        {
-            sourcesCopy.add(source.copy());
-        }
-
-        copy.addSources(sourcesCopy);
-
-        return copy;
+        return deepClone(this);
     }
 }
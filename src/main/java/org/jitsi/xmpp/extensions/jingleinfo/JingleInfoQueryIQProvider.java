@@ -51,7 +51,7 @@ public class JingleInfoQueryIQProvider
      */
     public JingleInfoQueryIQProvider()
     {
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
                 ServerPacketExtension.ELEMENT,
                 ServerPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider
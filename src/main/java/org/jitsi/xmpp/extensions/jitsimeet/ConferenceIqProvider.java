@@ -18,6 +18,7 @@ package org.jitsi.xmpp.extensions.jitsimeet;
 
 import org.apache.commons.lang3.StringUtils;
 
+import org.jitsi.xmpp.extensions.*;
 import org.jivesoftware.smack.packet.*;
 import org.jivesoftware.smack.parsing.*;
 import org.jivesoftware.smack.provider.*;
@@ -45,7 +46,7 @@ public class ConferenceIqProvider
     public ConferenceIqProvider()
     {
         // <conference>
-        ProviderManager.addIQProvider(
+        ExtensionProviderCache.addIQProvider(
             ConferenceIq.ELEMENT, ConferenceIq.NAMESPACE, this);
     }
 
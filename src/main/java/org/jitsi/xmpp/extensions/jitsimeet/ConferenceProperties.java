@@ -73,15 +73,7 @@ public class ConferenceProperties
      */
     public static ConferenceProperties clone(ConferenceProperties source)
     {
-        ConferenceProperties destination
-            = AbstractPacketExtension.clone(source);
-
-        for (ConferenceProperty property : source.getProperties())
-        {
-            destination.addProperty(ConferenceProperty.clone(property));
-        }
-
-        return destination;
+        return deepClone(source);
     }
 
     /**
@@ -135,7 +127,7 @@ public class ConferenceProperties
         Objects.requireNonNull(key);
 
         for (ConferenceProperty property :
-            getChildExtensionsOfType(ConferenceProperty.class))
+            getUnmodifiableChildExtensionsOfType(ConferenceProperty.class))
         {
             if (key.equals(property.getKey()))
             {
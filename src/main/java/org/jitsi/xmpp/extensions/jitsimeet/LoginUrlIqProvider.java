@@ -17,6 +17,7 @@ package org.jitsi.xmpp.extensions.jitsimeet;
 
 
 import org.apache.commons.lang3.StringUtils;
+import org.jitsi.xmpp.extensions.*;
 import org.jivesoftware.smack.packet.*;
 import org.jivesoftware.smack.parsing.*;
 import org.jivesoftware.smack.provider.*;
@@ -41,7 +42,7 @@ public class LoginUrlIqProvider
     public LoginUrlIqProvider()
     {
         // <auth-url>
-        ProviderManager.addIQProvider(
+        ExtensionProviderCache.addIQProvider(
             LoginUrlIq.ELEMENT, LoginUrlIq.NAMESPACE, this);
     }
 
@@ -17,6 +17,7 @@ package org.jitsi.xmpp.extensions.jitsimeet;
 
 
 import org.apache.commons.lang3.StringUtils;
+import org.jitsi.xmpp.extensions.*;
 import org.jivesoftware.smack.packet.*;
 import org.jivesoftware.smack.parsing.*;
 import org.jivesoftware.smack.provider.*;
@@ -39,7 +40,7 @@ public class LogoutIqProvider
     public LogoutIqProvider()
     {
         //<logout>
-        ProviderManager.addIQProvider(
+        ExtensionProviderCache.addIQProvider(
             LogoutIq.ELEMENT, LogoutIq.NAMESPACE, this);
     }
 
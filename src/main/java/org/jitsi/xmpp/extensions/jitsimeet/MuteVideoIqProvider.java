@@ -15,6 +15,7 @@
  */
 package org.jitsi.xmpp.extensions.jitsimeet;
 
+import org.jitsi.xmpp.extensions.*;
 import org.jivesoftware.smack.packet.*;
 import org.jivesoftware.smack.parsing.*;
 import org.jivesoftware.smack.provider.*;
@@ -38,7 +39,7 @@ public class MuteVideoIqProvider
      */
     public static void registerMuteVideoIqProvider()
     {
-        ProviderManager.addIQProvider(
+        ExtensionProviderCache.addIQProvider(
             MuteVideoIq.ELEMENT,
             MuteVideoIq.NAMESPACE,
             new MuteVideoIqProvider());
@@ -15,6 +15,7 @@
  */
 package org.jitsi.xmpp.extensions.jitsimeet;
 
+import org.jitsi.xmpp.extensions.*;
 import org.jivesoftware.smack.packet.*;
 import org.jivesoftware.smack.parsing.*;
 import org.jivesoftware.smack.provider.*;
@@ -35,7 +36,7 @@ public class StartMutedProvider
      */
     public static void registerStartMutedProvider()
     {
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
             StartMutedPacketExtension.ELEMENT,
             StartMutedPacketExtension.NAMESPACE,
             new StartMutedProvider());
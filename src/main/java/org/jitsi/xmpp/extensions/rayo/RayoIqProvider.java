@@ -47,31 +47,31 @@ public class RayoIqProvider
     public void registerRayoIQs()
     {
         // <dial>
-        ProviderManager.addIQProvider(
+        ExtensionProviderCache.addIQProvider(
             DialIq.ELEMENT,
             NAMESPACE,
             this);
 
         // <ref>
-        ProviderManager.addIQProvider(
+        ExtensionProviderCache.addIQProvider(
             RefIq.ELEMENT,
             NAMESPACE,
             this);
 
         // <hangup>
-        ProviderManager.addIQProvider(
+        ExtensionProviderCache.addIQProvider(
             HangUp.ELEMENT,
             NAMESPACE,
             this);
 
         // <end> presence extension
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
             EndExtension.ELEMENT,
             NAMESPACE,
             new DefaultPacketExtensionProvider<>(EndExtension.class));
 
         // <header> extension
-        ProviderManager.addExtensionProvider(
+        ExtensionProviderCache.addExtensionProvider(
             HeaderExtension.ELEMENT,
             NAMESPACE,
             new DefaultPacketExtensionProvider<>(HeaderExtension.class));
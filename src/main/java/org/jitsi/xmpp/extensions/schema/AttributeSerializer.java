@@ -0,0 +1,42 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions.schema;
+
+import java.io.*;
+
+import org.jitsi.xmpp.extensions.*;
+
+/**
+ * Writes the attributes of one type of {@link AbstractPacketExtension}. The
+ * implementations are generated for the types annotated with
+ * {@link XmlExtension} and write exactly what
+ * {@link XmlAppender#appendAttribute(Appendable, String, Object)} does, with
+ * the names of the declared attributes and the formatting of their types
+ * resolved at compile time.
+ */
+public interface AttributeSerializer
+{
+    /**
+     * Appends an attribute (with a leading space) to an {@link Appendable}.
+     *
+     * @param out the {@link Appendable} to write to.
+     * @param name the name of the attribute.
+     * @param value the value of the attribute.
+     * @throws IOException if <tt>out</tt> fails to append.
+     */
+    void appendAttribute(Appendable out, String name, Object value)
+        throws IOException;
+}
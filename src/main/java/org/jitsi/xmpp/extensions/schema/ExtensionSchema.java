@@ -0,0 +1,336 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions.schema;
+
+import java.io.*;
+import java.util.*;
+import java.util.logging.*;
+
+import org.jitsi.xmpp.extensions.*;
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smack.parsing.*;
+import org.jivesoftware.smack.provider.*;
+import org.jivesoftware.smack.xml.*;
+
+/**
+ * The runtime support of the providers and serializers which
+ * <tt>ExtensionProcessor</tt> generates for the types annotated with
+ * {@link XmlExtension}.
+ */
+public final class ExtensionSchema
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>ExtensionSchema</tt> class for
+     * logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(ExtensionSchema.class.getName());
+
+    /**
+     * The constants of each enum type, by their <tt>toString()</tt>.
+     */
+    private static final ClassValue<Map<String, Enum<?>>> ENUM_CONSTANTS
+        = new ClassValue<Map<String, Enum<?>>>()
+        {
+            @Override
+            protected Map<String, Enum<?>> computeValue(Class<?> type)
+            {
+                Map<String, Enum<?>> constants = new HashMap<>();
+
+                for (Object constant : type.getEnumConstants())
+                {
+                    Enum<?> e = (Enum<?>) constant;
+
+                    // Only the constants which are written as their name can
+                    // be parsed with Enum.valueOf().
+                    if (e.name().equals(e.toString()))
+                    {
+                        constants.put(e.name(), e);
+                    }
+                }
+                return constants;
+            }
+        };
+
+    /**
+     * Returns the value to store for an attribute of a specific type, as
+     * declared by {@link XmlAttribute#type()}.
+     *
+     * @param type the type of the attribute.
+     * @param value the value of the attribute as read.
+     * @return the parsed value if <tt>value</tt> is the canonical form of one
+     * of <tt>type</tt>, or else <tt>value</tt> (deduplicated).
+     */
+    @SuppressWarnings("unchecked")
+    public static Object parse(Class<?> type, String value)
+    {
+        if (type == int.class || type == Integer.class)
+        {
+            return parseInt(value);
+        }
+        else if (type == long.class || type == Long.class)
+        {
+            return parseLong(value);
+        }
+        else if (type == boolean.class || type == Boolean.class)
+        {
+            return parseBoolean(value);
+        }
+        else if (type.isEnum())
+        {
+            return parseEnum((Class<? extends Enum<?>>) type, value);
+        }
+        return TokenTable.dedup(value);
+    }
+
+    /**
+     * Returns the value to store for an <tt>int</tt> attribute.
+     *
+     * @param value the value of the attribute as read.
+     * @return an <tt>Integer</tt> if <tt>value</tt> is the canonical form of
+     * one, or else <tt>value</tt> (deduplicated).
+     */
+    public static Object parseInt(String value)
+    {
+        if (isCanonicalInteger(value, 10))
+        {
+            try
+            {
+                return Integer.valueOf(value);
+            }
+            catch (NumberFormatException e)
+            {
+                // Out of range, keep the string.
+            }
+        }
+        return TokenTable.dedup(value);
+    }
+
+    /**
+     * Returns the value to store for a <tt>long</tt> attribute.
+     *
+     * @param value the value of the attribute as read.
+     * @return a <tt>Long</tt> if <tt>value</tt> is the canonical form of one,
+     * or else <tt>value</tt> (deduplicated).
+     */
+    public static Object parseLong(String value)
+    {
+        if (isCanonicalInteger(value, 19))
+        {
+            try
+            {
+                return Long.valueOf(value);
+            }
+            catch (NumberFormatException e)
+            {
+                // Out of range, keep the string.
+            }
+        }
+        return TokenTable.dedup(value);
+    }
+
+    /**
+     * Returns the value to store for a <tt>boolean</tt> attribute.
+     *
+     * @param value the value of the attribute as read.
+     * @return a <tt>Boolean</tt> if <tt>value</tt> is <tt>true</tt> or
+     * <tt>false</tt>, or else <tt>value</tt> (deduplicated).
+     */
+    public static Object parseBoolean(String value)
+    {
+        if ("true".equals(value))
+        {
+            return Boolean.TRUE;
+        }
+        else if ("false".equals(value))
+        {
+            return Boolean.FALSE;
+        }
+        return TokenTable.dedup(value);
+    }
+
+    /**
+     * Returns the value to store for an enum attribute.
+     *
+     * @param type the enum type of the attribute.
+     * @param value the value of the attribute as read.
+     * @return the constant of <tt>type</tt> which is written as
+     * <tt>value</tt>, or else <tt>value</tt> (deduplicated).
+     */
+    public static Object parseEnum(Class<? extends Enum<?>> type, String value)
+    {
+        Enum<?> constant = ENUM_CONSTANTS.get(type).get(value);
+
+        return constant == null ? TokenTable.dedup(value) : constant;
+    }
+
+    /**
+     * Checks whether a string is an integer in the form that the
+     * <tt>toString()</tt> of the parsed number would produce, i.e. with no
+     * plus sign and no leading zeros.
+     *
+     * @param s the string to check.
+     * @param maxDigits the maximum number of digits of the type.
+     * @return <tt>true</tt> if <tt>s</tt> is an integer in canonical form,
+     * which may still be out of the range of the type.
+     */
+    private static boolean isCanonicalInteger(String s, int maxDigits)
+    {
+        int start = s.startsWith("-") ? 1 : 0;
+        int length = s.length();
+
+        if (length == start
+                || length - start > maxDigits
+                || (s.charAt(start) == '0' && length != 1))
+        {
+            return false;
+        }
+        for (int i = start; i < length; i++)
+        {
+            char c = s.charAt(i);
+
+            if (c < '0' || c > '9')
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the content of an element (its children and text) into a
+     * specific extension the way {@link DefaultPacketExtensionProvider} does,
+     * but with the children which a generated provider knows parsed without
+     * looking up their provider. The parser is left on the end tag of the
+     * element.
+     *
+     * @param parser the parser, positioned on the start tag of the element.
+     * @param depth the depth of the element.
+     * @param extension the extension to add the content to.
+     * @param childParser parses the children which the generated provider
+     * knows.
+     * @param childProviders caches the providers of the other children.
+     * @throws XmlPullParserException if the XML is not well formed.
+     * @throws IOException if reading the XML fails.
+     * @throws SmackParsingException if a child cannot be parsed.
+     */
+    public static void parseContent(
+            XmlPullParser parser,
+            int depth,
+            AbstractPacketExtension extension,
+            ChildParser childParser,
+            ExtensionProviderCache childProviders)
+        throws XmlPullParserException, IOException, SmackParsingException
+    {
+        String parentNamespace = parser.getNamespace();
+
+        while (true)
+        {
+            XmlPullParser.Event eventType = parser.next();
+
+            switch (eventType)
+            {
+            case START_ELEMENT:
+                String elementName = parser.getName();
+                String namespace = parser.getNamespace();
+                ExtensionElement child
+                    = childParser.parseChild(
+                            parser,
+                            elementName,
+                            namespace,
+                            parentNamespace);
+
+                if (child == null)
+                {
+                    ExtensionElementProvider<ExtensionElement> provider
+                        = childProviders.getExtensionProvider(
+                                elementName,
+                                namespace);
+
+                    if (provider == null)
+                    {
+                        logger.fine(
+                            "Could not add a provider for element "
+                                + elementName + " from namespace "
+                                + namespace);
+                        break;
+                    }
+                    child = provider.parse(parser);
+                }
+                if (namespace != null
+                        && child instanceof AbstractPacketExtension)
+                {
+                    ((AbstractPacketExtension) child)
+                        .setNamespace(TokenTable.dedup(namespace));
+                }
+                extension.addChildExtension(child);
+                break;
+
+            case END_ELEMENT:
+                if (parser.getDepth() == depth)
+                {
+                    return;
+                }
+                break;
+
+            case TEXT_CHARACTERS:
+                extension.setText(parser.getText());
+                break;
+
+            case END_DOCUMENT:
+                return;
+
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * Prevents the initialization of <tt>ExtensionSchema</tt> instances.
+     */
+    private ExtensionSchema()
+    {
+    }
+
+    /**
+     * Parses the child elements which a generated provider knows.
+     */
+    @FunctionalInterface
+    public interface ChildParser
+    {
+        /**
+         * Parses a child element, if it is one of those declared.
+         *
+         * @param parser the parser, positioned on the start tag of the child.
+         * @param elementName the name of the child.
+         * @param namespace the namespace of the child.
+         * @param parentNamespace the namespace of the parent.
+         * @return the parsed child, with the parser on its end tag, or
+         * <tt>null</tt> (with the parser where it was) if it is not one of
+         * those declared.
+         * @throws XmlPullParserException if the XML is not well formed.
+         * @throws IOException if reading the XML fails.
+         * @throws SmackParsingException if the child cannot be parsed.
+         */
+        ExtensionElement parseChild(
+                XmlPullParser parser,
+                String elementName,
+                String namespace,
+                String parentNamespace)
+            throws XmlPullParserException, IOException, SmackParsingException;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions.schema;
+
+import java.lang.annotation.*;
+
+/**
+ * Declares an attribute of an element described by {@link XmlExtension}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({})
+public @interface XmlAttribute
+{
+    /**
+     * The name of the attribute.
+     */
+    String name();
+
+    /**
+     * The type of the value of the attribute: <tt>String</tt>,
+     * <tt>int</tt>, <tt>long</tt>, <tt>boolean</tt> or an enum. A value which
+     * is not the canonical form of its type (e.g. <tt>"007"</tt> for an
+     * <tt>int</tt>) is kept as a string, so that it is written back as it was
+     * read.
+     */
+    Class<?> type() default String.class;
+}
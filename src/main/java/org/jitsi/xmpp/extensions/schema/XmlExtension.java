@@ -0,0 +1,68 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions.schema;
+
+import java.lang.annotation.*;
+
+/**
+ * Declares the schema of the element which an
+ * {@link org.jitsi.xmpp.extensions.AbstractPacketExtension} represents, so
+ * that <tt>ExtensionProcessor</tt> can generate a provider and an attribute
+ * serializer specialized for it.
+ * <p>
+ * For an annotated class <tt>Foo</tt> the processor generates, in the same
+ * package, <tt>FooProvider</tt> (an
+ * <tt>ExtensionElementProvider&lt;Foo&gt;</tt> which parses the declared
+ * attributes into their types and the declared children with their own
+ * generated providers) and <tt>FooSerializer</tt> (an
+ * {@link AttributeSerializer} which <tt>AbstractPacketExtension</tt> uses to
+ * write the attributes of <tt>Foo</tt>, but not of its subclasses). Anything
+ * which is not declared is handled as by
+ * {@link org.jitsi.xmpp.extensions.DefaultPacketExtensionProvider}.
+ * <p>
+ * The annotated class has to be a public, top-level, non-abstract class with
+ * a public no-argument constructor.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface XmlExtension
+{
+    /**
+     * The name of the element.
+     */
+    String element();
+
+    /**
+     * The namespace of the element, or an empty string if the element
+     * inherits the namespace of its parent.
+     */
+    String namespace() default "";
+
+    /**
+     * The attributes whose values have a type other than <tt>String</tt>,
+     * and those which are parsed often enough to deserve a case of their own.
+     */
+    XmlAttribute[] attributes() default {};
+
+    /**
+     * The types of the child elements which are parsed with their generated
+     * providers rather than looked up in the <tt>ProviderManager</tt>. Each of
+     * them has to be an <tt>AbstractPacketExtension</tt> annotated with
+     * <tt>XmlExtension</tt> as well.
+     */
+    Class<?>[] children() default {};
+}
@@ -0,0 +1,778 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions.schema.processor;
+
+import java.io.*;
+import java.util.*;
+
+import javax.annotation.processing.*;
+import javax.lang.model.*;
+import javax.lang.model.element.*;
+import javax.lang.model.type.*;
+import javax.lang.model.util.*;
+import javax.tools.*;
+
+import org.jitsi.xmpp.extensions.schema.*;
+
+/**
+ * Generates, for each class annotated with {@link XmlExtension}, a provider
+ * which parses its declared attributes into their types with a
+ * <tt>switch</tt> on their names and its declared children with their own
+ * generated providers, and an {@link AttributeSerializer} which writes the
+ * declared attributes with their names and formatting resolved at compile
+ * time.
+ * <p>
+ * The processor only depends on the annotations, so that it can be compiled
+ * before the rest of the sources which it processes.
+ */
+@SupportedAnnotationTypes("org.jitsi.xmpp.extensions.schema.XmlExtension")
+public class ExtensionProcessor
+    extends AbstractProcessor
+{
+    /**
+     * The name of the base class of the annotated classes.
+     */
+    private static final String ABSTRACT_PACKET_EXTENSION
+        = "org.jitsi.xmpp.extensions.AbstractPacketExtension";
+
+    /**
+     * The suffix of the names of the generated providers.
+     */
+    static final String PROVIDER_SUFFIX = "Provider";
+
+    /**
+     * The suffix of the names of the generated serializers.
+     */
+    static final String SERIALIZER_SUFFIX = "Serializer";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(
+            Set<? extends TypeElement> annotations,
+            RoundEnvironment roundEnv)
+    {
+        for (Element element
+                : roundEnv.getElementsAnnotatedWith(XmlExtension.class))
+        {
+            Schema schema = readSchema(element);
+
+            if (schema != null && !hasCycle(schema))
+            {
+                try
+                {
+                    writeProvider(schema);
+                    writeSerializer(schema);
+                }
+                catch (IOException e)
+                {
+                    error(element, "Failed to generate: " + e);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reports an error on an element.
+     */
+    private void error(Element element, String message)
+    {
+        processingEnv.getMessager().printMessage(
+                Diagnostic.Kind.ERROR,
+                message,
+                element);
+    }
+
+    /**
+     * Reads and checks the schema which an element declares.
+     *
+     * @param element the element annotated with {@link XmlExtension}.
+     * @return the schema, or <tt>null</tt> if it is not valid (and an error
+     * has been reported).
+     */
+    private Schema readSchema(Element element)
+    {
+        if (!isValidType(element))
+        {
+            return null;
+        }
+
+        TypeElement type = (TypeElement) element;
+        XmlExtension annotation = type.getAnnotation(XmlExtension.class);
+        Schema schema = new Schema(type, annotation);
+        Set<String> names = new HashSet<>();
+
+        if (!isXmlName(schema.element))
+        {
+            error(type, "Invalid element name: " + schema.element);
+            return null;
+        }
+        for (XmlAttribute attribute : annotation.attributes())
+        {
+            Attribute a = readAttribute(type, attribute);
+
+            if (a == null)
+            {
+                return null;
+            }
+            if (!names.add(a.name))
+            {
+                error(type, "Duplicate attribute: " + a.name);
+                return null;
+            }
+            schema.attributes.add(a);
+        }
+
+        Set<String> children = new HashSet<>();
+
+        for (TypeMirror mirror : getChildren(annotation))
+        {
+            Element child = processingEnv.getTypeUtils().asElement(mirror);
+
+            if (child == null
+                    || child.getAnnotation(XmlExtension.class) == null)
+            {
+                error(
+                    type,
+                    "Child not annotated with @XmlExtension: " + mirror);
+                return null;
+            }
+
+            XmlExtension childAnnotation
+                = child.getAnnotation(XmlExtension.class);
+            TypeElement childType = (TypeElement) child;
+
+            if (!children.add(childAnnotation.element()))
+            {
+                error(type, "Duplicate child: " + childAnnotation.element());
+                return null;
+            }
+            schema.children.add(new Schema(childType, childAnnotation));
+        }
+        return schema;
+    }
+
+    /**
+     * Checks that an element is a class which a generated provider can
+     * instantiate.
+     */
+    private boolean isValidType(Element element)
+    {
+        Types types = processingEnv.getTypeUtils();
+        TypeElement base
+            = processingEnv.getElementUtils().getTypeElement(
+                    ABSTRACT_PACKET_EXTENSION);
+
+        if (element.getKind() != ElementKind.CLASS)
+        {
+            error(element, "@XmlExtension is only allowed on classes");
+            return false;
+        }
+
+        TypeElement type = (TypeElement) element;
+        Set<Modifier> modifiers = type.getModifiers();
+
+        if (type.getNestingKind() != NestingKind.TOP_LEVEL
+                || !modifiers.contains(Modifier.PUBLIC)
+                || modifiers.contains(Modifier.ABSTRACT))
+        {
+            error(type, "Not a public, top-level, non-abstract class");
+            return false;
+        }
+        if (base == null
+                || !types.isSubtype(
+                        types.erasure(type.asType()),
+                        types.erasure(base.asType())))
+        {
+            error(type, "Not an " + ABSTRACT_PACKET_EXTENSION);
+            return false;
+        }
+        for (ExecutableElement constructor
+                : ElementFilter.constructorsIn(type.getEnclosedElements()))
+        {
+            if (constructor.getParameters().isEmpty()
+                    && constructor.getModifiers().contains(Modifier.PUBLIC))
+            {
+                return true;
+            }
+        }
+        error(type, "No public no-argument constructor");
+        return false;
+    }
+
+    /**
+     * Reads and checks the declaration of an attribute.
+     *
+     * @return the attribute, or <tt>null</tt> if it is not valid (and an error
+     * has been reported).
+     */
+    private Attribute readAttribute(TypeElement type, XmlAttribute attribute)
+    {
+        String name = attribute.name();
+
+        if (!isXmlName(name) || name.equals("xmlns"))
+        {
+            error(type, "Invalid attribute name: " + name);
+            return null;
+        }
+
+        TypeMirror mirror;
+
+        try
+        {
+            attribute.type();
+            throw new IllegalStateException("Class values are not mirrored");
+        }
+        catch (MirroredTypeException e)
+        {
+            mirror = e.getTypeMirror();
+        }
+
+        switch (mirror.getKind())
+        {
+        case INT:
+            return new Attribute(name, Kind.INT, null);
+        case LONG:
+            return new Attribute(name, Kind.LONG, null);
+        case BOOLEAN:
+            return new Attribute(name, Kind.BOOLEAN, null);
+        case DECLARED:
+            TypeElement element
+                = (TypeElement) ((DeclaredType) mirror).asElement();
+
+            if (element.getQualifiedName().contentEquals("java.lang.String"))
+            {
+                return new Attribute(name, Kind.STRING, null);
+            }
+            else if (element.getKind() == ElementKind.ENUM)
+            {
+                return
+                    new Attribute(
+                            name,
+                            Kind.ENUM,
+                            element.getQualifiedName().toString());
+            }
+            break;
+        default:
+            break;
+        }
+        error(type, "Unsupported type of attribute " + name + ": " + mirror);
+        return null;
+    }
+
+    /**
+     * Returns the types which an annotation declares as children.
+     */
+    private static List<? extends TypeMirror> getChildren(
+            XmlExtension annotation)
+    {
+        try
+        {
+            annotation.children();
+            throw new IllegalStateException("Class values are not mirrored");
+        }
+        catch (MirroredTypesException e)
+        {
+            return e.getTypeMirrors();
+        }
+    }
+
+    /**
+     * Checks whether the children of a schema lead back to it through other
+     * types, in which case the generated providers would create each other
+     * forever. A type which is its own child is fine.
+     *
+     * @return <tt>true</tt> if there is a cycle (and an error has been
+     * reported).
+     */
+    private boolean hasCycle(Schema schema)
+    {
+        Deque<TypeElement> stack = new ArrayDeque<>();
+        Set<TypeElement> visited = new HashSet<>();
+
+        for (Schema child : schema.children)
+        {
+            if (!child.type.equals(schema.type))
+            {
+                stack.push(child.type);
+            }
+        }
+        while (!stack.isEmpty())
+        {
+            TypeElement type = stack.pop();
+
+            if (type.equals(schema.type))
+            {
+                error(schema.type, "Cyclic children");
+                return true;
+            }
+            if (visited.add(type))
+            {
+                for (TypeMirror mirror
+                        : getChildren(type.getAnnotation(XmlExtension.class)))
+                {
+                    Element child
+                        = processingEnv.getTypeUtils().asElement(mirror);
+
+                    if (child instanceof TypeElement
+                            && !child.equals(type))
+                    {
+                        stack.push((TypeElement) child);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the provider of the type of a specific schema.
+     */
+    private void writeProvider(Schema schema)
+        throws IOException
+    {
+        String simpleName = schema.simpleName();
+        String providerName = simpleName + PROVIDER_SUFFIX;
+        JavaFileObject file
+            = processingEnv.getFiler().createSourceFile(
+                    schema.qualifiedName() + PROVIDER_SUFFIX,
+                    schema.type);
+
+        try (PrintWriter out = new PrintWriter(file.openWriter()))
+        {
+            writeHeader(out, schema);
+            out.println("import java.io.*;");
+            out.println();
+            out.println("import org.jitsi.xmpp.extensions.*;");
+            out.println("import org.jitsi.xmpp.extensions.schema.*;");
+            out.println("import org.jivesoftware.smack.packet.*;");
+            out.println("import org.jivesoftware.smack.parsing.*;");
+            out.println("import org.jivesoftware.smack.provider.*;");
+            out.println("import org.jivesoftware.smack.xml.*;");
+            out.println();
+            out.println("/**");
+            out.println(
+                " * Parses <tt>" + schema.element + "</tt> elements into"
+                    + " {@link " + simpleName + "}s.");
+            out.println(" */");
+            out.println("public final class " + providerName);
+            out.println(
+                "    extends ExtensionElementProvider<" + simpleName + ">");
+            out.println("{");
+
+            // The providers of the children.
+            for (Schema child : schema.children)
+            {
+                out.println(
+                    "    private final " + child.qualifiedName()
+                        + PROVIDER_SUFFIX + " " + child.fieldName() + ";");
+                out.println();
+            }
+            out.println(
+                "    private final ExtensionProviderCache childProviders");
+            out.println("        = new ExtensionProviderCache();");
+            out.println();
+            out.println("    public " + providerName + "()");
+            out.println("    {");
+            for (Schema child : schema.children)
+            {
+                out.println(
+                    "        " + child.fieldName() + " = "
+                        + (child.type.equals(schema.type)
+                            ? "this"
+                            : "new " + child.qualifiedName() + PROVIDER_SUFFIX
+                                + "()")
+                        + ";");
+            }
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public " + simpleName + " parse(");
+            out.println("            XmlPullParser parser,");
+            out.println("            int initialDepth,");
+            out.println("            XmlEnvironment xmlEnvironment)");
+            out.println(
+                "        throws XmlPullParserException, IOException,"
+                    + " SmackParsingException");
+            out.println("    {");
+            out.println(
+                "        " + simpleName + " extension = new " + simpleName
+                    + "();");
+            out.println();
+            out.println(
+                "        for (int i = 0, count = parser.getAttributeCount();"
+                    + " i < count; i++)");
+            out.println("        {");
+            out.println(
+                "            String name = parser.getAttributeName(i);");
+            out.println(
+                "            String value = parser.getAttributeValue(i);");
+            out.println();
+            out.println("            switch (name)");
+            out.println("            {");
+            for (Attribute attribute : schema.attributes)
+            {
+                out.println(
+                    "            case " + literal(attribute.name) + ":");
+                out.println(
+                    "                extension.setAttribute("
+                        + literal(attribute.name) + ", "
+                        + attribute.parseExpression("value") + ");");
+                out.println("                break;");
+            }
+            out.println("            default:");
+            out.println("                extension.setAttribute(");
+            out.println("                        TokenTable.dedup(name),");
+            out.println("                        TokenTable.dedup(value));");
+            out.println("                break;");
+            out.println("            }");
+            out.println("        }");
+            out.println("        ExtensionSchema.parseContent(");
+            out.println("                parser,");
+            out.println("                initialDepth,");
+            out.println("                extension,");
+            out.println(
+                "                "
+                    + (schema.children.isEmpty()
+                        ? "(p, n, ns, parentNs) -> null"
+                        : "this::parseChild")
+                    + ",");
+            out.println("                childProviders);");
+            out.println("        return extension;");
+            out.println("    }");
+
+            if (!schema.children.isEmpty())
+            {
+                writeParseChild(out, schema);
+            }
+            out.println("}");
+        }
+    }
+
+    /**
+     * Writes the method of a provider which parses the declared children.
+     */
+    private static void writeParseChild(PrintWriter out, Schema schema)
+    {
+        out.println();
+        out.println("    private ExtensionElement parseChild(");
+        out.println("            XmlPullParser parser,");
+        out.println("            String elementName,");
+        out.println("            String namespace,");
+        out.println("            String parentNamespace)");
+        out.println(
+            "        throws XmlPullParserException, IOException,"
+                + " SmackParsingException");
+        out.println("    {");
+        out.println("        switch (elementName)");
+        out.println("        {");
+        for (Schema child : schema.children)
+        {
+            // A child which inherits its namespace is known in that of its
+            // parent.
+            String namespace
+                = child.namespace.isEmpty()
+                    ? "parentNamespace"
+                    : literal(child.namespace);
+
+            out.println("        case " + literal(child.element) + ":");
+            out.println(
+                "            return java.util.Objects.equals(" + namespace
+                    + ", namespace)");
+            out.println(
+                "                ? " + child.fieldName() + ".parse(parser)");
+            out.println("                : null;");
+        }
+        out.println("        default:");
+        out.println("            return null;");
+        out.println("        }");
+        out.println("    }");
+    }
+
+    /**
+     * Writes the attribute serializer of the type of a specific schema.
+     */
+    private void writeSerializer(Schema schema)
+        throws IOException
+    {
+        String simpleName = schema.simpleName();
+        String serializerName = simpleName + SERIALIZER_SUFFIX;
+        JavaFileObject file
+            = processingEnv.getFiler().createSourceFile(
+                    schema.qualifiedName() + SERIALIZER_SUFFIX,
+                    schema.type);
+
+        try (PrintWriter out = new PrintWriter(file.openWriter()))
+        {
+            writeHeader(out, schema);
+            out.println("import java.io.*;");
+            out.println();
+            out.println("import org.jitsi.xmpp.extensions.*;");
+            out.println("import org.jitsi.xmpp.extensions.schema.*;");
+            out.println();
+            out.println("/**");
+            out.println(
+                " * Writes the attributes of {@link " + simpleName + "}s.");
+            out.println(" */");
+            out.println("public final class " + serializerName);
+            out.println("    implements AttributeSerializer");
+            out.println("{");
+            out.println("    @Override");
+            out.println("    public void appendAttribute(");
+            out.println("            Appendable out,");
+            out.println("            String name,");
+            out.println("            Object value)");
+            out.println("        throws IOException");
+            out.println("    {");
+            out.println("        switch (name)");
+            out.println("        {");
+            for (Attribute attribute : schema.attributes)
+            {
+                out.println(
+                    "        case " + literal(attribute.name) + ":");
+                if (attribute.kind == Kind.INT || attribute.kind == Kind.LONG)
+                {
+                    boolean isInt = attribute.kind == Kind.INT;
+                    String type = isInt ? "Integer" : "Long";
+                    String primitive = isInt ? "int" : "long";
+
+                    out.println(
+                        "            if (value instanceof " + type
+                            + " && out instanceof StringBuilder)");
+                    out.println("            {");
+                    out.println("                ((StringBuilder) out)");
+                    out.println(
+                        "                    .append("
+                            + literal(" " + attribute.name + "='") + ")");
+                    out.println(
+                        "                    .append(((" + type
+                            + ") value)." + primitive + "Value())");
+                    out.println("                    .append('\\'');");
+                    out.println("                return;");
+                    out.println("            }");
+                }
+                out.println(
+                    "            out.append("
+                        + literal(" " + attribute.name + "='") + ");");
+                out.println("            break;");
+            }
+            out.println("        default:");
+            out.println(
+                "            XmlAppender.appendAttribute(out, name, value);");
+            out.println("            return;");
+            out.println("        }");
+            out.println(
+                "        if (value instanceof Integer"
+                    + " || value instanceof Long)");
+            out.println("        {");
+            out.println("            out.append(value.toString());");
+            out.println("        }");
+            out.println("        else");
+            out.println("        {");
+            out.println(
+                "            XmlAppender.appendEscapedAttributeValue(");
+            out.println("                    out,");
+            out.println("                    value.toString());");
+            out.println("        }");
+            out.println("        out.append('\\'');");
+            out.println("    }");
+            out.println("}");
+        }
+    }
+
+    /**
+     * Writes the start of a generated source file, up to its package
+     * declaration.
+     */
+    private void writeHeader(PrintWriter out, Schema schema)
+    {
+        PackageElement pkg
+            = processingEnv.getElementUtils().getPackageOf(schema.type);
+
+        out.println(
+            "// Generated by " + ExtensionProcessor.class.getSimpleName()
+                + " from " + schema.qualifiedName() + ". Do not edit.");
+        if (!pkg.isUnnamed())
+        {
+            out.println("package " + pkg.getQualifiedName() + ";");
+        }
+        out.println();
+    }
+
+    /**
+     * Checks whether a string is a valid (unprefixed) XML name, restricted
+     * to ASCII so that it needs no escaping in Java or XML.
+     */
+    static boolean isXmlName(String s)
+    {
+        if (s.isEmpty())
+        {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            boolean letter
+                = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+            boolean other
+                = (c >= '0' && c <= '9') || c == '-' || c == '.' || c == ':';
+
+            if (!letter && (i == 0 || !other))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the Java literal of a string.
+     */
+    static String literal(String s)
+    {
+        StringBuilder literal = new StringBuilder(s.length() + 2);
+
+        literal.append('"');
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+
+            if (c == '"' || c == '\\')
+            {
+                literal.append('\\').append(c);
+            }
+            else if (c < ' ' || c > '~')
+            {
+                literal.append(String.format("\\u%04x", (int) c));
+            }
+            else
+            {
+                literal.append(c);
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+    /**
+     * The types of attribute values.
+     */
+    enum Kind
+    {
+        STRING, INT, LONG, BOOLEAN, ENUM
+    }
+
+    /**
+     * A declared attribute.
+     */
+    static class Attribute
+    {
+        final String name;
+
+        final Kind kind;
+
+        /**
+         * The qualified name of the enum type of the attribute, if it is
+         * {@link Kind#ENUM}.
+         */
+        final String enumType;
+
+        Attribute(String name, Kind kind, String enumType)
+        {
+            this.name = name;
+            this.kind = kind;
+            this.enumType = enumType;
+        }
+
+        /**
+         * Returns the expression which converts a string to the value to
+         * store for this attribute.
+         */
+        String parseExpression(String value)
+        {
+            switch (kind)
+            {
+            case INT:
+                return "ExtensionSchema.parseInt(" + value + ")";
+            case LONG:
+                return "ExtensionSchema.parseLong(" + value + ")";
+            case BOOLEAN:
+                return "ExtensionSchema.parseBoolean(" + value + ")";
+            case ENUM:
+                return
+                    "ExtensionSchema.parseEnum(" + enumType + ".class, "
+                        + value + ")";
+            default:
+                return "TokenTable.dedup(" + value + ")";
+            }
+        }
+    }
+
+    /**
+     * The schema which a class declares.
+     */
+    static class Schema
+    {
+        final TypeElement type;
+
+        final String element;
+
+        /**
+         * The namespace of the element, or an empty string if it inherits
+         * that of its parent.
+         */
+        final String namespace;
+
+        final List<Attribute> attributes = new ArrayList<>();
+
+        final List<Schema> children = new ArrayList<>();
+
+        Schema(TypeElement type, XmlExtension annotation)
+        {
+            this.type = type;
+            this.element = annotation.element();
+            this.namespace = annotation.namespace();
+        }
+
+        String qualifiedName()
+        {
+            return type.getQualifiedName().toString();
+        }
+
+        String simpleName()
+        {
+            return type.getSimpleName().toString();
+        }
+
+        /**
+         * Returns the name of the field which holds the provider of this
+         * schema in the provider of its parent.
+         */
+        String fieldName()
+        {
+            String name = simpleName();
+
+            return
+                Character.toLowerCase(name.charAt(0)) + name.substring(1)
+                    + PROVIDER_SUFFIX;
+        }
+    }
+}
@@ -0,0 +1,513 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions;
+
+import junit.framework.*;
+
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+
+import org.jitsi.xmpp.extensions.jingle.*;
+import org.jivesoftware.smack.packet.*;
+
+/**
+ * Tests the serialization of {@link AbstractPacketExtension} trees.
+ */
+public class AbstractPacketExtensionTest
+    extends TestCase
+{
+    /**
+     * Builds a small tree with escaped attribute values and text, children in
+     * the same and in other namespaces, and a child which serializes itself.
+     */
+    private static AbstractPacketExtension createTree()
+    {
+        PayloadTypePacketExtension payloadType
+            = new PayloadTypePacketExtension();
+
+        payloadType.setId(111);
+        payloadType.setName("opus");
+        payloadType.addParameter(
+                new ParameterPacketExtension("msid", "a & <b> 'c' \"d\" \u00e9"));
+
+        RtcpFbPacketExtension rtcpFb = new RtcpFbPacketExtension();
+
+        rtcpFb.setFeedbackType("nack");
+        payloadType.addRtcpFeedbackType(rtcpFb);
+
+        RtpDescriptionPacketExtension description
+            = new RtpDescriptionPacketExtension();
+
+        description.setMedia("audio");
+        description.addPayloadType(payloadType);
+
+        DtlsFingerprintPacketExtension fingerprint
+            = new DtlsFingerprintPacketExtension();
+
+        fingerprint.setHash("sha-256");
+        fingerprint.setFingerprint("AB:CD <\uD83D\uDE00>");
+        description.addChildExtension(fingerprint);
+
+        description.addChildExtension(
+            new AbstractPacketExtension(null, "custom")
+            {
+                @Override
+                public String toXML(XmlEnvironment enclosingNamespace)
+                {
+                    return "<custom ns='"
+                        + enclosingNamespace.getEffectiveNamespace() + "'/>";
+                }
+            });
+
+        return description;
+    }
+
+    /**
+     * Tests that writing into an <tt>Appendable</tt> or a
+     * <tt>ByteBuffer</tt> produces the same XML as <tt>toXML()</tt>.
+     */
+    public void testStreamingToXML()
+        throws Exception
+    {
+        AbstractPacketExtension tree = createTree();
+        String xml = tree.toXML(XmlEnvironment.EMPTY);
+
+        assertEquals(
+            "<description xmlns='urn:xmpp:jingle:apps:rtp:1' media='audio'>"
+                + "<payload-type id='111' name='opus'>"
+                + "<parameter name='msid'"
+                + " value='a &amp; &lt;b> &apos;c&apos; \"d\" \u00e9'/>"
+                + "<rtcp-fb xmlns='urn:xmpp:jingle:apps:rtp:rtcp-fb:0'"
+                + " type='nack'/>"
+                + "</payload-type>"
+                + "<fingerprint xmlns='urn:xmpp:jingle:apps:dtls:0'"
+                + " hash='sha-256'>AB:CD &lt;\uD83D\uDE00></fingerprint>"
+                + "<custom ns='urn:xmpp:jingle:apps:rtp:1'/>"
+                + "</description>",
+            xml);
+
+        StringBuilder sb = new StringBuilder();
+
+        tree.toXML(sb, XmlEnvironment.EMPTY);
+        assertEquals(xml, sb.toString());
+
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+        tree.toXML(buffer, XmlEnvironment.EMPTY);
+        buffer.flip();
+        assertEquals(xml, StandardCharsets.UTF_8.decode(buffer).toString());
+
+        // Within an element of the same namespace, xmlns is omitted.
+        sb.setLength(0);
+        tree.toXML(
+                sb,
+                new XmlEnvironment(RtpDescriptionPacketExtension.NAMESPACE));
+        assertEquals(
+            xml.replace(" xmlns='urn:xmpp:jingle:apps:rtp:1'", ""),
+            sb.toString());
+    }
+
+    /**
+     * Tests that writing into a <tt>ByteBuffer</tt> which is too small fails.
+     */
+    public void testByteBufferOverflow()
+    {
+        try
+        {
+            createTree().toXML(ByteBuffer.allocate(16), XmlEnvironment.EMPTY);
+            fail("Expected a BufferOverflowException");
+        }
+        catch (BufferOverflowException expected)
+        {
+        }
+    }
+
+    /**
+     * Tests that the XML of an unchanged tree is reused, and that changes
+     * anywhere in it, including in a child shared with another tree, are
+     * reflected.
+     */
+    public void testCachedXML()
+    {
+        PayloadTypePacketExtension payloadType
+            = new PayloadTypePacketExtension();
+
+        payloadType.setId(111);
+
+        ParameterPacketExtension parameter
+            = new ParameterPacketExtension("minptime", "10");
+
+        payloadType.addParameter(parameter);
+
+        RtpDescriptionPacketExtension audio
+            = new RtpDescriptionPacketExtension();
+        RtpDescriptionPacketExtension video
+            = new RtpDescriptionPacketExtension();
+
+        audio.setMedia("audio");
+        audio.addPayloadType(payloadType);
+        video.setMedia("video");
+        video.addPayloadType(payloadType);
+
+        String xml = audio.toXML(XmlEnvironment.EMPTY);
+
+        assertSame(xml, audio.toXML(XmlEnvironment.EMPTY));
+        assertTrue(
+            video.toXML(XmlEnvironment.EMPTY).contains(
+                payloadType.toXML(
+                    new XmlEnvironment(
+                        RtpDescriptionPacketExtension.NAMESPACE))));
+
+        // A change to a grandchild.
+        parameter.setValue("20");
+        assertEquals(
+            xml.replace("value='10'", "value='20'"),
+            audio.toXML(XmlEnvironment.EMPTY));
+        assertTrue(video.toXML(XmlEnvironment.EMPTY).contains("value='20'"));
+
+        // A change made directly to the list of child extensions.
+        xml = audio.toXML(XmlEnvironment.EMPTY);
+        audio.getPayloadTypes().clear();
+        assertEquals(
+            "<description xmlns='urn:xmpp:jingle:apps:rtp:1' media='audio'/>",
+            audio.toXML(XmlEnvironment.EMPTY));
+
+        // A change made directly to the attributes.
+        payloadType.attributes.put("name", "opus");
+        assertTrue(
+            video.toXML(XmlEnvironment.EMPTY).contains(" name='opus'"));
+
+        video.freeze();
+        xml = video.toXML(XmlEnvironment.EMPTY);
+        assertSame(xml, video.toXML(XmlEnvironment.EMPTY));
+    }
+
+    /**
+     * Tests that the cached XML of a tree is checked from the top down, so
+     * that changes to descendants are seen without them knowing their
+     * parents, and that removed child extensions no longer affect it.
+     */
+    public void testChangePropagation()
+    {
+        PayloadTypePacketExtension opus = new PayloadTypePacketExtension();
+        PayloadTypePacketExtension red = new PayloadTypePacketExtension();
+        ParameterPacketExtension parameter
+            = new ParameterPacketExtension("minptime", "10");
+        RtpDescriptionPacketExtension description
+            = new RtpDescriptionPacketExtension();
+
+        opus.setId(111);
+        opus.addParameter(parameter);
+        red.setId(63);
+        description.addPayloadType(opus);
+        description.addPayloadType(red);
+
+        String xml = description.toXML(XmlEnvironment.EMPTY);
+
+        assertSame(xml, description.toXML(XmlEnvironment.EMPTY));
+
+        // A change to a grandchild, and the same change undone.
+        parameter.setValue("20");
+        assertTrue(
+            description.toXML(XmlEnvironment.EMPTY).contains("value='20'"));
+        parameter.setValue("10");
+        assertEquals(xml, description.toXML(XmlEnvironment.EMPTY));
+
+        // A child which is frozen no longer has its subtree checked, but its
+        // XML stays the same.
+        xml = description.toXML(XmlEnvironment.EMPTY);
+        red.freeze();
+        assertEquals(xml, description.toXML(XmlEnvironment.EMPTY));
+        opus.setName("opus");
+        assertTrue(
+            description.toXML(XmlEnvironment.EMPTY).contains(" name='opus'"));
+
+        // Neither a removed payload type nor a removed parameter affects its
+        // former parent.
+        description.removeChildExtension(red);
+        opus.removeChildExtension(parameter);
+        xml = description.toXML(XmlEnvironment.EMPTY);
+        parameter.setValue("30");
+        assertSame(xml, description.toXML(XmlEnvironment.EMPTY));
+    }
+
+    /**
+     * Tests that the list returned by
+     * {@link AbstractPacketExtension#getChildExtensions()} is live, including
+     * through its iterators, and that its iterators see a snapshot.
+     */
+    public void testChildExtensionsMutators()
+    {
+        PayloadTypePacketExtension payloadType
+            = new PayloadTypePacketExtension();
+        List<ExtensionElement> children = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++)
+        {
+            ParameterPacketExtension parameter
+                = new ParameterPacketExtension("p" + i, "v");
+
+            payloadType.addParameter(parameter);
+            children.add(parameter);
+        }
+
+        @SuppressWarnings("unchecked")
+        List<ExtensionElement> list
+            = (List<ExtensionElement>) payloadType.getChildExtensions();
+        ListIterator<ExtensionElement> it = list.listIterator();
+        String xml = payloadType.toXML(XmlEnvironment.EMPTY);
+
+        // Remove the first child, replace the second and insert after it.
+        it.next();
+        it.remove();
+        it.next();
+        it.set(children.get(3));
+        it.add(children.get(0));
+        assertEquals(
+            Arrays.asList(
+                children.get(3), children.get(0),
+                children.get(2), children.get(3)),
+            payloadType.getChildExtensions());
+        assertFalse(xml.equals(payloadType.toXML(XmlEnvironment.EMPTY)));
+        assertSame(children.get(2), it.next());
+
+        // An iterator sees the snapshot it started with and does not modify
+        // the list after another change to it.
+        Iterator<ExtensionElement> stale = list.iterator();
+
+        list.clear();
+        assertTrue(payloadType.getParameters().isEmpty());
+        assertSame(children.get(3), stale.next());
+        try
+        {
+            stale.remove();
+            fail("Removed through a stale iterator");
+        }
+        catch (ConcurrentModificationException expected)
+        {
+        }
+
+        list.addAll(children);
+        list.removeIf(child -> child == children.get(1));
+        list.sort(
+            Comparator.comparing(
+                child -> ((ParameterPacketExtension) child).getName(),
+                Comparator.reverseOrder()));
+        assertEquals(
+            Arrays.asList(children.get(3), children.get(2), children.get(0)),
+            payloadType.getParameters());
+    }
+
+    /**
+     * Tests that the getters of child extensions by type return copies, and
+     * that the unmodifiable lists are reused until the children change.
+     */
+    public void testChildExtensionsOfType()
+    {
+        PayloadTypePacketExtension payloadType
+            = new PayloadTypePacketExtension();
+        ParameterPacketExtension parameter
+            = new ParameterPacketExtension("minptime", "10");
+
+        payloadType.addParameter(parameter);
+
+        List<ParameterPacketExtension> parameters
+            = payloadType.getParameters();
+
+        assertNotSame(parameters, payloadType.getParameters());
+        parameters.clear();
+        assertEquals(
+            Collections.singletonList(parameter), payloadType.getParameters());
+
+        Iterator<ParameterPacketExtension> it
+            = payloadType.getParameters().iterator();
+
+        it.next();
+        it.remove();
+        assertEquals(
+            Collections.singletonList(parameter), payloadType.getParameters());
+
+        List<ParameterPacketExtension> view
+            = payloadType.getUnmodifiableChildExtensionsOfType(
+                    ParameterPacketExtension.class);
+
+        assertSame(
+            view,
+            payloadType.getUnmodifiableChildExtensionsOfType(
+                ParameterPacketExtension.class));
+        try
+        {
+            view.clear();
+            fail("Modified an unmodifiable list");
+        }
+        catch (UnsupportedOperationException expected)
+        {
+        }
+
+        payloadType.addParameter(
+                new ParameterPacketExtension("useinbandfec", "1"));
+        assertEquals(1, view.size());
+        assertEquals(2, payloadType.getParameters().size());
+    }
+
+    /**
+     * Tests that the string value of an attribute whose type is declared is
+     * parsed when it is set, so that the typed getters only read it, and
+     * that a value which is not in canonical form is written back as it was
+     * set.
+     */
+    public void testTypedGetters()
+    {
+        PayloadTypePacketExtension payloadType
+            = new PayloadTypePacketExtension();
+        String id = PayloadTypePacketExtension.ID_ATTR_NAME;
+
+        payloadType.setAttribute(id, "96");
+        assertEquals(Integer.valueOf(96), payloadType.attributes.get(id));
+
+        String xml = payloadType.toXML(XmlEnvironment.EMPTY);
+
+        assertEquals(96, payloadType.getID());
+        assertSame(xml, payloadType.toXML(XmlEnvironment.EMPTY));
+
+        payloadType.setAttribute(id, "097");
+        assertEquals("097", payloadType.attributes.get(id));
+        payloadType.freeze();
+        assertEquals(97, payloadType.getID());
+        assertTrue(
+            payloadType.toXML(XmlEnvironment.EMPTY).contains("id='097'"));
+    }
+
+    /**
+     * Tests that {@link AbstractPacketExtension#deepClone(ExtensionElement)}
+     * copies the whole tree, including unknown child extensions, but shares
+     * the frozen subtrees.
+     */
+    public void testDeepClone()
+    {
+        AbstractPacketExtension tree = createTree();
+        ExtensionElement unknown = new ExtensionElement()
+        {
+            @Override
+            public String getNamespace()
+            {
+                return "urn:example";
+            }
+
+            @Override
+            public String getElementName()
+            {
+                return "unknown";
+            }
+
+            @Override
+            public String toXML(XmlEnvironment enclosingNamespace)
+            {
+                return "<unknown xmlns='urn:example'/>";
+            }
+        };
+
+        // The child which serializes itself cannot be created like the parser
+        // would create it.
+        for (ExtensionElement childExtension : tree.getChildExtensions())
+        {
+            if ("custom".equals(childExtension.getElementName()))
+            {
+                tree.removeChildExtension(childExtension);
+                break;
+            }
+        }
+        tree.addChildExtension(unknown);
+
+        String xml = tree.toXML(XmlEnvironment.EMPTY);
+        RtpDescriptionPacketExtension copy
+            = (RtpDescriptionPacketExtension)
+                AbstractPacketExtension.deepClone(tree);
+
+        assertEquals(xml, copy.toXML(XmlEnvironment.EMPTY));
+        assertTrue(copy.getChildExtensions().contains(unknown));
+
+        PayloadTypePacketExtension payloadType
+            = ((RtpDescriptionPacketExtension) tree).getPayloadTypes().get(0);
+        PayloadTypePacketExtension payloadTypeCopy
+            = copy.getPayloadTypes().get(0);
+
+        assertNotSame(payloadType, payloadTypeCopy);
+        payloadTypeCopy.setName("red");
+        assertEquals("opus", payloadType.getName());
+
+        // Frozen subtrees are shared, but the copy itself can be changed.
+        tree.freeze();
+        copy = AbstractPacketExtension.deepClone(
+                (RtpDescriptionPacketExtension) tree);
+        assertFalse(copy.isFrozen());
+        assertSame(payloadType, copy.getPayloadTypes().get(0));
+        copy.setMedia("video");
+        assertEquals(
+            "audio",
+            ((RtpDescriptionPacketExtension) tree).getMedia());
+    }
+
+    /**
+     * Tests that extensions with the same structure are structurally equal
+     * and hash alike, regardless of the order of their attributes and of
+     * whether their namespaces are inherited, and that changes deep in a tree
+     * change its hash.
+     */
+    public void testStructuralHash()
+    {
+        AbstractPacketExtension tree = createTree();
+        AbstractPacketExtension same = createTree();
+        long hash = tree.getStructuralHash();
+
+        assertEquals(hash, same.getStructuralHash());
+        assertTrue(tree.structurallyEquals(same));
+
+        ParameterPacketExtension a = new ParameterPacketExtension();
+        ParameterPacketExtension b = new ParameterPacketExtension();
+
+        a.setName("apt");
+        a.setValue("100");
+        b.setValue("100");
+        b.setName("apt");
+        b.setNamespace(RtpDescriptionPacketExtension.NAMESPACE);
+
+        PayloadTypePacketExtension aParent = new PayloadTypePacketExtension();
+        PayloadTypePacketExtension bParent = new PayloadTypePacketExtension();
+
+        aParent.addParameter(a);
+        bParent.addParameter(b);
+        assertEquals(aParent.getStructuralHash(), bParent.getStructuralHash());
+        assertTrue(aParent.structurallyEquals(bParent));
+
+        Set<AbstractPacketExtension.StructuralKey> keys = new HashSet<>();
+
+        assertTrue(keys.add(new AbstractPacketExtension.StructuralKey(tree)));
+        assertFalse(keys.add(new AbstractPacketExtension.StructuralKey(same)));
+
+        // A change deep in the tree changes the hash of the whole tree.
+        ((RtpDescriptionPacketExtension) same).getPayloadTypes().get(0)
+            .getParameters().get(0).setValue("20");
+        assertFalse(hash == same.getStructuralHash());
+        assertFalse(tree.structurallyEquals(same));
+
+        // Freezing does not change the structure.
+        tree.freeze();
+        assertEquals(hash, tree.getStructuralHash());
+        assertEquals(hash, tree.getStructuralHash());
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions;
+
+import junit.framework.*;
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.jitsi.xmpp.extensions.colibri.*;
+import org.jitsi.xmpp.extensions.jingle.*;
+
+/**
+ * Checks that parsing and serializing the stanzas of {@link Corpus} does not
+ * allocate more per stanza than the budgets in
+ * <tt>allocation-budgets.properties</tt>, so that a change which makes the
+ * hot path allocate more has to raise a budget, in plain sight.
+ * <p>
+ * Each stanza is serialized from a tree of its own, which has not been
+ * serialized before, so that the budgets cover writing the XML rather than
+ * copying the XML which a tree caches.
+ * <p>
+ * The allocations are those of the current thread, as counted by
+ * <tt>com.sun.management.ThreadMXBean</tt>. The tests pass without checking
+ * anything on a JVM which does not count them.
+ */
+public class AllocationBudgetTest
+    extends TestCase
+{
+    /**
+     * The number of endpoints in the conference of the corpus.
+     */
+    private static final int ENDPOINTS = 10;
+
+    /**
+     * The number of times a stanza is processed before measuring, so that
+     * the code is compiled and the caches are filled.
+     */
+    private static final int WARMUP = 500;
+
+    /**
+     * The number of times a stanza is processed while measuring.
+     */
+    private static final int MEASURED = 100;
+
+    /**
+     * The budgets, in bytes per stanza, by name.
+     */
+    private Properties budgets;
+
+    /**
+     * Counts the bytes which threads allocate, or <tt>null</tt> if the JVM
+     * does not.
+     */
+    private com.sun.management.ThreadMXBean threads;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        budgets = new Properties();
+        try (InputStream in
+                = AllocationBudgetTest.class.getResourceAsStream(
+                        "allocation-budgets.properties"))
+        {
+            assertNotNull("allocation-budgets.properties", in);
+            budgets.load(in);
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        if (threads instanceof com.sun.management.ThreadMXBean)
+        {
+            com.sun.management.ThreadMXBean sunThreads
+                = (com.sun.management.ThreadMXBean) threads;
+
+            if (sunThreads.isThreadAllocatedMemorySupported())
+            {
+                sunThreads.setThreadAllocatedMemoryEnabled(true);
+                this.threads = sunThreads;
+            }
+        }
+    }
+
+    /**
+     * Checks that a task does not allocate more than its budget.
+     *
+     * @param name the name of the budget.
+     * @param task the task, which processes one stanza.
+     */
+    private void assertWithinBudget(String name, Callable<?> task)
+        throws Exception
+    {
+        assertWithinBudget(name, () -> null, input -> task.call());
+    }
+
+    /**
+     * Checks that a task does not allocate more than its budget, not counting
+     * what preparing the input of each run of the task allocates.
+     *
+     * @param name the name of the budget.
+     * @param input prepares the input of one run of the task.
+     * @param task the task, which processes one stanza.
+     */
+    private <T> void assertWithinBudget(
+            String name,
+            Callable<T> input,
+            Task<T> task)
+        throws Exception
+    {
+        String budget = budgets.getProperty(name);
+
+        assertNotNull("No budget for " + name, budget);
+        if (threads == null)
+        {
+            return;
+        }
+
+        for (int i = 0; i < WARMUP; i++)
+        {
+            task.run(input.call());
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long total = 0;
+
+        for (int i = 0; i < MEASURED; i++)
+        {
+            T t = input.call();
+            long before = threads.getThreadAllocatedBytes(threadId);
+
+            task.run(t);
+            total += threads.getThreadAllocatedBytes(threadId) - before;
+        }
+
+        long allocated = total / MEASURED;
+
+        assertTrue(
+            name + " allocated " + allocated + " bytes per stanza, over its"
+                + " budget of " + budget,
+            allocated <= Long.parseLong(budget.trim()));
+    }
+
+    public void testParseJingle()
+        throws Exception
+    {
+        JingleIQProvider provider = new JingleIQProvider();
+        String xml = Corpus.jingleSessionInitiate(ENDPOINTS);
+
+        assertWithinBudget(
+            "parse.jingle",
+            () -> provider.parse(Corpus.parser(xml)));
+    }
+
+    public void testParseColibri()
+        throws Exception
+    {
+        ColibriIQProvider provider = new ColibriIQProvider();
+        String xml = Corpus.colibriAllocateResponse(ENDPOINTS);
+
+        assertWithinBudget(
+            "parse.colibri",
+            () -> provider.parse(Corpus.parser(xml)));
+    }
+
+    public void testParseStats()
+        throws Exception
+    {
+        ColibriIQProvider provider = new ColibriIQProvider();
+        String xml = Corpus.colibriStats();
+
+        assertWithinBudget(
+            "parse.stats",
+            () -> provider.parse(Corpus.parser(xml)));
+    }
+
+    public void testSerializeJingle()
+        throws Exception
+    {
+        JingleIQProvider provider = new JingleIQProvider();
+        String xml = Corpus.jingleSessionInitiate(ENDPOINTS);
+
+        assertWithinBudget(
+            "serialize.jingle",
+            () -> provider.parse(Corpus.parser(xml)),
+            iq -> iq.toXML().toString());
+    }
+
+    public void testSerializeColibri()
+        throws Exception
+    {
+        ColibriIQProvider provider = new ColibriIQProvider();
+        String xml = Corpus.colibriAllocateResponse(ENDPOINTS);
+
+        assertWithinBudget(
+            "serialize.colibri",
+            () -> provider.parse(Corpus.parser(xml)),
+            iq -> iq.toXML().toString());
+    }
+
+    public void testSerializeStats()
+        throws Exception
+    {
+        ColibriIQProvider provider = new ColibriIQProvider();
+        String xml = Corpus.colibriStats();
+
+        assertWithinBudget(
+            "serialize.stats",
+            () -> provider.parse(Corpus.parser(xml)),
+            iq -> iq.toXML().toString());
+    }
+
+    /**
+     * Processes one stanza, given as the input which has been prepared for
+     * it.
+     *
+     * @param <T> the type of the input.
+     */
+    private interface Task<T>
+    {
+        /**
+         * Processes one stanza.
+         *
+         * @param input the input prepared for this run.
+         */
+        void run(T input)
+            throws Exception;
+    }
+}
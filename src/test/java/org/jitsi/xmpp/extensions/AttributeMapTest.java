@@ -0,0 +1,293 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions;
+
+import junit.framework.*;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import org.jitsi.xmpp.extensions.colibri.*;
+import org.jivesoftware.smack.packet.*;
+
+/**
+ * Tests {@link AttributeMap}, in particular that it behaves like a
+ * {@link LinkedHashMap} both below and above the size at which it starts
+ * indexing the attribute names, and that it retains less memory than one.
+ */
+public class AttributeMapTest
+    extends TestCase
+{
+    /**
+     * Tests that insertion order is preserved when setting, replacing and
+     * removing a few attributes.
+     */
+    public void testInsertionOrder()
+    {
+        AttributeMap map = new AttributeMap();
+
+        map.put("id", "111");
+        map.put("name", "opus");
+        map.put("clockrate", "48000");
+        map.put("channels", "2");
+
+        // Replacing a value keeps its position.
+        assertEquals("opus", map.put("name", "red"));
+        assertEquals(
+            Arrays.asList("id", "name", "clockrate", "channels"),
+            new ArrayList<>(map.keySet()));
+        assertEquals("red", map.valueAt(1));
+
+        // Removing shifts the following attributes.
+        assertEquals("48000", map.remove("clockrate"));
+        assertNull(map.remove("clockrate"));
+        assertEquals(3, map.size());
+        assertEquals("channels", map.nameAt(2));
+        assertFalse(map.containsKey("clockrate"));
+
+        map.put("clockrate", "8000");
+        assertEquals(
+            Arrays.asList("id", "name", "channels", "clockrate"),
+            new ArrayList<>(map.keySet()));
+    }
+
+    /**
+     * Tests an {@link AttributeMap} against a {@link LinkedHashMap} with
+     * enough attributes for the name index to be built and dropped again.
+     */
+    public void testManyAttributes()
+    {
+        AttributeMap map = new AttributeMap();
+        Map<String, Object> expected = new LinkedHashMap<>();
+
+        for (int i = 0; i < 40; i++)
+        {
+            map.put("attr" + i, i);
+            expected.put("attr" + i, i);
+        }
+        assertEquals(expected, map);
+        assertEquals(
+            new ArrayList<>(expected.keySet()),
+            new ArrayList<>(map.keySet()));
+
+        for (int i = 0; i < 40; i += 3)
+        {
+            assertEquals(expected.remove("attr" + i), map.remove("attr" + i));
+        }
+        assertEquals(expected, map);
+
+        Iterator<Map.Entry<String, Object>> it = map.entrySet().iterator();
+
+        while (it.hasNext())
+        {
+            Map.Entry<String, Object> e = it.next();
+
+            if (((Integer) e.getValue()) % 2 == 0)
+            {
+                it.remove();
+                expected.remove(e.getKey());
+            }
+            else
+            {
+                e.setValue(-1);
+                expected.put(e.getKey(), -1);
+            }
+        }
+        assertEquals(expected, map);
+        assertEquals(
+            new ArrayList<>(expected.keySet()),
+            new ArrayList<>(map.keySet()));
+
+        for (String name : expected.keySet())
+        {
+            assertEquals(expected.get(name), map.get(name));
+        }
+        assertNull(map.get("attr0"));
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get("attr1"));
+    }
+
+    /**
+     * Estimates the heap size of an instance of a class from its fields, on a
+     * 64-bit JVM with compressed references: a 12-byte header, 4-byte
+     * references, and the total rounded up to 8 bytes.
+     */
+    private static long shallowSizeOf(Class<?> c)
+    {
+        long size = 12;
+
+        for (; c != null; c = c.getSuperclass())
+        {
+            for (Field field : c.getDeclaredFields())
+            {
+                if (Modifier.isStatic(field.getModifiers()))
+                {
+                    continue;
+                }
+
+                Class<?> type = field.getType();
+
+                if (type == long.class || type == double.class)
+                {
+                    size += 8;
+                }
+                else if (type == short.class || type == char.class)
+                {
+                    size += 2;
+                }
+                else if (type == byte.class || type == boolean.class)
+                {
+                    size += 1;
+                }
+                else
+                {
+                    size += 4;
+                }
+            }
+        }
+        return (size + 7) & ~7;
+    }
+
+    /**
+     * Estimates the heap size of an array of references.
+     */
+    private static long sizeOfArray(int length)
+    {
+        return (16 + 4L * length + 7) & ~7;
+    }
+
+    /**
+     * Estimates the heap size of a <tt>HashMap</tt> of a specific class with
+     * a specific number of entries put into it, with the default initial
+     * capacity and load factor.
+     */
+    private static long sizeOfHashMap(
+            Class<?> mapClass,
+            String entryClassName,
+            int size)
+        throws ClassNotFoundException
+    {
+        long bytes = shallowSizeOf(mapClass);
+
+        if (size > 0)
+        {
+            int capacity = 16;
+
+            while (size > capacity * 3 / 4)
+            {
+                capacity <<= 1;
+            }
+            bytes
+                += sizeOfArray(capacity)
+                    + size * shallowSizeOf(Class.forName(entryClassName));
+        }
+        return bytes;
+    }
+
+    /**
+     * Adds the {@link AbstractPacketExtension}s of a tree to a list.
+     */
+    private static void collectExtensions(
+            ExtensionElement extension,
+            List<AbstractPacketExtension> extensions)
+    {
+        if (extension instanceof AbstractPacketExtension)
+        {
+            AbstractPacketExtension ape = (AbstractPacketExtension) extension;
+
+            extensions.add(ape);
+            for (ExtensionElement child : ape.getChildExtensions())
+            {
+                collectExtensions(child, extensions);
+            }
+        }
+    }
+
+    /**
+     * Tests that the attributes of a parsed Colibri allocation response
+     * retain a fraction of the bytes which they retained with a
+     * <tt>LinkedHashMap</tt> per extension. The strings and boxed values are
+     * the same either way, so only the maps are counted.
+     */
+    public void testRetainedSize()
+        throws Exception
+    {
+        ColibriConferenceIQ iq = Corpus.parseAllocateResponse(50);
+        List<AbstractPacketExtension> extensions = new ArrayList<>();
+
+        for (ColibriConferenceIQ.Content content : iq.getContents())
+        {
+            for (ColibriConferenceIQ.Channel channel : content.getChannels())
+            {
+                List<ExtensionElement> children = new ArrayList<>();
+
+                children.addAll(channel.getPayloadTypes());
+                children.addAll(channel.getRtpHeaderExtensions());
+                children.addAll(channel.getSources());
+                if (channel.getSourceGroups() != null)
+                {
+                    children.addAll(channel.getSourceGroups());
+                }
+                children.add(channel.getTransport());
+                for (ExtensionElement child : children)
+                {
+                    collectExtensions(child, extensions);
+                }
+            }
+        }
+        for (ColibriConferenceIQ.ChannelBundle channelBundle
+                : iq.getChannelBundles())
+        {
+            collectExtensions(channelBundle.getTransport(), extensions);
+        }
+        assertTrue(extensions.size() > 1000);
+
+        long before = 0;
+        long after = 0;
+
+        for (AbstractPacketExtension extension : extensions)
+        {
+            AttributeMap attributes = extension.getAttributeMap();
+            int size = attributes.size();
+
+            before
+                += sizeOfHashMap(
+                        LinkedHashMap.class,
+                        "java.util.LinkedHashMap$Entry",
+                        size);
+            after
+                += shallowSizeOf(AttributeMap.class)
+                    + (attributes.capacity() == 0
+                        ? 0
+                        : sizeOfArray(attributes.capacity() << 1));
+            if (size > 16)
+            {
+                // The index of the names.
+                after
+                    += sizeOfHashMap(
+                            HashMap.class,
+                            "java.util.HashMap$Node",
+                            size);
+            }
+        }
+
+        assertTrue(
+            "retained " + after + " instead of " + before + " bytes",
+            after * 2 < before);
+    }
+}
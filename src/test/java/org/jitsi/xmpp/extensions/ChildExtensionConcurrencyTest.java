@@ -0,0 +1,238 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions;
+
+import junit.framework.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.jitsi.xmpp.extensions.colibri.*;
+import org.jitsi.xmpp.extensions.jingle.*;
+import org.jivesoftware.smack.packet.*;
+
+/**
+ * Stresses the child extensions of {@link AbstractPacketExtension} with
+ * threads which serialize, look up and iterate them while others add and
+ * remove children.
+ */
+public class ChildExtensionConcurrencyTest
+    extends TestCase
+{
+    private static final int READERS = 4;
+
+    private static final int WRITERS = 4;
+
+    private static final int ITERATIONS = 2_000;
+
+    /**
+     * The number of children which the extension has throughout.
+     */
+    private static final int INITIAL_CHILDREN = 8;
+
+    /**
+     * Creates a source with a specific SSRC.
+     */
+    private static SourcePacketExtension createSource(long ssrc)
+    {
+        SourcePacketExtension source = new SourcePacketExtension();
+
+        source.setSSRC(ssrc);
+        return source;
+    }
+
+    /**
+     * Runs tasks on as many threads, all starting at the same time, and fails
+     * with the first exception which any of them throws.
+     */
+    private static void runConcurrently(List<Callable<Void>> tasks)
+        throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        CyclicBarrier barrier = new CyclicBarrier(tasks.size());
+        List<Future<Void>> futures = new ArrayList<>();
+
+        try
+        {
+            for (Callable<Void> task : tasks)
+            {
+                futures.add(executor.submit(() -> {
+                    barrier.await();
+                    return task.call();
+                }));
+            }
+            for (Future<Void> future : futures)
+            {
+                try
+                {
+                    future.get(60, TimeUnit.SECONDS);
+                }
+                catch (ExecutionException e)
+                {
+                    Throwable cause = e.getCause();
+
+                    if (cause instanceof Error)
+                    {
+                        throw (Error) cause;
+                    }
+                    throw (Exception) cause;
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests that readers always see a consistent set of children while
+     * writers add and remove them, and that the XML is current once they
+     * stop.
+     */
+    public void testConcurrentSerializationAndMutation()
+        throws Exception
+    {
+        ContentPacketExtension content = new ContentPacketExtension();
+
+        content.setName("video");
+        for (int i = 0; i < INITIAL_CHILDREN; i++)
+        {
+            content.addChildExtension(createSource(i));
+        }
+
+        String initialXml = content.toXML(XmlEnvironment.EMPTY);
+        List<Callable<Void>> tasks = new ArrayList<>();
+
+        for (int w = 0; w < WRITERS; w++)
+        {
+            long base = 1_000_000L * (w + 1);
+
+            tasks.add(() -> {
+                for (int i = 0; i < ITERATIONS; i++)
+                {
+                    SourcePacketExtension source = createSource(base + i);
+
+                    content.addChildExtension(source);
+                    if (i % 2 == 0)
+                    {
+                        assertTrue(content.removeChildExtension(source));
+                    }
+                    else
+                    {
+                        assertTrue(
+                            content.getChildExtensions().remove(source));
+                    }
+                }
+                return null;
+            });
+        }
+        for (int r = 0; r < READERS; r++)
+        {
+            tasks.add(() -> {
+                for (int i = 0; i < ITERATIONS; i++)
+                {
+                    String xml = content.toXML(XmlEnvironment.EMPTY);
+
+                    assertTrue(xml, xml.endsWith("</content>"));
+
+                    // Every writer has at most one child of its own at a
+                    // time.
+                    int sources = 0;
+
+                    for (ExtensionElement child
+                            : content.getChildExtensions())
+                    {
+                        assertNotNull(child);
+                        sources++;
+                    }
+                    assertTrue(
+                        sources >= INITIAL_CHILDREN
+                            && sources <= INITIAL_CHILDREN + WRITERS);
+
+                    List<SourcePacketExtension> ofType
+                        = content.getChildExtensionsOfType(
+                                SourcePacketExtension.class);
+
+                    assertTrue(
+                        ofType.size() >= INITIAL_CHILDREN
+                            && ofType.size() <= INITIAL_CHILDREN + WRITERS);
+                    for (int j = 0; j < INITIAL_CHILDREN; j++)
+                    {
+                        assertEquals(j, ofType.get(j).getSSRC());
+                    }
+                }
+                return null;
+            });
+        }
+        runConcurrently(tasks);
+
+        assertEquals(
+            INITIAL_CHILDREN,
+            content.getChildExtensionsOfType(
+                    SourcePacketExtension.class).size());
+        assertEquals(initialXml, content.toXML(XmlEnvironment.EMPTY));
+    }
+
+    /**
+     * Tests that freezing an extension while children are added to it keeps
+     * exactly those which were added before it was frozen.
+     */
+    public void testConcurrentFreeze()
+        throws Exception
+    {
+        ContentPacketExtension content = new ContentPacketExtension();
+        AtomicInteger added = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+
+        for (int w = 0; w < WRITERS; w++)
+        {
+            tasks.add(() -> {
+                for (int i = 0; i < ITERATIONS; i++)
+                {
+                    try
+                    {
+                        content.addChildExtension(createSource(i));
+                    }
+                    catch (IllegalStateException e)
+                    {
+                        assertTrue(content.isFrozen());
+                        return null;
+                    }
+                    added.incrementAndGet();
+                }
+                return null;
+            });
+        }
+        tasks.add(() -> {
+            while (content.getChildExtensions().size() < ITERATIONS)
+            {
+                Thread.yield();
+            }
+            content.freeze();
+            return null;
+        });
+        runConcurrently(tasks);
+
+        assertTrue(content.isFrozen());
+        assertEquals(added.get(), content.getChildExtensions().size());
+        assertEquals(
+            added.get(),
+            content.getChildExtensionsOfType(SourcePacketExtension.class)
+                .size());
+    }
+}
@@ -0,0 +1,541 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions;
+
+import java.io.*;
+import java.lang.reflect.*;
+
+import org.jitsi.xmpp.extensions.colibri.*;
+import org.jitsi.xmpp.extensions.jingle.*;
+import org.jivesoftware.smack.xml.*;
+
+/**
+ * The stanzas which the allocation tests and the benchmarks (in
+ * <tt>src/jmh/java</tt>) parse and serialize, modelled on what Jicofo and
+ * Jitsi Videobridge exchange in a conference: the Jingle offer which Jicofo
+ * sends to a participant, the response of the bridge to a channel
+ * allocation, the statistics which the bridge publishes and the presence of
+ * a participant in the MUC.
+ */
+public final class Corpus
+{
+    /**
+     * The JID of the MUC of the conference.
+     */
+    private static final String ROOM = "room@conference.meet.example.com";
+
+    /**
+     * The payload types which are offered for audio.
+     */
+    private static final String AUDIO_PAYLOAD_TYPES
+        = "<payload-type id='111' name='opus' clockrate='48000' channels='2'>"
+            + "<parameter name='minptime' value='10'/>"
+            + "<parameter name='useinbandfec' value='1'/>"
+            + "<rtcp-fb xmlns='urn:xmpp:jingle:apps:rtp:rtcp-fb:0'"
+            + " type='transport-cc'/>"
+            + "</payload-type>"
+            + "<payload-type id='103' name='ISAC' clockrate='16000'/>"
+            + "<payload-type id='104' name='ISAC' clockrate='32000'/>"
+            + "<payload-type id='126' name='telephone-event'"
+            + " clockrate='8000'/>";
+
+    /**
+     * The payload types which are offered for video.
+     */
+    private static final String VIDEO_PAYLOAD_TYPES
+        = videoPayloadType(100, "VP8", 96, "")
+            + videoPayloadType(101, "VP9", 97, "")
+            + videoPayloadType(
+                    107,
+                    "H264",
+                    99,
+                    "<parameter name='profile-level-id' value='42e01f'/>"
+                        + "<parameter name='packetization-mode' value='1'/>"
+                        + "<parameter name='level-asymmetry-allowed'"
+                        + " value='1'/>");
+
+    /**
+     * The RTP header extensions which are offered for audio.
+     */
+    private static final String AUDIO_HEADER_EXTENSIONS
+        = "<rtp-hdrext xmlns='urn:xmpp:jingle:apps:rtp:rtp-hdrext:0' id='1'"
+            + " uri='urn:ietf:params:rtp-hdrext:ssrc-audio-level'/>"
+            + "<rtp-hdrext xmlns='urn:xmpp:jingle:apps:rtp:rtp-hdrext:0' id='5'"
+            + " uri='http://www.ietf.org/id/"
+            + "draft-holmer-rmcat-transport-wide-cc-extensions-01'/>";
+
+    /**
+     * The RTP header extensions which are offered for video.
+     */
+    private static final String VIDEO_HEADER_EXTENSIONS
+        = "<rtp-hdrext xmlns='urn:xmpp:jingle:apps:rtp:rtp-hdrext:0' id='3'"
+            + " uri='http://www.webrtc.org/experiments/rtp-hdrext/"
+            + "abs-send-time'/>"
+            + "<rtp-hdrext xmlns='urn:xmpp:jingle:apps:rtp:rtp-hdrext:0' id='4'"
+            + " uri='urn:3gpp:video-orientation'/>"
+            + "<rtp-hdrext xmlns='urn:xmpp:jingle:apps:rtp:rtp-hdrext:0' id='5'"
+            + " uri='http://www.ietf.org/id/"
+            + "draft-holmer-rmcat-transport-wide-cc-extensions-01'/>";
+
+    /**
+     * Returns the XML of a video payload type and of its RTX payload type.
+     */
+    private static String videoPayloadType(
+            int id,
+            String name,
+            int rtxId,
+            String parameters)
+    {
+        return
+            "<payload-type id='" + id + "' name='" + name + "'"
+                + " clockrate='90000'>"
+                + parameters
+                + "<rtcp-fb xmlns='urn:xmpp:jingle:apps:rtp:rtcp-fb:0'"
+                + " type='ccm' subtype='fir'/>"
+                + "<rtcp-fb xmlns='urn:xmpp:jingle:apps:rtp:rtcp-fb:0'"
+                + " type='nack'/>"
+                + "<rtcp-fb xmlns='urn:xmpp:jingle:apps:rtp:rtcp-fb:0'"
+                + " type='nack' subtype='pli'/>"
+                + "<rtcp-fb xmlns='urn:xmpp:jingle:apps:rtp:rtcp-fb:0'"
+                + " type='goog-remb'/>"
+                + "<rtcp-fb xmlns='urn:xmpp:jingle:apps:rtp:rtcp-fb:0'"
+                + " type='transport-cc'/>"
+                + "</payload-type>"
+                + "<payload-type id='" + rtxId + "' name='rtx'"
+                + " clockrate='90000'>"
+                + "<parameter name='apt' value='" + id + "'/>"
+                + "</payload-type>";
+    }
+
+    /**
+     * Returns the SSRC of one of the sources of an endpoint.
+     *
+     * @param endpoint the index of the endpoint.
+     * @param source the index of the source of the endpoint: 0 for audio, 1
+     * to 3 for the simulcast layers of video and 4 to 6 for their RTX.
+     */
+    private static long ssrc(int endpoint, int source)
+    {
+        return 100000000L + 1000L * endpoint + source;
+    }
+
+    /**
+     * Returns the ID of an endpoint.
+     */
+    private static String endpointId(int endpoint)
+    {
+        return String.format("%08x", 0x1a2b0000 + endpoint);
+    }
+
+    /**
+     * Appends a source with the usual parameters and owner.
+     */
+    private static void appendSource(
+            StringBuilder xml,
+            int endpoint,
+            int source,
+            String media)
+    {
+        String id = endpointId(endpoint);
+
+        xml.append("<source xmlns='urn:xmpp:jingle:apps:rtp:ssma:0' ssrc='")
+            .append(ssrc(endpoint, source)).append("'>")
+            .append("<parameter name='cname' value='cname-").append(id)
+            .append("'/>")
+            .append("<parameter name='msid' value='").append(id)
+            .append("-stream ").append(id).append('-').append(media)
+            .append("'/>")
+            .append("<ssrc-info xmlns='http://jitsi.org/jitmeet' owner='")
+            .append(ROOM).append('/').append(id).append("'/>")
+            .append("</source>");
+    }
+
+    /**
+     * Appends the audio source of an endpoint.
+     */
+    private static void appendAudioSources(StringBuilder xml, int endpoint)
+    {
+        appendSource(xml, endpoint, 0, "audio");
+    }
+
+    /**
+     * Appends the simulcast video sources of an endpoint, with their RTX
+     * sources and the groups which tie them together.
+     */
+    private static void appendVideoSources(StringBuilder xml, int endpoint)
+    {
+        for (int source = 1; source <= 6; source++)
+        {
+            appendSource(xml, endpoint, source, "video");
+        }
+        xml.append("<ssrc-group xmlns='urn:xmpp:jingle:apps:rtp:ssma:0'")
+            .append(" semantics='SIM'>");
+        for (int source = 1; source <= 3; source++)
+        {
+            xml.append("<source ssrc='").append(ssrc(endpoint, source))
+                .append("'/>");
+        }
+        xml.append("</ssrc-group>");
+        for (int source = 1; source <= 3; source++)
+        {
+            xml.append("<ssrc-group xmlns='urn:xmpp:jingle:apps:rtp:ssma:0'")
+                .append(" semantics='FID'>")
+                .append("<source ssrc='").append(ssrc(endpoint, source))
+                .append("'/>")
+                .append("<source ssrc='").append(ssrc(endpoint, source + 3))
+                .append("'/>")
+                .append("</ssrc-group>");
+        }
+    }
+
+    /**
+     * Appends an ICE transport with a fingerprint, candidates and, if
+     * <tt>sctp</tt>, an SCTP map.
+     */
+    private static void appendTransport(
+            StringBuilder xml,
+            int endpoint,
+            boolean sctp)
+    {
+        xml.append("<transport xmlns='urn:xmpp:jingle:transports:ice-udp:1'")
+            .append(" ufrag='uf").append(endpointId(endpoint))
+            .append("' pwd='3cmhv7ds9eiqiqr0ns4ln6c9").append(endpoint)
+            .append("'>");
+        if (sctp)
+        {
+            xml.append("<sctpmap xmlns='urn:xmpp:jingle:transports:dtls-sctp:1'")
+                .append(" number='5000' protocol='webrtc-datachannel'")
+                .append(" streams='1024'/>");
+        }
+        xml.append("<web-socket xmlns='http://jitsi.org/protocol/colibri'")
+            .append(" url='wss://jvb1.meet.example.com/colibri-ws/")
+            .append(endpointId(endpoint)).append("'/>")
+            .append("<rtcp-mux/>")
+            .append("<fingerprint xmlns='urn:xmpp:jingle:apps:dtls:0'")
+            .append(" hash='sha-256' setup='actpass'>")
+            .append("44:AF:49:E3:3B:E0:0D:A2:FA:AB:F4:93:EC:5D:32:39:78:F8:")
+            .append("01:06:1F:8E:E4:35:36:15:56:59:6B:3C:52:49")
+            .append("</fingerprint>")
+            .append("<candidate component='1' foundation='1' generation='0'")
+            .append(" id='c1").append(endpoint).append("' network='0'")
+            .append(" ip='10.0.0.1' port='10000' priority='2130706431'")
+            .append(" protocol='udp' type='host'/>")
+            .append("<candidate component='1' foundation='2' generation='0'")
+            .append(" id='c2").append(endpoint).append("' network='0'")
+            .append(" ip='203.0.113.1' port='10000' priority='1694498815'")
+            .append(" protocol='udp' type='srflx' rel-addr='10.0.0.1'")
+            .append(" rel-port='10000'/>")
+            .append("<candidate component='1' foundation='3' generation='0'")
+            .append(" id='c3").append(endpoint).append("' network='0'")
+            .append(" ip='10.0.0.1' port='4443' priority='1518280447'")
+            .append(" protocol='tcp' tcptype='passive' type='host'/>")
+            .append("</transport>");
+    }
+
+    /**
+     * Returns the <tt>jingle</tt> element of the <tt>session-initiate</tt>
+     * which Jicofo sends to a participant of a conference: audio, video with
+     * simulcast and data, with the sources of all the other participants.
+     *
+     * @param endpoints the number of participants in the conference.
+     * @return the XML of the <tt>jingle</tt> element.
+     */
+    public static String jingleSessionInitiate(int endpoints)
+    {
+        StringBuilder xml = new StringBuilder();
+
+        xml.append("<jingle xmlns='urn:xmpp:jingle:1'")
+            .append(" action='session-initiate'")
+            .append(" initiator='focus@auth.meet.example.com/focus'")
+            .append(" sid='7ao9b6b2qqbj'>");
+
+        xml.append("<content creator='initiator' name='audio'")
+            .append(" senders='both'>")
+            .append("<description xmlns='urn:xmpp:jingle:apps:rtp:1'")
+            .append(" media='audio' maxptime='60'>")
+            .append(AUDIO_PAYLOAD_TYPES)
+            .append(AUDIO_HEADER_EXTENSIONS);
+        for (int endpoint = 1; endpoint < endpoints; endpoint++)
+        {
+            appendAudioSources(xml, endpoint);
+        }
+        xml.append("<rtcp-mux/>")
+            .append("</description>");
+        appendTransport(xml, 0, false);
+        xml.append("</content>");
+
+        xml.append("<content creator='initiator' name='video'")
+            .append(" senders='both'>")
+            .append("<description xmlns='urn:xmpp:jingle:apps:rtp:1'")
+            .append(" media='video'>")
+            .append(VIDEO_PAYLOAD_TYPES)
+            .append(VIDEO_HEADER_EXTENSIONS);
+        for (int endpoint = 1; endpoint < endpoints; endpoint++)
+        {
+            appendVideoSources(xml, endpoint);
+        }
+        xml.append("<rtcp-mux/>")
+            .append("</description>");
+        appendTransport(xml, 0, false);
+        xml.append("</content>");
+
+        xml.append("<content creator='initiator' name='data'")
+            .append(" senders='both'>")
+            .append("<description xmlns='urn:xmpp:jingle:apps:rtp:1'")
+            .append(" media='application'/>");
+        appendTransport(xml, 0, true);
+        xml.append("</content>");
+
+        xml.append("<group xmlns='urn:xmpp:jingle:apps:grouping:0'")
+            .append(" semantics='BUNDLE'>")
+            .append("<content name='audio'/>")
+            .append("<content name='video'/>")
+            .append("<content name='data'/>")
+            .append("</group>")
+            .append("<bridge-session xmlns='http://jitsi.org/protocol/focus'")
+            .append(" id='8e3a1b2c-f0d9' region='us-east-1'/>")
+            .append("</jingle>");
+        return xml.toString();
+    }
+
+    /**
+     * Returns the <tt>conference</tt> element of the response of Jitsi
+     * Videobridge to the allocation of channels for a number of endpoints:
+     * an audio, a video and an SCTP channel, and a bundle with the transport
+     * of each endpoint.
+     *
+     * @param endpoints the number of endpoints.
+     * @return the XML of the <tt>conference</tt> element.
+     */
+    public static String colibriAllocateResponse(int endpoints)
+    {
+        StringBuilder xml = new StringBuilder();
+
+        xml.append("<conference xmlns='http://jitsi.org/protocol/colibri'")
+            .append(" id='cce6f2fe74002273' gid='ff62ef'")
+            .append(" name='").append(ROOM).append("'>");
+
+        for (String media : new String[] { "audio", "video" })
+        {
+            xml.append("<content name='").append(media).append("'>");
+            for (int endpoint = 0; endpoint < endpoints; endpoint++)
+            {
+                String id = endpointId(endpoint);
+
+                xml.append("<channel id='").append(media.charAt(0))
+                    .append(id).append("' endpoint='").append(id)
+                    .append("' channel-bundle-id='").append(id)
+                    .append("' expire='60' initiator='true'")
+                    .append(" direction='sendrecv'")
+                    .append(" rtp-level-relay-type='translator'>")
+                    .append("audio".equals(media)
+                        ? AUDIO_PAYLOAD_TYPES + AUDIO_HEADER_EXTENSIONS
+                        : VIDEO_PAYLOAD_TYPES + VIDEO_HEADER_EXTENSIONS);
+                if ("audio".equals(media))
+                {
+                    appendAudioSources(xml, endpoint);
+                }
+                else
+                {
+                    appendVideoSources(xml, endpoint);
+                }
+                xml.append("</channel>");
+            }
+            xml.append("</content>");
+        }
+
+        xml.append("<content name='data'>");
+        for (int endpoint = 0; endpoint < endpoints; endpoint++)
+        {
+            String id = endpointId(endpoint);
+
+            xml.append("<sctpconnection id='d").append(id)
+                .append("' endpoint='").append(id)
+                .append("' channel-bundle-id='").append(id)
+                .append("' expire='60' initiator='true' port='5000'/>");
+        }
+        xml.append("</content>");
+
+        for (int endpoint = 0; endpoint < endpoints; endpoint++)
+        {
+            xml.append("<channel-bundle id='").append(endpointId(endpoint))
+                .append("'>");
+            appendTransport(xml, endpoint, false);
+            xml.append("</channel-bundle>");
+        }
+        for (int endpoint = 0; endpoint < endpoints; endpoint++)
+        {
+            String id = endpointId(endpoint);
+
+            xml.append("<endpoint id='").append(id)
+                .append("' stats-id='Participant-").append(id)
+                .append("'/>");
+        }
+        xml.append("</conference>");
+        return xml.toString();
+    }
+
+    /**
+     * Returns the <tt>stats</tt> element which Jitsi Videobridge publishes,
+     * with a <tt>stat</tt> for each of the keys which
+     * {@link ColibriStatsExtension} defines.
+     *
+     * @return the XML of the <tt>stats</tt> element.
+     */
+    public static String colibriStats()
+    {
+        StringBuilder xml = new StringBuilder();
+        int value = 0;
+
+        xml.append("<stats xmlns='http://jitsi.org/protocol/colibri'>");
+        for (Field field : ColibriStatsExtension.class.getFields())
+        {
+            String name = field.getName();
+
+            if (field.getType() != String.class
+                    || !Modifier.isStatic(field.getModifiers())
+                    || "ELEMENT".equals(name)
+                    || "NAMESPACE".equals(name))
+            {
+                continue;
+            }
+            try
+            {
+                xml.append("<stat name='").append(field.get(null))
+                    .append("' value='").append(1000 + 37 * value++)
+                    .append("'/>");
+            }
+            catch (IllegalAccessException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+        xml.append("</stats>");
+        return xml.toString();
+    }
+
+    /**
+     * Returns the presence of a participant in the MUC of a conference, with
+     * the extensions which Jitsi Meet adds.
+     *
+     * @return the XML of the <tt>presence</tt> element.
+     */
+    public static String mucPresence()
+    {
+        return
+            "<presence xmlns='jabber:client' id='pr3s3nc3'"
+                + " from='" + ROOM + "/1a2b3c4d'"
+                + " to='focus@auth.meet.example.com/focus'>"
+                + "<x xmlns='http://jabber.org/protocol/muc#user'>"
+                + "<item affiliation='none' role='participant'"
+                + " jid='5e6f7a8b@meet.example.com/ab12cd34'/>"
+                + "</x>"
+                + "<stats-id>Kristin-pvU</stats-id>"
+                + "<region xmlns='http://jitsi.org/jitsi-meet'"
+                + " id='us-east-1'/>"
+                + "<c xmlns='http://jabber.org/protocol/caps' hash='sha-1'"
+                + " node='https://jitsi.org/jitsi-meet'"
+                + " ver='cvjWXufsg4xT62Ec2mlATkFZ9lk='/>"
+                + "<features>"
+                + "<feature var='https://jitsi.org/meet/e2ee'/>"
+                + "</features>"
+                + "<audiomuted xmlns='http://jitsi.org/jitmeet/audio'>"
+                + "true</audiomuted>"
+                + "<videomuted xmlns='http://jitsi.org/jitmeet/video'>"
+                + "false</videomuted>"
+                + "<avatar-url>https://meet.example.com/avatar.png"
+                + "</avatar-url>"
+                + "<email>kristin@example.com</email>"
+                + "<userinfo xmlns='http://jitsi.org/jitmeet/userinfo'"
+                + " robot='false'/>"
+                + "<nick xmlns='http://jabber.org/protocol/nick'>Kristin"
+                + "</nick>"
+                + "</presence>";
+    }
+
+    /**
+     * Parses the offer of {@link #jingleSessionInitiate(int)}.
+     *
+     * @param endpoints the number of participants in the conference.
+     * @return the offer.
+     * @throws Exception if parsing fails.
+     */
+    public static JingleIQ parseSessionInitiate(int endpoints)
+        throws Exception
+    {
+        return
+            new JingleIQProvider().parse(
+                    parser(jingleSessionInitiate(endpoints)));
+    }
+
+    /**
+     * Parses the response of {@link #colibriAllocateResponse(int)}.
+     *
+     * @param endpoints the number of endpoints.
+     * @return the response.
+     * @throws Exception if parsing fails.
+     */
+    public static ColibriConferenceIQ parseAllocateResponse(int endpoints)
+        throws Exception
+    {
+        return
+            (ColibriConferenceIQ)
+                new ColibriIQProvider().parse(
+                        parser(colibriAllocateResponse(endpoints)));
+    }
+
+    /**
+     * Parses the statistics of {@link #colibriStats()}.
+     *
+     * @return the statistics.
+     * @throws Exception if parsing fails.
+     */
+    public static ColibriStatsExtension parseStats()
+        throws Exception
+    {
+        // Registers the providers of the stat elements.
+        new ColibriIQProvider();
+        return
+            new DefaultPacketExtensionProvider<>(ColibriStatsExtension::new)
+                .parse(parser(colibriStats()));
+    }
+
+    /**
+     * Creates a parser positioned at the root element of some XML, which is
+     * where providers expect it.
+     *
+     * @param xml the XML.
+     * @return a parser positioned at the root element of <tt>xml</tt>.
+     * @throws XmlPullParserException if the XML is malformed.
+     * @throws IOException if reading the XML fails.
+     */
+    public static XmlPullParser parser(String xml)
+        throws XmlPullParserException, IOException
+    {
+        XmlPullParser parser
+            = SmackXmlParser.newXmlParser(new StringReader(xml));
+
+        parser.next();
+        return parser;
+    }
+
+    /**
+     * Prevents the initialization of <tt>Corpus</tt> instances.
+     */
+    private Corpus()
+    {
+    }
+}
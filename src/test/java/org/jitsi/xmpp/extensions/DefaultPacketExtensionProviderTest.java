@@ -0,0 +1,96 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions;
+import junit.framework.*;
+
+import java.io.*;
+
+import org.jivesoftware.smack.parsing.*;
+import org.jivesoftware.smack.util.*;
+import org.jivesoftware.smack.xml.*;
+
+/**
+ * Tests how {@link DefaultPacketExtensionProvider} reports the failures of
+ * the factories of the extensions it parses.
+ */
+public class DefaultPacketExtensionProviderTest
+    extends TestCase
+{
+    /**
+     * An extension without a public no-argument constructor.
+     */
+    private static class PrivateExtension
+        extends AbstractPacketExtension
+    {
+        private PrivateExtension()
+        {
+            super("urn:example:private", "private");
+        }
+    }
+
+    /**
+     * Creates a parser positioned at the start of a specific element.
+     */
+    private static XmlPullParser createParser(String xml)
+        throws Exception
+    {
+        XmlPullParser parser
+            = SmackXmlParser.newXmlParser(new StringReader(xml));
+
+        parser.next();
+        return parser;
+    }
+
+    /**
+     * Tests that a class which cannot be instantiated reflectively makes
+     * parsing fail with a {@link SmackParsingException}.
+     */
+    public void testReflectionFailure()
+        throws Exception
+    {
+        try
+        {
+            new DefaultPacketExtensionProvider<>(PrivateExtension.class)
+                .parse(createParser("<private/>"));
+            fail("Parsed an extension which cannot be instantiated");
+        }
+        catch (SmackParsingException expected)
+        {
+        }
+    }
+
+    /**
+     * Tests that an {@link IllegalStateException} which a factory throws on
+     * purpose is not turned into a parsing failure.
+     */
+    public void testFactoryException()
+        throws Exception
+    {
+        IllegalStateException thrown = new IllegalStateException("closed");
+
+        try
+        {
+            new DefaultPacketExtensionProvider<PrivateExtension>(
+                    () -> { throw thrown; })
+                .parse(createParser("<private/>"));
+            fail("Parsed an extension which its factory refused to create");
+        }
+        catch (IllegalStateException e)
+        {
+            assertSame(thrown, e);
+        }
+    }
+}
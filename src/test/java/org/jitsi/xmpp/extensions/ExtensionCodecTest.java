@@ -0,0 +1,390 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions;
+
+import junit.framework.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+
+import org.jitsi.xmpp.extensions.colibri.*;
+import org.jitsi.xmpp.extensions.jingle.*;
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smack.provider.*;
+import org.jxmpp.jid.impl.*;
+
+/**
+ * Tests that {@link ExtensionCodec} recreates the trees and IQs it encodes,
+ * in less space than their XML.
+ */
+public class ExtensionCodecTest
+    extends TestCase
+{
+    /**
+     * Creates a <tt>content</tt> with a description and a transport.
+     */
+    private static ContentPacketExtension createContent()
+    {
+        ContentPacketExtension content = new ContentPacketExtension();
+        RtpDescriptionPacketExtension description
+            = new RtpDescriptionPacketExtension();
+        PayloadTypePacketExtension payloadType
+            = new PayloadTypePacketExtension();
+        IceUdpTransportPacketExtension transport
+            = new IceUdpTransportPacketExtension();
+        CandidatePacketExtension candidate = new CandidatePacketExtension();
+
+        content.setName("video");
+        content.setCreator(ContentPacketExtension.CreatorEnum.initiator);
+        description.setMedia("video");
+        payloadType.setId(100);
+        payloadType.setName("VP8");
+        payloadType.setClockrate(90000);
+        payloadType.addParameter(
+                new ParameterPacketExtension("x-google-start-bitrate", "800"));
+        description.addPayloadType(payloadType);
+        for (long ssrc = 4000000000L; ssrc < 4000000010L; ssrc++)
+        {
+            SourcePacketExtension source = new SourcePacketExtension();
+
+            source.setSSRC(ssrc);
+            source.addParameter(
+                    new ParameterPacketExtension("msid", "s tr\u00e4ck"));
+            description.addChildExtension(source);
+        }
+        transport.setUfrag("ufrag");
+        transport.setPassword("pwd");
+        candidate.setFoundation("1");
+        candidate.setComponent(1);
+        candidate.setIP("10.0.0.1");
+        candidate.setPort(10000);
+        candidate.setPriority(2130706431L);
+        transport.addCandidate(candidate);
+        content.addChildExtension(description);
+        content.addChildExtension(transport);
+        return content;
+    }
+
+    public void testExtensionRoundTrip()
+        throws Exception
+    {
+        ContentPacketExtension content = createContent();
+        byte[] bytes = ExtensionCodec.encode(content);
+        ExtensionElement decoded = ExtensionCodec.decode(bytes);
+
+        assertTrue(decoded instanceof ContentPacketExtension);
+        assertTrue(content.structurallyEquals(
+                (AbstractPacketExtension) decoded));
+        assertEquals(
+                content.toXML(XmlEnvironment.EMPTY),
+                decoded.toXML(XmlEnvironment.EMPTY));
+
+        RtpDescriptionPacketExtension description
+            = ((ContentPacketExtension) decoded).getFirstChildOfType(
+                    RtpDescriptionPacketExtension.class);
+
+        assertEquals(
+                4000000000L,
+                description.getChildExtensionsOfType(
+                        SourcePacketExtension.class).get(0).getSSRC());
+
+        int xmlLength
+            = content.toXML(XmlEnvironment.EMPTY).toString()
+                .getBytes(StandardCharsets.UTF_8).length;
+
+        assertTrue(bytes.length * 2 < xmlLength);
+    }
+
+    public void testIQRoundTrip()
+        throws Exception
+    {
+        // Registers the codec of Jingle IQs.
+        new JingleIQProvider();
+
+        JingleIQ iq = new JingleIQ(JingleAction.SESSION_INITIATE, "sid");
+
+        iq.setTo(JidCreate.from("to@example.com/r"));
+        iq.setInitiator(JidCreate.from("from@example.com/r"));
+        iq.addContent(createContent());
+        iq.setReason(new ReasonPacketExtension(Reason.SUCCESS, "done", null));
+        iq.setSessionInfo(new MuteSessionInfoPacketExtension(true, "a"));
+        iq.addExtension(new GroupPacketExtension());
+
+        IQ decoded = ExtensionCodec.decodeIQ(ExtensionCodec.encode(iq));
+
+        assertTrue(decoded instanceof JingleIQ);
+        assertEquals(iq.toXML().toString(), decoded.toXML().toString());
+
+        // Registers the codec of Colibri conference IQs, and the provider
+        // which parses the IQs it cannot write.
+        ColibriIQProvider colibriProvider = new ColibriIQProvider();
+
+        ProviderManager.addIQProvider(
+                ColibriConferenceIQ.ELEMENT,
+                ColibriConferenceIQ.NAMESPACE,
+                colibriProvider);
+
+        ColibriConferenceIQ conference = createConference();
+        byte[] bytes = ExtensionCodec.encode(conference);
+
+        decoded = ExtensionCodec.decodeIQ(bytes);
+        assertTrue(decoded instanceof ColibriConferenceIQ);
+        assertEquals(
+                conference.toXML().toString(),
+                decoded.toXML().toString());
+
+        ColibriConferenceIQ.Content audio
+            = ((ColibriConferenceIQ) decoded).getContent("audio");
+
+        assertTrue(
+                audio.getChannel(1) instanceof ColibriConferenceIQ.OctoChannel);
+        assertEquals(
+                4000000000L,
+                audio.getChannel(0).getSources().get(0).getSSRC());
+        assertTrue(
+                bytes.length * 2
+                    < conference.toXML().toString()
+                        .getBytes(StandardCharsets.UTF_8).length);
+
+        // Channels of types which the codec does not know are written as
+        // XML, and parsed without the enable-rtcstats attribute which the
+        // provider does not read.
+        conference.setRtcStatsEnabled(false);
+        conference.getContent("audio").addChannel(
+                new ColibriConferenceIQ.Channel()
+                {
+                });
+        decoded = ExtensionCodec.decodeIQ(ExtensionCodec.encode(conference));
+        assertTrue(decoded instanceof ColibriConferenceIQ);
+        assertEquals(
+                conference.toXML().toString(),
+                decoded.toXML().toString());
+    }
+
+    /**
+     * Creates a Colibri <tt>conference</tt> IQ with channels, an Octo
+     * channel, an SCTP connection, a channel bundle and an endpoint.
+     */
+    private static ColibriConferenceIQ createConference()
+        throws Exception
+    {
+        ColibriConferenceIQ conference = new ColibriConferenceIQ();
+        ColibriConferenceIQ.Content audio
+            = new ColibriConferenceIQ.Content("audio");
+        ColibriConferenceIQ.Content data
+            = new ColibriConferenceIQ.Content("data");
+        ColibriConferenceIQ.Channel channel = new ColibriConferenceIQ.Channel();
+        ColibriConferenceIQ.OctoChannel octoChannel
+            = new ColibriConferenceIQ.OctoChannel();
+        ColibriConferenceIQ.SctpConnection conn
+            = new ColibriConferenceIQ.SctpConnection();
+        ColibriConferenceIQ.ChannelBundle channelBundle
+            = new ColibriConferenceIQ.ChannelBundle("ep1");
+        PayloadTypePacketExtension payloadType
+            = new PayloadTypePacketExtension();
+        SourcePacketExtension source = new SourcePacketExtension();
+        IceUdpTransportPacketExtension transport
+            = new IceUdpTransportPacketExtension();
+
+        conference.setID("c1");
+        conference.setType(IQ.Type.set);
+        conference.setName(JidCreate.entityBareFrom("room@example.com"));
+        conference.setRtcStatsEnabled(true);
+        channel.setID("ch1");
+        channel.setEndpoint("ep1");
+        channel.setExpire(60);
+        channel.setInitiator(true);
+        channel.setChannelBundleId("ep1");
+        channel.setDirection("sendonly");
+        channel.setLastN(5);
+        channel.setRTPLevelRelayType(RTPLevelRelayType.TRANSLATOR);
+        payloadType.setId(111);
+        payloadType.setName("opus");
+        payloadType.setClockrate(48000);
+        payloadType.setChannels(2);
+        channel.addPayloadType(payloadType);
+        source.setSSRC(4000000000L);
+        source.addParameter(new ParameterPacketExtension("msid", "a b"));
+        channel.addSource(source);
+        channel.addSSRC(-294967296);
+        octoChannel.setID("octo1");
+        octoChannel.addRelay("relay1");
+        octoChannel.addRelay("relay2");
+        conn.setID("s1");
+        conn.setEndpoint("ep1");
+        conn.setPort(5001);
+        audio.addChannel(channel);
+        audio.addChannel(octoChannel);
+        data.addSctpConnection(conn);
+        conference.addContent(audio);
+        conference.addContent(data);
+        transport.setUfrag("ufrag");
+        transport.setPassword("pwd");
+        channelBundle.setTransport(transport);
+        conference.addChannelBundle(channelBundle);
+        conference.addEndpoint(
+                new ColibriConferenceIQ.Endpoint("ep1", "stats1", "Name"));
+        return conference;
+    }
+
+    /**
+     * Tests that extensions of the same type which differ in their element
+     * name, attribute names, order of attributes or kinds of values, and so
+     * in their shape, are each recreated as they were.
+     */
+    public void testShapesRoundTrip()
+        throws Exception
+    {
+        RtpDescriptionPacketExtension description
+            = new RtpDescriptionPacketExtension();
+        String[][] parameters
+            = {
+                { "name", "apt", "value", "100" },
+                { "name", "apt", "value", "0100" },
+                { "value", "100", "name", "apt" },
+                { "name", "profile-id" },
+                { "name", "apt", "value", "100" },
+            };
+
+        for (String[] attributes : parameters)
+        {
+            ParameterPacketExtension parameter
+                = new ParameterPacketExtension();
+
+            for (int i = 0; i < attributes.length; i += 2)
+            {
+                parameter.setAttribute(attributes[i], attributes[i + 1]);
+            }
+            description.addChildExtension(parameter);
+        }
+
+        RtcpFbPacketExtension rtcpFb = new RtcpFbPacketExtension();
+
+        rtcpFb.setFeedbackType("nack");
+        rtcpFb.setAttribute("enabled", Boolean.TRUE);
+        description.addChildExtension(rtcpFb);
+
+        AbstractPacketExtension decoded
+            = (AbstractPacketExtension)
+                ExtensionCodec.decode(ExtensionCodec.encode(description));
+
+        assertEquals(
+                description.toXML(XmlEnvironment.EMPTY),
+                decoded.toXML(XmlEnvironment.EMPTY));
+        assertTrue(description.structurallyEquals(decoded));
+    }
+
+    /**
+     * Tests that the state which extensions keep outside of their
+     * attributes, text and children survives a round trip, and that types
+     * which would lose it are refused.
+     */
+    public void testStateRoundTrip()
+        throws Exception
+    {
+        SourcePacketExtension source = new SourcePacketExtension();
+
+        source.setSSRC(1);
+        source.setInjected(true);
+
+        SourcePacketExtension decoded
+            = (SourcePacketExtension)
+                ExtensionCodec.decode(ExtensionCodec.encode(source));
+
+        assertTrue(decoded.isInjected());
+        assertEquals(1, decoded.getSSRC());
+
+        try
+        {
+            ExtensionCodec.addType(
+                    StatefulSourcePacketExtension.class,
+                    StatefulSourcePacketExtension::new);
+            fail("A type which does not encode its state was added.");
+        }
+        catch (IllegalArgumentException expected)
+        {
+        }
+    }
+
+    /**
+     * Tests that decoding refuses the names of types which are not known to
+     * the codec rather than loading them.
+     */
+    public void testUnknownType()
+        throws Exception
+    {
+        byte[] bytes = ExtensionCodec.encode(new SourcePacketExtension());
+        byte[] name
+            = SourcePacketExtension.class.getSimpleName()
+                .getBytes(StandardCharsets.US_ASCII);
+        int i = indexOf(bytes, name);
+
+        assertTrue(i >= 0);
+
+        // Names a type which the codec does not know.
+        byte[] other = "Unknown".getBytes(StandardCharsets.US_ASCII);
+
+        assertTrue(other.length < name.length);
+        System.arraycopy(other, 0, bytes, i, other.length);
+        Arrays.fill(bytes, i + other.length, i + name.length, (byte) 'X');
+        try
+        {
+            ExtensionCodec.decode(bytes);
+            fail("An unknown type was decoded.");
+        }
+        catch (IOException expected)
+        {
+        }
+    }
+
+    /**
+     * Finds the first occurrence of a sequence of bytes in another.
+     */
+    private static int indexOf(byte[] bytes, byte[] sequence)
+    {
+        for (int i = 0; i + sequence.length <= bytes.length; i++)
+        {
+            int j = 0;
+
+            while (j < sequence.length && bytes[i + j] == sequence[j])
+            {
+                j++;
+            }
+            if (j == sequence.length)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A source which copies state that it does not encode.
+     */
+    public static class StatefulSourcePacketExtension
+        extends SourcePacketExtension
+    {
+        private String state;
+
+        @Override
+        protected void copyStateTo(AbstractPacketExtension copy)
+        {
+            super.copyStateTo(copy);
+            ((StatefulSourcePacketExtension) copy).state = state;
+        }
+    }
+}
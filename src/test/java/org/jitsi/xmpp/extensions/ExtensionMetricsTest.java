@@ -0,0 +1,161 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions;
+
+import junit.framework.*;
+
+import java.util.*;
+
+import org.jitsi.xmpp.extensions.jingle.*;
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smack.provider.*;
+
+/**
+ * Tests the metrics which {@link ExtensionMetrics} records for parsing and
+ * serializing.
+ */
+public class ExtensionMetricsTest
+    extends TestCase
+{
+    private static final String NAMESPACE = "urn:example:metrics";
+
+    @Override
+    protected void tearDown()
+    {
+        ExtensionMetrics.setEnabled(false);
+        ExtensionMetrics.reset();
+    }
+
+    /**
+     * Returns the metrics of a kind of element.
+     */
+    private static ExtensionMetrics.ElementMetrics get(
+            String elementName,
+            String namespace)
+    {
+        for (ExtensionMetrics.ElementMetrics m : ExtensionMetrics.snapshot())
+        {
+            if (m.getElementName().equals(elementName)
+                    && Objects.equals(m.getNamespace(), namespace))
+            {
+                return m;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tests that parsing with a wrapped provider is counted only while
+     * metrics are enabled.
+     */
+    public void testParse()
+        throws Exception
+    {
+        ExtensionElementProvider<ParameterPacketExtension> provider
+            = ExtensionMetrics.instrument(
+                    ParameterPacketExtension.ELEMENT,
+                    NAMESPACE,
+                    new DefaultPacketExtensionProvider<>(
+                            ParameterPacketExtension::new));
+        String xml
+            = "<parameter xmlns='" + NAMESPACE + "' name='a' value='b'/>";
+
+        assertSame(
+            provider,
+            ExtensionMetrics.instrument(
+                    ParameterPacketExtension.ELEMENT,
+                    NAMESPACE,
+                    provider));
+
+        provider.parse(Corpus.parser(xml));
+        assertEquals(
+            0,
+            get(ParameterPacketExtension.ELEMENT, NAMESPACE)
+                .getParse().getCount());
+
+        ExtensionMetrics.setEnabled(true);
+        provider.parse(Corpus.parser(xml));
+        provider.parse(Corpus.parser(xml));
+
+        ExtensionMetrics.OperationMetrics parse
+            = get(ParameterPacketExtension.ELEMENT, NAMESPACE).getParse();
+        long buckets = 0;
+
+        assertEquals(2, parse.getCount());
+        assertTrue(parse.getTotalNanos() > 0);
+        for (long bucket : parse.getHistogram())
+        {
+            buckets += bucket;
+        }
+        assertEquals(2, buckets);
+        assertEquals(
+            ExtensionMetrics.getHistogramBounds().length + 1,
+            parse.getHistogram().length);
+    }
+
+    /**
+     * Tests that serializing is counted by the element name and namespace of
+     * the root.
+     */
+    public void testSerialize()
+    {
+        ExtensionMetrics.setEnabled(true);
+
+        ParameterPacketExtension parameter = new ParameterPacketExtension();
+
+        parameter.setNamespace(NAMESPACE);
+        parameter.setName("a");
+
+        String xml = parameter.toXML(XmlEnvironment.EMPTY);
+
+        ExtensionMetrics.OperationMetrics serialize
+            = get(ParameterPacketExtension.ELEMENT, NAMESPACE).getSerialize();
+
+        assertEquals(1, serialize.getCount());
+        assertEquals(xml.length(), serialize.getBytes());
+    }
+
+    /**
+     * Tests that enabling metrics wraps the providers registered through
+     * {@link ExtensionProviderCache}, and that unregistering them returns
+     * the original provider.
+     */
+    public void testRegisteredProviders()
+    {
+        String elementName = "registered";
+        DefaultPacketExtensionProvider<ParameterPacketExtension> provider
+            = new DefaultPacketExtensionProvider<>(
+                    ParameterPacketExtension::new);
+
+        ExtensionProviderCache.addExtensionProvider(
+                elementName,
+                NAMESPACE,
+                provider);
+        assertSame(
+            provider,
+            ProviderManager.getExtensionProvider(elementName, NAMESPACE));
+
+        ExtensionMetrics.setEnabled(true);
+        assertNotSame(
+            provider,
+            ProviderManager.getExtensionProvider(elementName, NAMESPACE));
+        assertSame(
+            provider,
+            ExtensionProviderCache.removeExtensionProvider(
+                    elementName,
+                    NAMESPACE));
+    }
+}
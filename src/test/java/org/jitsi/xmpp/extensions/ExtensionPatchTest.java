@@ -0,0 +1,241 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions;
+
+import junit.framework.*;
+
+import org.jitsi.xmpp.extensions.colibri.*;
+import org.jitsi.xmpp.extensions.jingle.*;
+import org.jivesoftware.smack.packet.*;
+
+/**
+ * Tests that {@link ExtensionPatch} finds the children which are added,
+ * removed and changed, and that applying the patch to the old tree recreates
+ * the new one.
+ */
+public class ExtensionPatchTest
+    extends TestCase
+{
+    /**
+     * Creates a source with an SSRC and a <tt>cname</tt>.
+     */
+    private static SourcePacketExtension createSource(long ssrc)
+    {
+        SourcePacketExtension source = new SourcePacketExtension();
+
+        source.setSSRC(ssrc);
+        source.addParameter(new ParameterPacketExtension("cname", "c" + ssrc));
+        return source;
+    }
+
+    /**
+     * Creates a description with two payload types and many sources.
+     */
+    private static RtpDescriptionPacketExtension createDescription()
+    {
+        return createDescription(new int[] { 100, 101 }, -1);
+    }
+
+    /**
+     * Creates a description with payload types in a specific order and many
+     * sources, and optionally an extra source in the middle of them.
+     */
+    private static RtpDescriptionPacketExtension createDescription(
+            int[] payloadTypeIds,
+            long extraSsrc)
+    {
+        RtpDescriptionPacketExtension description
+            = new RtpDescriptionPacketExtension();
+
+        description.setMedia("video");
+        for (int id : payloadTypeIds)
+        {
+            PayloadTypePacketExtension payloadType
+                = new PayloadTypePacketExtension();
+
+            payloadType.setId(id);
+            payloadType.setName("VP8");
+            description.addPayloadType(payloadType);
+        }
+        for (int ssrc = 1; ssrc <= 500; ssrc++)
+        {
+            description.addChildExtension(createSource(ssrc));
+            if (ssrc == 250 && extraSsrc >= 0)
+            {
+                description.addChildExtension(createSource(extraSsrc));
+            }
+        }
+        return description;
+    }
+
+    /**
+     * Checks that applying the patch between two trees to a copy of the old
+     * one recreates the new one, in order.
+     */
+    private static void assertAppliesTo(
+            ExtensionPatch patch,
+            RtpDescriptionPacketExtension from,
+            RtpDescriptionPacketExtension to)
+    {
+        RtpDescriptionPacketExtension target
+            = AbstractPacketExtension.deepClone(from);
+
+        patch.apply(target);
+        assertEquals(
+            to.toXML(XmlEnvironment.EMPTY),
+            target.toXML(XmlEnvironment.EMPTY));
+        assertTrue(ExtensionPatch.diff(target, to).isEmpty());
+    }
+
+    /**
+     * Returns the source with a specific SSRC.
+     */
+    private static SourcePacketExtension getSource(
+            RtpDescriptionPacketExtension description,
+            long ssrc)
+    {
+        for (SourcePacketExtension source
+                : description.getChildExtensionsOfType(
+                        SourcePacketExtension.class))
+        {
+            if (source.getSSRC() == ssrc)
+            {
+                return source;
+            }
+        }
+        return null;
+    }
+
+    public void testDiffAndApply()
+    {
+        RtpDescriptionPacketExtension from = createDescription();
+        RtpDescriptionPacketExtension to
+            = AbstractPacketExtension.deepClone(from);
+
+        assertTrue(ExtensionPatch.diff(from, to).isEmpty());
+
+        to.removeChildExtension(getSource(to, 10));
+        to.addChildExtension(createSource(1000));
+        getSource(to, 20).getParameters().get(0).setValue("changed");
+        to.getPayloadTypes().get(1).setName("VP9");
+
+        ExtensionPatch patch = ExtensionPatch.diff(from, to);
+
+        assertFalse(patch.isEmpty());
+        assertNull(patch.getAttributes());
+        assertEquals(1, patch.getRemoved().size());
+        assertSame(getSource(from, 10), patch.getRemoved().iterator().next());
+        assertEquals(1, patch.getAdded().size());
+        assertEquals(
+            1000,
+            ((SourcePacketExtension) patch.getAdded().get(0)).getSSRC());
+        assertEquals(2, patch.getChildPatches().size());
+
+        ExtensionPatch payloadTypePatch = patch.getChildPatches().get(0);
+
+        assertEquals("101", payloadTypePatch.getIdentityKey());
+        assertEquals("VP9", payloadTypePatch.getAttributes().get("name"));
+
+        ExtensionPatch sourcePatch = patch.getChildPatches().get(1);
+
+        assertEquals("20", sourcePatch.getIdentityKey());
+        assertEquals(1, sourcePatch.getChildPatches().size());
+
+        // Applying the patch to a copy of the old tree recreates the new one.
+        RtpDescriptionPacketExtension target
+            = AbstractPacketExtension.deepClone(from);
+
+        patch.apply(target);
+        assertTrue(target.structurallyEquals(to));
+        assertEquals(
+            to.toXML(XmlEnvironment.EMPTY),
+            target.toXML(XmlEnvironment.EMPTY));
+        assertTrue(ExtensionPatch.diff(target, to).isEmpty());
+    }
+
+    public void testReorder()
+    {
+        RtpDescriptionPacketExtension from = createDescription();
+        RtpDescriptionPacketExtension to
+            = createDescription(new int[] { 101, 100 }, -1);
+
+        ExtensionPatch patch = ExtensionPatch.diff(from, to);
+
+        assertFalse(patch.isEmpty());
+        assertTrue(patch.isReordered());
+        assertTrue(patch.getRemoved().isEmpty());
+        assertTrue(patch.getAdded().isEmpty());
+        assertTrue(patch.getChildPatches().isEmpty());
+        assertAppliesTo(patch, from, to);
+    }
+
+    public void testInsertInTheMiddle()
+    {
+        RtpDescriptionPacketExtension from = createDescription();
+        RtpDescriptionPacketExtension to
+            = createDescription(new int[] { 100, 101 }, 1000);
+
+        to.removeChildExtension(getSource(to, 10));
+
+        ExtensionPatch patch = ExtensionPatch.diff(from, to);
+
+        assertTrue(patch.isReordered());
+        assertEquals(1, patch.getRemoved().size());
+        assertEquals(1, patch.getAdded().size());
+        assertEquals(
+            1000,
+            ((SourcePacketExtension) patch.getAdded().get(0)).getSSRC());
+        assertAppliesTo(patch, from, to);
+
+        // Appending keeps the order without recording it.
+        to = AbstractPacketExtension.deepClone(from);
+        to.addChildExtension(createSource(1000));
+        patch = ExtensionPatch.diff(from, to);
+        assertFalse(patch.isReordered());
+        assertAppliesTo(patch, from, to);
+    }
+
+    public void testCandidates()
+    {
+        IceUdpTransportPacketExtension from
+            = new IceUdpTransportPacketExtension();
+
+        for (int i = 1; i <= 3; i++)
+        {
+            CandidatePacketExtension candidate = new CandidatePacketExtension();
+
+            candidate.setFoundation(Integer.toString(i));
+            candidate.setComponent(1);
+            candidate.setPort(10000 + i);
+            from.addCandidate(candidate);
+        }
+
+        IceUdpTransportPacketExtension to
+            = AbstractPacketExtension.deepClone(from);
+
+        to.removeCandidate(to.getCandidateList().get(0));
+        to.getCandidateList().get(0).setPort(20000);
+
+        ExtensionPatch patch = ExtensionPatch.diff(from, to);
+
+        assertEquals(1, patch.getRemoved().size());
+        assertEquals(1, patch.getChildPatches().size());
+        assertEquals("2/1", patch.getChildPatches().get(0).getIdentityKey());
+
+        patch.apply(from);
+        assertTrue(from.structurallyEquals(to));
+    }
+}
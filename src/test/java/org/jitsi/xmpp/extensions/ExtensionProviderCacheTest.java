@@ -0,0 +1,64 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions;
+
+import junit.framework.*;
+
+import org.jitsi.xmpp.extensions.jingle.*;
+import org.jivesoftware.smack.provider.*;
+
+/**
+ * Tests that {@link ExtensionProviderCache} notices the providers which are
+ * registered, replaced and unregistered after it has cached a lookup.
+ */
+public class ExtensionProviderCacheTest
+    extends TestCase
+{
+    private static final String ELEMENT = "test-element";
+
+    private static final String NAMESPACE = "urn:example:provider-cache";
+
+    /**
+     * Tests a lookup after each registration and unregistration.
+     */
+    public void testRegistrationEpoch()
+    {
+        ExtensionProviderCache cache = new ExtensionProviderCache();
+
+        assertNull(cache.getExtensionProvider(ELEMENT, NAMESPACE));
+
+        // Not having a provider is not cached.
+        DefaultPacketExtensionProvider<ParameterPacketExtension> first
+            = new DefaultPacketExtensionProvider<>(
+                    ParameterPacketExtension::new);
+
+        ProviderManager.addExtensionProvider(ELEMENT, NAMESPACE, first);
+        assertSame(first, cache.getExtensionProvider(ELEMENT, NAMESPACE));
+        assertSame(
+            first,
+            cache.getExtensionProvider(new String(ELEMENT), NAMESPACE));
+
+        DefaultPacketExtensionProvider<ParameterPacketExtension> second
+            = new DefaultPacketExtensionProvider<>(
+                    ParameterPacketExtension::new);
+
+        ExtensionProviderCache.addExtensionProvider(ELEMENT, NAMESPACE, second);
+        assertSame(second, cache.getExtensionProvider(ELEMENT, NAMESPACE));
+
+        ExtensionProviderCache.removeExtensionProvider(ELEMENT, NAMESPACE);
+        assertNull(cache.getExtensionProvider(ELEMENT, NAMESPACE));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions;
+
+import junit.framework.*;
+
+import java.io.*;
+
+import org.jitsi.xmpp.extensions.condesc.*;
+import org.jitsi.xmpp.extensions.jingle.*;
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smack.xml.*;
+
+/**
+ * Tests that the elements kept by {@link LazyExtensionElement} serialize as
+ * they were received until they are read, and parse into what the provider
+ * would have returned.
+ */
+public class LazyExtensionElementTest
+    extends TestCase
+{
+    /**
+     * The XML of a <tt>callid</tt> element.
+     */
+    private static final String CALLID
+        = "<callid xmlns='http://jitsi.org/protocol/condesc'>"
+            + "abc&amp;1"
+            + "</callid>";
+
+    /**
+     * The XML of an element which has no dedicated handling.
+     */
+    private static final String UNKNOWN
+        = "<json-message xmlns='http://jitsi.org/jitmeet'"
+            + " a='1&apos;2'>"
+            + "<x xmlns='urn:example:x' y='z'/>"
+            + "{\"k\":&lt;1}"
+            + "</json-message>";
+
+    /**
+     * The XML of an element with children which are in no namespace.
+     */
+    private static final String NO_NAMESPACE
+        = "<json-message xmlns='http://jitsi.org/jitmeet'>"
+            + "<p:x xmlns:p='urn:example:p'><y xmlns=''/></p:x>"
+            + "<z xmlns=''><w/></z>"
+            + "</json-message>";
+
+    /**
+     * Parses a Jingle IQ with a lazy <tt>JingleIQProvider</tt>.
+     */
+    private static JingleIQ parse(String xml)
+        throws Exception
+    {
+        XmlPullParser parser
+            = SmackXmlParser.newXmlParser(new StringReader(xml));
+
+        parser.next();
+        return new JingleIQProvider(true).parse(parser);
+    }
+
+    public void testCaptureAndResolve()
+        throws Exception
+    {
+        JingleIQ iq
+            = parse(
+                "<jingle xmlns='urn:xmpp:jingle:1' action='session-initiate'"
+                    + " sid='s1'>"
+                    + CALLID + UNKNOWN
+                    + "</jingle>");
+
+        ExtensionElement callid
+            = iq.getExtension(
+                    CallIdExtension.ELEMENT,
+                    ConferenceDescriptionExtension.NAMESPACE);
+        ExtensionElement unknown
+            = iq.getExtension("json-message", "http://jitsi.org/jitmeet");
+
+        assertTrue(callid instanceof LazyExtensionElement);
+        assertTrue(unknown instanceof LazyExtensionElement);
+
+        // Untouched elements serialize as they were received.
+        assertEquals(CALLID, callid.toXML(null).toString());
+        assertEquals(UNKNOWN, unknown.toXML(null).toString());
+        assertEquals(
+                UNKNOWN.replace(" xmlns='http://jitsi.org/jitmeet'", ""),
+                unknown.toXML(new XmlEnvironment("http://jitsi.org/jitmeet"))
+                    .toString());
+
+        LazyExtensionElement lazy = (LazyExtensionElement) callid;
+
+        assertFalse(lazy.isParsed());
+
+        CallIdExtension parsed
+            = LazyExtensionElement.getExtension(
+                    iq,
+                    CallIdExtension.ELEMENT,
+                    ConferenceDescriptionExtension.NAMESPACE);
+
+        assertTrue(lazy.isParsed());
+        assertSame(parsed, lazy.getElement());
+        assertEquals("abc&1", parsed.getText());
+
+        // Once parsed, changes to the element are serialized.
+        parsed.setText("def");
+        assertEquals(parsed.toXML(null), callid.toXML(null).toString());
+
+        ExtensionElement resolved = LazyExtensionElement.resolve(unknown);
+
+        assertEquals("json-message", resolved.getElementName());
+        assertEquals("http://jitsi.org/jitmeet", resolved.getNamespace());
+    }
+
+    public void testCaptureNoNamespace()
+        throws Exception
+    {
+        JingleIQ iq
+            = parse(
+                "<jingle xmlns='urn:xmpp:jingle:1' action='session-initiate'"
+                    + " sid='s1'>"
+                    + NO_NAMESPACE
+                    + "</jingle>");
+
+        ExtensionElement element
+            = iq.getExtension("json-message", "http://jitsi.org/jitmeet");
+
+        assertTrue(element instanceof LazyExtensionElement);
+        assertEquals(NO_NAMESPACE, element.toXML(null).toString());
+    }
+}
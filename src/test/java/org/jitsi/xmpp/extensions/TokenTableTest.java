@@ -0,0 +1,202 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions;
+
+import junit.framework.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.jitsi.xmpp.extensions.colibri.*;
+import org.jitsi.xmpp.extensions.jingle.*;
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smack.util.*;
+import org.jivesoftware.smack.xml.*;
+
+/**
+ * Tests that the trees parsed by the providers share the strings of the
+ * protocol tokens which they contain.
+ */
+public class TokenTableTest
+    extends TestCase
+{
+    /**
+     * The number of descriptions that we parse, as if from as many
+     * participants.
+     */
+    private static final int COUNT = 100;
+
+    @Override
+    protected void setUp()
+    {
+        // Registers the providers of the child elements.
+        new JingleIQProvider();
+        new ColibriIQProvider();
+    }
+
+    /**
+     * Returns the XML of the description of the audio of a participant.
+     *
+     * @param i the index of the participant, which makes its sources unique.
+     */
+    private static String createDescriptionXml(int i)
+    {
+        return "<description xmlns='urn:xmpp:jingle:apps:rtp:1' media='audio'"
+                + " ssrc='" + (1000 + i) + "'>"
+            + "<payload-type id='111' name='opus' clockrate='48000'"
+                + " channels='2'>"
+            + "<parameter name='minptime' value='10'/>"
+            + "<parameter name='useinbandfec' value='1'/>"
+            + "<rtcp-fb xmlns='urn:xmpp:jingle:apps:rtp:rtcp-fb:0'"
+                + " type='transport-cc'/>"
+            + "</payload-type>"
+            + "<payload-type id='126' name='telephone-event'"
+                + " clockrate='8000'/>"
+            + "<rtp-hdrext xmlns='urn:xmpp:jingle:apps:rtp:rtp-hdrext:0' id='1'"
+                + " uri='urn:ietf:params:rtp-hdrext:ssrc-audio-level'/>"
+            + "<source xmlns='urn:xmpp:jingle:apps:rtp:ssma:0'"
+                + " ssrc='" + (1000 + i) + "'>"
+            + "<parameter name='cname' value='cname-" + i + "'/>"
+            + "<parameter name='msid' value='stream-" + i + " track-" + i
+                + "'/>"
+            + "</source>"
+            + "</description>";
+    }
+
+    /**
+     * Parses a description.
+     */
+    private static RtpDescriptionPacketExtension parse(String xml)
+        throws Exception
+    {
+        XmlPullParser parser
+            = SmackXmlParser.newXmlParser(new StringReader(xml));
+
+        parser.next();
+        return new DefaultPacketExtensionProvider<>(
+                    RtpDescriptionPacketExtension::new)
+                .parse(parser);
+    }
+
+    /**
+     * Adds the namespaces, attribute names and string attribute values of a
+     * tree of extensions to a list.
+     */
+    private static void collectStrings(
+            ExtensionElement extension,
+            List<String> strings)
+    {
+        if (!(extension instanceof AbstractPacketExtension))
+        {
+            return;
+        }
+
+        AbstractPacketExtension ape = (AbstractPacketExtension) extension;
+
+        strings.add(ape.getNamespace());
+        for (String name : ape.getAttributeNames())
+        {
+            strings.add(name);
+
+            Object value = ape.getAttribute(name);
+
+            if (value instanceof String)
+            {
+                strings.add((String) value);
+            }
+        }
+        for (ExtensionElement child : ape.getChildExtensions())
+        {
+            collectStrings(child, strings);
+        }
+    }
+
+    /**
+     * Estimates the heap size of a string with compact (Latin-1) storage: the
+     * object header and fields, and the byte array.
+     */
+    private static long sizeOf(String s)
+    {
+        return 24 + ((16 + s.length() + 7) & ~7);
+    }
+
+    /**
+     * Tests that parsing the descriptions of many participants retains one
+     * instance of each token, so that the strings they retain are only a
+     * fraction of what they would be with a copy in each tree.
+     */
+    public void testRetainedSize()
+        throws Exception
+    {
+        List<RtpDescriptionPacketExtension> descriptions = new ArrayList<>();
+
+        for (int i = 0; i < COUNT; i++)
+        {
+            descriptions.add(parse(createDescriptionXml(i)));
+        }
+
+        List<String> strings = new ArrayList<>();
+
+        for (RtpDescriptionPacketExtension description : descriptions)
+        {
+            collectStrings(description, strings);
+        }
+
+        Set<String> instances
+            = Collections.newSetFromMap(new IdentityHashMap<>());
+        long withoutDedup = 0;
+        long retained = 0;
+
+        for (String s : strings)
+        {
+            if (s == null)
+            {
+                continue;
+            }
+            withoutDedup += sizeOf(s);
+            if (instances.add(s))
+            {
+                retained += sizeOf(s);
+            }
+        }
+
+        // Each token is retained once, whatever the number of trees.
+        Set<String> tokens = new HashSet<>(Arrays.asList(
+                "opus", "telephone-event", "transport-cc", "minptime",
+                "urn:ietf:params:rtp-hdrext:ssrc-audio-level",
+                RtpDescriptionPacketExtension.NAMESPACE,
+                PayloadTypePacketExtension.NAME_ATTR_NAME));
+
+        for (String token : tokens)
+        {
+            int count = 0;
+
+            for (String s : instances)
+            {
+                if (token.equals(s))
+                {
+                    count++;
+                }
+            }
+            assertEquals(token, 1, count);
+        }
+
+        // What remains are mostly the values unique to each participant.
+        assertTrue(
+            "retained " + retained + " of " + withoutDedup + " bytes",
+            retained * 4 < withoutDedup);
+    }
+}
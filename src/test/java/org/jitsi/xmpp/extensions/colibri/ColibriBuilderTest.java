@@ -0,0 +1,155 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions.colibri;
+
+import junit.framework.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.jitsi.xmpp.extensions.jingle.*;
+import org.jxmpp.jid.*;
+import org.jxmpp.jid.impl.*;
+
+/**
+ * Tests batching channel allocation requests with {@link ColibriBuilder} and
+ * splitting the response with {@link ColibriAnalyser}.
+ */
+public class ColibriBuilderTest
+    extends TestCase
+{
+    /**
+     * Creates the audio and video contents of an endpoint, with a transport.
+     */
+    private static List<ContentPacketExtension> createContents(String ufrag)
+    {
+        List<ContentPacketExtension> contents = new ArrayList<>();
+
+        for (String name : new String[] { "audio", "video" })
+        {
+            ContentPacketExtension content = new ContentPacketExtension();
+            IceUdpTransportPacketExtension transport
+                = new IceUdpTransportPacketExtension();
+
+            content.setName(name);
+            transport.setUfrag(ufrag);
+            content.addChildExtension(transport);
+            contents.add(content);
+        }
+        return contents;
+    }
+
+    /**
+     * Adds a channel allocation request for a specific endpoint.
+     */
+    private static void allocate(ColibriBuilder builder, String endpointId)
+    {
+        builder.addAllocateChannelsReq(
+            true,
+            endpointId,
+            null,
+            true,
+            createContents(endpointId));
+    }
+
+    public void testBatching()
+        throws Exception
+    {
+        Jid videobridge = JidCreate.from("jvb.example.com");
+        ColibriBuilder builder = new ColibriBuilder(new ColibriConferenceIQ());
+
+        // Without batching, a query is due as soon as it has a request.
+        assertFalse(builder.isBatchDue());
+        assertNull(builder.flushBatch(videobridge));
+        allocate(builder, "a");
+        assertTrue(builder.isBatchDue());
+        assertNotNull(builder.flushBatch(videobridge));
+
+        builder.setBatching(3, 1, TimeUnit.HOURS);
+        assertTrue(builder.isBatching());
+        allocate(builder, "a");
+        allocate(builder, "b");
+        assertFalse(builder.isBatchDue());
+        assertTrue(builder.getTimeUntilBatchDue(TimeUnit.SECONDS) > 0);
+        allocate(builder, "c");
+        assertTrue(builder.isBatchDue());
+        assertEquals(
+            Arrays.asList("a", "b", "c"),
+            new ArrayList<>(builder.getBatchEndpoints()));
+
+        ColibriConferenceIQ request = builder.flushBatch(videobridge);
+
+        assertEquals(3, request.getContent("audio").getChannelCount());
+        assertEquals(3, request.getChannelBundles().size());
+        assertEquals(3, request.getEndpoints().size());
+        assertEquals(0, builder.getBatchSize());
+        assertEquals(
+            ColibriBuilder.RequestType.UNDEFINED,
+            builder.getRequestType());
+
+        builder.setBatching(3, 0, TimeUnit.MILLISECONDS);
+        allocate(builder, "d");
+        assertTrue(builder.isBatchDue());
+    }
+
+    public void testResponseContentsByEndpoint()
+        throws Exception
+    {
+        ColibriBuilder builder = new ColibriBuilder(new ColibriConferenceIQ());
+
+        builder.setBatching(10, 1, TimeUnit.HOURS);
+        allocate(builder, "a");
+        allocate(builder, "b");
+
+        // Respond as the bridge would, with IDs for the channels.
+        ColibriConferenceIQ response
+            = builder.flushBatch(JidCreate.from("jvb.example.com"));
+        int id = 0;
+
+        response.setID("conference");
+        for (ColibriConferenceIQ.Content content : response.getContents())
+        {
+            for (ColibriConferenceIQ.Channel channel : content.getChannels())
+            {
+                channel.setID(Integer.toString(id++));
+            }
+        }
+
+        Map<String, ColibriConferenceIQ> byEndpoint
+            = ColibriAnalyser.getResponseContentsByEndpoint(response);
+
+        assertEquals(
+            Arrays.asList("a", "b"),
+            new ArrayList<>(byEndpoint.keySet()));
+        for (Map.Entry<String, ColibriConferenceIQ> e : byEndpoint.entrySet())
+        {
+            ColibriConferenceIQ iq = e.getValue();
+
+            assertEquals("conference", iq.getID());
+            for (String name : new String[] { "audio", "video" })
+            {
+                List<ColibriConferenceIQ.Channel> channels
+                    = iq.getContent(name).getChannels();
+
+                assertEquals(1, channels.size());
+                assertEquals(e.getKey(), channels.get(0).getEndpoint());
+            }
+            assertEquals(e.getKey(), iq.getChannelBundles().get(0).getId());
+            assertEquals(e.getKey(), iq.getEndpoints().get(0).getId());
+            assertEquals(1, iq.getEndpoints().size());
+        }
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions.colibri;
+
+import junit.framework.*;
+
+import org.jivesoftware.smack.packet.*;
+
+import java.lang.ref.*;
+import java.util.*;
+
+/**
+ * Tests {@link ColibriConferenceIQ}.
+ */
+public class ColibriConferenceIQTest
+    extends TestCase
+{
+    private static ColibriConferenceIQ.Channel createChannel(
+            String id,
+            String endpoint)
+    {
+        ColibriConferenceIQ.Channel channel = new ColibriConferenceIQ.Channel();
+
+        channel.setID(id);
+        channel.setEndpoint(endpoint);
+        return channel;
+    }
+
+    /**
+     * Tests looking channels up by ID and endpoint as they are added, removed
+     * and changed.
+     */
+    public void testChannelLookup()
+    {
+        ColibriConferenceIQ.Content content
+            = new ColibriConferenceIQ.Content("video");
+        ColibriConferenceIQ.Channel a1 = createChannel("a1", "a");
+        ColibriConferenceIQ.Channel a2 = createChannel("a2", "a");
+        ColibriConferenceIQ.Channel b1 = createChannel("b1", "b");
+
+        assertTrue(content.addChannel(a1));
+        assertTrue(content.addChannel(b1));
+        assertSame(a1, content.getChannel("a1"));
+        assertNull(content.getChannel("a2"));
+
+        // Added after the index was built.
+        assertTrue(content.addChannel(a2));
+        assertFalse(content.addChannel(a2));
+        assertSame(a2, content.getChannel("a2"));
+        assertEquals(
+            Arrays.asList(a1, a2),
+            content.getChannelsByEndpoint("a"));
+        assertEquals(Arrays.asList(a1, b1, a2), content.getChannels());
+
+        // Changed after the index was built.
+        b1.setID("b2");
+        b1.setEndpoint("c");
+        assertNull(content.getChannel("b1"));
+        assertSame(b1, content.getChannel("b2"));
+        assertEquals(
+            Collections.singletonList(b1),
+            content.getChannelsByEndpoint("c"));
+        assertTrue(content.getChannelsByEndpoint("b").isEmpty());
+
+        assertTrue(content.removeChannel(a1));
+        assertFalse(content.removeChannel(a1));
+        assertNull(content.getChannel("a1"));
+        assertEquals(
+            Collections.singletonList(a2),
+            content.getChannelsByEndpoint("a"));
+        assertEquals(Arrays.asList(b1, a2), content.getChannels());
+    }
+
+    /**
+     * Tests that the first of several channels with the same ID is found, as
+     * before they were indexed.
+     */
+    public void testDuplicateChannelIds()
+    {
+        ColibriConferenceIQ.Content content
+            = new ColibriConferenceIQ.Content("audio");
+        ColibriConferenceIQ.Channel first = createChannel("x", "a");
+        ColibriConferenceIQ.Channel second = createChannel("x", "b");
+
+        content.addChannel(first);
+        content.addChannel(second);
+        assertSame(first, content.getChannel("x"));
+        content.removeChannel(first);
+        assertSame(second, content.getChannel("x"));
+    }
+
+    /**
+     * Tests looking SCTP connections up by ID and endpoint.
+     */
+    public void testSctpConnectionLookup()
+    {
+        ColibriConferenceIQ.Content content
+            = new ColibriConferenceIQ.Content("data");
+        ColibriConferenceIQ.SctpConnection conn
+            = new ColibriConferenceIQ.SctpConnection();
+
+        conn.setID("s1");
+        conn.setEndpoint("a");
+        assertTrue(content.addSctpConnection(conn));
+        assertSame(conn, content.getSctpConnection("s1"));
+        assertEquals(
+            Collections.singletonList(conn),
+            content.getSctpConnectionsByEndpoint("a"));
+        assertTrue(content.removeSctpConnection(conn));
+        assertNull(content.getSctpConnection("s1"));
+    }
+
+    /**
+     * Tests that removing many channels keeps the order of the others and
+     * that a channel which has moved to another content is only re-indexed
+     * there.
+     */
+    public void testChannelRemovalAndMove()
+    {
+        ColibriConferenceIQ.Content audio
+            = new ColibriConferenceIQ.Content("audio");
+        ColibriConferenceIQ.Content video
+            = new ColibriConferenceIQ.Content("video");
+        List<ColibriConferenceIQ.Channel> expected = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++)
+        {
+            ColibriConferenceIQ.Channel channel
+                = createChannel("c" + i, "e" + (i % 10));
+
+            audio.addChannel(channel);
+            expected.add(channel);
+        }
+        for (int i = 0; i < 100; i += 3)
+        {
+            assertTrue(audio.removeChannel(expected.get(i)));
+        }
+        expected.removeIf(c -> audio.getChannel(c.getID()) != c);
+        assertEquals(66, expected.size());
+        assertEquals(expected, audio.getChannels());
+        assertEquals(expected.get(65), audio.getChannel(65));
+
+        ColibriConferenceIQ.Channel moved = expected.get(0);
+
+        audio.removeChannel(moved);
+        video.addChannel(moved);
+        moved.setID("moved");
+        moved.setEndpoint("m");
+        assertNull(audio.getChannel("moved"));
+        assertTrue(audio.getChannelsByEndpoint("m").isEmpty());
+        assertSame(moved, video.getChannel("moved"));
+        assertEquals(
+            Collections.singletonList(moved),
+            video.getChannelsByEndpoint("m"));
+    }
+
+    /**
+     * Tests that a channel which is also included into contents that are
+     * discarded without removing it, such as those of the IQs derived by
+     * {@link ColibriAnalyser#getResponseContentsByEndpoint}, does not keep
+     * them reachable.
+     */
+    public void testDiscardedContent()
+        throws InterruptedException
+    {
+        ColibriConferenceIQ.Content audio
+            = new ColibriConferenceIQ.Content("audio");
+        ColibriConferenceIQ.Channel channel = createChannel("c", "e");
+
+        audio.addChannel(channel);
+
+        ReferenceQueue<ColibriConferenceIQ.Content> queue
+            = new ReferenceQueue<>();
+        List<Reference<ColibriConferenceIQ.Content>> discarded
+            = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++)
+        {
+            ColibriConferenceIQ.Content content
+                = new ColibriConferenceIQ.Content("audio");
+
+            content.addChannel(channel);
+            discarded.add(new WeakReference<>(content, queue));
+        }
+
+        for (int i = 0; i < 10 && queue.remove(100) == null; i++)
+        {
+            System.gc();
+        }
+        assertTrue(discarded.stream().anyMatch(r -> r.get() == null));
+
+        channel.setID("d");
+        assertSame(channel, audio.getChannel("d"));
+        assertNull(audio.getChannel("c"));
+    }
+
+    /**
+     * Tests looking contents up by name as they are added, renamed and
+     * removed.
+     */
+    public void testContentLookup()
+    {
+        ColibriConferenceIQ iq = new ColibriConferenceIQ();
+        ColibriConferenceIQ.Content audio = iq.getOrCreateContent("audio");
+
+        assertSame(audio, iq.getContent("audio"));
+        assertSame(audio, iq.getOrCreateContent("audio"));
+        assertNull(iq.getContent("video"));
+
+        audio.setName("video");
+        assertNull(iq.getContent("audio"));
+        assertSame(audio, iq.getContent("video"));
+
+        assertTrue(iq.removeContent(audio));
+        assertFalse(iq.removeContent(audio));
+        assertNull(iq.getContent("video"));
+        audio.setName("data");
+        assertNull(iq.getContent("data"));
+    }
+
+    /**
+     * Tests the SSRCs of a channel and their serialization.
+     */
+    public void testSSRCs()
+    {
+        ColibriConferenceIQ.Channel channel = new ColibriConferenceIQ.Channel();
+
+        assertSame(ColibriConferenceIQ.NO_SSRCS, channel.getSSRCs());
+        assertTrue(channel.addSSRC(1));
+        assertTrue(channel.addSSRC(-1));
+        assertTrue(channel.addSSRC(2));
+        assertFalse(channel.addSSRC(1));
+        assertTrue(channel.removeSSRC(1));
+        assertFalse(channel.removeSSRC(1));
+        assertTrue(channel.containsSSRC(-1));
+        assertEquals(2, channel.getSSRCCount());
+        assertTrue(Arrays.equals(new int[] { -1, 2 }, channel.getSSRCs()));
+
+        ColibriConferenceIQ iq = new ColibriConferenceIQ();
+
+        iq.getOrCreateContent("audio").addChannel(channel);
+        assertTrue(
+            iq.toXML().toString().contains(
+                "<ssrc>4294967295</ssrc><ssrc>2</ssrc>"));
+
+        channel.setSSRCs(new int[] { 3, 3, 4 });
+        assertTrue(Arrays.equals(new int[] { 3, 4 }, channel.getSSRCs()));
+        channel.setSSRCs(null);
+        assertEquals(0, channel.getSSRCCount());
+    }
+
+    /**
+     * Creates a source with a specific SSRC (if not negative) and RID (if not
+     * <tt>null</tt>).
+     */
+    private static SourcePacketExtension createSource(long ssrc, String rid)
+    {
+        SourcePacketExtension source = new SourcePacketExtension();
+
+        if (ssrc >= 0)
+        {
+            source.setSSRC(ssrc);
+        }
+        if (rid != null)
+        {
+            source.setRid(rid);
+        }
+        return source;
+    }
+
+    /**
+     * Tests that the sources of a channel are looked up by SSRC and RID, and
+     * that duplicates are rejected.
+     */
+    public void testSources()
+    {
+        ColibriConferenceIQ.Channel channel = new ColibriConferenceIQ.Channel();
+        SourcePacketExtension s1 = createSource(1, "h");
+        SourcePacketExtension s2 = createSource(2, "h");
+        SourcePacketExtension r = createSource(-1, "l");
+        SourcePacketExtension empty = createSource(-1, null);
+
+        assertTrue(channel.addSource(s1));
+        assertTrue(channel.addSource(s2));
+        assertTrue(channel.addSource(r));
+        assertTrue(channel.addSource(empty));
+        assertTrue(channel.addSource(createSource(-1, null)));
+        assertFalse(channel.addSource(s1));
+        assertFalse(channel.addSource(empty));
+        assertFalse(channel.addSource(createSource(1, null)));
+        assertFalse(channel.addSource(createSource(-1, "h")));
+        assertFalse(channel.addSource(createSource(3, "l")));
+        assertEquals(5, channel.getSourceCount());
+        assertEquals(
+            Arrays.asList(s1, s2, r, empty),
+            channel.getSources().subList(0, 4));
+
+        assertSame(s2, channel.getSourceBySSRC(2));
+        assertNull(channel.getSourceBySSRC(3));
+        assertSame(s1, channel.getSourceByRid("h"));
+        assertSame(r, channel.getSourceByRid("l"));
+
+        assertTrue(channel.removeSource(s1));
+        assertFalse(channel.removeSource(s1));
+        assertNull(channel.getSourceBySSRC(1));
+        assertSame(s2, channel.getSourceByRid("h"));
+        assertTrue(channel.removeSource(r));
+        assertNull(channel.getSourceByRid("l"));
+        assertTrue(channel.addSource(createSource(3, "l")));
+        assertTrue(channel.removeSource(empty));
+        assertEquals(3, channel.getSourceCount());
+        assertTrue(channel.removeSource(s2));
+        assertNull(channel.getSourceByRid("h"));
+        assertTrue(channel.addSource(createSource(-1, "h")));
+    }
+
+    /**
+     * Tests that writing the <tt>conference</tt> element into an
+     * {@link Appendable} gives the same XML as smack.
+     */
+    public void testAppendChildElementXML()
+        throws Exception
+    {
+        ColibriConferenceIQ iq = new ColibriConferenceIQ();
+        ColibriConferenceIQ.Channel channel = createChannel("c1", "a");
+        ColibriConferenceIQ.OctoChannel octo
+            = new ColibriConferenceIQ.OctoChannel();
+        ColibriConferenceIQ.SctpConnection conn
+            = new ColibriConferenceIQ.SctpConnection();
+        StringBuilder out = new StringBuilder();
+
+        iq.setID("conf'1");
+        iq.setGracefulShutdown(true);
+        iq.addEndpoint(new ColibriConferenceIQ.Endpoint("a", "s", "<A>"));
+        iq.addChannelBundle(new ColibriConferenceIQ.ChannelBundle("a"));
+        channel.setExpire(60);
+        channel.setInitiator(true);
+        channel.setLastN(5);
+        channel.setRTPLevelRelayType(RTPLevelRelayType.TRANSLATOR);
+        channel.addSource(createSource(4_000_000_000L, null));
+        channel.addSSRC(-1);
+        octo.setRelays(Arrays.asList("r1", "r2"));
+        conn.setEndpoint("a");
+        iq.getOrCreateContent("video").addChannel(channel);
+        iq.getOrCreateContent("video").addChannel(octo);
+        iq.getOrCreateContent("data").addSctpConnection(conn);
+        iq.getOrCreateContent("audio");
+
+        iq.appendChildElementXML(out);
+        assertEquals(iq.getChildElementXML().toString(), out.toString());
+        assertTrue(
+            out.toString(),
+            out.indexOf(
+                    "ssrc='4000000000'/><ssrc>4294967295</ssrc></channel>")
+                > 0);
+
+        out.setLength(0);
+        new ColibriConferenceIQ().appendChildElementXML(out);
+        assertEquals(
+            "<conference xmlns='" + ColibriConferenceIQ.NAMESPACE + "'/>",
+            out.toString());
+    }
+
+    /**
+     * Tests that a channel which overrides the <tt>printXXX</tt> methods which
+     * write into an <tt>XmlStringBuilder</tt> is serialized with them both
+     * into one and into an {@link Appendable}.
+     */
+    public void testPrintingChannelSubclass()
+        throws Exception
+    {
+        ColibriConferenceIQ iq = new ColibriConferenceIQ();
+        ColibriConferenceIQ.Channel channel
+            = new ColibriConferenceIQ.Channel()
+            {
+                @Override
+                protected boolean hasContent()
+                {
+                    return true;
+                }
+
+                @Override
+                protected IQ.IQChildElementXmlStringBuilder printAttributes(
+                    IQ.IQChildElementXmlStringBuilder xml)
+                {
+                    super.printAttributes(xml);
+                    xml.attribute("a", "b");
+                    return xml;
+                }
+
+                @Override
+                protected IQ.IQChildElementXmlStringBuilder printContent(
+                    IQ.IQChildElementXmlStringBuilder xml)
+                {
+                    super.printContent(xml);
+                    xml.emptyElement("c");
+                    return xml;
+                }
+            };
+        StringBuilder out = new StringBuilder();
+
+        channel.setID("x");
+        channel.setLastN(2);
+        channel.addSSRC(1);
+        iq.getOrCreateContent("video").addChannel(channel);
+        iq.appendChildElementXML(out);
+        assertEquals(iq.getChildElementXML().toString(), out.toString());
+        assertTrue(
+            out.toString(),
+            out.indexOf(
+                    "<channel id='x' last-n='2' a='b'><ssrc>1</ssrc><c/>"
+                        + "</channel>")
+                > 0);
+    }
+}
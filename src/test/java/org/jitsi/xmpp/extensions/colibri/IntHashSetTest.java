@@ -0,0 +1,106 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions.colibri;
+
+import junit.framework.*;
+
+import java.util.*;
+
+/**
+ * Tests {@link IntHashSet} against a {@link LinkedHashSet}.
+ */
+public class IntHashSetTest
+    extends TestCase
+{
+    /**
+     * Checks that a set has the values of a reference set, in the same order.
+     */
+    private static void assertSameValues(
+            LinkedHashSet<Integer> expected,
+            IntHashSet set)
+    {
+        int[] array = new int[expected.size()];
+        int i = 0;
+
+        for (int value : expected)
+        {
+            array[i++] = value;
+        }
+        assertEquals(expected.size(), set.size());
+        assertTrue(Arrays.equals(array, set.toArray()));
+        for (i = 0; i < array.length; i++)
+        {
+            assertEquals(array[i], set.get(i));
+        }
+    }
+
+    public void testSmall()
+    {
+        IntHashSet set = new IntHashSet();
+
+        assertTrue(set.isEmpty());
+        assertTrue(set.add(0));
+        assertTrue(set.add(-1));
+        assertFalse(set.add(0));
+        assertTrue(set.contains(-1));
+        assertTrue(set.remove(0));
+        assertFalse(set.remove(0));
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertTrue(Arrays.equals(new int[] { -1, 0 }, set.toArray()));
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertEquals(0, set.toArray().length);
+    }
+
+    /**
+     * Applies the same random additions and removals to a set and to a
+     * {@link LinkedHashSet}, with sizes on both sides of the one at which the
+     * set is indexed.
+     */
+    public void testRandom()
+    {
+        Random random = new Random(42);
+
+        for (int range : new int[] { 4, 16, 100, 10_000 })
+        {
+            IntHashSet set = new IntHashSet();
+            LinkedHashSet<Integer> expected = new LinkedHashSet<>();
+
+            for (int i = 0; i < 20_000; i++)
+            {
+                int value = random.nextInt(range) - range / 2;
+
+                if (random.nextInt(3) == 0)
+                {
+                    assertEquals(expected.remove(value), set.remove(value));
+                }
+                else
+                {
+                    assertEquals(expected.add(value), set.add(value));
+                }
+                assertEquals(
+                    expected.contains(value),
+                    set.contains(value));
+                if (i % 1_000 == 0)
+                {
+                    assertSameValues(expected, set);
+                }
+            }
+            assertSameValues(expected, set);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions.colibri;
+
+import junit.framework.*;
+
+import java.util.*;
+
+/**
+ * Tests {@link LongObjectHashMap} against a {@link HashMap}.
+ */
+public class LongObjectHashMapTest
+    extends TestCase
+{
+    /**
+     * Applies the same random puts and removals to a map and to a
+     * {@link HashMap}, with keys which collide in the low bits.
+     */
+    public void testRandom()
+    {
+        Random random = new Random(42);
+
+        for (int range : new int[] { 4, 100, 10_000 })
+        {
+            LongObjectHashMap<String> map = new LongObjectHashMap<>();
+            Map<Long, String> expected = new HashMap<>();
+
+            for (int i = 0; i < 20_000; i++)
+            {
+                long key = (random.nextInt(range) - range / 2) * (1L << 32);
+
+                if (random.nextInt(3) == 0)
+                {
+                    assertEquals(expected.remove(key), map.remove(key));
+                }
+                else
+                {
+                    String value = Integer.toString(i);
+
+                    assertEquals(expected.put(key, value), map.put(key, value));
+                }
+                assertEquals(expected.get(key), map.get(key));
+                assertEquals(expected.size(), map.size());
+                if (i % 1_000 == 0)
+                {
+                    for (Map.Entry<Long, String> e : expected.entrySet())
+                    {
+                        assertEquals(e.getValue(), map.get(e.getKey()));
+                    }
+                }
+            }
+            map.clear();
+            assertEquals(0, map.size());
+            assertNull(map.get(0));
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.xmpp.extensions.schema;
+
+import junit.framework.*;
+
+import org.jitsi.xmpp.extensions.*;
+import org.jitsi.xmpp.extensions.colibri.*;
+import org.jitsi.xmpp.extensions.jingle.*;
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smack.provider.*;
+
+/**
+ * Tests the providers and serializers which <tt>ExtensionProcessor</tt>
+ * generates for the types annotated with {@link XmlExtension}.
+ */
+public class ExtensionSchemaTest
+    extends TestCase
+{
+    private static final String RTP_NS = "urn:xmpp:jingle:apps:rtp:1";
+
+    @Override
+    protected void setUp()
+    {
+        // Register the providers of the children, which the generic provider
+        // looks up.
+        new JingleIQProvider();
+        new ColibriIQProvider();
+    }
+
+    /**
+     * Checks that a generated provider parses a specific XML into an
+     * extension which is written as the one parsed by
+     * {@link DefaultPacketExtensionProvider}, and returns it.
+     */
+    private static <T extends AbstractPacketExtension> T assertSameXml(
+            ExtensionElementProvider<T> generated,
+            DefaultPacketExtensionProvider<T> generic,
+            String xml)
+        throws Exception
+    {
+        T extension = generated.parse(Corpus.parser(xml));
+        String expected
+            = generic.parse(Corpus.parser(xml)).toXML(XmlEnvironment.EMPTY)
+                .toString();
+
+        assertEquals(expected, extension.toXML(XmlEnvironment.EMPTY));
+        return extension;
+    }
+
+    public void testPayloadType()
+        throws Exception
+    {
+        String xml
+            = "<payload-type xmlns='" + RTP_NS + "' id='111' name='opus'"
+                + " clockrate='48000' channels='02' ptime='x&amp;y'"
+                + " foo='bar'>"
+                + "<parameter name='minptime' value='10'/>"
+                + "<rtcp-fb xmlns='urn:xmpp:jingle:apps:rtp:rtcp-fb:0'"
+                + " type='transport-cc'/>"
+                + "</payload-type>";
+        PayloadTypePacketExtension payloadType
+            = assertSameXml(
+                    new PayloadTypePacketExtensionProvider(),
+                    new DefaultPacketExtensionProvider<>(
+                            PayloadTypePacketExtension::new),
+                    xml);
+
+        assertEquals(111, payloadType.getID());
+        assertEquals(48000, payloadType.getClockrate());
+        // Not canonical, so kept as read.
+        assertEquals("02", payloadType.getAttributeAsString("channels"));
+        assertEquals(2, payloadType.getChannels());
+        assertEquals("x&y", payloadType.getAttributeAsString("ptime"));
+        assertEquals("bar", payloadType.getAttribute("foo"));
+        assertEquals(1, payloadType.getParameters().size());
+        assertEquals(RTP_NS, payloadType.getParameters().get(0).getNamespace());
+        assertEquals(
+            "transport-cc",
+            payloadType.getRtcpFeedbackTypeList().get(0).getFeedbackType());
+    }
+
+    public void testCandidate()
+        throws Exception
+    {
+        String xml
+            = "<candidate component='1' foundation='1' generation='0'"
+                + " id='c1' ip='10.0.0.1' network='0' port='10000'"
+                + " priority='2130706431' protocol='udp' type='srflx'"
+                + " rel-addr='10.0.0.2' rel-port='99999999999'/>";
+        CandidatePacketExtension candidate
+            = assertSameXml(
+                    new CandidatePacketExtensionProvider(),
+                    new DefaultPacketExtensionProvider<>(
+                            CandidatePacketExtension::new),
+                    xml);
+
+        assertSame(CandidateType.srflx, candidate.getType());
+        assertEquals(2130706431, candidate.getPriority());
+        // Out of the range of an int.
+        assertEquals(
+            "99999999999",
+            candidate.getAttributeAsString("rel-port"));
+    }
+
+    public void testSource()
+        throws Exception
+    {
+        String xml
+            = "<source xmlns='urn:xmpp:jingle:apps:rtp:ssma:0'"
+                + " ssrc='4294967295'>"
+                + "<parameter name='msid' value='a &amp; &apos;b&apos;'/>"
+                + "</source>";
+        SourcePacketExtension source
+            = assertSameXml(
+                    new SourcePacketExtensionProvider(),
+                    new DefaultPacketExtensionProvider<>(
+                            SourcePacketExtension::new),
+                    xml);
+
+        assertEquals(4294967295L, source.getSSRC());
+        assertEquals(
+            "a & 'b'",
+            source.getParameters().get(0).getValue());
+    }
+
+    public void testParse()
+    {
+        assertEquals(0, ExtensionSchema.parseInt("0"));
+        assertEquals(-5, ExtensionSchema.parseInt("-5"));
+        assertEquals("-0", ExtensionSchema.parseInt("-0"));
+        assertEquals("+5", ExtensionSchema.parseInt("+5"));
+        assertEquals("", ExtensionSchema.parseInt(""));
+        assertEquals("2147483648", ExtensionSchema.parseInt("2147483648"));
+        assertEquals(2147483648L, ExtensionSchema.parseLong("2147483648"));
+        assertEquals(Boolean.TRUE, ExtensionSchema.parseBoolean("true"));
+        assertEquals("TRUE", ExtensionSchema.parseBoolean("TRUE"));
+        assertSame(
+            CandidateType.host,
+            ExtensionSchema.parseEnum(CandidateType.class, "host"));
+        assertEquals(
+            "HOST",
+            ExtensionSchema.parseEnum(CandidateType.class, "HOST"));
+    }
+}